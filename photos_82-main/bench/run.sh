@@ -0,0 +1,16 @@
+#!/bin/sh
+# Compiles the model sources and the benchmarks, then runs JMH.
+#
+#   JMH_LIB=/path/to/jmh-jars ./run.sh                    # everything, results in results.json
+#   JMH_LIB=/path/to/jmh-jars ./run.sh SearchBenchmark    # a subset (JMH regexp)
+#
+# JMH_LIB must contain jmh-core, jmh-generator-annprocess, jopt-simple and
+# commons-math3. Extra arguments are passed to JMH, e.g. -p photos=1000.
+set -e
+cd "$(dirname "$0")"
+: "${JMH_LIB:?set JMH_LIB to a directory containing the JMH jars}"
+OUT=target/classes
+rm -rf target && mkdir -p "$OUT"
+javac -d "$OUT" -cp "$JMH_LIB/*" \
+    $(find ../src/model ../src/metrics -name '*.java') $(find src -name '*.java')
+java -cp "$OUT:$JMH_LIB/*" org.openjdk.jmh.Main -rf json -rff "${RESULTS:-results.json}" "$@"
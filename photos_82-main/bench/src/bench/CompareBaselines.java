@@ -0,0 +1,175 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Compares two JMH JSON result files, such as a stored baseline and a new run.
+ * <p>
+ * Prints every benchmark found in both files with its old and new score and
+ * the change in percent, and marks changes larger than the threshold. Exits
+ * with status 1 if any benchmark got slower by more than the threshold, so it
+ * can gate a change. All benchmarks in this suite report average time, where
+ * lower is better. Usage:
+ * {@code CompareBaselines baseline.json results.json [threshold-percent]}
+ * </p>
+ */
+public final class CompareBaselines {
+
+    /** Default percentage change that counts as a regression. */
+    private static final double DEFAULT_THRESHOLD = 10.0;
+
+    private CompareBaselines() {
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args the baseline file, the new results file and an optional threshold in percent
+     * @throws IOException if a file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: CompareBaselines baseline.json results.json [threshold-percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        Map<String, double[]> before = scores(Path.of(args[0]));
+        Map<String, double[]> after = scores(Path.of(args[1]));
+
+        boolean regressed = false;
+        System.out.printf("%-60s %14s %14s %9s%n", "benchmark", "baseline", "current", "change");
+        for (Map.Entry<String, double[]> e : after.entrySet()) {
+            double[] old = before.get(e.getKey());
+            if (old == null) {
+                System.out.printf("%-60s %14s %14.3f %9s%n", e.getKey(), "-", e.getValue()[0], "new");
+                continue;
+            }
+            double change = (e.getValue()[0] - old[0]) / old[0] * 100;
+            String mark = change > threshold ? "  SLOWER" : change < -threshold ? "  faster" : "";
+            regressed |= change > threshold;
+            System.out.printf("%-60s %14.3f %14.3f %+8.1f%%%s%n", e.getKey(), old[0], e.getValue()[0], change, mark);
+        }
+        System.exit(regressed ? 1 : 0);
+    }
+
+    /**
+     * Reads a JMH JSON result file.
+     *
+     * @param file the file
+     * @return score and error by benchmark name with its parameters
+     * @throws IOException if the file cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, double[]> scores(Path file) throws IOException {
+        Object root = new Parser(Files.readString(file)).value();
+        Map<String, double[]> result = new LinkedHashMap<>();
+        for (Object o : (List<Object>) root) {
+            Map<String, Object> run = (Map<String, Object>) o;
+            String name = (String) run.get("benchmark");
+            name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+            Object params = run.get("params");
+            if (params instanceof Map<?, ?> p && !p.isEmpty()) {
+                name += p.toString().replace('{', '[').replace('}', ']');
+            }
+            Map<String, Object> metric = (Map<String, Object>) run.get("primaryMetric");
+            result.put(name, new double[] {
+                ((Number) metric.get("score")).doubleValue(),
+                metric.get("scoreError") instanceof Number n ? n.doubleValue() : Double.NaN
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Minimal JSON reader, enough for JMH result files.
+     */
+    private static final class Parser {
+        private final String s;
+        private int i;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        Object value() {
+            skip();
+            char c = s.charAt(i);
+            switch (c) {
+                case '{' -> {
+                    Map<String, Object> m = new LinkedHashMap<>();
+                    i++;
+                    skip();
+                    if (s.charAt(i) == '}') { i++; return m; }
+                    while (true) {
+                        skip();
+                        String key = string();
+                        skip();
+                        i++; // ':'
+                        m.put(key, value());
+                        skip();
+                        if (s.charAt(i++) == '}') return m;
+                    }
+                }
+                case '[' -> {
+                    List<Object> l = new ArrayList<>();
+                    i++;
+                    skip();
+                    if (s.charAt(i) == ']') { i++; return l; }
+                    while (true) {
+                        l.add(value());
+                        skip();
+                        if (s.charAt(i++) == ']') return l;
+                    }
+                }
+                case '"' -> {
+                    return string();
+                }
+                default -> {
+                    int start = i;
+                    while (i < s.length() && ",}] \t\r\n".indexOf(s.charAt(i)) < 0) i++;
+                    String word = s.substring(start, i);
+                    return switch (word) {
+                        case "true" -> Boolean.TRUE;
+                        case "false" -> Boolean.FALSE;
+                        case "null" -> null;
+                        case "NaN" -> Double.NaN;
+                        default -> Double.parseDouble(word);
+                    };
+                }
+            }
+        }
+
+        String string() {
+            StringBuilder sb = new StringBuilder();
+            i++; // opening quote
+            while (true) {
+                char c = s.charAt(i++);
+                if (c == '"') return sb.toString();
+                if (c == '\\') {
+                    char e = s.charAt(i++);
+                    switch (e) {
+                        case 'n' -> sb.append('\n');
+                        case 't' -> sb.append('\t');
+                        case 'r' -> sb.append('\r');
+                        case 'b' -> sb.append('\b');
+                        case 'f' -> sb.append('\f');
+                        case 'u' -> {
+                            sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                            i += 4;
+                        }
+                        default -> sb.append(e);
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+
+        void skip() {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        }
+    }
+}
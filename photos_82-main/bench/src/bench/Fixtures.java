@@ -0,0 +1,128 @@
+package bench;
+
+import model.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic test data shared by the benchmarks.
+ * <p>
+ * Libraries are built in memory with {@link Photo#Photo(String, Calendar)},
+ * so no image files are needed, and the same seed always produces the same
+ * users, albums, tags and dates.
+ * </p>
+ */
+public final class Fixtures {
+
+    /** Seed used by every fixture. */
+    public static final long SEED = 20240501L;
+
+    /** Person tag values; low indexes are picked far more often. */
+    public static final String[] PEOPLE = {
+        "maya", "liam", "ana", "noah", "sofia", "omar", "emma", "ravi", "chloe", "kenji",
+        "zara", "lucas", "priya", "mateo", "ines", "yusuf", "hana", "leo", "amara", "finn"
+    };
+
+    /** Location tag values; low indexes are picked far more often. */
+    public static final String[] LOCATIONS = {
+        "new york", "paris", "london", "tokyo", "home", "beach", "chicago", "rome", "berlin", "toronto"
+    };
+
+    private Fixtures() {
+    }
+
+    /**
+     * Builds a library of users whose albums hold {@code photos} photos in total.
+     *
+     * @param users number of users
+     * @param albumsPerUser number of albums per user
+     * @param photos total number of photos
+     * @return the users
+     */
+    public static List<User> library(int users, int albumsPerUser, int photos) {
+        SplittableRandom rnd = new SplittableRandom(SEED);
+        List<User> result = new ArrayList<>(users);
+        int next = 0;
+        for (int u = 0; u < users; u++) {
+            User user = new User("user" + u, "user" + u);
+            Album[] albums = new Album[albumsPerUser];
+            for (int a = 0; a < albumsPerUser; a++) {
+                albums[a] = new Album("album " + a);
+                user.addAlbum(albums[a]);
+            }
+            int count = photos / users + (u < photos % users ? 1 : 0);
+            for (int i = 0; i < count; i++) {
+                albums[rnd.nextInt(albumsPerUser)].addPhoto(photo(next++, rnd));
+            }
+            result.add(user);
+        }
+        return result;
+    }
+
+    /**
+     * Builds a list of tagged photos that belong to no album.
+     *
+     * @param count number of photos
+     * @return the photos
+     */
+    public static List<Photo> photos(int count) {
+        SplittableRandom rnd = new SplittableRandom(SEED);
+        List<Photo> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(photo(i, rnd));
+        }
+        return result;
+    }
+
+    /**
+     * Builds one photo with 0-3 people, usually a location, a caption and a
+     * date spread over ten years.
+     *
+     * @param index the photo number, used for its path
+     * @param rnd the random source
+     * @return the photo
+     */
+    public static Photo photo(int index, SplittableRandom rnd) {
+        Calendar date = Calendar.getInstance();
+        date.clear();
+        date.set(2015, Calendar.JANUARY, 1);
+        date.add(Calendar.DAY_OF_YEAR, rnd.nextInt(3650));
+
+        Photo p = new Photo("/library/img_" + index + ".jpg", date);
+        int people = rnd.nextInt(4);
+        for (int i = 0; i < people; i++) {
+            p.addTag("person", PEOPLE[skewed(rnd, PEOPLE.length)]);
+        }
+        if (rnd.nextInt(10) < 7) {
+            p.addTag("location", LOCATIONS[skewed(rnd, LOCATIONS.length)]);
+        }
+        p.setCaption("photo " + index);
+        return p;
+    }
+
+    /**
+     * Creates a temporary data file path that does not exist yet.
+     *
+     * @return the path
+     * @throws IOException if the temporary directory cannot be created
+     */
+    public static Path tempDataFile() throws IOException {
+        Path dir = Files.createTempDirectory("photos-bench");
+        dir.toFile().deleteOnExit();
+        return dir.resolve("users.dat");
+    }
+
+    /**
+     * Picks an index in {@code [0, n)} where smaller indexes are more likely.
+     */
+    private static int skewed(SplittableRandom rnd, int n) {
+        double r = rnd.nextDouble();
+        return Math.min(n - 1, (int) (n * r * r * r));
+    }
+}
@@ -0,0 +1,200 @@
+package bench;
+
+import model.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-call cost of the model operations the controllers use most:
+ * adding and looking up photos in an album, looking up and renaming albums,
+ * tagging a photo and constructing photos.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+    /** Photos already in the album, and albums already owned by the user. */
+    @Param({"100", "10000"})
+    public int size;
+
+    /** Photos to add in {@link #addPhotos}. */
+    static final int BATCH = 1000;
+
+    /** An album holding {@link #size} photos. */
+    private Album album;
+
+    /** A photo in {@link #album}. */
+    private Photo member;
+
+    /** A photo not in {@link #album}. */
+    private Photo stranger;
+
+
+    /** A user owning {@link #size} albums. */
+    private User user;
+
+    /** Name of an album in the middle of {@link #user}'s list. */
+    private String albumName;
+
+    /** Toggles {@link #renameAlbum} between two names. */
+    private boolean renamed;
+
+    /** A real image file for {@link #constructFromFile}. */
+    private Path imageFile;
+
+    /** Date used by {@link #constructWithDate}. */
+    private Calendar date;
+
+    /** Counter used to vary tag values. */
+    private int counter;
+
+    /**
+     * Builds the album, user and image file.
+     *
+     * @throws IOException if the image file cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        List<Photo> photos = Fixtures.photos(size + 1);
+        album = new Album("bench");
+        album.addPhotos(photos.subList(0, size));
+        member = photos.get(size / 2);
+        stranger = photos.get(size);
+
+        user = new User("bench", "bench");
+        for (int i = 0; i < size; i++) {
+            user.addAlbum(new Album("album " + i));
+        }
+        albumName = "album " + size / 2;
+
+        imageFile = Files.createTempFile("photos-bench", ".jpg");
+        Files.write(imageFile, new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9});
+        date = Calendar.getInstance();
+    }
+
+    /**
+     * Removes the image file.
+     *
+     * @throws IOException if the file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(imageFile);
+    }
+
+    /** @return whether a photo in the album is found */
+    @Benchmark
+    public boolean containsPhotoHit() {
+        return album.containsPhoto(member);
+    }
+
+    /** @return whether a photo not in the album is found */
+    @Benchmark
+    public boolean containsPhotoMiss() {
+        return album.containsPhoto(stranger);
+    }
+
+    /**
+     * The photos {@link #addPhotos} adds, in a state of their own so that
+     * only that benchmark pays for emptying the album after every call.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+
+        /** Photos added to a fresh album on every call. */
+        List<Photo> toAdd;
+
+        /** The album the last call filled. */
+        Album filled;
+
+        /** Builds the photos. */
+        @Setup(Level.Trial)
+        public void setUp() {
+            toAdd = Fixtures.photos(BATCH);
+        }
+
+        /**
+         * Takes the photos out of the album the last call filled, so they
+         * are not left recording one more album per call and every call
+         * adds them in the same state.
+         */
+        @TearDown(Level.Invocation)
+        public void empty() {
+            if (filled != null) {
+                filled.removePhotos(toAdd);
+                filled = null;
+            }
+        }
+    }
+
+    /**
+     * Adds {@value #BATCH} photos one at a time to a new album, as photo
+     * import does; the score is per added photo.
+     *
+     * @param batch the photos to add
+     * @return the filled album
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Album addPhotos(Batch batch) {
+        Album a = new Album("fresh");
+        for (Photo p : batch.toAdd) {
+            a.addPhoto(p);
+        }
+        batch.filled = a;
+        return a;
+    }
+
+    /** @return an album looked up by name, ignoring case */
+    @Benchmark
+    public Album getAlbum() {
+        return user.getAlbum(albumName);
+    }
+
+    /** @return whether an album was renamed; alternates between two names */
+    @Benchmark
+    public boolean renameAlbum() {
+        boolean ok = renamed
+                ? user.renameAlbum("renamed", albumName)
+                : user.renameAlbum(albumName, "renamed");
+        renamed = !renamed;
+        return ok;
+    }
+
+    /**
+     * Adds a new tag to a fresh photo and re-adds a duplicate.
+     *
+     * @param bh sink for the results
+     */
+    @Benchmark
+    public void addTag(Blackhole bh) {
+        Photo p = new Photo("/library/tagged.jpg", date);
+        bh.consume(p.addTag("person", Fixtures.PEOPLE[counter++ % Fixtures.PEOPLE.length]));
+        bh.consume(p.addTag("location", "paris"));
+        bh.consume(p.addTag("location", "paris"));
+    }
+
+    /** @return a photo built from a file on disk, which reads its timestamp */
+    @Benchmark
+    public Photo constructFromFile() {
+        return new Photo(imageFile.toString());
+    }
+
+    /** @return a photo built from a known date without touching the disk */
+    @Benchmark
+    public Photo constructWithDate() {
+        return new Photo("/library/img.jpg", date);
+    }
+}
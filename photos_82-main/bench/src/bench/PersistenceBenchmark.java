@@ -0,0 +1,73 @@
+package bench;
+
+import model.PhotoManager;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PhotoManager#saveUsers()} and {@link PhotoManager#loadUsers()}
+ * on libraries of increasing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    /** Total photos in the library, spread over 10 users with 20 albums each. */
+    @Param({"1000", "10000", "100000"})
+    public int photos;
+
+    /** The manager being saved and loaded. */
+    private PhotoManager manager;
+
+    /** The data file used by {@link #manager}. */
+    private Path dataFile;
+
+    /**
+     * Builds the library and writes it once so there is something to load.
+     *
+     * @throws IOException if the temporary file cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataFile = Fixtures.tempDataFile();
+        manager = new PhotoManager(dataFile.toString());
+        manager.removeUser("stock");
+        manager.addUsers(Fixtures.library(10, 20, photos));
+    }
+
+    /**
+     * Removes the data file.
+     *
+     * @throws IOException if the file cannot be deleted
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dataFile);
+    }
+
+    /** Writes every user to the data file. */
+    @Benchmark
+    public void save() {
+        manager.saveUsers();
+    }
+
+    /**
+     * Reads every user back from the data file.
+     *
+     * @return the number of users loaded
+     */
+    @Benchmark
+    public int load() {
+        manager.loadUsers();
+        return manager.getAllUsers().size();
+    }
+}
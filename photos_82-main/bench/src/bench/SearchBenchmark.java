@@ -0,0 +1,89 @@
+package bench;
+
+import model.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the search used by the search screen: {@link PhotoSearch#filter}
+ * over every photo of a user, with tag, combined-tag and date queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    /** Number of photos searched. */
+    @Param({"1000", "10000", "100000"})
+    public int photos;
+
+    /** The user being searched. */
+    private User user;
+
+    /** Every photo of the user, as the search screen collects them. */
+    private List<Photo> all;
+
+    /** Single tag query. */
+    private PhotoSearch singleTag;
+
+    /** Two tags that must both match. */
+    private PhotoSearch andTags;
+
+    /** Two tags where either may match. */
+    private PhotoSearch orTags;
+
+    /** One year, no tags. */
+    private PhotoSearch dateRange;
+
+    /** Sets up the photos and queries. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        user = Fixtures.library(1, 20, photos).get(0);
+        all = user.snapshot().allPhotos();
+
+        Tag person = new Tag("person", Fixtures.PEOPLE[0]);
+        Tag location = new Tag("location", Fixtures.LOCATIONS[1]);
+        singleTag = new PhotoSearch(person, null, PhotoSearch.Operator.NONE, null, null);
+        andTags = new PhotoSearch(person, location, PhotoSearch.Operator.AND, null, null);
+        orTags = new PhotoSearch(person, location, PhotoSearch.Operator.OR, null, null);
+        dateRange = new PhotoSearch(null, null, PhotoSearch.Operator.NONE,
+                LocalDate.of(2018, 1, 1), LocalDate.of(2018, 12, 31));
+    }
+
+    /** @return photos tagged with one person */
+    @Benchmark
+    public List<Photo> singleTag() {
+        return singleTag.filter(all);
+    }
+
+    /** @return photos tagged with both a person and a location */
+    @Benchmark
+    public List<Photo> andTags() {
+        return andTags.filter(all);
+    }
+
+    /** @return photos tagged with a person or a location */
+    @Benchmark
+    public List<Photo> orTags() {
+        return orTags.filter(all);
+    }
+
+    /** @return photos taken within one year */
+    @Benchmark
+    public List<Photo> dateRange() {
+        return dateRange.filter(all);
+    }
+
+    /** @return every photo of the user, as collected before each search */
+    @Benchmark
+    public List<Photo> collectAllPhotos() {
+        return user.snapshot().allPhotos();
+    }
+}
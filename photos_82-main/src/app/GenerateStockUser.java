@@ -4,8 +4,17 @@ import model.*;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Utility class to generate a default stock user and save it to a data file.
@@ -13,16 +22,74 @@ import java.util.*;
  * Loads all image files from the "data" directory and adds them to a default
  * stock user's album, then serializes the data to "users.dat".
  * </p>
+ * <p>
+ * With options it instead generates a synthetic library for load and scale
+ * testing: a number of users, albums and photos with Zipf-distributed people,
+ * locations and custom tags, captions, and capture dates clustered per album.
+ * Every photo gets its own file on disk, made by hard-linking (or copying) one
+ * of the images in "data", or no file at all with {@code --files none}.
+ * Output depends only on the options, not on the machine's time zone, so a
+ * seed reproduces the same library. An existing library at the output path,
+ * including an indexed store beside it, is replaced.
+ * </p>
+ * <pre>
+ * GenerateStockUser [--users N] [--albums M] [--photos P] [--seed S]
+ *                   [--out users.dat] [--files link|copy|none] [--dir generated]
+ *                   [--from 2010-01-01] [--to 2025-12-31]
+ * </pre>
+ * <p>
+ * {@code --albums} is per user and {@code --photos} is the total across all users.
+ * </p>
  */
 public class GenerateStockUser {
 
+    /** Time zone of generated capture dates, so a seed gives the same library on every machine. */
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /** Fraction of photos that also appear in a second album. */
+    private static final double SHARED_FRACTION = 0.1;
+
+    /** First names combined with last initials to form person tag values. */
+    private static final String[] FIRST_NAMES = {
+        "maya", "liam", "ana", "noah", "sofia", "omar", "emma", "ravi", "chloe", "kenji",
+        "zara", "lucas", "priya", "mateo", "ines", "yusuf", "hana", "leo", "amara", "finn",
+        "nia", "arjun", "elena", "jonas", "mei", "diego", "sara", "tomas", "aisha", "ivan"
+    };
+
+    /** Location tag values, most common first. */
+    private static final String[] LOCATIONS = {
+        "new york", "paris", "london", "tokyo", "home", "beach", "chicago", "rome", "berlin", "toronto",
+        "mumbai", "sydney", "lisbon", "seoul", "cairo", "mexico city", "boston", "madrid", "prague", "oslo",
+        "dublin", "vienna", "lima", "nairobi", "bangkok", "austin", "denver", "kyoto", "athens", "quebec"
+    };
+
+    /** Custom tag types and their values. */
+    private static final Map<String, String[]> CUSTOM_TAGS = new LinkedHashMap<>();
+
+    static {
+        CUSTOM_TAGS.put("event", new String[] {"birthday", "wedding", "graduation", "holiday", "concert", "game", "reunion"});
+        CUSTOM_TAGS.put("camera", new String[] {"phone", "dslr", "film", "drone", "action cam"});
+        CUSTOM_TAGS.put("mood", new String[] {"happy", "calm", "funny", "candid", "formal"});
+    }
+
+    /** Words captions are built from. */
+    private static final String[] CAPTION_WORDS = {
+        "sunset", "morning", "walk", "dinner", "friends", "family", "view", "trip", "party", "first",
+        "last", "day", "night", "snow", "rain", "park", "lake", "city", "old", "new"
+    };
+
     /**
-     * Entry point for generating the stock user.
+     * Entry point for generating the stock user or a synthetic library.
      *
-     * @param args command-line arguments (unused)
+     * @param args command-line options; none generates the stock user
+     * @throws IOException if the synthetic library cannot be written
      */
-    public static void main(String[] args) {
-        generate();
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            generate();
+        } else {
+            generateLibrary(args);
+        }
     }
 
     /**
@@ -34,12 +101,7 @@ public class GenerateStockUser {
         User stockUser = new User("stock", "stock");
         Album stockAlbum = new Album("stock");
 
-        File stockDir = new File("data");
-        File[] files = stockDir.listFiles((dir, name) -> {
-            String lower = name.toLowerCase();
-            return lower.endsWith(".jpg") || lower.endsWith(".jpeg") ||
-                   lower.endsWith(".png") || lower.endsWith(".bmp") || lower.endsWith(".gif");
-        });
+        File[] files = listImages(new File("data"));
 
         if (files != null) {
             for (File file : files) {
@@ -57,4 +119,278 @@ public class GenerateStockUser {
             out.writeObject(users);
         } catch (Exception ignored) {}
     }
+
+    /**
+     * Generates a synthetic library from command-line options and saves it.
+     *
+     * @param args the options
+     * @throws IOException if files or the data file cannot be written
+     */
+    private static void generateLibrary(String[] args) throws IOException {
+        int userCount = 10;
+        int albumsPerUser = 20;
+        int photoCount = 10_000;
+        long seed = 42;
+        String out = "users.dat";
+        String fileMode = "link";
+        Path dir = Path.of("generated");
+        LocalDate from = LocalDate.of(2010, 1, 1);
+        LocalDate to = LocalDate.of(2025, 12, 31);
+
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--users" -> userCount = Integer.parseInt(value);
+                case "--albums" -> albumsPerUser = Integer.parseInt(value);
+                case "--photos" -> photoCount = Integer.parseInt(value);
+                case "--seed" -> seed = Long.parseLong(value);
+                case "--out" -> out = value;
+                case "--files" -> fileMode = value;
+                case "--dir" -> dir = Path.of(value);
+                case "--from" -> from = LocalDate.parse(value);
+                case "--to" -> to = LocalDate.parse(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            i++;
+        }
+        if (!Set.of("link", "copy", "none").contains(fileMode)) {
+            throw new IllegalArgumentException("--files must be link, copy or none");
+        }
+
+        File[] sources = listImages(new File("data"));
+        if (!fileMode.equals("none") && (sources == null || sources.length == 0)) {
+            throw new IllegalStateException("No images in data/ to link or copy");
+        }
+        if (sources != null) {
+            Arrays.sort(sources);
+        }
+
+        long start = System.nanoTime();
+        Generator generator = new Generator(seed, userCount, albumsPerUser, photoCount,
+                fileMode, dir, sources, from, to);
+        List<User> users = generator.run();
+        long generated = System.nanoTime();
+
+        Files.deleteIfExists(Path.of(out));
+        deleteTree(Path.of(out + ".store"));
+        PhotoManager manager = new PhotoManager(out, false);
+        manager.addUsers(users);
+        long saved = System.nanoTime();
+
+        System.out.printf("Generated %d users, %d albums, %d photos in %.1f s; saved to %s in %.1f s%n",
+                userCount, userCount * albumsPerUser, photoCount,
+                (generated - start) / 1e9, out, (saved - generated) / 1e9);
+    }
+
+    /**
+     * Deletes a directory and everything in it, such as an indexed store left
+     * by an earlier run. Does nothing if it does not exist.
+     *
+     * @param dir the directory
+     * @throws IOException if a file cannot be deleted
+     */
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Lists the image files in a directory.
+     *
+     * @param dir the directory
+     * @return the image files, or null if the directory cannot be read
+     */
+    private static File[] listImages(File dir) {
+        return dir.listFiles((d, name) -> {
+            String lower = name.toLowerCase();
+            return lower.endsWith(".jpg") || lower.endsWith(".jpeg") ||
+                   lower.endsWith(".png") || lower.endsWith(".bmp") || lower.endsWith(".gif");
+        });
+    }
+
+    /**
+     * Builds the synthetic users. Each user is generated from its own random
+     * stream split off the seed in user order, so users can be built in
+     * parallel and the result is still reproducible.
+     */
+    private static final class Generator {
+        final long seed;
+        final int userCount;
+        final int albumsPerUser;
+        final int photoCount;
+        final String fileMode;
+        final Path dir;
+        final File[] sources;
+        final long fromDay;
+        final long dayRange;
+        final String[] people;
+        final Zipf peopleDist;
+        final Zipf locationDist;
+
+        Generator(long seed, int userCount, int albumsPerUser, int photoCount, String fileMode,
+                  Path dir, File[] sources, LocalDate from, LocalDate to) {
+            this.seed = seed;
+            this.userCount = Math.max(1, userCount);
+            this.albumsPerUser = Math.max(1, albumsPerUser);
+            this.photoCount = Math.max(0, photoCount);
+            this.fileMode = fileMode;
+            this.dir = dir;
+            this.sources = sources;
+            this.fromDay = from.toEpochDay();
+            this.dayRange = Math.max(1, to.toEpochDay() - fromDay + 1);
+
+            people = new String[FIRST_NAMES.length * 26];
+            for (int i = 0; i < people.length; i++) {
+                people[i] = FIRST_NAMES[i % FIRST_NAMES.length] + " " + (char) ('a' + i / FIRST_NAMES.length);
+            }
+            peopleDist = new Zipf(people.length, 1.1);
+            locationDist = new Zipf(LOCATIONS.length, 1.0);
+        }
+
+        List<User> run() throws IOException {
+            SplittableRandom master = new SplittableRandom(seed);
+            SplittableRandom[] streams = new SplittableRandom[userCount];
+            for (int u = 0; u < userCount; u++) {
+                streams[u] = master.split();
+            }
+
+            if (!fileMode.equals("none")) {
+                Files.createDirectories(dir);
+            }
+
+            User[] users = new User[userCount];
+            IntStream.range(0, userCount).parallel().forEach(u -> users[u] = buildUser(u, streams[u]));
+            return Arrays.asList(users);
+        }
+
+        User buildUser(int u, SplittableRandom rnd) {
+            String username = "user" + u;
+            User user = new User(username, username);
+            int photos = photoCount / userCount + (u < photoCount % userCount ? 1 : 0);
+
+            Album[] albums = new Album[albumsPerUser];
+            long[] albumDays = new long[albumsPerUser];
+            for (int a = 0; a < albumsPerUser; a++) {
+                albums[a] = new Album("album " + (a + 1));
+                albumDays[a] = fromDay + rnd.nextLong(dayRange);
+                user.addAlbum(albums[a]);
+            }
+
+            Path userDir = dir.resolve(username);
+            try {
+                if (!fileMode.equals("none")) {
+                    Files.createDirectories(userDir);
+                }
+                for (int i = 0; i < photos; i++) {
+                    int a = rnd.nextInt(albumsPerUser);
+                    String name = String.format("img_%07d.jpg", i);
+                    Path file = userDir.resolve(name);
+                    materialize(file, i);
+
+                    Photo photo = new Photo(file.toString(), captureDate(albumDays[a], rnd), sourceSize(i));
+                    addTags(photo, rnd);
+                    if (rnd.nextDouble() < 0.6) {
+                        photo.setCaption(caption(rnd));
+                    }
+
+                    albums[a].addPhoto(photo);
+                    if (albumsPerUser > 1 && rnd.nextDouble() < SHARED_FRACTION) {
+                        albums[(a + 1 + rnd.nextInt(albumsPerUser - 1)) % albumsPerUser].addPhoto(photo);
+                    }
+                }
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+            return user;
+        }
+
+        /** Returns the size of the source image photo i is made from, or 0 when files are disabled. */
+        long sourceSize(int i) {
+            if (fileMode.equals("none") || sources == null || sources.length == 0) return 0;
+            return sources[i % sources.length].length();
+        }
+
+        /** Creates the photo's file from one of the source images, unless files are disabled. */
+        void materialize(Path file, int i) throws IOException {
+            if (fileMode.equals("none") || Files.exists(file)) return;
+            Path source = sources[i % sources.length].toPath();
+            if (fileMode.equals("link")) {
+                try {
+                    Files.createLink(file, source.toAbsolutePath());
+                    return;
+                } catch (FileAlreadyExistsException e) {
+                    return;
+                } catch (IOException | UnsupportedOperationException e) {
+                    // different filesystem or no hard links; fall back to a copy
+                }
+            }
+            Files.copy(source, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /** Picks a date near the album's date: most photos within a few days, a tail of weeks. */
+        Calendar captureDate(long albumDay, SplittableRandom rnd) {
+            long offsetDays = (long) (-Math.log(1 - rnd.nextDouble()) * 3);
+            long day = Math.min(fromDay + dayRange - 1, albumDay + offsetDays);
+            long millis = LocalDate.ofEpochDay(day).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli()
+                    + rnd.nextLong(24L * 60 * 60 * 1000);
+            Calendar c = Calendar.getInstance(UTC);
+            c.setTimeInMillis(millis);
+            return c;
+        }
+
+        /** Adds 0-3 people, usually a location, and sometimes custom tags. */
+        void addTags(Photo photo, SplittableRandom rnd) {
+            int peopleCount = rnd.nextInt(4);
+            for (int i = 0; i < peopleCount; i++) {
+                photo.addTag("person", people[peopleDist.sample(rnd)]);
+            }
+            if (rnd.nextDouble() < 0.7) {
+                photo.addTag("location", LOCATIONS[locationDist.sample(rnd)]);
+            }
+            for (Map.Entry<String, String[]> e : CUSTOM_TAGS.entrySet()) {
+                if (rnd.nextDouble() < 0.2) {
+                    String[] values = e.getValue();
+                    photo.addTag(e.getKey(), values[rnd.nextInt(values.length)]);
+                }
+            }
+        }
+
+        String caption(SplittableRandom rnd) {
+            int words = 2 + rnd.nextInt(4);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < words; i++) {
+                if (i > 0) sb.append(' ');
+                sb.append(CAPTION_WORDS[rnd.nextInt(CAPTION_WORDS.length)]);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Samples ranks 0..n-1 with probability proportional to 1/(rank+1)^s.
+     */
+    private static final class Zipf {
+        private final double[] cdf;
+
+        Zipf(int n, double s) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, s);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cdf[i] /= sum;
+            }
+        }
+
+        int sample(SplittableRandom rnd) {
+            int i = Arrays.binarySearch(cdf, rnd.nextDouble());
+            return Math.min(cdf.length - 1, i >= 0 ? i : -i - 1);
+        }
+    }
 }
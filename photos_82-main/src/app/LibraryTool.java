@@ -0,0 +1,117 @@
+package app;
+
+import model.IndexedStore;
+import model.LibraryStore;
+import model.ManagedLibrary;
+import model.PhotoManager;
+import service.LibraryJsonLines;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command-line tool that exports the library in {@code users.dat} to JSON
+ * lines, imports JSON-lines files into it, moves its photos into the
+ * managed library, or looks photos up in the indexed store.
+ * <pre>
+ * LibraryTool export [file.jsonl|-]
+ * LibraryTool import [--threads N] file.jsonl...
+ * java -Dphotos.library=dir app.LibraryTool adopt [--threads N]
+ * java -Dphotos.store=indexed app.LibraryTool find tag NAME VALUE
+ * java -Dphotos.store=indexed app.LibraryTool find taken FROM TO
+ * </pre>
+ * <p>
+ * Export writes to standard output when no file or "-" is given. Import adds
+ * the users in all the given files, replacing users with the same names, and
+ * saves once. See {@link LibraryJsonLines} for the format. Adopt copies or
+ * links every photo file into the {@link ManagedLibrary} and points the
+ * photos at the stored copies; it can be interrupted and run again. Import
+ * keeps the paths in the file; run adopt afterwards to store them. Find prints
+ * the user and path of each stored photo with a tag, or taken between two
+ * ISO dates inclusive, from the {@link IndexedStore}'s indexes.
+ * </p>
+ */
+public class LibraryTool {
+
+    /**
+     * Entry point for the library tool.
+     *
+     * @param args the command and its arguments
+     * @throws IOException if a file cannot be read or written, or an import file is invalid
+     * @throws InterruptedException if interrupted while adopting photos
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0 || !List.of("export", "import", "adopt", "find").contains(args[0])
+                || args[0].equals("find") && (args.length != 4 || !List.of("tag", "taken").contains(args[1]))) {
+            System.err.println("usage: LibraryTool export [file.jsonl|-]");
+            System.err.println("       LibraryTool import [--threads N] file.jsonl...");
+            System.err.println("       java -D" + ManagedLibrary.PROPERTY + "=dir app.LibraryTool adopt [--threads N]");
+            System.err.println("       java -D" + LibraryStore.PROPERTY + "=indexed app.LibraryTool find tag NAME VALUE");
+            System.err.println("       java -D" + LibraryStore.PROPERTY + "=indexed app.LibraryTool find taken FROM TO");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        PhotoManager photoManager = new PhotoManager();
+        if (args[0].equals("find")) {
+            if (!(photoManager.getStore() instanceof IndexedStore store)) {
+                System.err.println("find needs -D" + LibraryStore.PROPERTY + "=indexed");
+                System.exit(2);
+                return;
+            }
+            List<IndexedStore.PhotoRef> found = args[1].equals("tag")
+                    ? store.findByTag(args[2], args[3])
+                    : store.findTakenBetween(LocalDate.parse(args[2]), LocalDate.parse(args[3]));
+            for (IndexedStore.PhotoRef ref : found) {
+                System.out.println(ref.username() + '\t' + ref.path());
+            }
+            System.err.printf("found %d photos in %d ms%n", found.size(), (System.nanoTime() - start) / 1_000_000);
+            return;
+        }
+        if (args[0].equals("adopt")) {
+            if (photoManager.getManagedLibrary() == null) {
+                System.err.println("adopt needs -D" + ManagedLibrary.PROPERTY + "=dir");
+                System.exit(2);
+            }
+            int threads = args.length > 2 && args[1].equals("--threads")
+                    ? Math.max(1, Integer.parseInt(args[2]))
+                    : Runtime.getRuntime().availableProcessors();
+            ManagedLibrary.Adoption adoption = photoManager.adoptIntoLibrary(threads);
+            System.err.printf("moved %d of %d photos into %s (%d missing, %d failed, %d left as duplicates) in %d ms%n",
+                    adoption.relocated(), adoption.photos(), photoManager.getManagedLibrary().getRoot(),
+                    adoption.missing(), adoption.failed(), adoption.conflicts(),
+                    (System.nanoTime() - start) / 1_000_000);
+            return;
+        }
+        LibraryJsonLines.Result result;
+        if (args[0].equals("export")) {
+            String target = args.length > 1 ? args[1] : "-";
+            if (target.equals("-")) {
+                Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+                result = LibraryJsonLines.export(photoManager, out);
+            } else {
+                result = LibraryJsonLines.export(photoManager, Path.of(target));
+            }
+        } else {
+            int threads = Runtime.getRuntime().availableProcessors();
+            List<Path> files = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--threads")) {
+                    threads = Math.max(1, Integer.parseInt(args[++i]));
+                } else {
+                    files.add(Path.of(args[i]));
+                }
+            }
+            result = LibraryJsonLines.importFiles(photoManager, files, threads);
+        }
+        System.err.printf("%sed %d users, %d albums, %d photos, %d tags in %d ms%n",
+                args[0], result.users(), result.albums(), result.photos(), result.tags(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+}
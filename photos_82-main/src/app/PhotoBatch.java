@@ -0,0 +1,433 @@
+package app;
+
+import model.*;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import metrics.BulkOperationEvent;
+import metrics.Metrics;
+import service.AlbumExporter;
+import service.ResizedExporter;
+
+/**
+ * Scriptable command-line tool for bulk changes to the photo library.
+ * <p>
+ * Reads one operation per line from a file or standard input. Fields are
+ * separated by tabs so that paths and captions may contain spaces; blank lines
+ * and lines starting with {@code #} are ignored. Operations are applied in
+ * batches: within a batch, each user's operations run in order under a single
+ * acquisition of that user's write lock, and different users are processed in
+ * parallel. All changes are persisted with one save at the end, and the tool
+ * reports throughput when done.
+ * </p>
+ * <pre>
+ * tag          user  file  type=value
+ * untag        user  file  type=value
+ * caption      user  file  text
+ * create-album user  album
+ * delete-album user  album
+ * add          user  album  file
+ * remove       user  album  file
+ * copy         user  from-album  to-album  file
+ * move         user  from-album  to-album  file
+ * export       user  album  directory|file.zip  [long-edge [quality]]
+ * </pre>
+ * <p>
+ * {@code tag}, {@code untag} and {@code caption} apply to every photo of the
+ * user that refers to the file, in any album. {@code add}, {@code remove},
+ * {@code copy} and {@code move} refuse to change a smart album, whose photos
+ * follow its query. {@code export} with a long edge
+ * writes downscaled JPEG copies into the directory instead of the original
+ * files, using every core; quality is a percentage and defaults to 85. Usage:
+ * {@code PhotoBatch [--dry-run] [--batch N] [file|-]}
+ * </p>
+ * <p>
+ * {@code --dry-run} checks every operation against the library without side
+ * effects: operations are applied in memory only and nothing is saved, files
+ * named by {@code add} are read for their metadata but not stored in the
+ * managed library, and {@code export} operations are validated but no files
+ * are written.
+ * </p>
+ */
+public class PhotoBatch {
+
+    /** Default number of operations applied per batch. */
+    private static final int DEFAULT_BATCH = 2000;
+
+    /** Default JPEG quality of resized exports, in percent. */
+    private static final int DEFAULT_QUALITY = 85;
+
+    /** One parsed input line. */
+    private record Op(int line, String[] fields) {
+        String verb() {
+            return fields[0];
+        }
+
+        String user() {
+            return fields[1];
+        }
+    }
+
+    /** The library being changed. */
+    private final PhotoManager photoManager;
+
+    /** Count of operations applied successfully. */
+    private final AtomicInteger applied = new AtomicInteger();
+
+    /** Count of operations that failed. */
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /** Export operations, run after all batches so no lock is held while copying files. */
+    private final List<Op> exports = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Entry point for the batch tool.
+     *
+     * @param args options and the input file; reads standard input if no file or "-" is given
+     * @throws IOException if the input cannot be read
+     * @throws InterruptedException if interrupted while applying a batch
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean dryRun = false;
+        int batchSize = DEFAULT_BATCH;
+        String input = "-";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dry-run" -> dryRun = true;
+                case "--batch" -> batchSize = Math.max(1, Integer.parseInt(args[++i]));
+                default -> input = args[i];
+            }
+        }
+
+        PhotoBatch batch = new PhotoBatch(new PhotoManager());
+        try (BufferedReader in = input.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : new BufferedReader(new FileReader(input, StandardCharsets.UTF_8))) {
+            boolean ok = batch.run(in, batchSize, !dryRun);
+            System.exit(ok ? 0 : 1);
+        }
+    }
+
+    /**
+     * Creates a batch tool over a library.
+     *
+     * @param photoManager the library to change
+     */
+    public PhotoBatch(PhotoManager photoManager) {
+        this.photoManager = photoManager;
+    }
+
+    /**
+     * Reads and applies all operations, then saves once.
+     *
+     * @param in the operation source
+     * @param batchSize how many operations to apply per batch
+     * @param save whether to persist the result and write exports; false
+     *             for a dry run, which has no side effects
+     * @return true if every operation succeeded
+     * @throws IOException if the input cannot be read
+     * @throws InterruptedException if interrupted while applying a batch
+     */
+    public boolean run(BufferedReader in, int batchSize, boolean save) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        List<Op> pending = new ArrayList<>(batchSize);
+
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank() || line.startsWith("#")) continue;
+                String[] fields = line.split("\t");
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = fields[i].trim();
+                }
+                if (fields.length < 2) {
+                    fail(lineNo, "expected at least an operation and a user");
+                    continue;
+                }
+                pending.add(new Op(lineNo, fields));
+                if (pending.size() >= batchSize) {
+                    applyBatch(pending, workers, save);
+                    pending.clear();
+                }
+            }
+            if (!pending.isEmpty()) {
+                applyBatch(pending, workers, save);
+            }
+        }
+
+        if (save) {
+            for (Op op : exports) {
+                export(op);
+            }
+        }
+
+        long applyNanos = System.nanoTime() - start;
+        long saveNanos = 0;
+        if (save && applied.get() > 0) {
+            long saveStart = System.nanoTime();
+            photoManager.saveUsers();
+            saveNanos = System.nanoTime() - saveStart;
+        }
+
+        int total = applied.get() + failed.get();
+        double seconds = applyNanos / 1e9;
+        System.out.printf("Applied %d of %d operations (%d failed) in %.2f s, %.0f ops/s%s%n",
+                applied.get(), total, failed.get(), seconds, seconds > 0 ? total / seconds : 0.0,
+                save ? String.format("; saved in %.2f s", saveNanos / 1e9)
+                        : "; dry run, not saved" + (exports.isEmpty() ? "" : ", " + exports.size() + " export(s) not written"));
+        return failed.get() == 0;
+    }
+
+    /**
+     * Applies one batch: groups operations by user, keeps each user's order,
+     * and runs each user's group under one write lock, users in parallel.
+     *
+     * @param batch the operations
+     * @param workers the executor for per-user groups
+     * @param save false for a dry run, which does not store new files
+     * @throws InterruptedException if interrupted while waiting for a group
+     */
+    private void applyBatch(List<Op> batch, ExecutorService workers, boolean save) throws InterruptedException {
+        Map<String, List<Op>> byUser = new LinkedHashMap<>();
+        for (Op op : batch) {
+            byUser.computeIfAbsent(op.user(), k -> new ArrayList<>()).add(op);
+        }
+
+        List<Future<?>> running = new ArrayList<>();
+        for (Map.Entry<String, List<Op>> e : byUser.entrySet()) {
+            running.add(workers.submit(() -> applyUserOps(e.getKey(), e.getValue(), save)));
+        }
+        for (Future<?> f : running) {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                Metrics.error("batch", ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Applies one user's operations in order while holding that user's write lock.
+     * New photos are read from disk, and stored in the managed library if there
+     * is one, before the lock is taken. A dry run only reads their metadata.
+     *
+     * @param username the user
+     * @param ops the operations, in input order
+     * @param save false for a dry run, which does not store new files
+     */
+    private void applyUserOps(String username, List<Op> ops, boolean save) {
+        User user = photoManager.getUser(username);
+        if (user == null) {
+            for (Op op : ops) {
+                fail(op.line(), "no such user: " + username);
+            }
+            return;
+        }
+
+        Map<Op, Photo> newPhotos = new HashMap<>();
+        for (Op op : ops) {
+            if (op.verb().equals("add") && op.fields().length == 4) {
+                try {
+                    String path = op.fields()[3];
+                    newPhotos.put(op, save ? photoManager.importPhoto(path) : new Photo(path));
+                } catch (IllegalArgumentException | UncheckedIOException e) {
+                    // reported when the operation runs
+                }
+            }
+        }
+
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        int[] succeeded = new int[1];
+        photoManager.write(username, () -> {
+            for (Op op : ops) {
+                try {
+                    String error = apply(user, op, newPhotos.get(op));
+                    if (error == null) {
+                        applied.incrementAndGet();
+                        succeeded[0]++;
+                    } else {
+                        fail(op.line(), error);
+                    }
+                } catch (RuntimeException e) {
+                    fail(op.line(), e.toString());
+                }
+            }
+        });
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "batch";
+            event.target = username;
+            event.requested = ops.size();
+            event.changed = succeeded[0];
+            event.commit();
+        }
+    }
+
+    /**
+     * Applies a single operation. Called with the user's write lock held.
+     *
+     * @param user the user
+     * @param op the operation
+     * @param newPhoto the photo read ahead for an "add", or null
+     * @return null on success, otherwise an error message
+     */
+    private String apply(User user, Op op, Photo newPhoto) {
+        String[] f = op.fields();
+        switch (op.verb()) {
+            case "tag", "untag" -> {
+                if (f.length != 4) return "usage: " + op.verb() + " user file type=value";
+                Tag tag = PhotoSearch.parseTag(f[3]);
+                if (tag == null) return "tag must be type=value";
+                List<Photo> photos = user.findPhotosByPath(f[2]);
+                if (photos.isEmpty()) return "no photo for " + f[2];
+                for (Photo p : photos) {
+                    if (op.verb().equals("tag")) {
+                        p.addTag(tag.getName(), tag.getValue());
+                    } else {
+                        p.removeTag(tag.getName(), tag.getValue());
+                    }
+                }
+                return null;
+            }
+            case "caption" -> {
+                if (f.length < 3) return "usage: caption user file text";
+                List<Photo> photos = user.findPhotosByPath(f[2]);
+                if (photos.isEmpty()) return "no photo for " + f[2];
+                String caption = f.length > 3 ? f[3] : "";
+                for (Photo p : photos) {
+                    p.setCaption(caption);
+                }
+                return null;
+            }
+            case "create-album" -> {
+                if (f.length != 3) return "usage: create-album user album";
+                return user.addAlbum(new Album(f[2])) ? null : "album already exists: " + f[2];
+            }
+            case "delete-album" -> {
+                if (f.length != 3) return "usage: delete-album user album";
+                return user.removeAlbum(f[2]) ? null : "no such album: " + f[2];
+            }
+            case "add" -> {
+                if (f.length != 4) return "usage: add user album file";
+                Album album = user.getAlbum(f[2]);
+                if (album == null) {
+                    album = new Album(f[2]);
+                    user.addAlbum(album);
+                }
+                if (album.isSmart()) return "smart album follows its query: " + f[2];
+                List<Photo> existing = user.findPhotosByPath(newPhoto != null ? newPhoto.getFilePath() : f[3]);
+                Photo photo = existing.isEmpty() ? newPhoto : existing.get(0);
+                if (photo == null) return "file does not exist: " + f[3];
+                return album.addPhoto(photo) ? null : "already in album: " + f[3];
+            }
+            case "remove" -> {
+                if (f.length != 4) return "usage: remove user album file";
+                Album album = user.getAlbum(f[2]);
+                if (album == null) return "no such album: " + f[2];
+                if (album.isSmart()) return "smart album follows its query: " + f[2];
+                Photo photo = album.getPhotoByPath(f[3]);
+                return photo != null && album.removePhoto(photo) ? null : "not in album: " + f[3];
+            }
+            case "copy", "move" -> {
+                if (f.length != 5) return "usage: " + op.verb() + " user from-album to-album file";
+                Album from = user.getAlbum(f[2]);
+                Album to = user.getAlbum(f[3]);
+                if (from == null || to == null) return "no such album: " + (from == null ? f[2] : f[3]);
+                if (to.isSmart()) return "smart album follows its query: " + f[3];
+                if (op.verb().equals("move") && from.isSmart()) return "smart album follows its query: " + f[2];
+                Photo photo = from.getPhotoByPath(f[4]);
+                if (photo == null) return "not in album: " + f[4];
+                if (!to.addPhoto(photo)) return "already in album: " + f[3];
+                if (op.verb().equals("move")) {
+                    from.removePhoto(photo);
+                }
+                return null;
+            }
+            case "export" -> {
+                if (f.length < 4 || f.length > 6) return "usage: export user album directory|file.zip [long-edge [quality]]";
+                if (user.getAlbum(f[2]) == null) return "no such album: " + f[2];
+                if (f.length > 4) {
+                    try {
+                        if (Integer.parseInt(f[4]) < 1) return "long edge must be positive: " + f[4];
+                        if (f.length > 5 && (Integer.parseInt(f[5]) < 1 || Integer.parseInt(f[5]) > 100)) {
+                            return "quality must be between 1 and 100: " + f[5];
+                        }
+                    } catch (NumberFormatException e) {
+                        return "not a number: " + e.getMessage();
+                    }
+                }
+                exports.add(op);
+                return null;
+            }
+            default -> {
+                return "unknown operation: " + op.verb();
+            }
+        }
+    }
+
+    /**
+     * Copies an album's files and a manifest into a directory, or into a ZIP
+     * file when the target ends in {@code .zip}, or writes resized copies when
+     * a long edge is given, outside any lock.
+     *
+     * @param op the export operation
+     */
+    private void export(Op op) {
+        User user = photoManager.getUser(op.user());
+        Album album = user.getAlbum(op.fields()[2]);
+        if (album == null) {
+            fail(op.line(), "album was removed before export: " + op.fields()[2]);
+            return;
+        }
+        try {
+            Path target = Path.of(op.fields()[3]);
+            AlbumSnapshot snapshot = photoManager.snapshot(user, album);
+            if (op.fields().length > 4) {
+                int longEdge = Integer.parseInt(op.fields()[4]);
+                int quality = op.fields().length > 5 ? Integer.parseInt(op.fields()[5]) : DEFAULT_QUALITY;
+                ResizedExporter.Result resized = ResizedExporter.export(snapshot.photos(), target, longEdge,
+                        quality / 100f, Runtime.getRuntime().availableProcessors(), null);
+                System.err.printf("line %d: %d resized copies at %.1f images/s%n",
+                        op.line(), resized.files(), resized.imagesPerSecond());
+                if (resized.failed() > 0) {
+                    System.err.println("line " + op.line() + ": " + resized.failed() + " unreadable file(s) skipped");
+                }
+                return;
+            }
+            AlbumExporter.Result result = target.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip")
+                    ? AlbumExporter.toZip(snapshot, target)
+                    : AlbumExporter.toDirectory(snapshot, target);
+            if (result.missing() > 0) {
+                System.err.println("line " + op.line() + ": " + result.missing() + " missing file(s) skipped");
+            }
+        } catch (IOException e) {
+            applied.decrementAndGet();
+            fail(op.line(), "export failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records and reports a failed operation.
+     *
+     * @param line the input line number
+     * @param message what went wrong
+     */
+    private void fail(int line, String message) {
+        failed.incrementAndGet();
+        System.err.println("line " + line + ": " + message);
+    }
+}
@@ -0,0 +1,463 @@
+package app;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import model.*;
+import service.ImageResizer;
+import service.Json;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import metrics.Metrics;
+
+/**
+ * Headless entry point that serves the photo library over a local HTTP API.
+ * <p>
+ * Uses the JDK's built-in HTTP server with one virtual thread per request and
+ * binds to the loopback address only. All reads go through
+ * {@link PhotoManager#snapshot(User)}, so any number of requests can run
+ * against the same library without locking. Thumbnail decoding is limited to
+ * one request per core, and recent thumbnails are cached in memory.
+ * </p>
+ * <p>
+ * Endpoints (all GET, all JSON unless noted):
+ * </p>
+ * <ul>
+ *     <li>{@code /users} - usernames</li>
+ *     <li>{@code /users/{user}/albums} - albums with photo counts, date ranges and sizes</li>
+ *     <li>{@code /users/{user}/albums/{album}/photos} - photos with captions, dates and tags</li>
+ *     <li>{@code /users/{user}/albums/{album}/photos/{index}/thumbnail?size=256} - JPEG thumbnail</li>
+ *     <li>{@code /users/{user}/albums/{album}/photos/{index}/image} - the original file</li>
+ *     <li>{@code /users/{user}/search?tag1=type=value&tag2=type=value&op=AND|OR&from=yyyy-MM-dd&to=yyyy-MM-dd}</li>
+ * </ul>
+ */
+public class PhotoServer {
+
+    /** Default port when none is given. */
+    private static final int DEFAULT_PORT = 8082;
+
+    /** Largest thumbnail edge a client may request. */
+    private static final int MAX_THUMBNAIL_SIZE = 1024;
+
+    /** Upper bound on the bytes held by the thumbnail cache. */
+    private static final long THUMBNAIL_CACHE_BYTES = 64L << 20;
+
+    /** The library being served. */
+    private final PhotoManager photoManager;
+
+    /** The underlying HTTP server. */
+    private final HttpServer server;
+
+    /** Executor running one virtual thread per request. */
+    private final ExecutorService executor;
+
+    /** Limits concurrent thumbnail decodes to the number of cores. */
+    private final Semaphore decodePermits = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+    /** Recently generated thumbnails, least recently used first. */
+    private final LinkedHashMap<String, byte[]> thumbnailCache = new LinkedHashMap<>(256, 0.75f, true);
+
+    /** Total bytes held in {@link #thumbnailCache}. */
+    private long thumbnailCacheBytes;
+
+    /**
+     * Entry point for the server.
+     *
+     * @param args optional port number
+     * @throws IOException if the server cannot bind
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        PhotoManager photoManager = new PhotoManager();
+        photoManager.registerMetrics();
+        PhotoServer photoServer = new PhotoServer(photoManager, port);
+        photoServer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(photoServer::stop));
+        System.out.println("Photo server listening on http://localhost:" + port + "/users");
+    }
+
+    /**
+     * Creates a server for a library.
+     *
+     * @param photoManager the library to serve
+     * @param port the port to listen on, on the loopback address
+     * @throws IOException if the server cannot bind
+     */
+    public PhotoServer(PhotoManager photoManager, int port) throws IOException {
+        this.photoManager = photoManager;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting up to a second for requests in flight.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Answers a request, turning a bad parameter into a 400 response and any
+     * other failure into a 500 response while nothing has been sent yet. The
+     * exchange is closed only after the response, error or not, is written.
+     *
+     * @param ex the exchange
+     * @throws IOException if the response cannot be written
+     */
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            route(ex);
+        } catch (IllegalArgumentException e) {
+            if (ex.getResponseCode() == -1) {
+                sendError(ex, 400, e.getMessage());
+            }
+        } catch (Exception e) {
+            Metrics.error("http", e);
+            if (ex.getResponseCode() == -1) {
+                sendError(ex, 500, "Internal error");
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    /**
+     * Routes a request by its path segments.
+     *
+     * @param ex the exchange
+     * @throws Exception if the request is bad or cannot be answered
+     */
+    private void route(HttpExchange ex) throws Exception {
+        if (!"GET".equals(ex.getRequestMethod())) {
+            sendError(ex, 405, "Only GET is supported");
+            return;
+        }
+
+        List<String> seg = segments(ex.getRequestURI());
+        Map<String, String> query = query(ex.getRequestURI());
+
+        if (seg.size() == 1 && seg.get(0).equals("users")) {
+            listUsers(ex);
+            return;
+        }
+        if (seg.size() < 3 || !seg.get(0).equals("users")) {
+            sendError(ex, 404, "Not found");
+            return;
+        }
+
+        User user = photoManager.getUser(seg.get(1));
+        if (user == null) {
+            sendError(ex, 404, "No such user");
+            return;
+        }
+        UserSnapshot snapshot = photoManager.snapshot(user);
+
+        if (seg.size() == 3 && seg.get(2).equals("albums")) {
+            listAlbums(ex, snapshot);
+        } else if (seg.size() == 3 && seg.get(2).equals("search")) {
+            search(ex, snapshot, query);
+        } else if (seg.size() >= 5 && seg.get(2).equals("albums") && seg.get(4).equals("photos")) {
+            AlbumSnapshot album = snapshot.getAlbum(seg.get(3));
+            if (album == null) {
+                sendError(ex, 404, "No such album");
+            } else if (seg.size() == 5) {
+                sendJson(ex, 200, photosJson(album.photos()));
+            } else if (seg.size() == 7) {
+                servePhoto(ex, album, seg.get(5), seg.get(6), query);
+            } else {
+                sendError(ex, 404, "Not found");
+            }
+        } else {
+            sendError(ex, 404, "Not found");
+        }
+    }
+
+    /**
+     * Writes the usernames, sorted case-insensitively by the user directory.
+     *
+     * @param ex the exchange
+     * @throws IOException if writing fails
+     */
+    private void listUsers(HttpExchange ex) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (User u : photoManager.findUsers("", null, Integer.MAX_VALUE)) {
+            names.add(u.getUsername());
+        }
+
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) sb.append(',');
+            Json.appendQuoted(sb, names.get(i));
+        }
+        sendJson(ex, 200, sb.append(']').toString());
+    }
+
+    /**
+     * Writes a user's albums with their photo counts, capture date ranges and
+     * total sizes, read from the albums' summaries.
+     *
+     * @param ex the exchange
+     * @param snapshot the user's snapshot
+     * @throws IOException if writing fails
+     */
+    private void listAlbums(HttpExchange ex, UserSnapshot snapshot) throws IOException {
+        StringBuilder sb = new StringBuilder("[");
+        List<AlbumSnapshot> albums = snapshot.albums();
+        for (int i = 0; i < albums.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"name\":");
+            Json.appendQuoted(sb, albums.get(i).name());
+            AlbumSummary summary = albums.get(i).summary();
+            sb.append(",\"photoCount\":").append(summary.photoCount());
+            sb.append(",\"earliest\":").append(Json.quote(Objects.toString(summary.earliest(), null)));
+            sb.append(",\"latest\":").append(Json.quote(Objects.toString(summary.latest(), null)));
+            sb.append(",\"totalBytes\":").append(summary.totalBytes()).append('}');
+        }
+        sendJson(ex, 200, sb.append(']').toString());
+    }
+
+    /**
+     * Runs a tag and date search over a user's photos.
+     *
+     * @param ex the exchange
+     * @param snapshot the user's snapshot
+     * @param query the query parameters
+     * @throws IOException if writing fails
+     */
+    private void search(HttpExchange ex, UserSnapshot snapshot, Map<String, String> query) throws IOException {
+        PhotoSearch.Operator op;
+        LocalDate from;
+        LocalDate to;
+        try {
+            op = PhotoSearch.Operator.valueOf(query.getOrDefault("op", "NONE").toUpperCase());
+            from = query.containsKey("from") ? LocalDate.parse(query.get("from")) : null;
+            to = query.containsKey("to") ? LocalDate.parse(query.get("to")) : null;
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Dates must be yyyy-MM-dd");
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("op must be AND, OR or NONE");
+        }
+        Tag tag2 = PhotoSearch.parseTag(query.get("tag2"));
+        if (tag2 != null && op == PhotoSearch.Operator.NONE) {
+            op = PhotoSearch.Operator.AND;
+        }
+
+        PhotoSearch search = new PhotoSearch(PhotoSearch.parseTag(query.get("tag1")), tag2, op, from, to);
+        sendJson(ex, 200, photosJson(search.filter(snapshot.allPhotos())));
+    }
+
+    /**
+     * Streams a photo's thumbnail or original file.
+     *
+     * @param ex the exchange
+     * @param album the album holding the photo
+     * @param indexText the photo's index in the album
+     * @param what either "thumbnail" or "image"
+     * @param query the query parameters
+     * @throws IOException if reading or writing fails
+     * @throws InterruptedException if interrupted while waiting to decode
+     */
+    private void servePhoto(HttpExchange ex, AlbumSnapshot album, String indexText, String what,
+                            Map<String, String> query) throws IOException, InterruptedException {
+        int index;
+        try {
+            index = Integer.parseInt(indexText);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Photo index must be a number");
+        }
+        if (index < 0 || index >= album.photos().size()) {
+            sendError(ex, 404, "No such photo");
+            return;
+        }
+
+        File file = new File(album.photos().get(index).getFilePath());
+        if (!file.isFile()) {
+            sendError(ex, 404, "Photo file is missing");
+            return;
+        }
+
+        if (what.equals("image")) {
+            String type = Files.probeContentType(file.toPath());
+            ex.getResponseHeaders().set("Content-Type", type != null ? type : "application/octet-stream");
+            ex.sendResponseHeaders(200, file.length());
+            try (OutputStream out = ex.getResponseBody()) {
+                Files.copy(file.toPath(), out);
+            }
+        } else if (what.equals("thumbnail")) {
+            int size;
+            try {
+                size = Math.min(MAX_THUMBNAIL_SIZE, Math.max(16,
+                        Integer.parseInt(query.getOrDefault("size", "256"))));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Thumbnail size must be a number");
+            }
+            byte[] jpeg = thumbnail(file, size);
+            ex.getResponseHeaders().set("Content-Type", "image/jpeg");
+            ex.sendResponseHeaders(200, jpeg.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(jpeg);
+            }
+        } else {
+            sendError(ex, 404, "Not found");
+        }
+    }
+
+    /**
+     * Returns a cached thumbnail, generating it if needed.
+     *
+     * @param file the image file
+     * @param size the long-edge size
+     * @return the JPEG bytes
+     * @throws IOException if the image cannot be decoded
+     * @throws InterruptedException if interrupted while waiting for a decode slot
+     */
+    private byte[] thumbnail(File file, int size) throws IOException, InterruptedException {
+        String key = file.getAbsolutePath() + '|' + file.lastModified() + '|' + size;
+        synchronized (thumbnailCache) {
+            byte[] cached = thumbnailCache.get(key);
+            if (cached != null) return cached;
+        }
+
+        byte[] jpeg;
+        decodePermits.acquire();
+        try {
+            jpeg = ImageResizer.jpegThumbnail(file, size, 0.8f);
+        } finally {
+            decodePermits.release();
+        }
+
+        synchronized (thumbnailCache) {
+            if (thumbnailCache.put(key, jpeg) == null) {
+                thumbnailCacheBytes += jpeg.length;
+            }
+            Iterator<byte[]> it = thumbnailCache.values().iterator();
+            while (thumbnailCacheBytes > THUMBNAIL_CACHE_BYTES && it.hasNext()) {
+                thumbnailCacheBytes -= it.next().length;
+                it.remove();
+            }
+        }
+        return jpeg;
+    }
+
+    /**
+     * Renders photos as a JSON array.
+     *
+     * @param photos the photos
+     * @return the JSON text
+     */
+    private static String photosJson(List<Photo> photos) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < photos.size(); i++) {
+            Photo p = photos.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"path\":");
+            Json.appendQuoted(sb, p.getFilePath());
+            sb.append(",\"caption\":");
+            Json.appendQuoted(sb, p.getCaption());
+            sb.append(",\"date\":");
+            Json.appendQuoted(sb, p.getDateTaken().toInstant().toString());
+            sb.append(",\"tags\":[");
+            boolean first = true;
+            for (Tag t : p.getTags()) {
+                if (!first) sb.append(',');
+                first = false;
+                sb.append("{\"name\":");
+                Json.appendQuoted(sb, t.getName());
+                sb.append(",\"value\":");
+                Json.appendQuoted(sb, t.getValue());
+                sb.append('}');
+            }
+            sb.append("]}");
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Splits a request path into decoded, non-empty segments.
+     *
+     * @param uri the request URI
+     * @return the path segments
+     */
+    private static List<String> segments(URI uri) {
+        List<String> seg = new ArrayList<>();
+        String raw = uri.getRawPath();
+        for (String s : raw.split("/")) {
+            if (!s.isEmpty()) {
+                seg.add(URLDecoder.decode(s.replace("+", "%2B"), StandardCharsets.UTF_8));
+            }
+        }
+        return seg;
+    }
+
+    /**
+     * Parses the query string.
+     *
+     * @param uri the request URI
+     * @return parameter names to values; later duplicates win
+     */
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> params = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /**
+     * Sends a JSON response.
+     *
+     * @param ex the exchange
+     * @param status the HTTP status
+     * @param json the body
+     * @throws IOException if writing fails
+     */
+    private static void sendJson(HttpExchange ex, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Sends a JSON error response.
+     *
+     * @param ex the exchange
+     * @param status the HTTP status
+     * @param message the error message
+     * @throws IOException if writing fails
+     */
+    private static void sendError(HttpExchange ex, int status, String message) throws IOException {
+        sendJson(ex, status, "{\"error\":" + Json.quote(message) + "}");
+    }
+}
@@ -3,10 +3,12 @@ package app;
 import javafx.application.Application;
 import javafx.stage.Stage;
 import model.PhotoManager;
-import javafx.scene.Scene;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import java.net.URL;
+import service.MediaScheduler;
+import service.TaskService;
+import service.ThumbnailLoader;
+import controller.view.LoginController;
+import controller.view.Views;
+import metrics.Metrics;
 
 /**
  * The entry point for the Photo App JavaFX application.
@@ -22,6 +24,21 @@ public class Photos extends Application {
      */
     private static PhotoManager photoManager;
 
+    /**
+     * A static reference to the {@link TaskService} that runs blocking work off the UI thread.
+     */
+    private static TaskService taskService;
+
+    /**
+     * A static reference to the {@link MediaScheduler} that orders image work by priority.
+     */
+    private static MediaScheduler mediaScheduler;
+
+    /**
+     * A static reference to the {@link ThumbnailLoader} shared by all photo grids.
+     */
+    private static ThumbnailLoader thumbnailLoader;
+
     /**
      * Launches the JavaFX application.
      *
@@ -40,6 +57,33 @@ public class Photos extends Application {
         return photoManager;
     }
 
+    /**
+     * Returns the shared instance of {@link TaskService}.
+     *
+     * @return the application's TaskService instance.
+     */
+    public static TaskService getTaskService() {
+        return taskService;
+    }
+
+    /**
+     * Returns the shared instance of {@link MediaScheduler}.
+     *
+     * @return the application's MediaScheduler instance.
+     */
+    public static MediaScheduler getMediaScheduler() {
+        return mediaScheduler;
+    }
+
+    /**
+     * Returns the shared instance of {@link ThumbnailLoader}.
+     *
+     * @return the application's ThumbnailLoader instance.
+     */
+    public static ThumbnailLoader getThumbnailLoader() {
+        return thumbnailLoader;
+    }
+
     /**
      * Called automatically when the application starts.
      * Loads user data, initializes the login view, and sets up the main stage.
@@ -48,32 +92,27 @@ public class Photos extends Application {
      */
     @Override
     public void start(Stage stage) {
-        photoManager = new PhotoManager();
-        photoManager.loadUsers(); // 🔁 Load from disk
+        taskService = new TaskService();
+        mediaScheduler = new MediaScheduler(taskService);
+        thumbnailLoader = new ThumbnailLoader(mediaScheduler, 120);
+        photoManager = new PhotoManager(); // 🔁 Loads from disk
+        photoManager.setSaveExecutor(taskService.ioExecutor());
+        photoManager.registerMetrics();
 
         try {
-            // Load the FXML resource for the login screen
-            URL url = getClass().getResource("/view/login_view.fxml");
-            System.out.println("Loaded FXML from: " + url);  // Debug print
-
-            FXMLLoader loader = new FXMLLoader(url);
-            Parent root = loader.load();
-
-            // Create the scene and attach it to the stage
-            Scene scene = new Scene(root);
-            stage.setTitle("Photo App - Login");
-            stage.setScene(scene);
+            // Show the login screen; it prewarms the screens opened after login
+            Views.show(stage, "/view/login_view.fxml", "Photo App - Login", LoginController::init);
             stage.setResizable(false); // Prevent resizing
             stage.show();
 
         } catch (Exception e) {
-            e.printStackTrace();
+            Metrics.error("startup", e);
         }
 
         // Save user data when the window is closed
         stage.setOnCloseRequest(event -> {
             if (photoManager != null) {
-                photoManager.saveUsers();  // Ensures safe quit
+                photoManager.requestSave();  // Ensures safe quit; stop() writes the final copy
             }
         });
     }
@@ -87,5 +126,11 @@ public class Photos extends Application {
         if (photoManager != null) {
             photoManager.saveUsers(); // Persist data
         }
+        if (mediaScheduler != null) {
+            mediaScheduler.shutdown();
+        }
+        if (taskService != null) {
+            taskService.shutdown();
+        }
     }
 }
@@ -1,15 +1,25 @@
 package controller.view;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
+import app.Photos;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.stage.Stage;
+import model.AlbumSummary;
+import model.ModelListener;
 import model.PhotoManager;
+import model.Usage;
 import model.User;
+import metrics.Metrics;
+import service.TaskScope;
+import service.TaskService;
 
 /**
  * Controller class for the Admin view.
@@ -17,66 +27,270 @@ import model.User;
  * This class allows the admin to manage users within the application, including
  * listing users, creating new users, deleting existing users, and logging out.
  * </p>
+ * <p>
+ * The user table shows each user's albums, distinct photos, file bytes and
+ * tags, and can be sorted by any column. The figures come from the usage each
+ * user keeps up to date, so the table opens instantly for thousands of users;
+ * "Verify Usage" recounts everything in the background to check them.
+ * </p>
+ * <p>
+ * Users are read from the manager's sorted directory a page at a time,
+ * filtered by a name prefix as the admin types. Sorting by a column orders
+ * the users loaded so far. Several users can be created or deleted at once,
+ * and each bulk change is saved with a single write.
+ * </p>
  */
 public class AdminController {
 
+    /** Users loaded per page. */
+    private static final int PAGE_SIZE = 500;
+
+    /** Filters the table to usernames starting with the typed text. */
+    @FXML private TextField filterField;
+
+    /** Loads the next page of users; disabled when there are no more. */
+    @FXML private Button moreButton;
+
     /**
-     * The ListView UI element displaying the list of usernames.
+     * The table of users, excluding the admin, with their usage.
      */
-    @FXML private ListView<String> userList;
+    @FXML private TableView<User> userTable;
+
+    /** Username column. */
+    @FXML private TableColumn<User, String> nameColumn;
+
+    /** Album count column. */
+    @FXML private TableColumn<User, Long> albumsColumn;
+
+    /** Distinct photo count column. */
+    @FXML private TableColumn<User, Long> photosColumn;
+
+    /** File size column, sorted by bytes and shown with units. */
+    @FXML private TableColumn<User, Long> bytesColumn;
+
+    /** Tag count column. */
+    @FXML private TableColumn<User, Long> tagsColumn;
+
+    /** Library-wide totals shown under the table. */
+    @FXML private Label totalsLabel;
 
     /**
      * Reference to the shared {@link PhotoManager} instance.
      */
     private PhotoManager photoManager;
 
+    /** The last user of the last page loaded, or null before the first page. */
+    private User lastLoaded;
+
+    /** Whether the directory has users after {@link #lastLoaded} matching the filter. */
+    private boolean hasMore;
+
+    /** Background tasks started by this screen; cancelled when the admin logs out. */
+    private final TaskScope tasks = Photos.getTaskService().scope("Admin");
+
+    /**
+     * Applies user additions and removals to the table. Removed when the admin
+     * logs out.
+     */
+    private final ModelListener libraryListener = new ModelListener() {
+        @Override
+        public void userAdded(User user) {
+            TaskService.onFx(() -> {
+                if (isShown(user) && !userTable.getItems().contains(user)) {
+                    userTable.getItems().add(user);
+                    userTable.sort();
+                }
+                updateTotals();
+            });
+        }
+
+        @Override
+        public void userRemoved(User user) {
+            TaskService.onFx(() -> {
+                userTable.getItems().remove(user);
+                updateTotals();
+            });
+        }
+    };
+
+    /**
+     * Sets up the table columns. Called once when the view is loaded.
+     */
+    @FXML
+    private void initialize() {
+        nameColumn.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getUsername()));
+        albumsColumn.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getUsage().albums()));
+        photosColumn.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getUsage().photos()));
+        bytesColumn.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getUsage().bytes()));
+        tagsColumn.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getUsage().tags()));
+        bytesColumn.setCellFactory(column -> new TableCell<>() {
+            @Override
+            protected void updateItem(Long bytes, boolean empty) {
+                super.updateItem(bytes, empty);
+                setText(empty || bytes == null ? null : AlbumSummary.formatBytes(bytes));
+            }
+        });
+        userTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        filterField.textProperty().addListener((obs, oldText, newText) -> refreshUserList());
+    }
+
     /**
      * Initializes the AdminController with the provided {@link PhotoManager}.
-     * This method should be called after loading the FXML.
+     * This method is called each time the screen is shown, since the screen is reused.
      *
      * @param photoManager the PhotoManager managing application data.
      */
     public void init(PhotoManager photoManager) {
         this.photoManager = photoManager;
-        refreshUserList();
+        photoManager.addListener(libraryListener);
+        if (filterField.getText().isEmpty()) {
+            refreshUserList();
+        } else {
+            filterField.clear();
+        }
     }
 
     /**
-     * Refreshes the displayed list of users, excluding the admin user.
+     * Loads the first page of users matching the filter, excluding the admin
+     * user, keeping the current sort order. Later changes arrive through
+     * {@link #libraryListener}.
      */
     private void refreshUserList() {
-        userList.getItems().setAll(
-            photoManager.getAllUsers().stream()
-                .map(User::getUsername)
-                .filter(name -> !name.equalsIgnoreCase("admin"))
-                .toList()
-        );
+        lastLoaded = null;
+        userTable.getItems().setAll(nextPage());
+        userTable.sort();
+        updateTotals();
     }
 
     /**
-     * Prompts the admin to enter a new username and creates a new user
-     * if the username is valid and not already taken.
+     * Appends the next page of users matching the filter.
+     */
+    @FXML
+    public void showMore() {
+        userTable.getItems().addAll(nextPage());
+        userTable.sort();
+        updateTotals();
+    }
+
+    /**
+     * Reads the page of users after {@link #lastLoaded} and updates the paging
+     * state. Reads one extra user to learn whether there are more.
+     *
+     * @return the users of the page, excluding the admin
+     */
+    private List<User> nextPage() {
+        List<User> page = photoManager.findUsers(filterField.getText().trim(), lastLoaded, PAGE_SIZE + 1);
+        hasMore = page.size() > PAGE_SIZE;
+        if (hasMore) {
+            page = page.subList(0, PAGE_SIZE);
+        }
+        if (!page.isEmpty()) {
+            lastLoaded = page.get(page.size() - 1);
+        }
+        moreButton.setDisable(!hasMore);
+        return page.stream().filter(user -> !isAdmin(user.getUsername())).toList();
+    }
+
+    /**
+     * Returns whether a user belongs in the loaded part of the table: it
+     * matches the filter and sorts before the end of the last page.
+     *
+     * @param user the user
+     * @return true if the table should show the user
+     */
+    private boolean isShown(User user) {
+        String name = user.getUsername();
+        String prefix = filterField.getText().trim().toLowerCase(Locale.ROOT);
+        if (isAdmin(name) || !name.toLowerCase(Locale.ROOT).startsWith(prefix)) return false;
+        return !hasMore || PhotoManager.DIRECTORY_ORDER.compare(user, lastLoaded) < 0;
+    }
+
+    /**
+     * Shows the library-wide usage totals.
+     */
+    private void updateTotals() {
+        Usage total = photoManager.getUsage();
+        totalsLabel.setText(userTable.getItems().size() + (hasMore ? "+" : "") + " users shown; library: "
+                + total.albums() + " albums, " + total.photos() + " photos, "
+                + AlbumSummary.formatBytes(total.bytes()) + ", " + total.tags() + " tags");
+    }
+
+    /**
+     * Returns whether a username belongs to the admin, who is not listed.
+     *
+     * @param name the username
+     * @return true for the admin
+     */
+    private static boolean isAdmin(String name) {
+        return name.equalsIgnoreCase("admin");
+    }
+
+    /**
+     * Prompts the admin for one or more usernames, separated by commas or
+     * spaces, and creates the users whose names are not already taken with a
+     * single save.
      */
     public void createUser() {
         TextInputDialog dialog = new TextInputDialog();
-        dialog.setHeaderText("Enter new username:");
-        dialog.showAndWait().ifPresent(userName -> {
-            if (photoManager.getUser(userName) == null && !userName.isBlank()) {
-                photoManager.addUser(new User(userName, null));
-                refreshUserList();
+        dialog.setHeaderText("Enter new username(s), separated by commas or spaces:");
+        dialog.showAndWait().ifPresent(input -> {
+            Set<String> names = new LinkedHashSet<>();
+            for (String name : input.split("[,\\s]+")) {
+                if (!name.isBlank() && !isAdmin(name) && photoManager.getUser(name) == null) {
+                    names.add(name);
+                }
             }
+            if (names.isEmpty()) return;
+
+            List<User> created = new ArrayList<>(names.size());
+            for (String name : names) {
+                created.add(new User(name, null));
+            }
+            photoManager.addUsers(created);
         });
     }
 
     /**
-     * Deletes the selected user from the list, excluding the admin.
+     * Deletes the selected users after confirmation, excluding the admin,
+     * with a single save.
      */
     public void deleteUser() {
-        String user = userList.getSelectionModel().getSelectedItem();
-        if (user != null && !user.equalsIgnoreCase("admin")) {
-            photoManager.removeUser(user);
-            refreshUserList();
-        }
+        List<String> names = userTable.getSelectionModel().getSelectedItems().stream()
+                .map(User::getUsername)
+                .filter(name -> !isAdmin(name))
+                .toList();
+        if (names.isEmpty()) return;
+
+        Alert confirmation = new Alert(Alert.AlertType.CONFIRMATION);
+        confirmation.setTitle("Delete Users");
+        confirmation.setHeaderText(names.size() == 1
+                ? "Delete user \"" + names.get(0) + "\"?"
+                : "Delete " + names.size() + " users?");
+        confirmation.setContentText("Their albums are deleted too. This cannot be undone.");
+        confirmation.showAndWait().ifPresent(resp -> {
+            if (resp == ButtonType.OK) {
+                photoManager.removeUsers(names);
+            }
+        });
+    }
+
+    /**
+     * Recounts every user's usage in the background, repairs any figures that
+     * were off and reports how many there were.
+     */
+    @FXML
+    public void verifyUsage() {
+        TaskService.onFx(tasks.cpu("verify usage", photoManager::verifyUsage), mismatched -> {
+            userTable.refresh();
+            userTable.sort();
+            updateTotals();
+            Alert info = new Alert(Alert.AlertType.INFORMATION);
+            info.setHeaderText("Usage Verified");
+            info.setContentText(mismatched == 0
+                    ? "All usage figures match a full recount."
+                    : mismatched + " user(s) had wrong usage figures; they were recounted.");
+            info.showAndWait();
+        }, e -> Metrics.error("usage", e));
     }
 
     /**
@@ -85,15 +299,14 @@ public class AdminController {
     @FXML
     public void logout() {
         try {
-            photoManager.saveUsers();
+            photoManager.requestSave();
 
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/login_view.fxml"));
-            Stage stage = (Stage) userList.getScene().getWindow();
-            Parent root = loader.load();
-            stage.setScene(new Scene(root));
-            stage.setTitle("Photo Login");
+            Stage stage = (Stage) userTable.getScene().getWindow();
+            Views.show(stage, "/view/login_view.fxml", "Photo Login", LoginController::init);
+            tasks.cancelAll();
+            photoManager.removeListener(libraryListener);
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("navigation", e);
         }
     }
 }
@@ -3,12 +3,11 @@ package controller.view;
 import java.io.IOException;
 
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.stage.Stage;
 import model.*;
+import metrics.Metrics;
+import service.TaskService;
 
 /**
  * Controller class for managing the album view in the Photo App.
@@ -34,8 +33,39 @@ public class AlbumViewController {
      */
     private PhotoManager photoManager;
 
+    /**
+     * Applies album additions, removals and changes to the list, so only the
+     * affected row is redrawn. Removed when the user leaves the screen.
+     */
+    private final ModelListener userListener = new ModelListener() {
+        @Override
+        public void albumAdded(User user, Album album) {
+            TaskService.onFx(() -> {
+                if (!albumList.getItems().contains(album)) {
+                    albumList.getItems().add(album);
+                }
+            });
+        }
+
+        @Override
+        public void albumRemoved(User user, Album album) {
+            TaskService.onFx(() -> albumList.getItems().remove(album));
+        }
+
+        @Override
+        public void albumUpdated(User user, Album album) {
+            TaskService.onFx(() -> {
+                int index = albumList.getItems().indexOf(album);
+                if (index >= 0) {
+                    albumList.getItems().set(index, album);
+                }
+            });
+        }
+    };
+
     /**
      * Initializes the controller with the current user and photo manager.
+     * Called each time the screen is shown, since the screen is reused.
      *
      * @param currUser the currently logged-in user
      * @param photoManager the PhotoManager instance managing user and album data
@@ -43,20 +73,22 @@ public class AlbumViewController {
     public void init(User currUser, PhotoManager photoManager) {
         this.currUser = currUser;
         this.photoManager = photoManager;
-        albumList.getItems().setAll(currUser.getAlbums());
+        currUser.addListener(userListener);
+        refreshAlbumList();
+        albumList.getSelectionModel().clearSelection();
+        Views.prewarm("/view/photo_view.fxml");
     }
 
     /**
      * Prompts the user to enter a new album name and adds it to their collection.
-     * Saves changes and refreshes the album list upon success.
+     * Saves changes; the list is updated by {@link #userListener}.
      */
     public void createAlbum() {
         TextInputDialog dialog = new TextInputDialog();
         dialog.setHeaderText("Enter album name:");
         dialog.showAndWait().ifPresent(albumName -> {
-            if (currUser.addAlbum(new Album(albumName))) {
-                photoManager.saveUsers();
-                albumList.getItems().setAll(currUser.getAlbums());
+            if (photoManager.write(currUser.getUsername(), () -> currUser.addAlbum(new Album(albumName)))) {
+                photoManager.requestSave();
             }
         });
     }
@@ -82,23 +114,25 @@ public class AlbumViewController {
         confirmation.setContentText("This cannot be undone.");
         confirmation.showAndWait().ifPresent(resp -> {
             if (resp == ButtonType.OK) {
-                currUser.removeAlbum(selAlbum.getName());
-                photoManager.saveUsers();
-                refreshAlbumList();
+                photoManager.write(currUser.getUsername(), () -> currUser.removeAlbum(selAlbum.getName()));
+                photoManager.requestSave();
             }
         });
     }
 
     /**
-     * Refreshes the ListView to reflect the current user's album list.
+     * Loads the ListView from a snapshot of the current user's albums. Later
+     * changes arrive through {@link #userListener}.
      */
     private void refreshAlbumList() {
-        albumList.getItems().setAll(currUser.getAlbums());
+        albumList.getItems().setAll(photoManager.snapshot(currUser).albums().stream()
+                .map(AlbumSnapshot::album)
+                .toList());
     }
 
     /**
      * Prompts the user to rename the selected album.
-     * Updates the album name and refreshes the album list.
+     * Updates the album name; its row is redrawn by {@link #userListener}.
      */
     public void renameAlbum() {
         Album selAlbum = albumList.getSelectionModel().getSelectedItem();
@@ -106,14 +140,29 @@ public class AlbumViewController {
             TextInputDialog dialog = new TextInputDialog();
             dialog.setHeaderText("Enter new name:");
             dialog.showAndWait().ifPresent(newAlbum -> {
-                if (currUser.renameAlbum(selAlbum.getName(), newAlbum)) {
-                    photoManager.saveUsers();
-                    albumList.getItems().setAll(currUser.getAlbums());
+                if (photoManager.write(currUser.getUsername(), () -> currUser.renameAlbum(selAlbum.getName(), newAlbum))) {
+                    photoManager.requestSave();
                 }
             });
         }
     }
 
+    /**
+     * Exports the selected album's files and a manifest to a ZIP file or folder.
+     * Shows a warning if no album is selected.
+     */
+    @FXML
+    public void exportAlbum() {
+        Album selAlbum = albumList.getSelectionModel().getSelectedItem();
+        if (selAlbum == null) {
+            Alert warning = new Alert(Alert.AlertType.WARNING);
+            warning.setHeaderText("Please select an album to export.");
+            warning.showAndWait();
+            return;
+        }
+        ExportDialogs.exportAlbum(albumList.getScene().getWindow(), photoManager.snapshot(currUser, selAlbum));
+    }
+
     /**
      * Opens the selected album and transitions to the photo view screen.
      * Shows a warning if no album is selected.
@@ -128,19 +177,16 @@ public class AlbumViewController {
             return;
         }
 
+        long start = System.nanoTime();
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/photo_view.fxml"));
-            Parent parent = loader.load();
-
-            PhotoViewController controller = loader.getController();
-            controller.init(currUser, selAlbum, photoManager);
-
             Stage stage = (Stage) albumList.getScene().getWindow();
-            stage.setScene(new Scene(parent));
-            stage.setTitle("Album: " + selAlbum.getName());
+            Views.<PhotoViewController>show(stage, "/view/photo_view.fxml", "Album: " + selAlbum.getName(),
+                    controller -> controller.init(currUser, selAlbum, photoManager));
+            currUser.removeListener(userListener);
+            Metrics.latency("navigation.openAlbum").recordSince(start);
 
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("navigation", e);
         }
     }
 
@@ -150,17 +196,14 @@ public class AlbumViewController {
     @FXML
     public void logout() {
         try {
-            photoManager.saveUsers();
-
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/login_view.fxml"));
-            Parent parent = loader.load();
+            photoManager.requestSave();
 
             Stage stage = (Stage) albumList.getScene().getWindow();
-            stage.setScene(new Scene(parent));
-            stage.setTitle("Photo Login");
+            Views.show(stage, "/view/login_view.fxml", "Photo Login", LoginController::init);
+            currUser.removeListener(userListener);
 
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("navigation", e);
         }
     }
 }
@@ -0,0 +1,220 @@
+package controller.view;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import app.Photos;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.ChoiceDialog;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
+import javafx.stage.Modality;
+import javafx.stage.Window;
+import metrics.Metrics;
+import model.AlbumSnapshot;
+import model.AlbumSummary;
+import model.Photo;
+import service.AlbumExporter;
+import service.ResizedExporter;
+import service.TaskService;
+
+/**
+ * Asks where to export an album or search results and runs the export in
+ * the background. Shared by the album, photo and search screens. Exports are
+ * not tied to the screen that started them, so they keep running when the
+ * user navigates away. Resized exports show a progress window that can
+ * cancel them.
+ */
+final class ExportDialogs {
+
+    /** Choice for exporting into a ZIP file. */
+    private static final String ZIP = "ZIP file";
+
+    /** Choice for exporting into a folder. */
+    private static final String FOLDER = "Folder";
+
+    /** Choice for exporting downscaled copies into a folder. */
+    private static final String RESIZED = "Resized copies for sharing";
+
+    /** Long-edge sizes offered for resized exports, in pixels. */
+    private static final List<Integer> SIZES = List.of(800, 1280, 1600, 2048, 3840);
+
+    /** Long edge selected by default. */
+    private static final int DEFAULT_SIZE = 1600;
+
+    /** JPEG qualities offered for resized exports, in percent. */
+    private static final List<Integer> QUALITIES = List.of(60, 70, 80, 85, 90, 95);
+
+    /** Quality selected by default, in percent. */
+    private static final int DEFAULT_QUALITY = 85;
+
+    private ExportDialogs() {
+    }
+
+    /**
+     * Asks for the export format and target, then exports the album on an
+     * I/O thread and reports the outcome.
+     *
+     * @param owner the window the dialogs belong to
+     * @param album the album to export
+     */
+    static void exportAlbum(Window owner, AlbumSnapshot album) {
+        ChoiceDialog<String> format = new ChoiceDialog<>(ZIP, List.of(ZIP, FOLDER, RESIZED));
+        format.initOwner(owner);
+        format.setTitle("Export Album");
+        format.setHeaderText("Export \"" + album.name() + "\" (" + album.summary() + ") to:");
+        format.showAndWait().ifPresent(choice -> {
+            if (choice.equals(RESIZED)) {
+                exportResized(owner, album.name(), album.photos());
+            } else if (choice.equals(ZIP)) {
+                FileChooser chooser = new FileChooser();
+                chooser.setTitle("Export Album as ZIP");
+                chooser.setInitialFileName(album.name() + ".zip");
+                chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("ZIP files", "*.zip"));
+                File file = chooser.showSaveDialog(owner);
+                if (file != null) {
+                    run(album, file, () -> AlbumExporter.toZip(album, file.toPath(), Photos.getMediaScheduler()));
+                }
+            } else {
+                DirectoryChooser chooser = new DirectoryChooser();
+                chooser.setTitle("Export Album to Folder");
+                File dir = chooser.showDialog(owner);
+                if (dir != null) {
+                    run(album, dir, () -> AlbumExporter.toDirectory(album, dir.toPath(), Photos.getMediaScheduler()));
+                }
+            }
+        });
+    }
+
+    /**
+     * Asks for a size, quality and folder, then writes downscaled JPEG copies
+     * of the photos using every core, showing progress and throughput.
+     *
+     * @param owner the window the dialogs belong to
+     * @param name what is being exported, for titles and messages
+     * @param photos the photos to export
+     */
+    static void exportResized(Window owner, String name, List<Photo> photos) {
+        if (photos.isEmpty()) {
+            Alert empty = new Alert(Alert.AlertType.INFORMATION);
+            empty.initOwner(owner);
+            empty.setHeaderText("There are no photos to export.");
+            empty.showAndWait();
+            return;
+        }
+        ChoiceBox<Integer> size = new ChoiceBox<>();
+        size.getItems().setAll(SIZES);
+        size.setValue(DEFAULT_SIZE);
+        ChoiceBox<Integer> quality = new ChoiceBox<>();
+        quality.getItems().setAll(QUALITIES);
+        quality.setValue(DEFAULT_QUALITY);
+        GridPane form = new GridPane();
+        form.setHgap(10);
+        form.setVgap(10);
+        form.addRow(0, new Label("Long edge (pixels):"), size);
+        form.addRow(1, new Label("JPEG quality (%):"), quality);
+
+        Dialog<ButtonType> options = new Dialog<>();
+        options.initOwner(owner);
+        options.setTitle("Export Resized Copies");
+        options.setHeaderText("Export " + photos.size() + " photos from \"" + name + "\" at web resolution.");
+        options.getDialogPane().setContent(form);
+        options.getDialogPane().getButtonTypes().setAll(ButtonType.OK, ButtonType.CANCEL);
+        if (options.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) return;
+
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Export Resized Copies to Folder");
+        File dir = chooser.showDialog(owner);
+        if (dir == null) return;
+
+        int longEdge = size.getValue();
+        float q = quality.getValue() / 100f;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ProgressBar bar = new ProgressBar(0);
+        bar.setPrefWidth(320);
+        Label status = new Label("Starting...");
+        Dialog<ButtonType> window = new Dialog<>();
+        window.initOwner(owner);
+        window.initModality(Modality.NONE);
+        window.setTitle("Exporting \"" + name + "\"");
+        window.getDialogPane().setContent(new VBox(10, bar, status));
+        window.getDialogPane().getButtonTypes().setAll(ButtonType.CANCEL);
+
+        // Workers report after every photo; only the latest report is applied, once per pulse.
+        // The task name is fixed because each name becomes its own latency metric.
+        AtomicReference<ResizedExporter.Progress> latest = new AtomicReference<>();
+        CompletableFuture<ResizedExporter.Result> export = Photos.getTaskService().io("export resized",
+                () -> ResizedExporter.export(photos, dir.toPath(), longEdge, q, threads,
+                        Photos.getMediaScheduler(), p -> {
+                    if (latest.getAndSet(p) == null) {
+                        TaskService.onFx(() -> {
+                            ResizedExporter.Progress now = latest.getAndSet(null);
+                            bar.setProgress((double) now.done() / now.total());
+                            status.setText(now.done() + " of " + now.total() + " photos, "
+                                    + String.format("%.1f", now.imagesPerSecond()) + " images/s"
+                                    + (now.failed() > 0 ? ", " + now.failed() + " failed" : ""));
+                        });
+                    }
+                }));
+        window.setOnHidden(e -> export.cancel(true));
+        window.show();
+
+        TaskService.onFx(export, result -> {
+            window.setOnHidden(null);
+            window.close();
+            Alert done = new Alert(Alert.AlertType.INFORMATION);
+            done.initOwner(owner);
+            done.setHeaderText("Export Complete");
+            done.setContentText(result.files() + " photos (" + AlbumSummary.formatBytes(result.bytes())
+                    + ") exported to " + dir + " at " + String.format("%.1f", result.imagesPerSecond())
+                    + " images/s."
+                    + (result.failed() > 0 ? "\n" + result.failed() + " photo(s) could not be read and were skipped." : ""));
+            done.show();
+        }, e -> {
+            window.setOnHidden(null);
+            window.close();
+            Metrics.error("export", e);
+            Alert error = new Alert(Alert.AlertType.ERROR);
+            error.initOwner(owner);
+            error.setHeaderText("Export Failed");
+            error.setContentText("The photos could not be exported: " + e.getMessage());
+            error.show();
+        });
+    }
+
+    /**
+     * Runs an export and shows its outcome. The task name is fixed, since
+     * every task name becomes a latency metric of its own; the album name
+     * only appears in the messages.
+     *
+     * @param album the album being exported
+     * @param target the ZIP file or folder, for the message
+     * @param export the export to run
+     */
+    private static void run(AlbumSnapshot album, File target, Callable<AlbumExporter.Result> export) {
+        TaskService.onFx(Photos.getTaskService().io("export album", export), result -> {
+            Alert done = new Alert(Alert.AlertType.INFORMATION);
+            done.setHeaderText("Export Complete");
+            done.setContentText(result.files() + " photos (" + AlbumSummary.formatBytes(result.bytes())
+                    + ") from \"" + album.name() + "\" exported to " + target + "."
+                    + (result.missing() > 0 ? "\n" + result.missing() + " photo file(s) were missing and skipped." : ""));
+            done.show();
+        }, e -> {
+            Metrics.error("export", e);
+            Alert error = new Alert(Alert.AlertType.ERROR);
+            error.setHeaderText("Export Failed");
+            error.setContentText("\"" + album.name() + "\" could not be exported: " + e.getMessage());
+            error.show();
+        });
+    }
+}
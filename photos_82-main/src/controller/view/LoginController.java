@@ -5,11 +5,9 @@ import java.io.IOException;
 import app.Photos;
 import javafx.fxml.FXML;
 import javafx.scene.control.TextField;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.stage.Stage;
-import javafx.fxml.FXMLLoader;
 import model.*;
+import metrics.Metrics;
 
 /**
  * Controller class for handling user login in the Photo App.
@@ -31,6 +29,16 @@ public class LoginController {
      */
     PhotoManager photoManager = Photos.getPhotoManager();
 
+    /**
+     * Clears the username field and starts loading the screens a user opens
+     * next, so they are ready when the login completes. Called each time the
+     * screen is shown, since the screen is reused.
+     */
+    public void init() {
+        usernames.clear();
+        Views.prewarm("/view/album_view.fxml", "/view/photo_view.fxml");
+    }
+
     /**
      * Handles login when the user clicks the login button or presses enter.
      * <ul>
@@ -48,19 +56,12 @@ public class LoginController {
         // Admin login
         if (username.equalsIgnoreCase("admin")) {
             try {
-                FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/admin_view.fxml"));
-                Parent parent = loader.load();
-
-                AdminController controller = loader.getController();
-                controller.init(photoManager);
-
                 Stage stage = (Stage) usernames.getScene().getWindow();
-                stage.setScene(new Scene(parent));
-                stage.setTitle("Admin Subsystem");
-                stage.show();
+                Views.<AdminController>show(stage, "/view/admin_view.fxml", "Admin Subsystem",
+                        controller -> controller.init(photoManager));
                 return;
             } catch (IOException e) {
-                e.printStackTrace();
+                Metrics.error("navigation", e);
             }
         }
 
@@ -71,17 +72,13 @@ public class LoginController {
             photoManager.addUser(user);
         }
 
+        User current = user;
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/album_view.fxml"));
-            Scene scene = new Scene(loader.load());
-
-            AlbumViewController controller = loader.getController();
-            controller.init(user, photoManager);
-
             Stage stage = (Stage) usernames.getScene().getWindow();
-            stage.setScene(scene);
+            Views.<AlbumViewController>show(stage, "/view/album_view.fxml", "Albums - " + username,
+                    controller -> controller.init(current, photoManager));
         } catch (Exception e) {
-            e.printStackTrace();
+            Metrics.error("navigation", e);
         }
     }
 }
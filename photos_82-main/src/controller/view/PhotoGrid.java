@@ -0,0 +1,547 @@
+package controller.view;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import app.Photos;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import model.Photo;
+import service.TaskService;
+import service.ThumbnailLoader;
+
+/**
+ * Scrollable grid of photo thumbnails with captions.
+ * <p>
+ * The grid is virtualized: it is a {@link ListView} whose items are row
+ * numbers, and each row cell holds one tile per column. Only rows on screen
+ * have cells, and cells and their image views are reused as the user
+ * scrolls. Binding a tile to a different photo cancels the previous photo's
+ * pending decode. A few rows below each bound row are prefetched at lower
+ * priority. The column count follows the grid's width.
+ * </p>
+ * <p>
+ * Selection is a single photo, changed by clicking a tile. Double-clicking a
+ * tile calls the {@link #setOnOpen open handler}.
+ * </p>
+ * <p>
+ * Besides {@link #setPhotos replacing} the photos, the grid applies single
+ * changes with {@link #insertPhotos}, {@link #removePhotos} and
+ * {@link #updatePhoto}. Those rebind only the cells at or after the change
+ * and keep the scroll position, so editing one photo in a large album does
+ * not reload every thumbnail on screen.
+ * </p>
+ */
+public final class PhotoGrid extends StackPane {
+
+    /** Horizontal and vertical space between tiles. */
+    private static final double GAP = 8;
+
+    /** Height reserved for a tile's caption. */
+    private static final double CAPTION_HEIGHT = 18;
+
+    /** Width reserved for the vertical scroll bar. */
+    private static final double SCROLLBAR_ALLOWANCE = 20;
+
+    /** Rows below each bound row whose thumbnails are prefetched. */
+    private static final int OVERSCAN_ROWS = 2;
+
+    /** Tile style for the selected photo. */
+    private static final String SELECTED_STYLE =
+            "-fx-background-color: -fx-selection-bar; -fx-background-radius: 4;";
+
+    /** Tile style for other photos. */
+    private static final String NORMAL_STYLE = "-fx-background-color: transparent;";
+
+    /** The virtualized list of rows. */
+    private final ListView<Integer> rows = new ListView<>();
+
+    /** Row cells created by the list view; there are only as many as fit on screen. */
+    private final List<RowCell> cells = new ArrayList<>();
+
+    /** The selected photo, or null. */
+    private final ObjectProperty<Photo> selectedPhoto = new SimpleObjectProperty<>(this, "selectedPhoto");
+
+    /** The photos shown, in order. */
+    private final List<Photo> photos = new ArrayList<>();
+
+    /** The photos shown, by identity, to skip duplicate inserts. */
+    private final Set<Photo> present = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Number of tiles per row. */
+    private int columns = 1;
+
+    /** Called when a tile is double-clicked. */
+    private Consumer<Photo> onOpen;
+
+    /** Decodes and caches thumbnails; looked up when first needed. */
+    private ThumbnailLoader loader;
+
+    /**
+     * Creates an empty grid.
+     */
+    public PhotoGrid() {
+        rows.setCellFactory(list -> {
+            RowCell cell = new RowCell();
+            cells.add(cell);
+            return cell;
+        });
+        rows.setFixedCellSize(thumbnailSize() + CAPTION_HEIGHT + GAP * 2);
+        rows.setFocusTraversable(false);
+        getChildren().add(rows);
+
+        rows.widthProperty().addListener((obs, oldWidth, newWidth) -> updateColumns());
+        selectedPhoto.addListener((obs, oldPhoto, newPhoto) -> {
+            for (RowCell cell : cells) {
+                cell.updateSelection();
+            }
+        });
+    }
+
+    /**
+     * Replaces the photos shown. Keeps the selection if the selected photo is
+     * still present.
+     *
+     * @param photos the photos, in display order
+     */
+    public void setPhotos(List<Photo> photos) {
+        this.photos.clear();
+        this.present.clear();
+        for (Photo photo : photos) {
+            if (present.add(photo)) {
+                this.photos.add(photo);
+            }
+        }
+        Photo selected = selectedPhoto.get();
+        if (selected != null && !present.contains(selected)) {
+            selectedPhoto.set(null);
+        }
+        rebuildRows();
+    }
+
+    /**
+     * Inserts photos at a position. Photos already shown are skipped, so an
+     * event that overlaps a snapshot taken at the same time does no harm.
+     *
+     * @param index the position of the first photo; clamped to the list
+     * @param added the photos, in display order
+     */
+    public void insertPhotos(int index, List<Photo> added) {
+        List<Photo> fresh = new ArrayList<>(added.size());
+        for (Photo photo : added) {
+            if (present.add(photo)) {
+                fresh.add(photo);
+            }
+        }
+        if (fresh.isEmpty()) return;
+
+        int at = Math.max(0, Math.min(index, photos.size()));
+        photos.addAll(at, fresh);
+        syncRows();
+        rebindFrom(at / columns);
+    }
+
+    /**
+     * Removes photos. Photos not shown are ignored, and the selection is
+     * cleared if the selected photo is removed.
+     *
+     * @param removed the photos to remove
+     */
+    public void removePhotos(Collection<Photo> removed) {
+        Set<Photo> gone = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Photo photo : removed) {
+            if (present.remove(photo)) {
+                gone.add(photo);
+            }
+        }
+        if (gone.isEmpty()) return;
+
+        int first = photos.size();
+        for (int i = 0; i < photos.size(); i++) {
+            if (gone.contains(photos.get(i))) {
+                first = i;
+                break;
+            }
+        }
+        photos.removeIf(gone::contains);
+        if (gone.contains(selectedPhoto.get())) {
+            selectedPhoto.set(null);
+        }
+        syncRows();
+        rebindFrom(first / columns);
+    }
+
+    /**
+     * Refreshes the caption of a photo whose details changed. The thumbnail
+     * is kept.
+     *
+     * @param photo the changed photo
+     */
+    public void updatePhoto(Photo photo) {
+        if (!present.contains(photo)) return;
+        for (RowCell cell : cells) {
+            cell.updatePhoto(photo);
+        }
+    }
+
+    /**
+     * Returns the photos shown.
+     *
+     * @return an unmodifiable view of the photos
+     */
+    public List<Photo> getPhotos() {
+        return Collections.unmodifiableList(photos);
+    }
+
+    /**
+     * Returns the selected photo.
+     *
+     * @return the selected photo, or null if none
+     */
+    public Photo getSelectedPhoto() {
+        return selectedPhoto.get();
+    }
+
+    /**
+     * Returns the property holding the selected photo.
+     *
+     * @return the selection property
+     */
+    public ReadOnlyObjectProperty<Photo> selectedPhotoProperty() {
+        return selectedPhoto;
+    }
+
+    /**
+     * Sets the handler called with a photo when its tile is double-clicked.
+     *
+     * @param onOpen the handler, or null
+     */
+    public void setOnOpen(Consumer<Photo> onOpen) {
+        this.onOpen = onOpen;
+    }
+
+    /**
+     * Cancels every pending thumbnail decode. Call when leaving the screen.
+     */
+    public void cancelLoads() {
+        for (RowCell cell : cells) {
+            cell.unbind();
+        }
+        if (loader != null) {
+            loader.cancelAll();
+        }
+    }
+
+    /**
+     * Returns the thumbnail loader, looking it up on first use.
+     *
+     * @return the loader
+     */
+    private ThumbnailLoader loader() {
+        if (loader == null) {
+            loader = Photos.getThumbnailLoader();
+        }
+        return loader;
+    }
+
+    /**
+     * Returns the edge length of a tile's image area.
+     *
+     * @return the thumbnail size in pixels
+     */
+    private double thumbnailSize() {
+        return loader() != null ? loader().getSize() : 120;
+    }
+
+    /**
+     * Recomputes the column count from the current width and rebuilds the
+     * rows if it changed.
+     */
+    private void updateColumns() {
+        double usable = rows.getWidth() - SCROLLBAR_ALLOWANCE;
+        int fit = Math.max(1, (int) ((usable + GAP) / (thumbnailSize() + GAP)));
+        if (fit != columns) {
+            columns = fit;
+            rebuildRows();
+        }
+    }
+
+    /**
+     * Rebuilds the row items for the current photos and column count, and
+     * keeps the selected photo in view.
+     */
+    private void rebuildRows() {
+        int rowCount = (photos.size() + columns - 1) / columns;
+        List<Integer> items = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            items.add(i);
+        }
+        rows.getItems().setAll(items);
+
+        Photo selected = selectedPhoto.get();
+        if (selected != null) {
+            rows.scrollTo(photos.indexOf(selected) / columns);
+        }
+    }
+
+    /**
+     * Adds or removes trailing row items so there is one per row of photos.
+     * Rows that stay keep their cells.
+     */
+    private void syncRows() {
+        int rowCount = (photos.size() + columns - 1) / columns;
+        ObservableList<Integer> items = rows.getItems();
+        if (items.size() > rowCount) {
+            items.remove(rowCount, items.size());
+        } else if (items.size() < rowCount) {
+            List<Integer> more = new ArrayList<>(rowCount - items.size());
+            for (int i = items.size(); i < rowCount; i++) {
+                more.add(i);
+            }
+            items.addAll(more);
+        }
+    }
+
+    /**
+     * Rebinds the visible cells showing a row at or after the given one,
+     * whose photos moved after an insert or removal.
+     *
+     * @param row the first row that changed
+     */
+    private void rebindFrom(int row) {
+        for (RowCell cell : cells) {
+            Integer item = cell.getItem();
+            if (!cell.isEmpty() && item != null && item >= row) {
+                cell.show(item);
+            }
+        }
+    }
+
+    /**
+     * One row of the grid, holding a tile per column.
+     */
+    private final class RowCell extends ListCell<Integer> {
+
+        /** The tiles laid out across the row. */
+        private final HBox box = new HBox(GAP);
+
+        /** The tiles, reused for whatever row this cell shows. */
+        private final List<Tile> tiles = new ArrayList<>();
+
+        RowCell() {
+            box.setPadding(new Insets(GAP / 2, GAP / 2, GAP / 2, GAP / 2));
+            setStyle("-fx-background-color: transparent; -fx-padding: 0;");
+            setText(null);
+        }
+
+        @Override
+        protected void updateItem(Integer row, boolean empty) {
+            super.updateItem(row, empty);
+            if (empty || row == null) {
+                unbind();
+                setGraphic(null);
+                return;
+            }
+            show(row);
+        }
+
+        /**
+         * Binds the tiles to the photos of a row.
+         *
+         * @param row the row to show
+         */
+        void show(int row) {
+            while (tiles.size() < columns) {
+                Tile tile = new Tile();
+                tiles.add(tile);
+                box.getChildren().add(tile);
+            }
+            while (tiles.size() > columns) {
+                tiles.remove(tiles.size() - 1).bind(null);
+                box.getChildren().remove(box.getChildren().size() - 1);
+            }
+
+            int first = row * columns;
+            for (int c = 0; c < columns; c++) {
+                int index = first + c;
+                tiles.get(c).bind(index < photos.size() ? photos.get(index) : null);
+            }
+            setGraphic(box);
+            prefetch(row);
+        }
+
+        /**
+         * Prefetches the thumbnails of the rows just below this one.
+         *
+         * @param row the row this cell shows
+         */
+        private void prefetch(int row) {
+            ThumbnailLoader l = loader();
+            if (l == null) return;
+            int from = (row + 1) * columns;
+            int to = Math.min(photos.size(), (row + 1 + OVERSCAN_ROWS) * columns);
+            for (int i = from; i < to; i++) {
+                l.prefetch(photos.get(i), columns * OVERSCAN_ROWS * 2);
+            }
+        }
+
+        /**
+         * Releases every tile, cancelling pending decodes.
+         */
+        void unbind() {
+            for (Tile tile : tiles) {
+                tile.bind(null);
+            }
+        }
+
+        /**
+         * Refreshes the caption of any tile showing a photo.
+         *
+         * @param photo the changed photo
+         */
+        void updatePhoto(Photo photo) {
+            for (Tile tile : tiles) {
+                if (tile.photo == photo) {
+                    tile.bind(photo);
+                }
+            }
+        }
+
+        /**
+         * Restyles the tiles after the selection changed.
+         */
+        void updateSelection() {
+            for (Tile tile : tiles) {
+                tile.updateSelection();
+            }
+        }
+    }
+
+    /**
+     * A thumbnail and caption for one photo.
+     */
+    private final class Tile extends VBox {
+
+        /** Shows the thumbnail; reused across photos. */
+        private final ImageView image = new ImageView();
+
+        /** Shows the caption or file name. */
+        private final Label caption = new Label();
+
+        /** The photo shown, or null. */
+        private Photo photo;
+
+        /** The decode for {@link #photo} if it has not finished. */
+        private CompletableFuture<Image> pending;
+
+        Tile() {
+            double size = thumbnailSize();
+            image.setFitWidth(size);
+            image.setFitHeight(size);
+            image.setPreserveRatio(true);
+
+            StackPane frame = new StackPane(image);
+            frame.setMinSize(size, size);
+            frame.setPrefSize(size, size);
+            frame.setMaxSize(size, size);
+
+            caption.setMaxWidth(size);
+            caption.setPrefHeight(CAPTION_HEIGHT);
+
+            setAlignment(Pos.TOP_CENTER);
+            setPadding(new Insets(2));
+            getChildren().addAll(frame, caption);
+            setStyle(NORMAL_STYLE);
+
+            setOnMouseClicked(event -> {
+                if (photo == null || event.getButton() != MouseButton.PRIMARY) return;
+                selectedPhoto.set(photo);
+                if (event.getClickCount() == 2 && onOpen != null) {
+                    onOpen.accept(photo);
+                }
+            });
+        }
+
+        /**
+         * Shows a photo in this tile, or clears it. Does nothing if the tile
+         * already shows the photo.
+         *
+         * @param next the photo to show, or null to clear the tile
+         */
+        void bind(Photo next) {
+            if (next == photo) {
+                if (next != null) caption.setText(label(next));
+                updateSelection();
+                return;
+            }
+            if (pending != null) {
+                pending.cancel(true);
+                pending = null;
+            }
+            photo = next;
+            setVisible(next != null);
+            updateSelection();
+            if (next == null) {
+                image.setImage(null);
+                caption.setText(null);
+                return;
+            }
+
+            caption.setText(label(next));
+            ThumbnailLoader l = loader();
+            Image cached = l != null ? l.cached(next) : null;
+            image.setImage(cached);
+            if (cached == null && l != null) {
+                CompletableFuture<Image> load = l.load(next);
+                pending = load;
+                TaskService.onFx(load, thumbnail -> {
+                    if (pending != load) return;
+                    pending = null;
+                    image.setImage(thumbnail);
+                }, error -> {
+                    if (pending == load) pending = null;
+                });
+            }
+        }
+
+        /**
+         * Applies the selected or normal style.
+         */
+        void updateSelection() {
+            setStyle(photo != null && photo == selectedPhoto.get() ? SELECTED_STYLE : NORMAL_STYLE);
+        }
+
+        /**
+         * Returns the text shown under a thumbnail: the caption, or the file name.
+         *
+         * @param p the photo
+         * @return the label text
+         */
+        private String label(Photo p) {
+            String text = p.getCaption();
+            if (text != null && !text.isBlank()) return text;
+            String path = p.getFilePath();
+            int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+            return path.substring(slash + 1);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package controller.view;
 
+import app.Photos;
 import model.Tag;
 import model.User;
 
@@ -11,7 +12,6 @@ import java.util.Set;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.geometry.Insets;
-import javafx.scene.control.ListView;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
@@ -19,14 +19,23 @@ import javafx.stage.Stage;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
 import model.Album;
+import model.AlbumSnapshot;
+import model.ModelListener;
 import model.Photo;
 import model.PhotoManager;
+import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import service.MediaScheduler.Priority;
+import service.TaskScope;
+import service.TaskService;
+import metrics.ImageDecodeEvent;
+import metrics.Metrics;
 
 /**
  * Controller class for managing photos within an album in the Photo App.
@@ -37,8 +46,17 @@ import javafx.scene.image.ImageView;
  */
 public class PhotoViewController {
 
-    /** ListView displaying all photos in the current album. */
-    @FXML private ListView<Photo> photoList;
+    /** Thumbnail grid displaying all photos in the current album. */
+    @FXML private PhotoGrid photoGrid;
+
+    /** Adds a photo to the album; disabled in smart albums. */
+    @FXML private Button addButton;
+
+    /** Removes the selected photo from the album; disabled in smart albums. */
+    @FXML private Button removeButton;
+
+    /** Moves the selected photo to another album; disabled in smart albums. */
+    @FXML private Button moveButton;
 
     /** The PhotoManager managing users and persistent data. */
     private PhotoManager photoManager;
@@ -52,8 +70,30 @@ public class PhotoViewController {
     /** Default message used when no photo is selected. */
     private String noPhoto = "No Photo Selected";
 
+    /** Background tasks started by this screen; cancelled when the user leaves it. */
+    private final TaskScope tasks = Photos.getTaskService().scope("Photo view");
+
+    /** Applies changes to the current album to the grid; removed when the user leaves. */
+    private final ModelListener albumListener = new ModelListener() {
+        @Override
+        public void photosAdded(Album album, int index, List<Photo> photos) {
+            TaskService.onFx(() -> photoGrid.insertPhotos(index, photos));
+        }
+
+        @Override
+        public void photosRemoved(Album album, List<Photo> photos) {
+            TaskService.onFx(() -> photoGrid.removePhotos(photos));
+        }
+
+        @Override
+        public void photoUpdated(Album album, Photo photo) {
+            TaskService.onFx(() -> photoGrid.updatePhoto(photo));
+        }
+    };
+
     /**
      * Initializes the controller with the current user, album, and photo manager.
+     * Called each time the screen is shown, since the screen is reused.
      * 
      * @param currentUser the user logged in
      * @param currentAlbum the album being viewed
@@ -64,16 +104,14 @@ public class PhotoViewController {
         this.currentAlbum = currentAlbum;
         this.photoManager = photoManager;
 
+        currentAlbum.addListener(albumListener);
         refreshPhotoList();
+        addButton.setDisable(currentAlbum.isSmart());
+        removeButton.setDisable(currentAlbum.isSmart());
+        moveButton.setDisable(currentAlbum.isSmart());
 
-        photoList.setOnMouseClicked(event -> {
-            if (event.getClickCount() == 2) {
-                Photo photo = photoList.getSelectionModel().getSelectedItem();
-                if (photo != null) {
-                    showPhotoDetails(photo);
-                }
-            }
-        });
+        photoGrid.setOnOpen(this::showPhotoDetails);
+        Views.prewarm("/view/search_view.fxml");
     }
 
     /**
@@ -90,10 +128,28 @@ public class PhotoViewController {
         VBox vbox = new VBox(10);
         vbox.setPadding(new Insets(10));
 
-        ImageView imageView = new ImageView(new javafx.scene.image.Image("file:" + photo.getFilePath()));
+        ImageView imageView = new ImageView();
         imageView.setFitWidth(300);
         imageView.setPreserveRatio(true);
 
+        File file = new File(photo.getFilePath());
+        TaskService.onFx(tasks.track(Photos.getMediaScheduler().submit(Priority.VISIBLE, "details image", photo.getFileSize(),
+                        () -> {
+                            long start = System.nanoTime();
+                            ImageDecodeEvent event = new ImageDecodeEvent();
+                            event.begin();
+                            Image image = new Image(file.toURI().toString(), 300, 0, true, true, false);
+                            event.finish("details", file.getPath(), (int) image.getWidth(),
+                                    (int) image.getHeight(), image.isError());
+                            if (image.isError()) throw image.getException();
+                            Metrics.latency("image.details").recordSince(start);
+                            return image;
+                        })),
+                imageView::setImage, e -> {
+                    Metrics.latency("image.details").fail();
+                    Metrics.error("image.details", e);
+                });
+
         Label caption = new Label("Caption: " + (photo.getCaption() != null ? photo.getCaption() : "(none)"));
         Label date = new Label("Date: " + photo.getFormattedDate());
 
@@ -108,15 +164,18 @@ public class PhotoViewController {
     }
 
     /**
-     * Refreshes the photo list to reflect the current album.
+     * Loads the grid from a snapshot of the current album. Later changes
+     * arrive through {@link #albumListener}.
      */
     private void refreshPhotoList() {
-        photoList.getItems().setAll(currentAlbum.getPhotos());
+        photoGrid.setPhotos(photoManager.snapshot(currentUser, currentAlbum).photos());
     }
 
     /**
      * Opens a file chooser to let the user add a new photo to the album.
-     * Prevents adding duplicate photo paths.
+     * Prevents adding duplicate photo paths; in managed-library mode, where the
+     * file is stored by content, this also catches copies of a file already in
+     * the album.
      */
     public void addPhoto() {
         FileChooser fileChooser = new FileChooser();
@@ -125,31 +184,37 @@ public class PhotoViewController {
             new FileChooser.ExtensionFilter("Image Files", "*.jpg", "*.jpeg", "*.png", "*.gif", "*.bmp")
         );
 
-        File file = fileChooser.showOpenDialog(photoList.getScene().getWindow());
+        File file = fileChooser.showOpenDialog(photoGrid.getScene().getWindow());
 
         if (file != null) {
             String path = file.getAbsolutePath();
-            for (Photo photo : currentAlbum.getPhotos()) {
-                if (photo.getFilePath().equals(path)) {
+            if (currentAlbum.containsPath(path)) {
+                Alert warning = new Alert(Alert.AlertType.WARNING);
+                warning.setHeaderText("Duplicate Photo");
+                warning.setContentText("This photo already exists in the album.");
+                warning.showAndWait();
+                return;
+            }
+
+            // The size is read on the media thread, not here: a stat may block on the disk.
+            TaskService.onFx(tasks.track(Photos.getMediaScheduler().submit(Priority.IMPORT, "import photo", 0, () -> {
+                Photos.getMediaScheduler().charge(Priority.IMPORT, file.length());
+                return photoManager.importPhoto(path);
+            })), newPhoto -> {
+                if (photoManager.write(currentUser.getUsername(), () -> currentAlbum.addPhoto(newPhoto))) {
+                    photoManager.requestSave();
+                } else {
                     Alert warning = new Alert(Alert.AlertType.WARNING);
                     warning.setHeaderText("Duplicate Photo");
                     warning.setContentText("This photo already exists in the album.");
                     warning.showAndWait();
-                    return;
                 }
-            }
-
-            try {
-                Photo newPhoto = new Photo(path);
-                currentAlbum.addPhoto(newPhoto);
-                photoManager.saveUsers();
-                refreshPhotoList();
-            } catch (IllegalArgumentException e) {
+            }, e -> {
                 Alert error = new Alert(Alert.AlertType.ERROR);
                 error.setHeaderText("Invalid Photo");
                 error.setContentText("The selected file could not be loaded.");
                 error.showAndWait();
-            }
+            });
         }
     }
 
@@ -158,7 +223,7 @@ public class PhotoViewController {
      */
     @FXML
     public void removePhoto() {
-        Photo photo = photoList.getSelectionModel().getSelectedItem();
+        Photo photo = photoGrid.getSelectedPhoto();
 
         if (photo == null) {
             Alert warning = new Alert(Alert.AlertType.WARNING);
@@ -175,9 +240,8 @@ public class PhotoViewController {
 
         confirmation.showAndWait().ifPresent(res -> {
             if (res == ButtonType.OK) {
-                currentAlbum.removePhoto(photo);
-                photoManager.saveUsers();
-                refreshPhotoList();
+                photoManager.write(currentUser.getUsername(), () -> currentAlbum.removePhoto(photo));
+                photoManager.requestSave();
             }
         });
     }
@@ -187,7 +251,7 @@ public class PhotoViewController {
      */
     @FXML
     public void editCaption() {
-        Photo photo = photoList.getSelectionModel().getSelectedItem();
+        Photo photo = photoGrid.getSelectedPhoto();
 
         if (photo == null) {
             Alert warning = new Alert(Alert.AlertType.WARNING);
@@ -203,9 +267,8 @@ public class PhotoViewController {
         dialog.setContentText("New Caption:");
 
         dialog.showAndWait().ifPresent(caption -> {
-            photo.setCaption(caption.trim());
-            photoManager.saveUsers();
-            refreshPhotoList();
+            photoManager.write(currentUser.getUsername(), () -> photo.setCaption(caption.trim()));
+            photoManager.requestSave();
         });
     }
 
@@ -215,7 +278,7 @@ public class PhotoViewController {
      */
     @FXML
     public void addTag() {
-        Photo photo = photoList.getSelectionModel().getSelectedItem();
+        Photo photo = photoGrid.getSelectedPhoto();
 
         if (photo == null) {
             Alert warning = new Alert(Alert.AlertType.WARNING);
@@ -239,15 +302,14 @@ public class PhotoViewController {
             dialog2.setContentText("Tag Value:");
 
             dialog2.showAndWait().ifPresent(value -> {
-                boolean added = photo.addTag(type.trim(), value.trim());
+                boolean added = photoManager.write(currentUser.getUsername(), () -> photo.addTag(type.trim(), value.trim()));
                 if (!added) {
                     Alert warning = new Alert(Alert.AlertType.WARNING);
                     warning.setHeaderText("Duplicate Tag");
                     warning.setContentText("This tag already exists.");
                     warning.showAndWait();
                 } else {
-                    photoManager.saveUsers();
-                    refreshPhotoList();
+                    photoManager.requestSave();
                 }
             });
         });
@@ -258,7 +320,7 @@ public class PhotoViewController {
      */
     @FXML
     public void removeTag() {
-        Photo photo = photoList.getSelectionModel().getSelectedItem();
+        Photo photo = photoGrid.getSelectedPhoto();
 
         if (photo == null) {
             Alert warning = new Alert(Alert.AlertType.WARNING);
@@ -277,15 +339,15 @@ public class PhotoViewController {
             return;
         }
 
-        ChoiceDialog<Tag> dialog = new ChoiceDialog<>(tags.iterator().next(), tags);
+        List<Tag> tagChoices = List.copyOf(tags);
+        ChoiceDialog<Tag> dialog = new ChoiceDialog<>(tagChoices.get(0), tagChoices);
         dialog.setTitle("Remove Tag");
         dialog.setHeaderText("Select a tag to remove:");
         dialog.setContentText("Tags:");
 
         dialog.showAndWait().ifPresent(tag -> {
-            photo.removeTag(tag.getName(), tag.getValue());
-            photoManager.saveUsers();
-            refreshPhotoList();
+            photoManager.write(currentUser.getUsername(), () -> photo.removeTag(tag.getName(), tag.getValue()));
+            photoManager.requestSave();
         });
     }
 
@@ -295,18 +357,18 @@ public class PhotoViewController {
      */
     @FXML
     public void copyPhoto() {
-        Photo photo = photoList.getSelectionModel().getSelectedItem();
+        Photo photo = photoGrid.getSelectedPhoto();
 
         if (photo == null) {
             showAlert(noPhoto, "Select a photo to copy.");
             return;
         }
 
-        List<String> albumNames = photoManager.getUser(currentUser.getUsername())
-                                              .getAlbums()
+        List<String> albumNames = photoManager.snapshot(currentUser)
+                                              .albums()
                                               .stream()
-                                              .map(Album::getName)
-                                              .filter(name -> !name.equals(currentAlbum.getName()))
+                                              .filter(a -> a.album() != currentAlbum && !a.album().isSmart())
+                                              .map(AlbumSnapshot::name)
                                               .toList();
 
         if (albumNames.isEmpty()) {
@@ -320,10 +382,11 @@ public class PhotoViewController {
 
         dialog.showAndWait().ifPresent(albumName -> {
             Album targetAlbum = photoManager.getUser(currentUser.getUsername()).getAlbum(albumName);
-            if (targetAlbum.containsPhoto(photo)) {
+            boolean copied = photoManager.write(currentUser.getUsername(), () -> targetAlbum.addPhoto(photo));
+            if (!copied) {
                 showAlert("Already Exists", "Photo already exists in selected album.");
             } else {
-                targetAlbum.addPhoto(photo);
+                photoManager.requestSave();
                 showAlert("Photo Copied", "Photo successfully copied to \"" + albumName + "\".");
             }
         });
@@ -335,18 +398,13 @@ public class PhotoViewController {
     @FXML
     public void search() {
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/search_view.fxml"));
-            Parent parent = loader.load();
-
-            SearchViewController controller = loader.getController();
-            controller.init(currentUser, currentAlbum, photoManager);
-
-            Stage stage = (Stage) photoList.getScene().getWindow();
-            stage.setScene(new Scene(parent));
-            stage.setTitle("Search Photos");
+            Stage stage = (Stage) photoGrid.getScene().getWindow();
+            Views.<SearchViewController>show(stage, "/view/search_view.fxml", "Search Photos",
+                    controller -> controller.init(currentUser, currentAlbum, photoManager));
+            leave();
 
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("navigation", e);
         }
     }
 
@@ -355,18 +413,18 @@ public class PhotoViewController {
      */
     @FXML
     public void movePhoto() {
-        Photo photo = photoList.getSelectionModel().getSelectedItem();
+        Photo photo = photoGrid.getSelectedPhoto();
 
         if (photo == null) {
             showAlert("No Photo Selected", "Select a photo to move.");
             return;
         }
 
-        List<String> albumNames = photoManager.getUser(currentUser.getUsername())
-                                              .getAlbums()
+        List<String> albumNames = photoManager.snapshot(currentUser)
+                                              .albums()
                                               .stream()
-                                              .map(Album::getName)
-                                              .filter(name -> !name.equals(currentAlbum.getName()))
+                                              .filter(a -> a.album() != currentAlbum && !a.album().isSmart())
+                                              .map(AlbumSnapshot::name)
                                               .toList();
 
         if (albumNames.isEmpty()) {
@@ -380,18 +438,29 @@ public class PhotoViewController {
 
         dialog.showAndWait().ifPresent(albumName -> {
             Album targetAlbum = photoManager.getUser(currentUser.getUsername()).getAlbum(albumName);
+            boolean moved = photoManager.write(currentUser.getUsername(),
+                    () -> targetAlbum.addPhoto(photo) && currentAlbum.removePhoto(photo));
 
-            if (targetAlbum.containsPhoto(photo)) {
+            if (!moved) {
                 showAlert("Already Exists", "Photo already exists in selected album.");
             } else {
-                targetAlbum.addPhoto(photo);
-                currentAlbum.removePhoto(photo);
-                refreshPhotoList();
+                photoManager.requestSave();
                 showAlert("Photo Moved", "Photo successfully moved to \"" + albumName + "\".");
             }
         });
     }
 
+    /**
+     * Stops this screen's background work and model updates when the user
+     * leaves it.
+     */
+    private void leave() {
+        tasks.cancelAll();
+        photoGrid.cancelLoads();
+        photoGrid.setPhotos(List.of());
+        currentAlbum.removeListener(albumListener);
+    }
+
     /**
      * Displays an informational alert with the given header and content.
      *
@@ -410,33 +479,39 @@ public class PhotoViewController {
      */
     @FXML
     public void back() {
+        long start = System.nanoTime();
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/album_view.fxml"));
-            Parent parent = loader.load();
-
-            AlbumViewController controller = loader.getController();
-            controller.init(currentUser, photoManager);
-
-            Stage stage = (Stage) photoList.getScene().getWindow();
-            stage.setScene(new Scene(parent));
-            stage.setTitle("Albums - " + currentUser.getUsername());
+            Stage stage = (Stage) photoGrid.getScene().getWindow();
+            Views.<AlbumViewController>show(stage, "/view/album_view.fxml", "Albums - " + currentUser.getUsername(),
+                    controller -> controller.init(currentUser, photoManager));
+            leave();
+            Metrics.latency("navigation.albums").recordSince(start);
 
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("navigation", e);
         }
     }
 
+    /**
+     * Exports the current album's files and a manifest to a ZIP file or folder.
+     */
+    @FXML
+    public void exportAlbum() {
+        ExportDialogs.exportAlbum(photoGrid.getScene().getWindow(),
+                photoManager.snapshot(currentUser, currentAlbum));
+    }
+
     /**
      * Launches a slideshow view for the current album.
      */
     @FXML
     public void slideshow() {
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/slideshow_view.fxml"));
-            Parent parent = loader.load();
+            FXMLLoader loader = Views.load("/view/slideshow_view.fxml");
+            Parent parent = loader.getRoot();
 
             SlideShowController controller = loader.getController();
-            controller.init(currentAlbum.getPhotos());
+            controller.init(photoManager.snapshot(currentUser, currentAlbum).photos());
 
             Stage stage = new Stage();
             stage.setTitle("Slideshow - " + currentAlbum.getName());
@@ -444,7 +519,7 @@ public class PhotoViewController {
             stage.show();
 
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("navigation", e);
         }
     }
 
@@ -454,17 +529,14 @@ public class PhotoViewController {
     @FXML
     public void logout() {
         try {
-            photoManager.saveUsers();
+            photoManager.requestSave();
 
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/login_view.fxml"));
-            Parent parent = loader.load();
-
-            Stage stage = (Stage) photoList.getScene().getWindow();
-            stage.setScene(new Scene(parent));
-            stage.setTitle("Photo Login");
+            Stage stage = (Stage) photoGrid.getScene().getWindow();
+            Views.show(stage, "/view/login_view.fxml", "Photo Login", LoginController::init);
+            leave();
 
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("navigation", e);
         }
     }
 }
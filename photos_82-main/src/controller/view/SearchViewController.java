@@ -2,23 +2,36 @@ package controller.view;
 
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
-import javafx.scene.Scene;
 import javafx.stage.Stage;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
 import model.*;
+import app.Photos;
+import service.TaskScope;
+import service.TaskService;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
+import metrics.Metrics;
 
 /**
  * Controller for handling the photo search functionality.
  * <p>
- * Allows users to search for photos based on tags and date ranges,
- * and to save search results as a new album.
+ * Allows users to search for photos based on tags, date ranges and caption
+ * text, to save search results as a new album or the search itself as a
+ * live {@link SmartAlbum}, and to export resized copies of them for sharing.
+ * </p>
+ * <p>
+ * The results are refreshed as the filters are edited, next to the most
+ * common tag values among them for each tag type. The counts come from a
+ * {@link TagIndex} built once per snapshot of the user's albums and reused
+ * until an album or tag changes. Clicking a value adds it to the query.
+ * </p>
+ * <p>
+ * Each edit cancels the search still running for the previous one. The tag
+ * index is built in a task of its own, which every search of the same
+ * snapshot waits on, so typing while it builds does not start another build.
  * </p>
  */
 public class SearchViewController {
@@ -28,14 +41,63 @@ public class SearchViewController {
     @FXML private TextField tag1Field;
     @FXML private TextField tag2Field;
     @FXML private ChoiceBox<String> operatorChoice;
+    @FXML private TextField captionField;
     @FXML private ListView<Photo> resultsList;
+    @FXML private ListView<TagIndex.Facet> facetList;
 
     private User currentUser;
     private PhotoManager photoManager;
     private Album currentAlbum;
 
+    /** The query behind the results shown, or null before the first search. */
+    private PhotoSearch lastSearch;
+
+    /** Builds or holds the tag postings of the latest snapshot searched, or null before the first search. */
+    private CompletableFuture<TagIndex> tagIndex;
+
+    /** The version of the snapshot {@link #tagIndex} is built from. */
+    private long tagIndexVersion;
+
+    /** The filtering of the latest search, cancelled when a newer search starts. */
+    private CompletableFuture<List<Photo>> filtering;
+
+    /** The results of the latest search, cancelled when a newer search starts. */
+    private CompletableFuture<SearchResult> searching;
+
+    /** Numbers searches so the results of an older one never replace a newer one's. */
+    private long searchGeneration;
+
+    /** Set while {@link #init} resets the fields, so the resets do not each start a search. */
+    private boolean resetting;
+
+    /**
+     * A finished search.
+     *
+     * @param photos the matching photos
+     * @param facets the most common tag values among the matches
+     */
+    private record SearchResult(List<Photo> photos, List<TagIndex.Facet> facets) {
+    }
+
+    /** Background tasks started by this screen; cancelled when the user leaves it. */
+    private final TaskScope tasks = Photos.getTaskService().scope("Search");
+
+    /**
+     * Refreshes the search whenever a filter is edited. Called once when the
+     * view is loaded.
+     */
+    @FXML
+    private void initialize() {
+        for (TextField field : List.of(tag1Field, tag2Field, startDateField, endDateField, captionField)) {
+            field.textProperty().addListener((obs, oldText, newText) -> handleFiltersChanged());
+        }
+        operatorChoice.valueProperty().addListener((obs, oldValue, newValue) -> handleFiltersChanged());
+    }
+
     /**
-     * Initializes the controller with user context and current album.
+     * Initializes the controller with user context and current album, and
+     * clears the previous search, showing every photo and its tag counts.
+     * Called each time the screen is shown, since the screen is reused.
      *
      * @param user the current user
      * @param album the album from which the search was initiated
@@ -46,8 +108,21 @@ public class SearchViewController {
         this.currentAlbum = album;
         this.photoManager = manager;
 
-        operatorChoice.getItems().addAll("None", "AND", "OR");
+        resetting = true;
+        operatorChoice.getItems().setAll("None", "AND", "OR");
         operatorChoice.setValue("None");
+        startDateField.clear();
+        endDateField.clear();
+        tag1Field.clear();
+        tag2Field.clear();
+        captionField.clear();
+        resetting = false;
+        resultsList.getItems().clear();
+        facetList.getItems().clear();
+        lastSearch = null;
+        cancelSearch();
+        tagIndex = null;
+        handleFiltersChanged();
     }
 
     /**
@@ -55,18 +130,13 @@ public class SearchViewController {
      */
     public void handleBack() {
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/photo_view.fxml"));
-            Parent root = loader.load();
-
-            PhotoViewController controller = loader.getController();
-            controller.init(currentUser, currentAlbum, photoManager);
-
             Stage stage = (Stage) resultsList.getScene().getWindow();
-            stage.setScene(new Scene(root));
-            stage.setTitle("Photo View");
+            Views.<PhotoViewController>show(stage, "/view/photo_view.fxml", "Photo View",
+                    controller -> controller.init(currentUser, currentAlbum, photoManager));
+            tasks.cancelAll();
 
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("navigation", e);
         }
     }
 
@@ -87,90 +157,201 @@ public class SearchViewController {
                 return;
             }
 
-            if (currentUser.getAlbum(albumName) != null) {
+            List<Photo> results = List.copyOf(resultsList.getItems());
+            boolean created = photoManager.write(currentUser.getUsername(), () -> {
+                if (currentUser.getAlbum(albumName) != null) return false;
+                Album newAlbum = new Album(albumName);
+                newAlbum.addPhotos(results);
+                return currentUser.addAlbum(newAlbum);
+            });
+            if (!created) {
                 showAlert("Duplicate Album", "An album with that name already exists.");
                 return;
             }
+            photoManager.requestSave();
+            showAlert("Success", "Album \"" + albumName + "\" created.");
+        }
+    }
 
-            Album newAlbum = new Album(albumName);
-            for (Photo p : resultsList.getItems()) {
-                newAlbum.addPhoto(p);
+    /**
+     * Saves the last search as a smart album, whose photos follow the query
+     * as tags and captions change.
+     */
+    @FXML
+    public void handleSaveAsSmartAlbum() {
+        if (lastSearch == null) {
+            showAlert("No Search", "Run a search first; its query becomes the smart album.");
+            return;
+        }
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Save Smart Album");
+        dialog.setHeaderText("Create an album that always holds the photos matching:\n" + lastSearch);
+        dialog.setContentText("Enter album name:");
+
+        Optional<String> result = dialog.showAndWait();
+        if (result.isPresent()) {
+            String albumName = result.get().trim();
+            if (albumName.isEmpty()) {
+                showAlert("Invalid Name", "Album name cannot be empty.");
+                return;
             }
 
-            currentUser.addAlbum(newAlbum);
-            photoManager.saveUsers();
-            showAlert("Success", "Album \"" + albumName + "\" created.");
+            SmartAlbum smartAlbum = new SmartAlbum(albumName, lastSearch);
+            if (!photoManager.write(currentUser.getUsername(), () -> currentUser.addAlbum(smartAlbum))) {
+                showAlert("Duplicate Album", "An album with that name already exists.");
+                return;
+            }
+            photoManager.requestSave();
+            showAlert("Success", "Smart album \"" + albumName + "\" created with "
+                    + smartAlbum.getPhotoCount() + " photos.");
         }
     }
 
+    /**
+     * Exports downscaled copies of the current results for sharing.
+     */
+    @FXML
+    public void handleExportResults() {
+        ExportDialogs.exportResized(resultsList.getScene().getWindow(), "search results",
+                List.copyOf(resultsList.getItems()));
+    }
+
     /**
      * Executes a search based on user-specified tag and/or date criteria.
      * Displays matching photos in the result list.
      */
     @FXML
     public void handleSearch() {
-        List<Photo> allPhotos = currentUser.getAlbums().stream()
-            .flatMap(album -> album.getPhotos().stream())
-            .distinct()
-            .collect(Collectors.toList());
-
-        List<Photo> results = new ArrayList<>(allPhotos);
-
-        String tag1 = tag1Field.getText().trim();
-        String tag2 = tag2Field.getText().trim();
-        String op = operatorChoice.getValue();
-
-        if (!tag1.isEmpty()) {
-            String[] parts1 = tag1.split("=");
-            if (parts1.length == 2) {
-                results = results.stream()
-                    .filter(p -> p.getTags().contains(new Tag(parts1[0].trim(), parts1[1].trim())))
-                    .collect(Collectors.toList());
-            }
+        PhotoSearch search;
+        try {
+            search = buildSearch(true);
+        } catch (DateTimeParseException e) {
+            search = buildSearch(false);
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Invalid Date");
+            alert.setHeaderText("Please enter valid dates in yyyy-MM-dd format.");
+            alert.showAndWait();
         }
+        runSearch(search);
+    }
 
-        if (!tag2.isEmpty() && !op.equals("None")) {
-            String[] parts2 = tag2.split("=");
-            if (parts2.length == 2) {
-                List<Photo> tag2Matches = allPhotos.stream()
-                    .filter(p -> p.getTags().contains(new Tag(parts2[0].trim(), parts2[1].trim())))
-                    .collect(Collectors.toList());
-
-                if (op.equals("AND")) {
-                    results.retainAll(tag2Matches);
-                } else if (op.equals("OR")) {
-                    Set<Photo> union = new HashSet<>(results);
-                    union.addAll(tag2Matches);
-                    results = new ArrayList<>(union);
-                }
+    /**
+     * Searches again after a filter was edited. A date that is not complete
+     * yet leaves the results as they are, without an alert.
+     */
+    private void handleFiltersChanged() {
+        if (resetting || currentUser == null || operatorChoice.getValue() == null) return;
+        try {
+            runSearch(buildSearch(true));
+        } catch (DateTimeParseException e) {
+            // the user is still typing the date
+        }
+    }
+
+    /**
+     * Adds the clicked tag value to the query: as the first tag if that is
+     * empty, otherwise as the second tag, combined with AND unless an
+     * operator is already chosen.
+     */
+    @FXML
+    public void handleFacetClicked() {
+        TagIndex.Facet facet = facetList.getSelectionModel().getSelectedItem();
+        if (facet == null) return;
+        String text = facet.tag().getName() + "=" + facet.tag().getValue();
+        if (tag1Field.getText().isBlank()) {
+            tag1Field.setText(text);
+        } else {
+            if ("None".equals(operatorChoice.getValue())) {
+                operatorChoice.setValue("AND");
             }
+            tag2Field.setText(text);
         }
+    }
 
+    /**
+     * Builds the query from the filter fields. The date range is used only
+     * when both dates are given.
+     *
+     * @param withDates whether to read the date fields
+     * @return the query
+     * @throws DateTimeParseException if both dates are given and one is not a valid date
+     */
+    private PhotoSearch buildSearch(boolean withDates) {
+        Tag tag1 = PhotoSearch.parseTag(tag1Field.getText());
+        Tag tag2 = PhotoSearch.parseTag(tag2Field.getText());
+        PhotoSearch.Operator op = PhotoSearch.Operator.valueOf(operatorChoice.getValue().toUpperCase());
+
+        LocalDate startDate = null;
+        LocalDate endDate = null;
         String startDateText = startDateField.getText().trim();
         String endDateText = endDateField.getText().trim();
+        if (withDates && !startDateText.isEmpty() && !endDateText.isEmpty()) {
+            startDate = LocalDate.parse(startDateText);
+            endDate = LocalDate.parse(endDateText);
+        }
+        return new PhotoSearch(tag1, tag2, op, startDate, endDate, captionField.getText());
+    }
 
-        if (!startDateText.isEmpty() && !endDateText.isEmpty()) {
-            try {
-                LocalDate startDate = LocalDate.parse(startDateText);
-                LocalDate endDate = LocalDate.parse(endDateText);
-
-                results = results.stream()
-                    .filter(photo -> {
-                        LocalDate photoDate = photo.getDateAsLocalDate();
-                        return (photoDate.isEqual(startDate) || photoDate.isAfter(startDate)) &&
-                               (photoDate.isEqual(endDate) || photoDate.isBefore(endDate));
-                    })
-                    .collect(Collectors.toList());
-
-            } catch (DateTimeParseException e) {
-                Alert alert = new Alert(Alert.AlertType.ERROR);
-                alert.setTitle("Invalid Date");
-                alert.setHeaderText("Please enter valid dates in yyyy-MM-dd format.");
-                alert.showAndWait();
-            }
+    /**
+     * Runs a query in the background and shows its results and tag counts.
+     * The search still running for the previous query is cancelled. The
+     * results are filtered while the tag index is built, if it needs to be,
+     * and the facets are counted once both are ready. Results of a search
+     * overtaken by a newer one are dropped.
+     *
+     * @param search the query
+     */
+    private void runSearch(PhotoSearch search) {
+        lastSearch = search;
+        long generation = ++searchGeneration;
+        cancelSearch();
+        UserSnapshot snapshot = photoManager.snapshot(currentUser);
+        CompletableFuture<TagIndex> index = tagIndexFor(snapshot);
+        filtering = tasks.cpu("search", () -> search.filter(snapshot.allPhotos()));
+        searching = filtering.thenCombine(index, (results, postings) -> {
+            List<TagIndex.Facet> facets = new ArrayList<>();
+            postings.facets(results, TagIndex.DEFAULT_TOP).values().forEach(facets::addAll);
+            return new SearchResult(results, facets);
+        });
+        TaskService.onFx(searching, result -> {
+            if (generation != searchGeneration) return;
+            resultsList.getItems().setAll(result.photos());
+            facetList.getItems().setAll(result.facets());
+        }, e -> Metrics.error("search", e));
+    }
+
+    /**
+     * Returns the tag index of a snapshot: the one built or being built for
+     * it if there is one, or a new build, which replaces and cancels a build
+     * for an older snapshot.
+     *
+     * @param snapshot the snapshot being searched
+     * @return a future for the index
+     */
+    private CompletableFuture<TagIndex> tagIndexFor(UserSnapshot snapshot) {
+        if (tagIndex != null && tagIndexVersion == snapshot.version()
+                && !tagIndex.isCompletedExceptionally()) {
+            return tagIndex;
         }
+        if (tagIndex != null) {
+            tagIndex.cancel(true);
+        }
+        tagIndex = tasks.cpu("tag index", () -> new TagIndex(snapshot));
+        tagIndexVersion = snapshot.version();
+        return tagIndex;
+    }
 
-        resultsList.getItems().setAll(results);
+    /**
+     * Cancels the search still running, if any. A tag index being built is
+     * left running for the next search.
+     */
+    private void cancelSearch() {
+        if (searching != null) {
+            searching.cancel(true);
+            filtering.cancel(true);
+            searching = null;
+            filtering = null;
+        }
     }
 
     /**
@@ -8,6 +8,14 @@ import model.*;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import app.Photos;
+import service.MediaScheduler.Priority;
+import service.TaskScope;
+import service.TaskService;
+import metrics.ImageDecodeEvent;
+import metrics.Metrics;
 
 /**
  * Controller for managing a slideshow view of photos.
@@ -30,6 +38,18 @@ public class SlideShowController {
     /** Index of the currently displayed photo. */
     private int currIndex = 0;
 
+    /** Background tasks started by this window; cancelled when it closes. */
+    private final TaskScope tasks = Photos.getTaskService().scope("Slideshow");
+
+    /** The image decode in progress, if any. */
+    private CompletableFuture<Image> pendingLoad;
+
+    /** Index of the prefetched photo, or -1 if none. */
+    private int prefetchIndex = -1;
+
+    /** Decode of the photo most likely to be shown next. */
+    private CompletableFuture<Image> prefetch;
+
     /**
      * Initializes the slideshow with a list of photos and displays the first photo.
      *
@@ -44,24 +64,73 @@ public class SlideShowController {
 
     /**
      * Displays the photo at the specified index.
+     * The image is decoded in the background at visible priority, reusing a
+     * finished prefetch when there is one, and the following photo is then
+     * prefetched at lower priority. A decode still running for a previous
+     * photo is cancelled.
      *
      * @param index the index of the photo to show
      */
     private void showPhoto(int index) {
-        try {
-            Photo photo = photos.get(index);
-            File file = new File(photo.getFilePath());
+        Photo photo = photos.get(index);
+        if (pendingLoad != null) {
+            pendingLoad.cancel(true);
+        }
+
+        CompletableFuture<Image> load;
+        if (prefetchIndex == index && prefetch.isDone() && !prefetch.isCompletedExceptionally()) {
+            load = prefetch;
+        } else {
+            if (prefetch != null) prefetch.cancel(true);
+            load = decode(photo, Priority.VISIBLE);
+        }
+        prefetch = null;
+        prefetchIndex = -1;
+        pendingLoad = load;
 
-            if (file.exists()) {
-                slideshowImage.setImage(new Image(file.toURI().toString()));
+        int next = index + 1;
+        if (next < photos.size()) {
+            prefetchIndex = next;
+            prefetch = decode(photos.get(next), Priority.PREFETCH);
+        }
+
+        TaskService.onFx(load, image -> {
+            if (load != pendingLoad) return;
+            if (image != null) {
+                slideshowImage.setImage(image);
                 label.setText(photo.getCaption() != null ? photo.getCaption() : "");
             } else {
                 showErrorState("Image file not found");
             }
-        } catch (Exception e) {
+        }, e -> {
+            if (load != pendingLoad) return;
             showErrorState("Error loading photo");
-            e.printStackTrace();
-        }
+            Metrics.latency("image.slideshow").fail();
+            Metrics.error("slideshow", e);
+        });
+    }
+
+    /**
+     * Schedules a decode of a photo's image.
+     *
+     * @param photo the photo to decode
+     * @param priority the scheduling class
+     * @return a future for the image, or for null if the file is missing
+     */
+    private CompletableFuture<Image> decode(Photo photo, Priority priority) {
+        return tasks.track(Photos.getMediaScheduler().submit(priority, "slide", photo.getFileSize(), () -> {
+            File file = new File(photo.getFilePath());
+            if (!file.exists()) return null;
+            long start = System.nanoTime();
+            ImageDecodeEvent event = new ImageDecodeEvent();
+            event.begin();
+            Image image = new Image(file.toURI().toString());
+            event.finish(priority == Priority.VISIBLE ? "slideshow" : "slideshow prefetch", file.getPath(),
+                    (int) image.getWidth(), (int) image.getHeight(), image.isError());
+            if (image.isError()) throw image.getException();
+            Metrics.latency("image.slideshow").recordSince(start);
+            return image;
+        }));
     }
 
     /**
@@ -100,6 +169,7 @@ public class SlideShowController {
      */
     @FXML
     public void close() {
+        tasks.cancelAll();
         Stage stage = (Stage) slideshowImage.getScene().getWindow();
         stage.close();
     }
@@ -0,0 +1,149 @@
+package controller.view;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import app.Photos;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+import metrics.Metrics;
+import metrics.SceneLoadEvent;
+import metrics.SceneSwitchEvent;
+import service.TaskService;
+
+/**
+ * Loads and shows the application's FXML views.
+ * <p>
+ * Every load is timed as the {@code scene.load} latency metric and recorded
+ * as a {@link SceneLoadEvent}, so slow screen switches on the JavaFX
+ * Application Thread show up in a flight recording.
+ * </p>
+ * <p>
+ * Screens of the main window are shown with {@link #show}, which keeps each
+ * screen's node graph, controller and scene after the first load and reuses
+ * them on later visits. The controller's {@code init} method is called again
+ * with the new state, so controllers must reset everything that depends on
+ * it there. {@link #prewarm} loads the screens the user is likely to open
+ * next on a background thread. The time from a navigation request until the
+ * new scene is set is the {@code scene.switch} latency metric and a
+ * {@link SceneSwitchEvent}; {@code scene.cache.hits} and
+ * {@code scene.cache.misses} count how often the cache had the screen.
+ * </p>
+ * <p>
+ * {@link #show} and {@link #prewarm} must be called on the JavaFX Application
+ * Thread.
+ * </p>
+ */
+public final class Views {
+
+    /** A loaded screen: its scene and controller. */
+    private record Screen(Scene scene, Object controller) {
+    }
+
+    /** Loaded screens by FXML resource. */
+    private static final Map<String, Screen> cache = new HashMap<>();
+
+    /** Screens being loaded in the background. */
+    private static final Set<String> warming = new HashSet<>();
+
+    private Views() {
+    }
+
+    /**
+     * Loads an FXML view and creates its controller.
+     *
+     * @param view the FXML resource, such as {@code /view/album_view.fxml}
+     * @return the loader, with its root and controller available
+     * @throws IOException if the view cannot be loaded
+     */
+    public static FXMLLoader load(String view) throws IOException {
+        long start = System.nanoTime();
+        SceneLoadEvent event = new SceneLoadEvent();
+        event.begin();
+
+        FXMLLoader loader = new FXMLLoader(Views.class.getResource(view));
+        loader.load();
+
+        Metrics.latency("scene.load").recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.view = view;
+            event.commit();
+        }
+        return loader;
+    }
+
+    /**
+     * Shows a screen in a window, loading it only if it is not cached.
+     *
+     * @param stage the window
+     * @param view the FXML resource
+     * @param title the window title
+     * @param init initializes the screen's controller with the new state
+     * @param <C> the controller type
+     * @return the screen's controller
+     * @throws IOException if the view is not cached and cannot be loaded
+     */
+    public static <C> C show(Stage stage, String view, String title, Consumer<? super C> init)
+            throws IOException {
+        long start = System.nanoTime();
+        SceneSwitchEvent event = new SceneSwitchEvent();
+        event.begin();
+
+        Screen screen = cache.get(view);
+        boolean cached = screen != null;
+        if (cached) {
+            Metrics.count("scene.cache.hits");
+        } else {
+            Metrics.count("scene.cache.misses");
+            FXMLLoader loader = load(view);
+            screen = new Screen(new Scene(loader.<Parent>getRoot()), loader.getController());
+            cache.put(view, screen);
+        }
+
+        @SuppressWarnings("unchecked")
+        C controller = (C) screen.controller();
+        init.accept(controller);
+        stage.setScene(screen.scene());
+        stage.setTitle(title);
+
+        Metrics.latency("scene.switch").recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.view = view;
+            event.cached = cached;
+            event.commit();
+        }
+        return controller;
+    }
+
+    /**
+     * Loads screens in the background so a later {@link #show} finds them
+     * cached. Screens already cached or loading are skipped. The node graph
+     * is built on a worker thread, and the scene is created on the JavaFX
+     * Application Thread when the load finishes.
+     *
+     * @param views the FXML resources
+     */
+    public static void prewarm(String... views) {
+        TaskService tasks = Photos.getTaskService();
+        if (tasks == null) return;
+        for (String view : views) {
+            if (cache.containsKey(view) || !warming.add(view)) continue;
+            TaskService.onFx(tasks.cpu("prewarm " + view, () -> load(view)), loader -> {
+                warming.remove(view);
+                cache.computeIfAbsent(view,
+                        v -> new Screen(new Scene(loader.<Parent>getRoot()), loader.getController()));
+            }, error -> {
+                warming.remove(view);
+                Metrics.error("navigation", error);
+            });
+        }
+    }
+}
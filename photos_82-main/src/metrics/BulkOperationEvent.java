@@ -0,0 +1,33 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for an operation that changes many photos at once.
+ */
+@Name("photos.BulkOperation")
+@Label("Bulk Operation")
+@Category({"Photos", "Library"})
+@Description("Adding, removing or editing many photos in one operation")
+public class BulkOperationEvent extends Event {
+
+    /** What was done, such as "addPhotos" or "batch". */
+    @Label("Operation")
+    public String operation;
+
+    /** The album or user affected. */
+    @Label("Target")
+    public String target;
+
+    /** Number of items requested. */
+    @Label("Requested")
+    public int requested;
+
+    /** Number of items actually changed. */
+    @Label("Changed")
+    public int changed;
+}
@@ -0,0 +1,12 @@
+package metrics;
+
+/**
+ * JMX view of a counter. Registered as {@code photos:type=Counter,name=...}.
+ */
+public interface CounterMXBean {
+
+    /**
+     * @return the current count
+     */
+    long getCount();
+}
@@ -0,0 +1,13 @@
+package metrics;
+
+/**
+ * JMX view of a gauge, a value computed when it is read. Registered as
+ * {@code photos:type=Gauge,name=...}.
+ */
+public interface GaugeMXBean {
+
+    /**
+     * @return the current value
+     */
+    long getValue();
+}
@@ -0,0 +1,60 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for decoding an image file.
+ */
+@Name("photos.ImageDecode")
+@Label("Image Decode")
+@Category({"Photos", "Images"})
+@Description("Decoding an image file for display or a thumbnail")
+@StackTrace(false)
+public class ImageDecodeEvent extends Event {
+
+    /** Where the image is shown, such as "slideshow" or "thumbnail". */
+    @Label("Purpose")
+    public String purpose;
+
+    /** The image file. */
+    @Label("Path")
+    public String path;
+
+    /** Width of the decoded image in pixels. */
+    @Label("Width")
+    public int width;
+
+    /** Height of the decoded image in pixels. */
+    @Label("Height")
+    public int height;
+
+    /** Whether decoding failed. */
+    @Label("Failed")
+    public boolean failed;
+
+    /**
+     * Ends the event and records it if recording is enabled. The fields are
+     * only filled in when the event will be recorded.
+     *
+     * @param purpose where the image is shown
+     * @param path the image file
+     * @param width the decoded width, or 0 if decoding failed
+     * @param height the decoded height, or 0 if decoding failed
+     * @param failed whether decoding failed
+     */
+    public void finish(String purpose, String path, int width, int height, boolean failed) {
+        end();
+        if (!shouldCommit()) return;
+        this.purpose = purpose;
+        this.path = path;
+        this.width = width;
+        this.height = height;
+        this.failed = failed;
+        commit();
+    }
+}
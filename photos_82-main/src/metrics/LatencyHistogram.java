@@ -0,0 +1,147 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets.
+ * <p>
+ * Bucket {@code i} counts durations below {@code 2^i} microseconds, so 32
+ * buckets cover from one microsecond to over an hour. Percentiles are reported
+ * as the upper bound of the bucket they fall in, which is within a factor of
+ * two of the true value. Recording is a few atomic adds and safe from any
+ * thread; the histogram is exported over JMX as a {@link LatencyMXBean}.
+ * </p>
+ */
+public class LatencyHistogram implements LatencyMXBean {
+
+    /** Number of buckets. */
+    private static final int BUCKETS = 32;
+
+    /** Count of durations in each bucket. */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /** Number of recorded durations. */
+    private final LongAdder count = new LongAdder();
+
+    /** Sum of recorded durations, in nanoseconds. */
+    private final LongAdder totalNanos = new LongAdder();
+
+    /** Longest recorded duration, in nanoseconds. */
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /** Number of timed operations that failed. */
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Records the time since {@code startNanos}, as returned by {@link System#nanoTime()}.
+     *
+     * @param startNanos when the operation started
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts a failed operation. Failures are counted separately and are not
+     * part of the latency distribution.
+     */
+    public void fail() {
+        failures.increment();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentileMillis(0.50);
+    }
+
+    @Override
+    public double getP95Millis() {
+        return percentileMillis(0.95);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentileMillis(0.99);
+    }
+
+    @Override
+    public long[] getBucketCounts() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = buckets.get(i);
+        }
+        return copy;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        failures.reset();
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile.
+     *
+     * @param q the percentile, between 0 and 1
+     * @return the bound in milliseconds, or 0 if nothing was recorded
+     */
+    private double percentileMillis(double q) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long c : counts) total += c;
+        if (total == 0) return 0;
+
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min((1L << i) / 1000.0, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+}
@@ -0,0 +1,53 @@
+package metrics;
+
+/**
+ * JMX view of a {@link LatencyHistogram}. Registered as
+ * {@code photos:type=Latency,name=...}.
+ */
+public interface LatencyMXBean {
+
+    /**
+     * @return number of recorded durations
+     */
+    long getCount();
+
+    /**
+     * @return number of timed operations that failed
+     */
+    long getFailures();
+
+    /**
+     * @return mean duration in milliseconds
+     */
+    double getMeanMillis();
+
+    /**
+     * @return longest duration in milliseconds
+     */
+    double getMaxMillis();
+
+    /**
+     * @return median duration in milliseconds, to within a factor of two
+     */
+    double getP50Millis();
+
+    /**
+     * @return 95th percentile in milliseconds, to within a factor of two
+     */
+    double getP95Millis();
+
+    /**
+     * @return 99th percentile in milliseconds, to within a factor of two
+     */
+    double getP99Millis();
+
+    /**
+     * @return counts per bucket; bucket i holds durations below 2^i microseconds
+     */
+    long[] getBucketCounts();
+
+    /**
+     * Clears all recorded values.
+     */
+    void reset();
+}
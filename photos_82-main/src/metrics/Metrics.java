@@ -0,0 +1,153 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Process-wide registry of latency histograms, counters and gauges.
+ * <p>
+ * Each metric is created on first use and registered with the platform MBean
+ * server under the {@code photos} domain, so it can be read with jconsole or
+ * any JMX client. Names are dotted, such as {@code library.save}. Recording is
+ * safe from any thread and does not block.
+ * </p>
+ * <p>
+ * {@link #error(String, Throwable)} replaces printing stack traces: it logs
+ * the error and counts it under {@code errors.<area>}.
+ * </p>
+ */
+public final class Metrics {
+
+    /** JMX domain all metrics are registered under. */
+    public static final String DOMAIN = "photos";
+
+    /** Logger for errors reported through {@link #error(String, Throwable)}. */
+    private static final System.Logger LOG = System.getLogger("photos");
+
+    /** Latency histograms by name. */
+    private static final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    /** Counters by name. */
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /** Gauges by name. */
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the latency histogram with the given name, creating and
+     * registering it on first use.
+     *
+     * @param name the metric name
+     * @return the histogram
+     */
+    public static LatencyHistogram latency(String name) {
+        LatencyHistogram h = latencies.get(name);
+        if (h != null) return h;
+        return latencies.computeIfAbsent(name, n -> {
+            LatencyHistogram created = new LatencyHistogram();
+            register("Latency", n, created, LatencyMXBean.class);
+            return created;
+        });
+    }
+
+    /**
+     * Increments the counter with the given name.
+     *
+     * @param name the metric name
+     */
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    /**
+     * Adds to the counter with the given name, creating and registering it on first use.
+     *
+     * @param name the metric name
+     * @param delta the amount to add
+     */
+    public static void count(String name, long delta) {
+        LongAdder c = counters.get(name);
+        if (c == null) {
+            c = counters.computeIfAbsent(name, n -> {
+                LongAdder created = new LongAdder();
+                register("Counter", n, (CounterMXBean) created::sum, CounterMXBean.class);
+                return created;
+            });
+        }
+        c.add(delta);
+    }
+
+    /**
+     * Registers a gauge whose value is computed each time it is read.
+     * A gauge registered again under the same name replaces the old one.
+     *
+     * @param name the metric name
+     * @param value computes the current value; called on a JMX thread
+     */
+    public static void gauge(String name, LongSupplier value) {
+        if (gauges.put(name, value) == null) {
+            register("Gauge", name, (GaugeMXBean) () -> gauges.get(name).getAsLong(), GaugeMXBean.class);
+        }
+    }
+
+    /**
+     * Logs an error and counts it under {@code errors.<area>}.
+     *
+     * @param area where the error happened, such as {@code save} or {@code slideshow}
+     * @param error the error
+     */
+    public static void error(String area, Throwable error) {
+        count("errors." + area);
+        LOG.log(System.Logger.Level.WARNING, area + " failed", error);
+    }
+
+    /**
+     * Registers a metric with the platform MBean server. Failures are logged
+     * and otherwise ignored; the metric still records values.
+     *
+     * @param type the metric type, used as the {@code type} key
+     * @param name the metric name
+     * @param mbean the MXBean implementation
+     * @param iface the MXBean interface
+     * @param <T> the interface type
+     */
+    private static <T> void register(String type, String name, T mbean, Class<T> iface) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + keyValue(name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(mbean, iface, true), objectName);
+            }
+        } catch (JMException | RuntimeException e) {
+            LOG.log(System.Logger.Level.WARNING, "Could not register metric " + name, e);
+        }
+    }
+
+    /**
+     * Returns a metric name as an {@link ObjectName} key value. Names such as
+     * {@code task.Photo view: details image} contain characters that are not
+     * allowed unquoted, so those are quoted; plain names are kept as they are.
+     *
+     * @param name the metric name
+     * @return the value to put after {@code name=}
+     */
+    private static String keyValue(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (":,=*?\"\n\\".indexOf(name.charAt(i)) >= 0) {
+                return ObjectName.quote(name);
+            }
+        }
+        return name;
+    }
+}
@@ -0,0 +1,41 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for reading or writing the user data file.
+ */
+@Name("photos.Persistence")
+@Label("Library Persistence")
+@Category({"Photos", "Persistence"})
+@Description("Loading or saving the user data file")
+@StackTrace(false)
+public class PersistenceEvent extends Event {
+
+    /** "load" or "save". */
+    @Label("Operation")
+    public String operation;
+
+    /** The data file. */
+    @Label("File")
+    public String file;
+
+    /** Size of the data file after the operation. */
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    /** Number of users read or written. */
+    @Label("Users")
+    public int users;
+
+    /** Whether the operation failed. */
+    @Label("Failed")
+    public boolean failed;
+}
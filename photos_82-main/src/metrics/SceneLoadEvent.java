@@ -0,0 +1,23 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for loading an FXML view, normally on the JavaFX Application Thread.
+ */
+@Name("photos.SceneLoad")
+@Label("FXML Scene Load")
+@Category({"Photos", "UI"})
+@Description("Loading an FXML view and creating its controller")
+@StackTrace(false)
+public class SceneLoadEvent extends Event {
+
+    /** The FXML resource. */
+    @Label("View")
+    public String view;
+}
@@ -0,0 +1,28 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for switching the main window to another screen, from the
+ * request until the new scene is set.
+ */
+@Name("photos.SceneSwitch")
+@Label("Screen Switch")
+@Category({"Photos", "UI"})
+@Description("Showing a screen and initializing its controller")
+@StackTrace(false)
+public class SceneSwitchEvent extends Event {
+
+    /** The FXML resource of the screen shown. */
+    @Label("View")
+    public String view;
+
+    /** Whether the screen came from the view cache instead of being loaded. */
+    @Label("Cached")
+    public boolean cached;
+}
@@ -0,0 +1,31 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one photo search.
+ */
+@Name("photos.Search")
+@Label("Photo Search")
+@Category({"Photos", "Search"})
+@Description("Filtering photos by tags and dates")
+@StackTrace(false)
+public class SearchEvent extends Event {
+
+    /** The query, as written by the search's toString(). */
+    @Label("Query")
+    public String query;
+
+    /** Number of photos examined. */
+    @Label("Candidates")
+    public int candidates;
+
+    /** Number of photos that matched. */
+    @Label("Results")
+    public int results;
+}
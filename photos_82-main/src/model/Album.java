@@ -1,21 +1,78 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import metrics.BulkOperationEvent;
 
 /**
  * Represents a photo album containing a list of photos.
  * Provides methods to manage photos within the album.
+ * <p>
+ * The photos are kept in an insertion-ordered set by identity, which is also
+ * their order in the album, and in an index by normalized file path, so
+ * adding, removing, membership checks and path lookups run in constant time.
+ * The list returned by {@link #getPhotos()} is the current snapshot's.
+ * </p>
+ * <p>
+ * Readers on other threads should use {@link #snapshot()} rather than
+ * {@link #getPhotos()}; the snapshot is immutable and is only rebuilt after
+ * the album changes.
+ * </p>
+ * <p>
+ * Registered {@link ModelListener}s are told which photos were added, removed
+ * or edited, so views can update only what changed. A bulk add or remove is
+ * reported as one event.
+ * </p>
+ * <p>
+ * The album also maintains an {@link AlbumSummary} of its photos: count,
+ * capture date range, total file size and tag counts by type. It is updated
+ * on every add, remove and tag change and saved with the album, so listing
+ * albums never reads the photos.
+ * </p>
  */
 public class Album implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /** The saved form: the name, the photos as a list in order, and the stats. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("photos", List.class),
+            new ObjectStreamField("stats", AlbumStats.class)
+    };
+
     /** The name of the album. */
     private String name;
 
-    /** The list of photos contained in the album. */
-    private List<Photo> photos;
+    /** Running aggregates over the photos; null in albums saved before they existed. */
+    private AlbumStats stats;
+
+    /** Immutable summary of {@link #stats}, republished after every change. */
+    private transient volatile AlbumSummary summary = AlbumSummary.EMPTY;
+
+    /** The photos in album order, by identity; rebuilt after deserialization. */
+    private transient Set<Photo> photoIndex;
+
+    /** Normalized file path to photo index; rebuilt after deserialization. */
+    private transient Map<String, Photo> pathIndex;
+
+    /** The user this album belongs to, told about changes so it can drop its snapshot. */
+    private transient User owner;
+
+    /** Whether the album was removed from its user and so is not attached to its photos. */
+    private transient boolean detached;
+
+    /** The last published snapshot, or null if the album changed since. */
+    private transient volatile AlbumSnapshot published;
+
+    /** Listeners told about photo changes in this album. */
+    private transient List<ModelListener> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * Constructs a new Album with the specified name.
@@ -24,7 +81,9 @@ public class Album implements Serializable {
      */
     public Album(String name) {
         this.name = name;
-        this.photos = new ArrayList<>();
+        this.photoIndex = new LinkedHashSet<>();
+        this.pathIndex = new LinkedHashMap<>();
+        this.stats = new AlbumStats();
     }
 
     /**
@@ -36,24 +95,220 @@ public class Album implements Serializable {
         return name;
     }
 
+    /**
+     * Checks whether this is a {@link SmartAlbum}, whose photos follow a
+     * saved query and cannot be added or removed directly.
+     *
+     * @return false for an ordinary album
+     */
+    public boolean isSmart() {
+        return false;
+    }
+
+    /**
+     * Renames the album in place, keeping its photos and indexes.
+     * Only {@link User#renameAlbum(String, String)} should call this so the
+     * owner's name index stays consistent.
+     *
+     * @param newName the new album name
+     */
+    void setName(String newName) {
+        this.name = newName;
+        changed();
+    }
+
+    /**
+     * Sets the user that owns this album. Removing the album from its user
+     * detaches it from its photos, so they stop reporting edits to it and it
+     * can be collected; adding it back attaches it again and recounts its
+     * summary, since tag edits made meanwhile were not reported to it.
+     *
+     * @param owner the owning user, or null when the album is removed
+     */
+    void setOwner(User owner) {
+        this.owner = owner;
+        if (owner == null) {
+            for (Photo p : photoIndex) {
+                p.detach(this);
+            }
+            detached = true;
+        } else if (detached) {
+            stats = new AlbumStats();
+            for (Photo p : photoIndex) {
+                p.attach(this);
+                stats.add(p);
+            }
+            summary = stats.summary();
+            published = null;
+            detached = false;
+        }
+    }
+
+    /**
+     * Returns the user that owns this album.
+     *
+     * @return the owner, or null if the album is not in a user
+     */
+    User getOwner() {
+        return owner;
+    }
+
+    /**
+     * Returns an immutable snapshot of the album.
+     * The same snapshot is returned until the album changes. Building a new one
+     * reads the live photos, so it should happen under the owner's read lock;
+     * {@link PhotoManager#snapshot(User)} takes care of that.
+     *
+     * @return the album snapshot
+     */
+    public AlbumSnapshot snapshot() {
+        AlbumSnapshot s = published;
+        if (s == null) {
+            s = new AlbumSnapshot(this, name, List.copyOf(photoIndex), summary);
+            published = s;
+        }
+        return s;
+    }
+
+    /**
+     * Registers a listener for photos added to, removed from or edited in this album.
+     *
+     * @param listener the listener
+     */
+    public void addListener(ModelListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(ModelListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the album's aggregate figures. Safe to call from any thread;
+     * does not read the photos.
+     *
+     * @return the current summary
+     */
+    public AlbumSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Republishes the summary, drops the published snapshot and tells the
+     * owner the album changed.
+     */
+    private void changed() {
+        summary = stats.summary();
+        published = null;
+        if (owner != null) {
+            owner.albumChanged(this);
+        }
+    }
+
+    /**
+     * Updates the tag counts and tells listeners that a photo in this album
+     * changed its file, caption or tags.
+     *
+     * @param photo the changed photo
+     * @param removedTags tags removed from the photo
+     * @param addedTags tags added to the photo
+     */
+    void photoUpdated(Photo photo, List<Tag> removedTags, List<Tag> addedTags) {
+        if (!removedTags.isEmpty() || !addedTags.isEmpty()) {
+            removedTags.forEach(stats::tagRemoved);
+            addedTags.forEach(stats::tagAdded);
+            changed();
+        } else if (owner != null) {
+            owner.photoChanged();
+        }
+        for (ModelListener l : listeners) {
+            l.photoUpdated(this, photo);
+        }
+    }
+
     /**
      * Returns the list of photos in the album.
+     * The list is the current snapshot's, so it is read-only and does not
+     * follow later changes; use {@link #addPhoto(Photo)} and
+     * {@link #removePhoto(Photo)} to change the album.
      *
      * @return the list of photos
      */
     public List<Photo> getPhotos() {
-        return photos;
+        return snapshot().photos();
     }
 
     /**
      * Adds a photo to the album if it is not already present.
+     * A photo is also rejected if another photo with the same file path is in the album.
      *
      * @param photo the photo to add
      * @return true if the photo was added, false otherwise
      */
     public boolean addPhoto(Photo photo) {
-        if (photo == null || photos.contains(photo)) return false;
-        return photos.add(photo);
+        if (!insert(photo)) return false;
+        stats.add(photo);
+        changed();
+        for (ModelListener l : listeners) {
+            l.photosAdded(this, photoIndex.size() - 1, List.of(photo));
+        }
+        return true;
+    }
+
+    /**
+     * Adds all given photos in order, skipping any that are already present.
+     *
+     * @param toAdd the photos to add
+     * @return the number of photos added
+     */
+    public int addPhotos(Collection<Photo> toAdd) {
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        int first = photoIndex.size();
+        List<Photo> added = new ArrayList<>();
+        for (Photo p : toAdd) {
+            if (insert(p)) {
+                stats.add(p);
+                added.add(p);
+            }
+        }
+        if (!added.isEmpty()) {
+            changed();
+            List<Photo> addedPhotos = List.copyOf(added);
+            for (ModelListener l : listeners) {
+                l.photosAdded(this, first, addedPhotos);
+            }
+        }
+        commit(event, "addPhotos", toAdd.size(), added.size());
+        return added.size();
+    }
+
+    /**
+     * Appends a photo and indexes it, without counting it in the summary or
+     * notifying anyone.
+     *
+     * @param photo the photo to add
+     * @return true if the photo was added
+     */
+    private boolean insert(Photo photo) {
+        if (photo == null || photoIndex.contains(photo)) return false;
+        String path = photo.getNormalizedPath();
+        if (pathIndex.containsKey(path)) return false;
+
+        photoIndex.add(photo);
+        pathIndex.put(path, photo);
+        if (!detached) {
+            photo.attach(this);
+        }
+        if (owner != null && !isSmart()) {
+            owner.photoAdded(photo);
+        }
+        return true;
     }
 
     /**
@@ -63,7 +318,72 @@ public class Album implements Serializable {
      * @return true if the photo was removed, false otherwise
      */
     public boolean removePhoto(Photo photo) {
-        return photos.remove(photo);
+        if (photo == null || !photoIndex.remove(photo)) return false;
+        pathIndex.remove(photo.getNormalizedPath());
+        stats.remove(photo);
+        if (!detached) {
+            photo.detach(this);
+        }
+        if (owner != null && !isSmart()) {
+            owner.photoRemoved(photo);
+        }
+        changed();
+        for (ModelListener l : listeners) {
+            l.photosRemoved(this, List.of(photo));
+        }
+        return true;
+    }
+
+    /**
+     * Removes all given photos from the album.
+     *
+     * @param toRemove the photos to remove
+     * @return the number of photos removed
+     */
+    public int removePhotos(Collection<Photo> toRemove) {
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        List<Photo> removed = new ArrayList<>();
+        for (Photo p : toRemove) {
+            if (p != null && photoIndex.remove(p)) {
+                pathIndex.remove(p.getNormalizedPath());
+                stats.remove(p);
+                if (!detached) {
+                    p.detach(this);
+                }
+                if (owner != null && !isSmart()) {
+                    owner.photoRemoved(p);
+                }
+                removed.add(p);
+            }
+        }
+        if (!removed.isEmpty()) {
+            changed();
+            List<Photo> removedPhotos = List.copyOf(removed);
+            for (ModelListener l : listeners) {
+                l.photosRemoved(this, removedPhotos);
+            }
+        }
+        commit(event, "removePhotos", toRemove.size(), removed.size());
+        return removed.size();
+    }
+
+    /**
+     * Completes a bulk operation flight recorder event for this album.
+     *
+     * @param event the event, begun when the operation started
+     * @param operation the operation name
+     * @param requested number of photos passed in
+     * @param changed number of photos actually added or removed
+     */
+    private void commit(BulkOperationEvent event, String operation, int requested, int changed) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.operation = operation;
+        event.target = owner != null ? owner.getUsername() + "/" + name : name;
+        event.requested = requested;
+        event.changed = changed;
+        event.commit();
     }
 
     /**
@@ -73,7 +393,53 @@ public class Album implements Serializable {
      * @return true if the photo exists, false otherwise
      */
     public boolean containsPhoto(Photo photo) {
-        return photos.contains(photo);
+        return photo != null && photoIndex.contains(photo);
+    }
+
+    /**
+     * Returns the photo in this album that refers to the given file path.
+     * Paths are normalized before lookup, so relative and absolute forms match.
+     *
+     * @param filePath the file path to look up
+     * @return the matching photo, or null if there is none
+     */
+    public Photo getPhotoByPath(String filePath) {
+        if (filePath == null) return null;
+        return pathIndex.get(Photo.normalizePath(filePath));
+    }
+
+    /**
+     * Returns the photo for a path that is already normalized.
+     *
+     * @param normalizedPath a path produced by {@link Photo#normalizePath(String)}
+     * @return the matching photo, or null if there is none
+     */
+    Photo getPhotoByNormalizedPath(String normalizedPath) {
+        return pathIndex.get(normalizedPath);
+    }
+
+    /**
+     * Moves a photo to a new key in the path index after its file moved.
+     *
+     * @param photo the photo
+     * @param oldPath its previous normalized path
+     * @param newPath its new normalized path
+     */
+    void reindex(Photo photo, String oldPath, String newPath) {
+        if (pathIndex.get(oldPath) == photo) {
+            pathIndex.remove(oldPath);
+        }
+        pathIndex.put(newPath, photo);
+    }
+
+    /**
+     * Checks if the album already holds a photo for the given file path.
+     *
+     * @param filePath the file path to check
+     * @return true if a photo with that path exists, false otherwise
+     */
+    public boolean containsPath(String filePath) {
+        return getPhotoByPath(filePath) != null;
     }
 
     /**
@@ -82,16 +448,66 @@ public class Album implements Serializable {
      * @return the photo count
      */
     public int getPhotoCount() {
-        return photos.size();
+        return photoIndex.size();
+    }
+
+    /**
+     * Writes the album in its saved form, with the photos as an ordered list.
+     *
+     * @param out the stream the album is written to
+     * @throws IOException if writing fails
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("photos", new ArrayList<>(photoIndex));
+        fields.put("stats", stats);
+        out.writeFields();
+    }
+
+    /**
+     * Rebuilds the transient indexes after the album is read from disk. The
+     * saved summary is kept unless it is missing or does not match the
+     * photos' count or total size, in which case it is recounted from the
+     * photos' saved metadata. The size differs when photos saved without
+     * one were just given theirs.
+     *
+     * @param in the stream the album is read from
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if a class of a serialized object cannot be found
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = (String) fields.get("name", null);
+        stats = (AlbumStats) fields.get("stats", null);
+        List<Photo> stored = (List<Photo>) fields.get("photos", null);
+        photoIndex = new LinkedHashSet<>();
+        pathIndex = new LinkedHashMap<>();
+        listeners = new CopyOnWriteArrayList<>();
+        if (stored != null) {
+            for (Photo p : stored) {
+                insert(p);
+            }
+        }
+        long bytes = 0;
+        for (Photo p : photoIndex) {
+            bytes += p.getFileSize();
+        }
+        if (stats == null || stats.size() != photoIndex.size() || stats.bytes() != bytes) {
+            stats = new AlbumStats();
+            photoIndex.forEach(stats::add);
+        }
+        summary = stats.summary();
     }
 
     /**
      * Returns a string representation of the album.
      *
-     * @return the album name and photo count
+     * @return the album name and its summary
      */
     @Override
     public String toString() {
-        return name + " (" + getPhotoCount() + " photos)";
+        return name + " (" + summary + ")";
     }
 }
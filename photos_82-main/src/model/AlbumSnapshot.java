@@ -0,0 +1,28 @@
+package model;
+
+import java.util.List;
+
+/**
+ * An immutable view of an album at one point in time.
+ * <p>
+ * Snapshots are published by {@link Album#snapshot()} and reused until the
+ * album changes, so many readers can share one copy. The photo list never
+ * changes after creation and can be iterated from any thread without locks.
+ * </p>
+ *
+ * @param album the album this snapshot was taken from
+ * @param name the album name when the snapshot was taken
+ * @param photos the album's photos, in order
+ * @param summary the album's aggregate figures when the snapshot was taken
+ */
+public record AlbumSnapshot(Album album, String name, List<Photo> photos, AlbumSummary summary) {
+
+    /**
+     * Returns the number of photos in the snapshot.
+     *
+     * @return the photo count
+     */
+    public int getPhotoCount() {
+        return photos.size();
+    }
+}
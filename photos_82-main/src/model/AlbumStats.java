@@ -0,0 +1,122 @@
+package model;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Running aggregates over an album's photos, saved with the album.
+ * <p>
+ * Capture times are kept as a sorted multiset, so the earliest and latest
+ * stay correct when photos are removed, at O(log n) per change. The byte
+ * total and tag counts change in constant time. The owning album updates
+ * these under the owner's write lock and publishes an immutable
+ * {@link AlbumSummary} after each change.
+ * </p>
+ */
+final class AlbumStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of photos counted. */
+    private int photoCount;
+
+    /** Capture times in epoch milliseconds, with the number of photos taken at each. */
+    private final TreeMap<Long, Integer> captureTimes = new TreeMap<>();
+
+    /** Sum of the known file sizes. */
+    private long totalBytes;
+
+    /** Number of tags of each lower-case type; a HashMap so the field's type is serializable. */
+    private final HashMap<String, Integer> tagTypes = new HashMap<>();
+
+    /**
+     * Counts a photo added to the album.
+     *
+     * @param photo the photo
+     */
+    void add(Photo photo) {
+        photoCount++;
+        captureTimes.merge(photo.getDateTaken().getTimeInMillis(), 1, Integer::sum);
+        totalBytes += photo.getFileSize();
+        for (Tag tag : photo.getTags()) {
+            tagAdded(tag);
+        }
+    }
+
+    /**
+     * Uncounts a photo removed from the album.
+     *
+     * @param photo the photo
+     */
+    void remove(Photo photo) {
+        photoCount--;
+        captureTimes.computeIfPresent(photo.getDateTaken().getTimeInMillis(), (t, n) -> n > 1 ? n - 1 : null);
+        totalBytes -= photo.getFileSize();
+        for (Tag tag : photo.getTags()) {
+            tagRemoved(tag);
+        }
+    }
+
+    /**
+     * Counts a tag added to a photo in the album.
+     *
+     * @param tag the tag
+     */
+    void tagAdded(Tag tag) {
+        tagTypes.merge(type(tag), 1, Integer::sum);
+    }
+
+    /**
+     * Uncounts a tag removed from a photo in the album.
+     *
+     * @param tag the tag
+     */
+    void tagRemoved(Tag tag) {
+        tagTypes.computeIfPresent(type(tag), (t, n) -> n > 1 ? n - 1 : null);
+    }
+
+    /**
+     * Returns the number of photos counted.
+     *
+     * @return the photo count
+     */
+    int size() {
+        return photoCount;
+    }
+
+    /**
+     * Returns the sum of the known file sizes.
+     *
+     * @return the byte total
+     */
+    long bytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns an immutable summary of the current figures.
+     *
+     * @return the summary
+     */
+    AlbumSummary summary() {
+        if (photoCount == 0) return AlbumSummary.EMPTY;
+        return new AlbumSummary(photoCount,
+                Instant.ofEpochMilli(captureTimes.firstKey()),
+                Instant.ofEpochMilli(captureTimes.lastKey()),
+                totalBytes, Map.copyOf(tagTypes));
+    }
+
+    /**
+     * Returns the key a tag is counted under.
+     *
+     * @param tag the tag
+     * @return the lower-case tag type
+     */
+    private static String type(Tag tag) {
+        return tag.getName().toLowerCase(Locale.ROOT);
+    }
+}
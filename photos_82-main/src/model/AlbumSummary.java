@@ -0,0 +1,73 @@
+package model;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Aggregate figures for an album at one point in time.
+ * <p>
+ * Albums keep these figures up to date as photos are added, removed and
+ * tagged, so showing a list of albums with their date ranges and sizes reads
+ * one summary per album and never touches the photos or their files.
+ * </p>
+ *
+ * @param photoCount the number of photos
+ * @param earliest the earliest capture time, or null if the album is empty
+ * @param latest the latest capture time, or null if the album is empty
+ * @param totalBytes the total size of the photos' files, counting only sizes that are known
+ * @param tagTypeCounts the number of tags of each type, keyed by lower-case type
+ */
+public record AlbumSummary(int photoCount, Instant earliest, Instant latest, long totalBytes,
+                           Map<String, Integer> tagTypeCounts) {
+
+    /** The summary of an empty album. */
+    public static final AlbumSummary EMPTY = new AlbumSummary(0, null, null, 0, Map.of());
+
+    /**
+     * Returns how many tags of a type the album's photos carry.
+     *
+     * @param type the tag type, in any case
+     * @return the number of tags of that type
+     */
+    public int getTagCount(String type) {
+        return tagTypeCounts.getOrDefault(type.toLowerCase(Locale.ROOT), 0);
+    }
+
+    /**
+     * Formats a byte count with a binary unit, such as {@code 12.3 MB}.
+     *
+     * @param bytes the byte count
+     * @return the formatted size
+     */
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        String units = "KMGTPE";
+        int unit = Math.min(units.length(), (63 - Long.numberOfLeadingZeros(bytes)) / 10);
+        return String.format("%.1f %sB", bytes / Math.pow(1024, unit), units.charAt(unit - 1));
+    }
+
+    /**
+     * Returns the photo count, date range and size, such as
+     * {@code 12 photos, 2024-05-01 to 2024-05-09, 48.2 MB}. The date range and
+     * size are left out when unknown.
+     *
+     * @return the summary text
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append(photoCount).append(" photos");
+        if (earliest != null) {
+            ZoneId zone = ZoneId.systemDefault();
+            String from = earliest.atZone(zone).toLocalDate().toString();
+            String to = latest.atZone(zone).toLocalDate().toString();
+            sb.append(", ").append(from);
+            if (!to.equals(from)) sb.append(" to ").append(to);
+        }
+        if (totalBytes > 0) {
+            sb.append(", ").append(formatBytes(totalBytes));
+        }
+        return sb.toString();
+    }
+}
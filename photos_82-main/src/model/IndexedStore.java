@@ -0,0 +1,1150 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+import metrics.Metrics;
+
+/**
+ * An embedded store that keeps each user, album and photo as its own record,
+ * so saving a library writes only what changed and single records can be read
+ * without loading the rest.
+ * <p>
+ * Records live in one append-only log file. Each record holds a key, a value
+ * and a CRC, and each save ends with a commit marker written after the
+ * records are forced to disk. When the store is opened, the log is replayed
+ * into an in-memory index of where each key's latest value is. Anything after
+ * the last commit marker, such as a save cut short by a crash, is cut off, so
+ * a save is applied completely or not at all. Replaced and deleted records
+ * stay in the log as dead space until it outgrows the live records, and then
+ * the live records are copied to a fresh log that replaces the old one.
+ * </p>
+ * <p>
+ * Keys are {@code u/<user>} for a user with its password and album order,
+ * {@code a/<user>/<album>} for an album's name and photo ids, followed by
+ * the query of a {@link SmartAlbum}, and
+ * {@code p/<user>/<id>} for a photo's file, date, size, caption and tags,
+ * with the parts of each key separated by a NUL character rather than a
+ * slash. A photo in several albums of a user is stored once. Photo ids are
+ * numbers given out per user; the store remembers which photo object has
+ * which id from one load or save to the next, so a photo keeps its record
+ * while it is edited, and two photos that share a file path stay two photos.
+ * Tag and date indexes over the photo records answer
+ * {@link #findByTag(String, String)} and
+ * {@link #findTakenBetween(LocalDate, LocalDate)} without reading the log.
+ * </p>
+ * <p>
+ * Saving skips users whose change count has not moved since the store last
+ * loaded or saved them, and compares the rest record by record with what is
+ * stored, by length and a 64-bit hash kept in the index, so unchanged records
+ * are not read back. The first time a store is opened on an empty log it takes over the
+ * users in the serialized data file, which is left in place. All methods are
+ * thread-safe.
+ * </p>
+ */
+public final class IndexedStore implements LibraryStore, Closeable {
+
+    /** Name of the log file in the store directory. */
+    private static final String LOG = "library.log";
+
+    /** Bytes at the start of every log file. */
+    private static final byte[] MAGIC = "PHOTOSTORE1\n".getBytes(StandardCharsets.US_ASCII);
+
+    /** Record operation: the key now has the record's value. */
+    private static final byte PUT = 1;
+
+    /** Record operation: the key no longer exists. */
+    private static final byte DELETE = 2;
+
+    /** Single-byte marker ending the records of one save. */
+    private static final byte COMMIT = 3;
+
+    /** Bytes in a record header: operation, key length and value length. */
+    private static final int HEADER = 9;
+
+    /** Largest key or value length accepted while replaying, to catch damaged headers. */
+    private static final int MAX_FIELD = 64 << 20;
+
+    /** Dead bytes the log may hold before it is compacted, whatever the live size. */
+    private static final long MIN_COMPACT_BYTES = 4L << 20;
+
+    /** Separator between the parts of a key. */
+    private static final char SEP = '\0';
+
+    /** Orders photo references by user, path and id. */
+    private static final Comparator<PhotoRef> REF_ORDER = Comparator.comparing(PhotoRef::username)
+            .thenComparing(PhotoRef::path).thenComparingLong(PhotoRef::id);
+
+    /** The store directory. */
+    private final Path dir;
+
+    /** The log file. */
+    private final Path logFile;
+
+    /** The serialized store the library is taken over from on first use. */
+    private final SerializedStore legacy;
+
+    /** The open log. */
+    private FileChannel channel;
+
+    /** Where the next save is appended: the end of the last committed save. */
+    private long end;
+
+    /** Bytes of the records that are the latest value of their keys. */
+    private long liveBytes;
+
+    /** Where each key's latest value is, in key order. */
+    private final TreeMap<String, Entry> index = new TreeMap<>();
+
+    /** Photo keys by tag, keyed by {@link #tagKey(String, String)}. */
+    private final Map<String, Set<String>> byTag = new HashMap<>();
+
+    /** Photo keys by the time the photo was taken, in epoch milliseconds. */
+    private final TreeMap<Long, Set<String>> byDate = new TreeMap<>();
+
+    /** The user objects last loaded or saved, with their change counts and photo ids then, by username. */
+    private final Map<String, Saved> saved = new HashMap<>();
+
+    /**
+     * Where a key's latest value is in the log.
+     *
+     * @param offset the position of the value
+     * @param length the length of the value
+     * @param recordBytes the length of the whole record
+     * @param hash the value's {@link #hash(byte[])}, compared when saving
+     * @param taken when the photo was taken, for photo keys; 0 otherwise
+     * @param path the photo's normalized path, for photo keys; null otherwise
+     * @param tags the photo's tags as {@link #tagKey(String, String)}, for photo keys; empty otherwise
+     */
+    private record Entry(long offset, int length, int recordBytes, long hash, long taken, String path,
+                         List<String> tags) {
+    }
+
+    /**
+     * A user as the store last saw it.
+     *
+     * @param user the user object
+     * @param changes its change count at the time
+     * @param ids the ids of its photos at the time
+     */
+    private record Saved(User user, long changes, PhotoIds ids) {
+    }
+
+    /**
+     * A user's records, encoded under its read lock.
+     *
+     * @param changes the user's change count while encoding
+     * @param records the values by key
+     * @param ids the ids the user's photos were stored under
+     */
+    private record Encoded(long changes, Map<String, byte[]> records, PhotoIds ids) {
+    }
+
+    /**
+     * The ids of one user's photo objects, and the next id to give out.
+     * Photos are matched by identity, so two photos with the same path get
+     * different ids.
+     */
+    private static final class PhotoIds {
+
+        /** The id of each photo object. */
+        final Map<Photo, Long> ids = new IdentityHashMap<>();
+
+        /** The next id to give out; larger than every id stored for the user. */
+        long next;
+
+        /**
+         * Creates an empty set of ids.
+         *
+         * @param next the first id to give out
+         */
+        PhotoIds(long next) {
+            this.next = next;
+        }
+    }
+
+    /**
+     * A photo record's fields.
+     *
+     * @param filePath the photo's file path
+     * @param taken when it was taken, in epoch milliseconds
+     * @param size the file size
+     * @param caption the caption, or null
+     * @param tags the tags as name and value pairs
+     */
+    private record PhotoFields(String filePath, long taken, long size, String caption, List<String[]> tags) {
+    }
+
+    /**
+     * A photo found through an index.
+     *
+     * @param username the user the photo belongs to
+     * @param id the photo's id within the user, as taken by {@link #loadPhoto(String, long)}
+     * @param path the photo's normalized path
+     */
+    public record PhotoRef(String username, long id, String path) {
+    }
+
+    /**
+     * Opens the store in a directory, creating it if needed, and replays the
+     * log. An empty store takes over the users in the given serialized store.
+     *
+     * @param dir the store directory
+     * @param legacy the serialized store to take users over from
+     * @throws UncheckedIOException if the store cannot be opened or is not a store log
+     */
+    public IndexedStore(Path dir, SerializedStore legacy) {
+        this.dir = dir;
+        this.logFile = dir.resolve(LOG);
+        this.legacy = legacy;
+        try {
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open store " + dir, e);
+        }
+    }
+
+    /**
+     * Opens and replays the log, writing the header into a new one, and takes
+     * over the legacy users if nothing has been committed yet.
+     *
+     * @throws IOException if the log cannot be read or written
+     */
+    private void open() throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(dir);
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < MAGIC.length) {
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(MAGIC), 0);
+            channel.force(true);
+        }
+        replay();
+        Metrics.latency("store.open").recordSince(start);
+        if (end == MAGIC.length && legacy.exists()) {
+            Map<String, User> users = legacy.loadAll();
+            Batch batch = new Batch();
+            for (User user : users.values()) {
+                diff(user.getUsername(), encode(user, new PhotoIds(1)).records(), batch);
+            }
+            append(batch);
+            Metrics.count("store.migrated", users.size());
+        }
+    }
+
+    /**
+     * Reads the log from the start, applying each save whose commit marker
+     * was written, and cuts off whatever follows the last one.
+     *
+     * @throws IOException if the log cannot be read or is not a store log
+     */
+    private void replay() throws IOException {
+        long size = channel.size();
+        long committed = MAGIC.length;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(logFile), 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a photo store log: " + logFile);
+            }
+            long position = MAGIC.length;
+            List<Object[]> pending = new ArrayList<>();
+            CRC32 crc = new CRC32();
+            while (position < size) {
+                byte op = in.readByte();
+                if (op == COMMIT) {
+                    position++;
+                    for (Object[] p : pending) {
+                        apply((String) p[0], (Entry) p[1]);
+                    }
+                    pending.clear();
+                    committed = position;
+                    continue;
+                }
+                int keyLength = in.readInt();
+                int valueLength = in.readInt();
+                if ((op != PUT && op != DELETE) || keyLength <= 0 || keyLength > MAX_FIELD
+                        || valueLength < 0 || valueLength > MAX_FIELD) {
+                    break;
+                }
+                byte[] record = new byte[HEADER + keyLength + valueLength];
+                ByteBuffer.wrap(record).put(op).putInt(keyLength).putInt(valueLength);
+                in.readFully(record, HEADER, keyLength + valueLength);
+                int checksum = in.readInt();
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) break;
+
+                String key = new String(record, HEADER, keyLength, StandardCharsets.UTF_8);
+                Entry entry = null;
+                if (op == PUT) {
+                    byte[] value = Arrays.copyOfRange(record, HEADER + keyLength, record.length);
+                    entry = entry(key, position + HEADER + keyLength, value);
+                }
+                pending.add(new Object[] {key, entry});
+                position += record.length + 4;
+            }
+        } catch (EOFException e) {
+            // a save cut short; everything after the last commit is dropped below
+        }
+        if (committed < size) {
+            channel.truncate(committed);
+            channel.force(true);
+            Metrics.count("store.recovered");
+        }
+        end = committed;
+    }
+
+    /**
+     * Builds the index entry for a value, decoding photo records for the
+     * secondary indexes.
+     *
+     * @param key the key
+     * @param offset where the value is in the log
+     * @param value the value
+     * @return the entry
+     * @throws IOException if a photo record cannot be decoded
+     */
+    private static Entry entry(String key, long offset, byte[] value) throws IOException {
+        int recordBytes = recordBytes(key.getBytes(StandardCharsets.UTF_8).length, value.length);
+        if (!key.startsWith("p" + SEP)) {
+            return new Entry(offset, value.length, recordBytes, hash(value), 0, null, List.of());
+        }
+        PhotoFields photo = decodePhoto(value);
+        List<String> tags = new ArrayList<>(photo.tags().size());
+        for (String[] tag : photo.tags()) {
+            tags.add(tagKey(tag[0], tag[1]));
+        }
+        return new Entry(offset, value.length, recordBytes, hash(value), photo.taken(),
+                Photo.normalizePath(photo.filePath()), List.copyOf(tags));
+    }
+
+    /**
+     * Makes an entry the latest value of its key, or removes the key, and
+     * keeps the secondary indexes and live byte count in step.
+     *
+     * @param key the key
+     * @param entry the new entry, or null to remove the key
+     */
+    private void apply(String key, Entry entry) {
+        Entry old = entry == null ? index.remove(key) : index.put(key, entry);
+        if (old != null) {
+            liveBytes -= old.recordBytes();
+            for (String tag : old.tags()) {
+                unindex(byTag, tag, key);
+            }
+            if (key.startsWith("p" + SEP)) {
+                unindex(byDate, old.taken(), key);
+            }
+        }
+        if (entry != null) {
+            liveBytes += entry.recordBytes();
+            for (String tag : entry.tags()) {
+                byTag.computeIfAbsent(tag, t -> new HashSet<>()).add(key);
+            }
+            if (key.startsWith("p" + SEP)) {
+                byDate.computeIfAbsent(entry.taken(), t -> new HashSet<>()).add(key);
+            }
+        }
+    }
+
+    /**
+     * Removes a key from one bucket of a secondary index, dropping the bucket
+     * when it empties.
+     *
+     * @param <K> the index key type
+     * @param map the index
+     * @param bucket the bucket
+     * @param key the record key
+     */
+    private static <K> void unindex(Map<K, Set<String>> map, K bucket, String key) {
+        Set<String> keys = map.get(bucket);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            map.remove(bucket);
+        }
+    }
+
+    /**
+     * Checks whether the store holds any users.
+     *
+     * @return true if there is something to load
+     */
+    @Override
+    public synchronized boolean exists() {
+        return !index.subMap("u" + SEP, "u" + (char) (SEP + 1)).isEmpty();
+    }
+
+    /**
+     * Reads every user, and remembers the returned objects so the next save
+     * skips the ones that have not changed.
+     *
+     * @return the users by username
+     * @throws IOException if the log cannot be read
+     */
+    @Override
+    public synchronized Map<String, User> loadAll() throws IOException {
+        long start = System.nanoTime();
+        Map<String, User> loaded = new HashMap<>();
+        saved.clear();
+        for (String key : index.subMap("u" + SEP, "u" + (char) (SEP + 1)).keySet()) {
+            String username = key.substring(2);
+            Map<Long, Photo> photos = new HashMap<>();
+            User user = readUser(username, photos);
+            PhotoIds ids = new PhotoIds(nextId(username));
+            photos.forEach((id, photo) -> ids.ids.put(photo, id));
+            loaded.put(username, user);
+            saved.put(username, new Saved(user, user.getChangeCount(), ids));
+        }
+        Metrics.latency("store.load").recordSince(start);
+        return loaded;
+    }
+
+    /**
+     * Reads one user with its albums and photos.
+     *
+     * @param username the username, matched exactly
+     * @return a new user object, or null if there is none
+     * @throws IOException if the log cannot be read
+     */
+    @Override
+    public synchronized User load(String username) throws IOException {
+        return index.containsKey(userKey(username)) ? readUser(username, new HashMap<>()) : null;
+    }
+
+    /**
+     * Reads one album with its photos.
+     *
+     * @param username the username, matched exactly
+     * @param albumName the album name, in any letter case
+     * @return a new album object not owned by any user, or null if there is none
+     * @throws IOException if the log cannot be read
+     */
+    public synchronized Album loadAlbum(String username, String albumName) throws IOException {
+        Entry entry = index.get(albumKey(username, albumName));
+        return entry == null ? null : readAlbum(username, entry, new HashMap<>());
+    }
+
+    /**
+     * Reads one photo.
+     *
+     * @param username the username, matched exactly
+     * @param id the photo's id, as found in a {@link PhotoRef}
+     * @return a new photo object in no album, or null if there is none
+     * @throws IOException if the log cannot be read
+     */
+    public synchronized Photo loadPhoto(String username, long id) throws IOException {
+        Entry entry = index.get(photoKey(username, id));
+        return entry == null ? null : toPhoto(decodePhoto(read(entry)));
+    }
+
+    /**
+     * Finds the stored photos with a tag, from the tag index.
+     *
+     * @param name the tag name, in any letter case
+     * @param value the tag value, in any letter case
+     * @return the photos, ordered by user, path and id
+     */
+    public synchronized List<PhotoRef> findByTag(String name, String value) {
+        Tag tag = new Tag(name, value);
+        return refs(byTag.getOrDefault(tagKey(tag.getName(), tag.getValue()), Set.of()));
+    }
+
+    /**
+     * Finds the stored photos taken between two dates, from the date index.
+     *
+     * @param from the first day, inclusive
+     * @param to the last day, inclusive
+     * @return the photos, ordered by user, path and id
+     */
+    public synchronized List<PhotoRef> findTakenBetween(LocalDate from, LocalDate to) {
+        ZoneId zone = ZoneId.systemDefault();
+        long low = from.atStartOfDay(zone).toInstant().toEpochMilli();
+        long high = to.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        Set<String> keys = new HashSet<>();
+        if (low < high) {
+            byDate.subMap(low, true, high, false).values().forEach(keys::addAll);
+        }
+        return refs(keys);
+    }
+
+    /**
+     * Turns photo keys into sorted photo references, taking the paths from
+     * the index.
+     *
+     * @param keys the photo keys
+     * @return the references
+     */
+    private List<PhotoRef> refs(Collection<String> keys) {
+        List<PhotoRef> refs = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            int sep = key.indexOf(SEP, 2);
+            refs.add(new PhotoRef(key.substring(2, sep), Long.parseLong(key.substring(sep + 1)),
+                    index.get(key).path()));
+        }
+        refs.sort(REF_ORDER);
+        return refs;
+    }
+
+    /**
+     * Returns the next photo id to give out for a user: one more than the
+     * largest id stored for it.
+     *
+     * @param username the username
+     * @return the id
+     */
+    private long nextId(String username) {
+        String prefix = "p" + SEP + username + SEP;
+        long max = 0;
+        for (String key : index.subMap(prefix, prefix + Character.MAX_VALUE).keySet()) {
+            max = Math.max(max, Long.parseLong(key.substring(prefix.length())));
+        }
+        return max + 1;
+    }
+
+    /**
+     * Saves the library. Users whose change count has not moved since they
+     * were last loaded or saved are skipped; the rest are encoded under their
+     * read locks and only records that differ from the stored ones are
+     * written. Stored users not among the given ones are deleted.
+     *
+     * @param manager the manager whose locks guard the users
+     * @param users every user in the library
+     * @return the number of users that were encoded
+     * @throws IOException if the log cannot be written; nothing of this save is kept
+     */
+    @Override
+    public synchronized int save(PhotoManager manager, Collection<User> users) throws IOException {
+        Batch batch = new Batch();
+        Map<String, Saved> seen = new HashMap<>();
+        int written = 0;
+        for (User user : users) {
+            String username = user.getUsername();
+            Saved last = saved.get(username);
+            if (last != null && last.user() == user && last.changes() == user.getChangeCount()) {
+                seen.put(username, last);
+                continue;
+            }
+            PhotoIds ids = last != null && last.user() == user ? last.ids() : new PhotoIds(nextId(username));
+            Encoded encoded = manager.read(username, () -> encode(user, ids));
+            diff(username, encoded.records(), batch);
+            seen.put(username, new Saved(user, encoded.changes(), encoded.ids()));
+            written++;
+        }
+        for (String key : index.subMap("u" + SEP, "u" + (char) (SEP + 1)).keySet()) {
+            String username = key.substring(2);
+            if (!seen.containsKey(username)) {
+                diff(username, Map.of(), batch);
+            }
+        }
+        append(batch);
+        saved.clear();
+        saved.putAll(seen);
+        Metrics.count("store.users.skipped", users.size() - written);
+        if (end - MAGIC.length - liveBytes > Math.max(liveBytes, MIN_COMPACT_BYTES)) {
+            compact();
+        }
+        return written;
+    }
+
+    /**
+     * Adds to a batch the records of one user that differ from the stored
+     * ones, and deletions for the user's stored keys that are gone. Records
+     * are compared by length and hash, without reading the stored ones.
+     *
+     * @param username the username
+     * @param records the user's records by key; empty to delete the user
+     * @param batch the batch to add to
+     */
+    private void diff(String username, Map<String, byte[]> records, Batch batch) {
+        for (Map.Entry<String, byte[]> record : records.entrySet()) {
+            Entry stored = index.get(record.getKey());
+            byte[] value = record.getValue();
+            if (stored == null || stored.length() != value.length || stored.hash() != hash(value)) {
+                batch.put(record.getKey(), value);
+            }
+        }
+        List<String> stale = new ArrayList<>();
+        if (index.containsKey(userKey(username))) {
+            stale.add(userKey(username));
+        }
+        for (String kind : List.of("a", "p")) {
+            String prefix = kind + SEP + username + SEP;
+            stale.addAll(index.subMap(prefix, prefix + Character.MAX_VALUE).keySet());
+        }
+        for (String key : stale) {
+            if (!records.containsKey(key)) {
+                batch.delete(key);
+            }
+        }
+    }
+
+    /**
+     * Appends a batch and its commit marker, forcing both to disk, and then
+     * applies it to the index. On failure the log is cut back to where it
+     * was and the index is untouched.
+     *
+     * @param batch the batch
+     * @throws IOException if the log cannot be written
+     */
+    private void append(Batch batch) throws IOException {
+        if (batch.ops.isEmpty()) return;
+        long start = System.nanoTime();
+        byte[] bytes = batch.out.toByteArray();
+        long base = end;
+        try {
+            writeFully(ByteBuffer.wrap(bytes), base);
+            channel.force(false);
+            writeFully(ByteBuffer.wrap(new byte[] {COMMIT}), base + bytes.length);
+            channel.force(false);
+        } catch (IOException e) {
+            try {
+                channel.truncate(base);
+            } catch (IOException ignored) {
+                // the uncommitted tail is cut off when the store is next opened
+            }
+            Metrics.latency("store.append").fail();
+            throw e;
+        }
+        end = base + bytes.length + 1;
+        for (Op op : batch.ops) {
+            apply(op.key(), op.value() == null ? null : entry(op.key(), base + op.offset(), op.value()));
+        }
+        Metrics.count("store.records", batch.ops.size());
+        Metrics.latency("store.append").recordSince(start);
+    }
+
+    /**
+     * Copies the live records to a new log, forces it to disk and moves it
+     * over the old one.
+     *
+     * @throws IOException if the new log cannot be written; the old one stays in use
+     */
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        Path temp = dir.resolve(LOG + ".compact");
+        long[] offsets = new long[index.size()];
+        long position;
+        try (FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(target), 1 << 16);
+            out.write(MAGIC);
+            position = MAGIC.length;
+            int i = 0;
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] record = record(PUT, key, read(e.getValue()));
+                offsets[i++] = position + HEADER + key.length;
+                out.write(record);
+                position += record.length;
+            }
+            out.write(COMMIT);
+            position++;
+            out.flush();
+            target.force(true);
+        }
+        Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int i = 0;
+        for (Map.Entry<String, Entry> e : index.entrySet()) {
+            Entry old = e.getValue();
+            e.setValue(new Entry(offsets[i++], old.length(), old.recordBytes(), old.hash(), old.taken(),
+                    old.path(), old.tags()));
+        }
+        end = position;
+        Metrics.latency("store.compact").recordSince(start);
+    }
+
+    /**
+     * Writes a buffer at a position of the log, looping until all of it is written.
+     *
+     * @param buffer the bytes
+     * @param position where to write them
+     * @throws IOException if writing fails
+     */
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Reads a stored value.
+     *
+     * @param entry where the value is
+     * @return the value
+     * @throws IOException if the log cannot be read
+     */
+    private byte[] read(Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length());
+        long position = entry.offset();
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new EOFException("Store log is shorter than its index: " + logFile);
+            position += n;
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Builds a user, its albums and their photos from their records. A photo
+     * shared by several albums becomes one object.
+     *
+     * @param username the username
+     * @param photos receives the photos built, by id
+     * @return the user
+     * @throws IOException if the log cannot be read
+     */
+    private User readUser(String username, Map<Long, Photo> photos) throws IOException {
+        DataInputStream in = input(read(index.get(userKey(username))));
+        User user = new User(username, readString(in));
+        int albums = in.readInt();
+        for (int i = 0; i < albums; i++) {
+            Entry entry = index.get(albumKey(username, readString(in)));
+            if (entry != null) {
+                user.restoreAlbum(readAlbum(username, entry, photos));
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Builds an album and its photos from their records. A smart album
+     * keeps the members stored with it.
+     *
+     * @param username the album's owner
+     * @param entry where the album record is
+     * @param photos photos already built for this user, by id; added to
+     * @return the album
+     * @throws IOException if the log cannot be read
+     */
+    private Album readAlbum(String username, Entry entry, Map<Long, Photo> photos) throws IOException {
+        DataInputStream in = input(read(entry));
+        String name = readString(in);
+        int count = in.readInt();
+        List<Photo> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = in.readLong();
+            Photo photo = photos.get(id);
+            if (photo == null) {
+                Entry photoEntry = index.get(photoKey(username, id));
+                if (photoEntry == null) continue;
+                photo = toPhoto(decodePhoto(read(photoEntry)));
+                photos.put(id, photo);
+            }
+            list.add(photo);
+        }
+        if (in.available() > 0) {
+            return new SmartAlbum(name, readQuery(in), list);
+        }
+        Album album = new Album(name);
+        album.addPhotos(list);
+        return album;
+    }
+
+    /**
+     * Builds a photo from its record's fields.
+     *
+     * @param fields the fields
+     * @return the photo
+     */
+    private static Photo toPhoto(PhotoFields fields) {
+        Calendar taken = Calendar.getInstance();
+        taken.setTimeInMillis(fields.taken());
+        Photo photo = new Photo(fields.filePath(), taken, fields.size());
+        photo.setCaption(fields.caption());
+        for (String[] tag : fields.tags()) {
+            photo.addTag(tag[0], tag[1]);
+        }
+        return photo;
+    }
+
+    /**
+     * Encodes a user's records. The caller must hold the user's read lock,
+     * or own the user outright. Photos keep the ids they had; new ones get
+     * the next free ids.
+     *
+     * @param user the user
+     * @param previous the ids the user's photos were last stored under
+     * @return the values by key, the user record first, with the ids used
+     */
+    private static Encoded encode(User user, PhotoIds previous) {
+        String username = user.getUsername();
+        long changes = user.getChangeCount();
+        Map<String, byte[]> records = new LinkedHashMap<>();
+        List<Album> albums = user.getAlbums();
+        PhotoIds assigned = new PhotoIds(previous.next);
+        for (Album album : albums) {
+            for (Photo photo : album.getPhotos()) {
+                if (!assigned.ids.containsKey(photo)) {
+                    Long id = previous.ids.get(photo);
+                    assigned.ids.put(photo, id != null ? id : assigned.next++);
+                }
+            }
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            writeString(out, user.getPassword());
+            out.writeInt(albums.size());
+            for (Album album : albums) {
+                writeString(out, album.getName());
+            }
+            records.put(userKey(username), buffer.toByteArray());
+
+            for (Album album : albums) {
+                buffer.reset();
+                List<Photo> photos = album.getPhotos();
+                writeString(out, album.getName());
+                out.writeInt(photos.size());
+                for (Photo photo : photos) {
+                    out.writeLong(assigned.ids.get(photo));
+                }
+                if (album instanceof SmartAlbum smart) {
+                    writeQuery(out, smart.getQuery());
+                }
+                records.put(albumKey(username, album.getName()), buffer.toByteArray());
+            }
+
+            for (Map.Entry<Photo, Long> stored : assigned.ids.entrySet()) {
+                Photo photo = stored.getKey();
+                buffer.reset();
+                writeString(out, photo.getFilePath());
+                out.writeLong(photo.getDateTaken().getTimeInMillis());
+                out.writeLong(photo.getFileSize());
+                writeString(out, photo.getCaption());
+                List<Tag> tags = new ArrayList<>(photo.getTags());
+                tags.sort(Comparator.comparing(Tag::getName).thenComparing(Tag::getValue));
+                out.writeInt(tags.size());
+                for (Tag tag : tags) {
+                    writeString(out, tag.getName());
+                    writeString(out, tag.getValue());
+                }
+                records.put(photoKey(username, stored.getValue()), buffer.toByteArray());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a byte array stream does not fail
+        }
+        return new Encoded(changes, records, assigned);
+    }
+
+    /**
+     * Writes a smart album's query: both tags, the operator, the date range
+     * and the caption text.
+     *
+     * @param out the stream
+     * @param query the query
+     * @throws IOException if writing fails
+     */
+    private static void writeQuery(DataOutputStream out, PhotoSearch query) throws IOException {
+        for (Tag tag : new Tag[] {query.getTag1(), query.getTag2()}) {
+            writeString(out, tag == null ? null : tag.getName());
+            writeString(out, tag == null ? null : tag.getValue());
+        }
+        writeString(out, query.getOperator().name());
+        writeString(out, query.getStartDate() == null ? null : query.getStartDate().toString());
+        writeString(out, query.getEndDate() == null ? null : query.getEndDate().toString());
+        writeString(out, query.getCaptionText());
+    }
+
+    /**
+     * Reads a query written by {@link #writeQuery(DataOutputStream, PhotoSearch)}.
+     *
+     * @param in the stream
+     * @return the query
+     * @throws IOException if the value is malformed
+     */
+    private static PhotoSearch readQuery(DataInputStream in) throws IOException {
+        Tag[] tags = new Tag[2];
+        for (int i = 0; i < tags.length; i++) {
+            String name = readString(in);
+            String value = readString(in);
+            tags[i] = name == null || value == null ? null : new Tag(name, value);
+        }
+        try {
+            PhotoSearch.Operator operator = PhotoSearch.Operator.valueOf(readString(in));
+            String start = readString(in);
+            String end = readString(in);
+            return new PhotoSearch(tags[0], tags[1], operator,
+                    start == null ? null : LocalDate.parse(start),
+                    end == null ? null : LocalDate.parse(end), readString(in));
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed smart album query in " + LOG, e);
+        }
+    }
+
+    /**
+     * Decodes a photo record.
+     *
+     * @param value the record's value
+     * @return the fields
+     * @throws IOException if the value is malformed
+     */
+    private static PhotoFields decodePhoto(byte[] value) throws IOException {
+        DataInputStream in = input(value);
+        String filePath = readString(in);
+        long taken = in.readLong();
+        long size = in.readLong();
+        String caption = readString(in);
+        int count = in.readInt();
+        List<String[]> tags = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tags.add(new String[] {readString(in), readString(in)});
+        }
+        return new PhotoFields(filePath, taken, size, caption, tags);
+    }
+
+    /**
+     * Wraps a value for decoding.
+     *
+     * @param value the value
+     * @return a stream over it
+     */
+    private static DataInputStream input(byte[] value) {
+        return new DataInputStream(new ByteArrayInputStream(value));
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes, or -1 for null.
+     *
+     * @param out the stream
+     * @param s the string, or null
+     * @throws IOException if writing fails
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in the stream
+     * @return the string, or null
+     * @throws IOException if the value is malformed
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Frames a record: header, key, value and a CRC of all three.
+     *
+     * @param op the operation
+     * @param key the key bytes
+     * @param value the value bytes, empty for a deletion
+     * @return the record bytes
+     */
+    private static byte[] record(byte op, byte[] key, byte[] value) {
+        ByteBuffer record = ByteBuffer.allocate(recordBytes(key.length, value.length));
+        record.put(op).putInt(key.length).putInt(value.length).put(key).put(value);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Hashes a value for comparing it with a stored one: its CRC-32 and
+     * CRC-32C side by side, two independent checksums that together make
+     * an accidental match as unlikely as a 64-bit hash would.
+     *
+     * @param value the value
+     * @return the hash
+     */
+    private static long hash(byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(value);
+        CRC32C crcC = new CRC32C();
+        crcC.update(value);
+        return crc.getValue() << 32 | crcC.getValue();
+    }
+
+    /**
+     * Returns the length of a framed record.
+     *
+     * @param keyLength the key length
+     * @param valueLength the value length
+     * @return the record length
+     */
+    private static int recordBytes(int keyLength, int valueLength) {
+        return HEADER + keyLength + valueLength + 4;
+    }
+
+    /**
+     * Returns the key of a user record.
+     *
+     * @param username the username
+     * @return the key
+     */
+    private static String userKey(String username) {
+        return "u" + SEP + username;
+    }
+
+    /**
+     * Returns the key of an album record; album names are matched ignoring case.
+     *
+     * @param username the owner
+     * @param albumName the album name
+     * @return the key
+     */
+    private static String albumKey(String username, String albumName) {
+        return "a" + SEP + username + SEP + albumName.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the key of a photo record.
+     *
+     * @param username the owner
+     * @param id the photo's id within the user
+     * @return the key
+     */
+    private static String photoKey(String username, long id) {
+        return "p" + SEP + username + SEP + id;
+    }
+
+    /**
+     * Returns the tag index key of a normalized tag.
+     *
+     * @param name the tag name
+     * @param value the tag value
+     * @return the key
+     */
+    private static String tagKey(String name, String value) {
+        return name + SEP + value;
+    }
+
+    /**
+     * Returns the log file.
+     *
+     * @return the log file's path
+     */
+    @Override
+    public String location() {
+        return logFile.toString();
+    }
+
+    /**
+     * Returns the size of the log, dead records included.
+     *
+     * @return the size, or -1 if it cannot be read
+     */
+    @Override
+    public synchronized long sizeOnDisk() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Closes the log. The store cannot be used afterwards.
+     *
+     * @throws IOException if closing fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Records framed for one append, with where each value sits in the batch.
+     */
+    private static final class Batch {
+
+        /** The framed records. */
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        /** The records in order. */
+        private final List<Op> ops = new ArrayList<>();
+
+        /**
+         * Adds a record setting a key's value.
+         *
+         * @param key the key
+         * @param value the value
+         */
+        void put(String key, byte[] value) {
+            add(PUT, key, value);
+        }
+
+        /**
+         * Adds a record deleting a key.
+         *
+         * @param key the key
+         */
+        void delete(String key) {
+            add(DELETE, key, null);
+        }
+
+        /**
+         * Frames and adds a record.
+         *
+         * @param op the operation
+         * @param key the key
+         * @param value the value, or null for a deletion
+         */
+        private void add(byte op, String key, byte[] value) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            ops.add(new Op(key, value, out.size() + HEADER + keyBytes.length));
+            out.writeBytes(record(op, keyBytes, value == null ? new byte[0] : value));
+        }
+    }
+
+    /**
+     * One record in a batch.
+     *
+     * @param key the key
+     * @param value the value, or null for a deletion
+     * @param offset where the value starts, relative to the batch
+     */
+    private record Op(String key, byte[] value, long offset) {
+    }
+}
@@ -0,0 +1,100 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Where a {@link PhotoManager} keeps its users between runs.
+ * <p>
+ * Two stores are provided. {@link SerializedStore} writes every user to one
+ * Java serialization file, {@code users.dat}, and is the default.
+ * {@link IndexedStore} keeps users, albums and photos as separate records in
+ * an append-only file with tag and date indexes. Each save writes only the
+ * records that changed, and single users, albums and photos can be read
+ * without loading the rest. The store is chosen at startup with the
+ * {@value #PROPERTY} system property, {@code serialized} or {@code indexed}.
+ * </p>
+ * <p>
+ * The manager serializes calls to {@link #save(PhotoManager, Collection)} and
+ * {@link #loadAll()}. A store must read each user's albums and photos inside
+ * {@link PhotoManager#read(String, java.util.function.Supplier)} while saving,
+ * since other threads may be editing them.
+ * </p>
+ */
+public interface LibraryStore {
+
+    /** System property selecting the store: {@code serialized} or {@code indexed}. */
+    String PROPERTY = "photos.store";
+
+    /**
+     * Opens the store selected by the {@value #PROPERTY} system property.
+     * The indexed store lives in a directory next to the data file and
+     * takes over the users in the data file the first time it is opened.
+     *
+     * @param dataFile the serialized data file, such as {@code users.dat}
+     * @return the store
+     * @throws IllegalArgumentException if the property names an unknown store
+     * @throws java.io.UncheckedIOException if the indexed store cannot be opened
+     */
+    static LibraryStore open(String dataFile) {
+        SerializedStore serialized = new SerializedStore(Path.of(dataFile));
+        String kind = System.getProperty(PROPERTY, "serialized");
+        return switch (kind) {
+            case "serialized" -> serialized;
+            case "indexed" -> new IndexedStore(Path.of(dataFile + ".store"), serialized);
+            default -> throw new IllegalArgumentException("Unknown " + PROPERTY + ": " + kind);
+        };
+    }
+
+    /**
+     * Checks whether the store holds a saved library.
+     *
+     * @return true if there is something to load
+     */
+    boolean exists();
+
+    /**
+     * Reads every user.
+     *
+     * @return the users by username
+     * @throws IOException if the store cannot be read
+     */
+    Map<String, User> loadAll() throws IOException;
+
+    /**
+     * Reads one user.
+     *
+     * @param username the username
+     * @return the user as last saved, not attached to any manager, or null if there is none
+     * @throws IOException if the store cannot be read
+     */
+    User load(String username) throws IOException;
+
+    /**
+     * Saves the library: writes the given users and forgets any stored user
+     * not among them.
+     *
+     * @param manager the manager whose locks guard the users
+     * @param users every user in the library
+     * @return the number of users written
+     * @throws IOException if the store cannot be written; the previously
+     *         saved library is left intact
+     */
+    int save(PhotoManager manager, Collection<User> users) throws IOException;
+
+    /**
+     * Returns where the store keeps its data, for logs and events.
+     *
+     * @return the file or directory
+     */
+    String location();
+
+    /**
+     * Returns the bytes the store takes on disk.
+     *
+     * @return the size, or -1 if it cannot be read
+     */
+    long sizeOnDisk();
+}
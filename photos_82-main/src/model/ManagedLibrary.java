@@ -0,0 +1,387 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import metrics.Metrics;
+
+/**
+ * A content-addressed directory the library keeps its own copies of photo
+ * files in, so photos survive their original folders being moved and the same
+ * file imported twice is stored once.
+ * <p>
+ * A file is stored under the SHA-256 of its content, as
+ * {@code <root>/<first two hex digits>/<hash>.<extension>}. Ingesting a file
+ * whose content is already stored just returns the stored path. New content is
+ * copied with {@link FileChannel#transferTo}, which lets the operating system
+ * move the bytes, and appears under its final name by an atomic rename, so a
+ * crash never leaves a partial file at a stored path. Files are never
+ * hard-linked: a link shares its data with the original, so editing the
+ * original in place would change the content stored under the old hash.
+ * </p>
+ * <p>
+ * Every ingested source is recorded in a journal in the root, with its size,
+ * modification time and hash, and the modification time of the stored file.
+ * Ingesting an unchanged source again skips hashing it, which is what makes an
+ * interrupted bulk ingest cheap to resume. A stored file is only handed out
+ * again if its size and modification time are still the recorded ones; one
+ * that has changed, or that no journal line vouches for, is hashed, and
+ * replaced by a fresh copy if it no longer holds its content. Stored files are
+ * never deleted, even when no photo refers to them any more.
+ * </p>
+ * <p>
+ * The library is enabled by starting any of the applications with the
+ * {@value #PROPERTY} system property set to the root directory. All methods
+ * are thread-safe.
+ * </p>
+ */
+public final class ManagedLibrary {
+
+    /** System property naming the root of the managed library. */
+    public static final String PROPERTY = "photos.library";
+
+    /** Name of the ingest journal in the root. */
+    private static final String JOURNAL = "ingest.journal";
+
+    /** Largest region mapped at once while hashing. */
+    private static final long HASH_CHUNK = 64L << 20;
+
+    /** The root directory, absolute and normalized. */
+    private final Path root;
+
+    /** The journal file. */
+    private final Path journalFile;
+
+    /** What is known about each ingested source, by absolute normalized path. */
+    private final Map<String, Ingested> journal = new ConcurrentHashMap<>();
+
+    /** The modification time each stored file had when last found intact, by content hash. */
+    private final Map<String, Long> storedStamps = new ConcurrentHashMap<>();
+
+    /** Serializes appends to the journal file. */
+    private final Object journalLock = new Object();
+
+    /** Numbers temporary files so concurrent ingests of the same content do not collide. */
+    private final AtomicLong partCounter = new AtomicLong();
+
+    /**
+     * A source file as it was when it was ingested.
+     *
+     * @param hash the hex SHA-256 of its content
+     * @param size its size in bytes
+     * @param modified its modification time in milliseconds
+     * @param storedModified the stored file's modification time in milliseconds, or -1 if not known
+     */
+    private record Ingested(String hash, long size, long modified, long storedModified) {
+    }
+
+    /**
+     * The outcome of moving a library's photos into the managed directory.
+     *
+     * @param photos the photos that were outside the managed directory
+     * @param relocated the photos now pointing at a managed copy
+     * @param missing the photos whose files no longer exist
+     * @param failed the photos whose files could not be read or stored
+     * @param conflicts the photos left in place because an album holding them
+     *                  already has another photo with the same content
+     */
+    public record Adoption(int photos, int relocated, int missing, int failed, int conflicts) {
+    }
+
+    /**
+     * Opens a managed library, creating the root if needed and reading the
+     * journal. A journal that cannot be read is logged and ignored, which
+     * only costs re-hashing.
+     *
+     * @param root the root directory
+     */
+    public ManagedLibrary(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+        this.journalFile = this.root.resolve(JOURNAL);
+        try {
+            Files.createDirectories(this.root);
+            if (Files.exists(journalFile)) {
+                readJournal();
+            }
+        } catch (IOException e) {
+            Metrics.error("library", e);
+        }
+    }
+
+    /**
+     * Returns the managed library named by the {@value #PROPERTY} system
+     * property.
+     *
+     * @return the library, or null if the property is not set
+     */
+    public static ManagedLibrary fromSystemProperty() {
+        String dir = System.getProperty(PROPERTY);
+        return dir == null || dir.isBlank() ? null : new ManagedLibrary(Path.of(dir));
+    }
+
+    /**
+     * Returns the root directory.
+     *
+     * @return the absolute root
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Checks whether a path is inside the managed directory.
+     *
+     * @param path the path
+     * @return true if the file is one of the library's own copies
+     */
+    public boolean contains(String path) {
+        return Path.of(path).toAbsolutePath().normalize().startsWith(root);
+    }
+
+    /**
+     * Stores a file in the library unless its content is already there.
+     *
+     * @param source the file to store
+     * @return the path of the stored copy
+     * @throws NoSuchFileException if the source does not exist
+     * @throws IOException if the source cannot be read or the copy written
+     */
+    public Path ingest(Path source) throws IOException {
+        long start = System.nanoTime();
+        Path file = source.toAbsolutePath().normalize();
+        if (file.startsWith(root)) return file;
+
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        String key = file.toString();
+        String extension = extension(file);
+
+        Ingested known = journal.get(key);
+        if (known != null && known.size() == size && known.modified() == modified) {
+            Path stored = storedPath(known.hash(), extension);
+            if (known.storedModified() >= 0 && known.storedModified() == stamp(stored, size)) {
+                Metrics.count("library.ingest.resumed");
+                return stored;
+            }
+        }
+
+        String hash = hash(file, size);
+        Path stored = storedPath(hash, extension);
+        long storedModified = verify(stored, hash, size);
+        if (storedModified >= 0) {
+            Metrics.count("library.ingest.deduplicated");
+        } else {
+            storedModified = store(file, stored, modified);
+        }
+        record(key, new Ingested(hash, size, modified, storedModified));
+        Metrics.latency("library.ingest").recordSince(start);
+        return stored;
+    }
+
+    /**
+     * Returns a stored file's modification time if it has the expected size.
+     *
+     * @param stored the stored path
+     * @param size the size its content has
+     * @return the modification time in milliseconds, or -1 if the file is
+     *         missing, unreadable or of another size
+     */
+    private static long stamp(Path stored, long size) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(stored, BasicFileAttributes.class);
+            return attrs.size() == size ? attrs.lastModifiedTime().toMillis() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Checks that a stored file still holds its content. A file whose size
+     * and modification time are the ones last found intact is trusted;
+     * otherwise it is hashed.
+     *
+     * @param stored the stored path
+     * @param hash the content hash the file is stored under
+     * @param size the size of that content
+     * @return the file's modification time, or -1 if it is missing or damaged
+     * @throws IOException if the file exists but cannot be hashed
+     */
+    private long verify(Path stored, String hash, long size) throws IOException {
+        if (!Files.exists(stored)) return -1;
+        long stamp = stamp(stored, size);
+        if (stamp >= 0) {
+            Long intact = storedStamps.get(hash);
+            if (intact != null && intact == stamp) return stamp;
+            if (hash(stored, size).equals(hash)) {
+                storedStamps.put(hash, stamp);
+                return stamp;
+            }
+        }
+        Metrics.count("library.ingest.repaired");
+        return -1;
+    }
+
+    /**
+     * Copies content to its stored path under a temporary name and renames
+     * it into place, replacing a damaged file left there.
+     *
+     * @param source the source file
+     * @param stored the stored path
+     * @param modified the source's modification time, kept on the copy
+     * @return the stored file's modification time
+     * @throws IOException if the copy cannot be written
+     */
+    private long store(Path source, Path stored, long modified) throws IOException {
+        Files.createDirectories(stored.getParent());
+        Path part = stored.resolveSibling(stored.getFileName() + "." + partCounter.incrementAndGet() + ".part");
+        try {
+            Files.deleteIfExists(part);
+            copy(source, part);
+            Files.setLastModifiedTime(part, FileTime.fromMillis(modified));
+            Files.move(part, stored, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Metrics.count("library.ingest.copied");
+        } finally {
+            Files.deleteIfExists(part);
+        }
+        return Files.getLastModifiedTime(stored).toMillis();
+    }
+
+    /**
+     * Copies a file with {@link FileChannel#transferTo}, looping until every
+     * byte is written, and forces it to disk.
+     *
+     * @param source the file to copy
+     * @param target the file to create
+     * @throws IOException if reading or writing fails
+     */
+    private static void copy(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(false);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 of a file from memory-mapped chunks, so the file
+     * is not copied onto the heap.
+     *
+     * @param file the file
+     * @param size its size
+     * @return the hash as lower-case hex
+     * @throws IOException if the file cannot be read
+     */
+    private static String hash(Path file, long size) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (long position = 0; position < size; position += HASH_CHUNK) {
+                MappedByteBuffer region = in.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(HASH_CHUNK, size - position));
+                digest.update(region);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Returns where content with the given hash is stored.
+     *
+     * @param hash the content hash
+     * @param extension the lower-case file extension, or an empty string
+     * @return the stored path
+     */
+    private Path storedPath(String hash, String extension) {
+        String name = extension.isEmpty() ? hash : hash + "." + extension;
+        return root.resolve(hash.substring(0, 2)).resolve(name);
+    }
+
+    /**
+     * Returns the lower-case extension of a file.
+     *
+     * @param file the file
+     * @return the extension without the dot, or an empty string
+     */
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot <= 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Remembers an ingested source and appends it to the journal file. A
+     * failed append is logged; it only costs re-hashing later.
+     *
+     * @param key the source's absolute normalized path
+     * @param ingested what was ingested
+     */
+    private void record(String key, Ingested ingested) {
+        storedStamps.put(ingested.hash(), ingested.storedModified());
+        if (ingested.equals(journal.put(key, ingested))) return;
+        String line = ingested.hash() + '\t' + ingested.size() + '\t' + ingested.modified() + '\t'
+                + ingested.storedModified() + '\t' + key + '\n';
+        synchronized (journalLock) {
+            try {
+                Files.writeString(journalFile, line, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                Metrics.error("library", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the journal; later lines for the same source replace earlier
+     * ones, and malformed lines, such as one cut short by a crash, are skipped.
+     * Lines written before stored files' modification times were recorded
+     * have four fields, and their stored files are hashed before reuse.
+     *
+     * @throws IOException if the journal cannot be read
+     */
+    private void readJournal() throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] f = line.split("\t", 5);
+                if (f.length < 4 || f[0].length() != 64) continue;
+                try {
+                    Ingested ingested = f.length == 5
+                            ? new Ingested(f[0], Long.parseLong(f[1]), Long.parseLong(f[2]), Long.parseLong(f[3]))
+                            : new Ingested(f[0], Long.parseLong(f[1]), Long.parseLong(f[2]), -1);
+                    journal.put(f[f.length - 1], ingested);
+                    if (ingested.storedModified() >= 0) {
+                        storedStamps.put(ingested.hash(), ingested.storedModified());
+                    }
+                } catch (NumberFormatException e) {
+                    // skip the damaged line
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package model;
+
+import java.util.List;
+
+/**
+ * Receives fine-grained changes to the library.
+ * <p>
+ * Register with {@link Album#addListener}, {@link User#addListener} or
+ * {@link PhotoManager#addListener} to be told about changes to that object
+ * only. Every method has an empty default, so a listener implements just the
+ * events it needs. Events are delivered on the thread that made the change,
+ * usually while it holds the user's write lock, so listeners should be quick
+ * and must not block; UI listeners hand the event to the JavaFX thread.
+ * </p>
+ */
+public interface ModelListener {
+
+    /**
+     * Photos were added to an album.
+     *
+     * @param album the album
+     * @param index position of the first added photo in the album
+     * @param photos the added photos, in album order
+     */
+    default void photosAdded(Album album, int index, List<Photo> photos) {
+    }
+
+    /**
+     * Photos were removed from an album.
+     *
+     * @param album the album
+     * @param photos the removed photos
+     */
+    default void photosRemoved(Album album, List<Photo> photos) {
+    }
+
+    /**
+     * A photo in an album changed its file, caption or tags.
+     *
+     * @param album the album holding the photo
+     * @param photo the changed photo
+     */
+    default void photoUpdated(Album album, Photo photo) {
+    }
+
+    /**
+     * An album was added to a user.
+     *
+     * @param user the user
+     * @param album the new album
+     */
+    default void albumAdded(User user, Album album) {
+    }
+
+    /**
+     * An album was removed from a user.
+     *
+     * @param user the user
+     * @param album the removed album
+     */
+    default void albumRemoved(User user, Album album) {
+    }
+
+    /**
+     * An album was renamed, its photos were added or removed, or a tag on
+     * one of its photos changed its summary.
+     *
+     * @param user the user owning the album
+     * @param album the changed album
+     */
+    default void albumUpdated(User user, Album album) {
+    }
+
+    /**
+     * A user was added to the library.
+     *
+     * @param user the new user
+     */
+    default void userAdded(User user) {
+    }
+
+    /**
+     * A user was removed from the library.
+     *
+     * @param user the removed user
+     */
+    default void userRemoved(User user) {
+    }
+}
@@ -1,34 +1,56 @@
 package model;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a photo with metadata including file path, caption, date taken,
  * and associated tags. Provides functionality to manage and retrieve these details.
+ * <p>
+ * A photo's caption and tags are guarded by the owning user's lock in
+ * {@link PhotoManager}; change them inside {@link PhotoManager#write(String, java.util.function.Supplier)}
+ * when other threads may be reading the same user. Every tag change publishes
+ * an immutable copy of the tag set, so readers never need the lock.
+ * </p>
  */
 public class Photo implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-    /** Path to the photo file on disk. */
-    private String filePath;
+    /** Path to the photo file on disk; changes only when the file is moved into a managed library. */
+    private volatile String filePath;
+
+    /** Absolute, normalized form of {@link #filePath}, computed on first use. */
+    private transient String normalizedPath;
 
     /** Date the photo was taken (based on file modification time). */
     private Calendar dateTaken;
 
+    /** Size of the image file in bytes when the photo was created, or 0 if unknown. */
+    private long fileSize;
+
     /** Optional user-defined caption for the photo. */
-    private String caption;
+    private volatile String caption;
 
     /** Set of tags associated with the photo. */
     private Set<Tag> tags = new HashSet<>();
 
+    /** Albums holding this photo, told when its file, caption or tags change; null until added to one. */
+    private transient List<Album> albums;
+
+    /** Immutable copy of {@link #tags}, republished after every change. */
+    private transient volatile Set<Tag> publishedTags = Set.of();
+
     /** Predefined set of standard tag types. */
-    public static final Set<String> presetTagTypes = new HashSet<>(Set.of("person", "location"));
+    public static final Set<String> presetTagTypes = Set.of("person", "location");
 
-    /** User-defined custom tag types. */
-    public static final Set<String> customTagTypes = new HashSet<>();
+    /** User-defined custom tag types; safe to update from any thread. */
+    public static final Set<String> customTagTypes = ConcurrentHashMap.newKeySet();
 
     /**
      * Constructs a photo from the specified file path.
@@ -45,6 +67,39 @@ public class Photo implements Serializable {
         }
 
         this.dateTaken = extractDate(filePath);
+        this.fileSize = file.length();
+    }
+
+    /**
+     * Constructs a photo with a known date, without touching the disk.
+     * Used when the metadata comes from elsewhere, such as generated or
+     * imported libraries.
+     *
+     * @param filePath the path to the image file
+     * @param dateTaken the date the photo was taken
+     * @throws IllegalArgumentException if either argument is null
+     */
+    public Photo(String filePath, Calendar dateTaken) {
+        this(filePath, dateTaken, 0);
+    }
+
+    /**
+     * Constructs a photo with a known date and file size, without touching
+     * the disk.
+     *
+     * @param filePath the path to the image file
+     * @param dateTaken the date the photo was taken
+     * @param fileSize the size of the image file in bytes, or 0 if unknown
+     * @throws IllegalArgumentException if either object argument is null
+     */
+    public Photo(String filePath, Calendar dateTaken, long fileSize) {
+        if (filePath == null || dateTaken == null) {
+            throw new IllegalArgumentException("File path and date cannot be null");
+        }
+        this.filePath = filePath;
+        this.dateTaken = (Calendar) dateTaken.clone();
+        this.dateTaken.set(Calendar.MILLISECOND, 0);
+        this.fileSize = Math.max(0, fileSize);
     }
 
     /**
@@ -73,6 +128,29 @@ public class Photo implements Serializable {
         return filePath;
     }
 
+    /**
+     * Returns the absolute, normalized form of the file path.
+     * Used as the key when albums index their photos by path.
+     *
+     * @return the normalized file path
+     */
+    public String getNormalizedPath() {
+        if (normalizedPath == null) {
+            normalizedPath = normalizePath(filePath);
+        }
+        return normalizedPath;
+    }
+
+    /**
+     * Converts a file path into the absolute, normalized form used for path lookups.
+     *
+     * @param path the file path
+     * @return the normalized path
+     */
+    public static String normalizePath(String path) {
+        return Paths.get(path).toAbsolutePath().normalize().toString();
+    }
+
     /**
      * Returns the date the photo was taken.
      *
@@ -82,6 +160,15 @@ public class Photo implements Serializable {
         return dateTaken;
     }
 
+    /**
+     * Returns the size of the image file recorded when the photo was created.
+     *
+     * @return the size in bytes, or 0 if unknown
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
     /**
      * Returns the date taken as a formatted string.
      *
@@ -112,11 +199,23 @@ public class Photo implements Serializable {
 
         Tag newTag = new Tag(name.trim(), value.trim());
 
+        List<Tag> replaced = new ArrayList<>(1);
         if (name.equalsIgnoreCase("location")) {
-            tags.removeIf(tag -> tag.getName().equalsIgnoreCase("location"));
+            for (Iterator<Tag> it = tags.iterator(); it.hasNext(); ) {
+                Tag tag = it.next();
+                if (tag.getName().equalsIgnoreCase("location")) {
+                    it.remove();
+                    replaced.add(tag);
+                }
+            }
         }
 
-        return tags.add(newTag);
+        boolean added = tags.add(newTag);
+        if (added || !replaced.isEmpty()) {
+            publishedTags = Set.copyOf(tags);
+            updated(replaced, added ? List.of(newTag) : List.of());
+        }
+        return added;
     }
 
     /**
@@ -127,7 +226,13 @@ public class Photo implements Serializable {
      * @return true if the tag was removed, false otherwise
      */
     public boolean removeTag(String name, String value) {
-        return tags.remove(new Tag(name.trim(), value.trim()));
+        Tag tag = new Tag(name.trim(), value.trim());
+        boolean removed = tags.remove(tag);
+        if (removed) {
+            publishedTags = Set.copyOf(tags);
+            updated(List.of(tag), List.of());
+        }
+        return removed;
     }
 
     /**
@@ -155,11 +260,13 @@ public class Photo implements Serializable {
 
     /**
      * Returns the tags associated with this photo.
+     * The set is an immutable snapshot that is safe to read from any thread;
+     * use {@link #addTag(String, String)} and {@link #removeTag(String, String)} to change it.
      *
      * @return a set of tags
      */
     public Set<Tag> getTags() {
-        return tags;
+        return publishedTags;
     }
 
     /**
@@ -177,7 +284,122 @@ public class Photo implements Serializable {
      * @param caption the caption to set
      */
     public void setCaption(String caption) {
+        if (Objects.equals(this.caption, caption)) return;
         this.caption = caption;
+        updated(List.of(), List.of());
+    }
+
+    /**
+     * Points the photo at another copy of its file, such as its copy in a
+     * managed library, and re-indexes it in every album holding it. The caller
+     * must hold the owning user's write lock.
+     *
+     * @param newPath the path of the new copy
+     * @return true if the photo was moved; false if an album holding it
+     *         already has a different photo at the new path
+     */
+    boolean relocate(String newPath) {
+        Album[] holders;
+        synchronized (this) {
+            holders = albums == null ? new Album[0] : albums.toArray(new Album[0]);
+        }
+        String oldKey = getNormalizedPath();
+        String newKey = normalizePath(newPath);
+        if (oldKey.equals(newKey)) return true;
+        for (Album a : holders) {
+            Photo other = a.getPhotoByNormalizedPath(newKey);
+            if (other != null && other != this) return false;
+        }
+        for (Album a : holders) {
+            a.reindex(this, oldKey, newKey);
+        }
+        filePath = newPath;
+        normalizedPath = newKey;
+        updated(List.of(), List.of());
+        return true;
+    }
+
+    /**
+     * Records that the photo was added to an album.
+     *
+     * @param album the album
+     */
+    synchronized void attach(Album album) {
+        if (albums == null) {
+            albums = new ArrayList<>(1);
+        }
+        albums.add(album);
+    }
+
+    /**
+     * Records that the photo was removed from an album.
+     *
+     * @param album the album
+     */
+    synchronized void detach(Album album) {
+        if (albums != null) {
+            albums.remove(album);
+        }
+    }
+
+    /**
+     * Tells every album holding this photo that its file, caption or tags changed,
+     * adjusts the tag count of each owning user once, and then lets each owner
+     * re-check its smart albums.
+     *
+     * @param removedTags tags the change removed
+     * @param addedTags tags the change added
+     */
+    private void updated(List<Tag> removedTags, List<Tag> addedTags) {
+        Album[] holders;
+        synchronized (this) {
+            if (albums == null || albums.isEmpty()) return;
+            holders = albums.toArray(new Album[0]);
+        }
+        int delta = addedTags.size() - removedTags.size();
+        Set<User> owners = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Album a : holders) {
+            User owner = a.getOwner();
+            if (owner != null && owners.add(owner) && delta != 0) {
+                owner.photoTagsChanged(this, delta);
+            }
+        }
+        for (Album a : holders) {
+            a.photoUpdated(this, removedTags, addedTags);
+        }
+        for (User owner : owners) {
+            owner.photoEdited(this, removedTags, addedTags);
+        }
+    }
+
+    /**
+     * Returns the albums holding this photo.
+     *
+     * @return a copy of the holders, possibly empty
+     */
+    synchronized Album[] holders() {
+        return albums == null ? new Album[0] : albums.toArray(new Album[0]);
+    }
+
+    /**
+     * Restores the published tag snapshot after the photo is read from disk.
+     * Photos saved before file sizes were recorded have a size of 0; they
+     * read it from the file once here, and keep it from the next save on.
+     * A missing file stays at 0.
+     *
+     * @param in the stream the photo is read from
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if a class of a serialized object cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (fileSize == 0) {
+            fileSize = new File(filePath).length();
+        }
+        if (tags == null) {
+            tags = new HashSet<>();
+        }
+        publishedTags = Set.copyOf(tags);
     }
 
     /**
@@ -1,12 +1,30 @@
 package model;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import metrics.BulkOperationEvent;
+import metrics.Metrics;
+import metrics.PersistenceEvent;
 
 /**
  * Manages all user accounts and their albums.
@@ -14,23 +32,134 @@ import java.util.*;
  * Handles loading, saving, and initializing user data,
  * including a default stock user with sample photos.
  * </p>
+ * <p>
+ * The manager is thread-safe. Users are kept in a concurrent map, and each
+ * user's object graph (albums, photos, tags) is guarded by a read-write lock
+ * taken from a fixed set of stripes keyed by username. Any thread that changes
+ * a user's albums or photos should do so inside {@link #write(String, Supplier)};
+ * background readers such as persistence or search use {@link #read(String, Supplier)}.
+ * Work on different users never contends on the same lock unless their
+ * usernames share a stripe.
+ * </p>
+ * <p>
+ * Each user reports changes to its {@link Usage} to the manager, which keeps
+ * library-wide totals, so {@link #getUsage()} and every
+ * {@link User#getUsage()} are available without walking any albums.
+ * {@link #verifyUsage()} recounts every user in parallel to check them.
+ * </p>
+ * <p>
+ * Users are also kept in a sorted directory ordered by case-folded username,
+ * so {@link #findUsers(String, User, int)} returns one page of users matching
+ * a prefix in time proportional to the page, however many accounts there are.
+ * </p>
+ * <p>
+ * When the {@value ManagedLibrary#PROPERTY} system property names a directory,
+ * the manager runs in managed-library mode: {@link #importPhoto(String)} stores
+ * new files in that {@link ManagedLibrary} and returns photos pointing at the
+ * stored copies, and {@link #adoptIntoLibrary(int)} moves existing photos there.
+ * </p>
+ * <p>
+ * Users are loaded from and saved to a {@link LibraryStore}, chosen at startup
+ * with the {@value LibraryStore#PROPERTY} system property: the serialized
+ * data file by default, or an {@link IndexedStore} next to it.
+ * </p>
  */
 public class PhotoManager {
 
+    /** Name of the default file user data is persisted to. */
+    private static final String DATA_FILE = "users.dat";
+
+    /** Number of lock stripes; a power of two. */
+    private static final int LOCK_STRIPES = 64;
+
+    /** Where user data is persisted. */
+    private final LibraryStore store;
+
     /** A map of usernames to user objects. */
-    private Map<String, User> users = new HashMap<>();
+    private volatile Map<String, User> users = new ConcurrentHashMap<>();
+
+    /** The same users, keyed by {@link #directoryKey(String)} and so sorted case-insensitively. */
+    private final ConcurrentSkipListMap<String, User> directory = new ConcurrentSkipListMap<>();
+
+    /** Orders users as the directory does: by case-folded username, then by username. */
+    public static final Comparator<User> DIRECTORY_ORDER =
+            Comparator.comparing((User u) -> directoryKey(u.getUsername()));
+
+    /** Read-write locks guarding user object graphs, striped by username. */
+    private final ReentrantReadWriteLock[] userLocks = new ReentrantReadWriteLock[LOCK_STRIPES];
+
+    /** Serializes concurrent saves so they do not interleave on disk. */
+    private final Object saveLock = new Object();
+
+    /** Runs saves requested through {@link #requestSave()}; inline by default. */
+    private volatile Executor saveExecutor = Runnable::run;
+
+    /** True while a requested save is queued but has not started yet. */
+    private final AtomicBoolean savePending = new AtomicBoolean();
+
+    /** Listeners told about users being added or removed. */
+    private final List<ModelListener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Albums of every user in the library. */
+    private final AtomicLong totalAlbums = new AtomicLong();
+
+    /** Distinct photos of every user, counted once per user. */
+    private final AtomicLong totalPhotos = new AtomicLong();
+
+    /** File bytes of every user's distinct photos. */
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    /** Tags on every user's distinct photos. */
+    private final AtomicLong totalTags = new AtomicLong();
+
+    /** The directory imported files are copied into, or null to reference files where they are. */
+    private final ManagedLibrary library;
 
     /**
      * Constructs a new PhotoManager and loads user data.
      * If no data file is found, initializes a stock user.
      */
     public PhotoManager() {
-        File file = new File("users.dat");
-        if (file.exists()) {
-            loadUsers();  
-        } else {
-            loadStockUser(); 
-            saveUsers();     
+        this(DATA_FILE);
+    }
+
+    /**
+     * Constructs a new PhotoManager backed by the given data file and loads it.
+     * If there is no saved library, initializes a stock user.
+     *
+     * @param dataFile the file user data is read from and saved to; the
+     *                 indexed store keeps its files in a directory beside it
+     * @throws IllegalArgumentException if {@value LibraryStore#PROPERTY} names an unknown store
+     * @throws UncheckedIOException if the indexed store cannot be opened
+     */
+    public PhotoManager(String dataFile) {
+        this(dataFile, true);
+    }
+
+    /**
+     * Constructs a new PhotoManager backed by the given data file and loads it.
+     * Without a saved library, either initializes and saves a stock user or
+     * starts empty, leaving the first save to the caller; tools that write a
+     * library of their own use the latter.
+     *
+     * @param dataFile the file user data is read from and saved to; the
+     *                 indexed store keeps its files in a directory beside it
+     * @param stockUser whether to create the stock user when there is no saved library
+     * @throws IllegalArgumentException if {@value LibraryStore#PROPERTY} names an unknown store
+     * @throws UncheckedIOException if the indexed store cannot be opened
+     */
+    public PhotoManager(String dataFile, boolean stockUser) {
+        this.store = LibraryStore.open(dataFile);
+        this.library = ManagedLibrary.fromSystemProperty();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            userLocks[i] = new ReentrantReadWriteLock();
+        }
+
+        if (store.exists()) {
+            loadUsers();
+        } else if (stockUser) {
+            loadStockUser();
+            saveUsers();
         }
     }
 
@@ -47,16 +176,42 @@ public class PhotoManager {
         if (files != null) {
             for (File file : files) {
                 try {
-                    Photo p = new Photo(file.getAbsolutePath());
+                    Photo p = importPhoto(file.getAbsolutePath());
                     stockAlbum.addPhoto(p);
                 } catch (Exception e) {
-                    e.printStackTrace(); // skip invalid photo
+                    Metrics.error("stock", e); // skip invalid photo
                 }
             }
         }
 
         stockUser.addAlbum(stockAlbum);
-        users.put("stock", stockUser);
+        put(stockUser);
+    }
+
+    /**
+     * Registers library size gauges with {@link Metrics}: {@code library.users},
+     * {@code library.albums}, {@code library.photos} (distinct per user),
+     * {@code library.bytes}, {@code library.tags} and {@code library.distinctTags}.
+     * The distinct tag count is computed from snapshots when read; the others
+     * come from the running usage totals.
+     */
+    public void registerMetrics() {
+        Metrics.gauge("library.users", () -> users.size());
+        Metrics.gauge("library.albums", totalAlbums::get);
+        Metrics.gauge("library.photos", totalPhotos::get);
+        Metrics.gauge("library.bytes", totalBytes::get);
+        Metrics.gauge("library.tags", totalTags::get);
+        Metrics.gauge("library.distinctTags", () -> {
+            Set<Tag> tags = new HashSet<>();
+            for (User user : users.values()) {
+                for (AlbumSnapshot album : snapshot(user).albums()) {
+                    for (Photo photo : album.photos()) {
+                        tags.addAll(photo.getTags());
+                    }
+                }
+            }
+            return tags.size();
+        });
     }
 
     /**
@@ -70,62 +225,542 @@ public class PhotoManager {
     }
 
     /**
-     * Removes a user by their username.
+     * Removes a user by their username and requests a save.
      *
      * @param username the username of the user to remove
      */
     public void removeUser(String username) {
-        users.remove(username);
+        if (delete(username)) {
+            requestSave();
+        }
+    }
+
+    /**
+     * Removes many users at once and requests a single save.
+     *
+     * @param usernames the usernames of the users to remove
+     * @return the number of users removed
+     */
+    public int removeUsers(Collection<String> usernames) {
+        int removed = 0;
+        for (String username : usernames) {
+            if (delete(username)) removed++;
+        }
+        if (removed > 0) {
+            requestSave();
+        }
+        return removed;
+    }
+
+    /**
+     * Removes a user and tells listeners, without saving.
+     *
+     * @param username the username
+     * @return true if the user existed
+     */
+    private boolean delete(String username) {
+        User removed = write(username, () -> {
+            User user = users.remove(username);
+            if (user != null) {
+                directory.remove(directoryKey(username), user);
+                user.setUsageSink(null);
+            }
+            return user;
+        });
+        if (removed == null) return false;
+        for (ModelListener l : listeners) {
+            l.userRemoved(removed);
+        }
+        return true;
+    }
+
+    /**
+     * Returns one page of users whose names start with a prefix, ignoring
+     * case, in {@link #DIRECTORY_ORDER}. Pass the last user of a page as
+     * {@code after} to get the next one.
+     *
+     * @param prefix the name prefix; empty for all users
+     * @param after the user the page starts after, or null for the first page
+     * @param limit the maximum number of users to return
+     * @return the users, at most {@code limit}
+     */
+    public List<User> findUsers(String prefix, User after, int limit) {
+        String from = prefix.toLowerCase(Locale.ROOT);
+        String to = from + Character.MAX_VALUE;
+        Map<String, User> range = after == null
+                ? directory.subMap(from, true, to, false)
+                : directory.subMap(directoryKey(after.getUsername()), false, to, false);
+        List<User> page = new ArrayList<>(Math.min(limit, 256));
+        for (User user : range.values()) {
+            if (page.size() >= limit) break;
+            page.add(user);
+        }
+        return page;
+    }
+
+    /**
+     * Returns the directory key of a username: the case-folded name, then the
+     * name itself so names differing only in case stay distinct.
+     *
+     * @param username the username
+     * @return the key
+     */
+    private static String directoryKey(String username) {
+        return username.toLowerCase(Locale.ROOT) + '\0' + username;
     }
 
     /**
      * Returns a collection of all users in the system.
+     * The collection is a live, weakly consistent view that is safe to
+     * iterate while other threads add or remove users.
      *
      * @return a collection of User objects
      */
     public Collection<User> getAllUsers() {
-        return users.values();
+        return Collections.unmodifiableCollection(users.values());
     }
 
     /**
-     * Adds a user to the system and immediately saves the state.
+     * Adds a user to the system and requests a save of the state.
      *
      * @param user the user to add
      */
     public void addUser(User user) {
-        users.put(user.getUsername(), user);
-        saveUsers();
+        put(user);
+        requestSave();
     }
 
     /**
-     * Saves all users and their data to a file.
+     * Adds many users at once and requests a single save.
+     *
+     * @param newUsers the users to add
      */
-    public void saveUsers() {
+    public void addUsers(Collection<User> newUsers) {
+        for (User user : newUsers) {
+            put(user);
+        }
+        requestSave();
+    }
+
+    /**
+     * Adds or replaces a user and tells listeners.
+     *
+     * @param user the user
+     */
+    private void put(User user) {
+        User old = write(user.getUsername(), () -> {
+            User previous = users.put(user.getUsername(), user);
+            directory.put(directoryKey(user.getUsername()), user);
+            if (previous != user) {
+                if (previous != null) {
+                    previous.setUsageSink(null);
+                }
+                user.setUsageSink(this::addUsage);
+            }
+            return previous;
+        });
+        for (ModelListener l : listeners) {
+            if (old != null && old != user) {
+                l.userRemoved(old);
+            }
+            if (old != user) {
+                l.userAdded(user);
+            }
+        }
+    }
+
+    /**
+     * Returns the managed library new files are stored in.
+     *
+     * @return the managed library, or null if files are referenced where they are
+     */
+    public ManagedLibrary getManagedLibrary() {
+        return library;
+    }
+
+    /**
+     * Creates a photo for a file being added to the library. In managed-library
+     * mode the file is stored in the library first and the photo points at the
+     * stored copy; its date and size are still taken from the original. Does
+     * file I/O, so call it off the JavaFX thread and outside any user lock.
+     *
+     * @param path the file to import
+     * @return the new photo, not yet in any album
+     * @throws IllegalArgumentException if the file does not exist
+     * @throws UncheckedIOException if the file cannot be stored in the managed library
+     */
+    public Photo importPhoto(String path) {
+        Photo photo = new Photo(path);
+        if (library == null) return photo;
         try {
-            FileOutputStream fileOut = new FileOutputStream("users.dat");
-            ObjectOutputStream out = new ObjectOutputStream(fileOut);
-            out.writeObject(users);
-            out.close();
-            fileOut.close();
+            Path stored = library.ingest(Path.of(path));
+            return new Photo(stored.toString(), photo.getDateTaken(), photo.getFileSize());
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
     }
 
     /**
-     * Loads all users and their data from a file.
+     * Moves every photo that is not yet in the managed library into it. Files
+     * are hashed and stored in parallel without any lock held; then each
+     * user's photos are pointed at their stored copies under that user's write
+     * lock, and the library is saved once. If interrupted, the photos stored
+     * so far are still relocated and saved, and because the library keeps a
+     * journal of what it has ingested, running it again skips that work.
+     *
+     * @param threads the number of files stored at once
+     * @return what was moved
+     * @throws IllegalStateException if the manager is not in managed-library mode
+     * @throws InterruptedException if interrupted; completed work is kept
      */
-    @SuppressWarnings("unchecked")
-    public void loadUsers() {
+    public ManagedLibrary.Adoption adoptIntoLibrary(int threads) throws InterruptedException {
+        if (library == null) {
+            throw new IllegalStateException("No managed library; set -D" + ManagedLibrary.PROPERTY);
+        }
+        long start = System.nanoTime();
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        int workers = Math.max(1, threads);
+        Semaphore window = new Semaphore(workers * 2);
+        Map<User, Map<Photo, String>> stored = new ConcurrentHashMap<>();
+        AtomicInteger missing = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        int outside = 0;
+        int relocated = 0;
+        int conflicts = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
         try {
-            FileInputStream fileIn = new FileInputStream("users.dat");
-            ObjectInputStream in = new ObjectInputStream(fileIn);
-            users = (Map<String, User>) in.readObject();
-            in.close();
-            fileIn.close();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-            users = new HashMap<>(); // fallback if file doesn't exist yet
+            for (User user : users.values()) {
+                Map<Photo, String> moved = stored.computeIfAbsent(user, u -> new ConcurrentHashMap<>());
+                for (Photo photo : snapshot(user).allPhotos()) {
+                    if (library.contains(photo.getFilePath())) continue;
+                    outside++;
+                    window.acquire();
+                    pool.execute(() -> {
+                        try {
+                            moved.put(photo, library.ingest(Path.of(photo.getFilePath())).toString());
+                        } catch (NoSuchFileException e) {
+                            missing.incrementAndGet();
+                        } catch (IOException | RuntimeException e) {
+                            failed.incrementAndGet();
+                            Metrics.error("library", e);
+                        } finally {
+                            window.release();
+                        }
+                    });
+                }
+            }
+            pool.shutdown();
+            window.acquire(workers * 2);
+        } finally {
+            pool.shutdownNow();
+            boolean interrupted = Thread.interrupted();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            for (Map.Entry<User, Map<Photo, String>> entry : stored.entrySet()) {
+                Map<Photo, String> moved = entry.getValue();
+                if (moved.isEmpty()) continue;
+                int[] counts = write(entry.getKey().getUsername(), () -> {
+                    int ok = 0;
+                    for (Map.Entry<Photo, String> m : moved.entrySet()) {
+                        if (m.getKey().relocate(m.getValue())) ok++;
+                    }
+                    return new int[] {ok, moved.size() - ok};
+                });
+                relocated += counts[0];
+                conflicts += counts[1];
+            }
+            if (relocated > 0) {
+                requestSave();
+            }
+            Metrics.latency("library.adopt").recordSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = "adoptIntoLibrary";
+                event.target = library.getRoot().toString();
+                event.requested = outside;
+                event.changed = relocated;
+                event.commit();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
+        return new ManagedLibrary.Adoption(outside, relocated, missing.get(), failed.get(), conflicts);
+    }
+
+    /**
+     * Returns the storage used by the whole library, summed from the users'
+     * running usage.
+     *
+     * @return the library's usage
+     */
+    public Usage getUsage() {
+        return new Usage(totalAlbums.get(), totalPhotos.get(), totalBytes.get(), totalTags.get());
+    }
+
+    /**
+     * Recounts every user's usage in parallel and compares it with the running
+     * figures. Users whose figures are off are recounted for good and counted
+     * in the {@code usage.mismatches} counter; the whole check is timed as
+     * {@code usage.recount}.
+     *
+     * @return the number of users whose running usage was wrong
+     */
+    public int verifyUsage() {
+        long start = System.nanoTime();
+        int mismatched = users.values().parallelStream().mapToInt(user -> {
+            String name = user.getUsername();
+            boolean matches = read(name, () -> user.recountUsage().equals(user.getUsage()));
+            if (matches) return 0;
+            write(name, user::rebuildUsage);
+            Metrics.count("usage.mismatches");
+            return 1;
+        }).sum();
+        Metrics.latency("usage.recount").recordSince(start);
+        return mismatched;
+    }
+
+    /**
+     * Adds a user's usage change to the library totals.
+     *
+     * @param delta the change
+     */
+    private void addUsage(Usage delta) {
+        totalAlbums.addAndGet(delta.albums());
+        totalPhotos.addAndGet(delta.photos());
+        totalBytes.addAndGet(delta.bytes());
+        totalTags.addAndGet(delta.tags());
+    }
+
+    /**
+     * Registers a listener for users being added or removed.
+     *
+     * @param listener the listener
+     */
+    public void addListener(ModelListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(ModelListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the executor that runs saves requested through {@link #requestSave()}.
+     * The UI passes a background executor so no handler waits on disk.
+     *
+     * @param executor the executor to run saves on
+     */
+    public void setSaveExecutor(Executor executor) {
+        this.saveExecutor = executor;
+    }
+
+    /**
+     * Requests that all users be saved.
+     * <p>
+     * Requests are coalesced: while a save is queued and has not started, further
+     * requests do not queue another one, because the queued save will already
+     * include their changes.
+     * </p>
+     */
+    public void requestSave() {
+        if (savePending.compareAndSet(false, true)) {
+            saveExecutor.execute(() -> {
+                savePending.set(false);
+                saveUsers();
+            });
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of a user's albums.
+     * While the user is unchanged this is a single volatile read; otherwise the
+     * snapshot is rebuilt under the user's read lock, reusing unchanged albums.
+     * The returned snapshot can be iterated for as long as needed without
+     * holding any lock.
+     *
+     * @param user the user to snapshot
+     * @return the user snapshot
+     */
+    public UserSnapshot snapshot(User user) {
+        return read(user.getUsername(), user::snapshot);
+    }
+
+    /**
+     * Returns an immutable snapshot of one of a user's albums.
+     *
+     * @param user the user that owns the album
+     * @param album the album to snapshot
+     * @return the album snapshot
+     */
+    public AlbumSnapshot snapshot(User user, Album album) {
+        return read(user.getUsername(), album::snapshot);
+    }
+
+    /**
+     * Returns the read-write lock guarding the given user's albums and photos.
+     *
+     * @param username the username
+     * @return the lock for that user's stripe
+     */
+    public ReadWriteLock lockFor(String username) {
+        int h = Objects.hashCode(username);
+        return userLocks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Runs an action while holding the given user's read lock.
+     *
+     * @param username the user whose data is read
+     * @param action the action to run
+     * @param <T> the result type
+     * @return the action's result
+     */
+    public <T> T read(String username, Supplier<T> action) {
+        return locked(lockFor(username).readLock(), action);
+    }
+
+    /**
+     * Runs an action while holding the given user's write lock.
+     *
+     * @param username the user whose data is changed
+     * @param action the action to run
+     * @param <T> the result type
+     * @return the action's result
+     */
+    public <T> T write(String username, Supplier<T> action) {
+        return locked(lockFor(username).writeLock(), action);
+    }
+
+    /**
+     * Runs an action while holding the given user's write lock.
+     *
+     * @param username the user whose data is changed
+     * @param action the action to run
+     */
+    public void write(String username, Runnable action) {
+        write(username, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs an action while holding the given lock.
+     *
+     * @param lock the lock to hold
+     * @param action the action to run
+     * @param <T> the result type
+     * @return the action's result
+     */
+    private static <T> T locked(Lock lock, Supplier<T> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Saves all users and their data to the store.
+     * <p>
+     * Each user is written while holding only that user's read lock, so a save
+     * running in the background never blocks edits to other users. A failed
+     * save leaves the previously saved library intact.
+     * </p>
+     */
+    public void saveUsers() {
+        synchronized (saveLock) {
+            long start = System.nanoTime();
+            PersistenceEvent event = new PersistenceEvent();
+            event.begin();
+            int written;
+            try {
+                written = store.save(this, users.values());
+            } catch (IOException | UncheckedIOException e) {
+                Metrics.latency("library.save").fail();
+                Metrics.error("save", e);
+                commit(event, "save", 0, true);
+                return;
+            }
+            Metrics.latency("library.save").recordSince(start);
+            commit(event, "save", written, false);
+        }
+    }
+
+    /**
+     * Loads all users and their data from the store, replacing the users in
+     * memory. A store that cannot be read leaves the library empty.
+     */
+    public void loadUsers() {
+        long start = System.nanoTime();
+        PersistenceEvent event = new PersistenceEvent();
+        event.begin();
+        boolean failed = false;
+        Map<String, User> loaded = new ConcurrentHashMap<>();
+        synchronized (saveLock) {
+            try {
+                loaded.putAll(store.loadAll());
+            } catch (IOException | UncheckedIOException e) {
+                Metrics.latency("library.load").fail();
+                Metrics.error("load", e);
+                failed = true;
+            }
+        }
+        Map<String, User> previous = users;
+        users = loaded;
+        directory.clear();
+        for (User user : loaded.values()) {
+            directory.put(directoryKey(user.getUsername()), user);
+        }
+        for (User user : previous.values()) {
+            write(user.getUsername(), () -> user.setUsageSink(null));
+        }
+        for (User user : loaded.values()) {
+            write(user.getUsername(), () -> user.setUsageSink(this::addUsage));
+        }
+        if (!failed) {
+            Metrics.latency("library.load").recordSince(start);
+        }
+        commit(event, "load", loaded.size(), failed);
+    }
+
+    /**
+     * Returns the store user data is persisted to.
+     *
+     * @return the store
+     */
+    public LibraryStore getStore() {
+        return store;
+    }
+
+    /**
+     * Completes a persistence flight recorder event. The store size is only
+     * looked up when the event is being recorded.
+     *
+     * @param event the event, begun when the operation started
+     * @param operation "load" or "save"
+     * @param userCount number of users read or written
+     * @param failed whether the operation failed
+     */
+    private void commit(PersistenceEvent event, String operation, int userCount, boolean failed) {
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.operation = operation;
+        event.file = store.location();
+        event.users = userCount;
+        event.failed = failed;
+        event.bytes = store.sizeOnDisk();
+        event.commit();
     }
 }
@@ -0,0 +1,304 @@
+package model;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+import metrics.Metrics;
+import metrics.SearchEvent;
+
+/**
+ * A photo query combining up to two tags, an optional date range and an
+ * optional caption text.
+ * <p>
+ * Tags are combined with an {@link Operator}: with {@code NONE} only the first
+ * tag is used, {@code AND} requires both and {@code OR} either. The date range
+ * is inclusive, and either bound may be left open. The caption text matches
+ * captions containing it, ignoring case. An empty query matches every photo.
+ * Queries are immutable and can be evaluated from any thread against photos
+ * taken from a {@link UserSnapshot}. They are serializable so a
+ * {@link SmartAlbum} can keep its query.
+ * </p>
+ */
+public class PhotoSearch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How the two tags of a query are combined.
+     */
+    public enum Operator { NONE, AND, OR }
+
+    /** The first tag, or null if not used. */
+    private final Tag tag1;
+
+    /** The second tag, or null if not used. */
+    private final Tag tag2;
+
+    /** How the tags are combined. */
+    private final Operator operator;
+
+    /** First day of the date range, or null for no lower bound. */
+    private final LocalDate startDate;
+
+    /** Last day of the date range, or null for no upper bound. */
+    private final LocalDate endDate;
+
+    /** Lower-case text captions must contain, or null for no caption test. */
+    private final String captionText;
+
+    /** Start of the date range in epoch milliseconds, so matching does not convert dates. */
+    private final transient long fromMillis;
+
+    /** End of the date range in epoch milliseconds, exclusive. */
+    private final transient long toMillis;
+
+    /**
+     * Constructs a query without a caption test.
+     *
+     * @param tag1 the first tag, or null
+     * @param tag2 the second tag, or null
+     * @param operator how to combine the tags; null means {@link Operator#NONE}
+     * @param startDate first day of the range, or null
+     * @param endDate last day of the range, or null
+     */
+    public PhotoSearch(Tag tag1, Tag tag2, Operator operator, LocalDate startDate, LocalDate endDate) {
+        this(tag1, tag2, operator, startDate, endDate, null);
+    }
+
+    /**
+     * Constructs a query.
+     *
+     * @param tag1 the first tag, or null
+     * @param tag2 the second tag, or null
+     * @param operator how to combine the tags; null means {@link Operator#NONE}
+     * @param startDate first day of the range, or null
+     * @param endDate last day of the range, or null
+     * @param captionText text the caption must contain, ignoring case; null or blank for none
+     */
+    public PhotoSearch(Tag tag1, Tag tag2, Operator operator, LocalDate startDate, LocalDate endDate,
+                       String captionText) {
+        this.tag1 = tag1;
+        this.tag2 = tag2;
+        this.operator = operator == null ? Operator.NONE : operator;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.captionText = captionText == null || captionText.isBlank()
+                ? null : captionText.trim().toLowerCase(Locale.ROOT);
+        ZoneId zone = ZoneId.systemDefault();
+        this.fromMillis = startDate == null ? Long.MIN_VALUE
+                : startDate.atStartOfDay(zone).toInstant().toEpochMilli();
+        this.toMillis = endDate == null ? Long.MAX_VALUE
+                : endDate.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Replaces a query read from disk with one built by the constructor, so
+     * the date bounds are computed in the current time zone.
+     *
+     * @return the rebuilt query
+     */
+    private Object readResolve() {
+        return new PhotoSearch(tag1, tag2, operator, startDate, endDate, captionText);
+    }
+
+    /**
+     * Parses a tag written as "type=value".
+     *
+     * @param text the text to parse
+     * @return the tag, or null if the text is blank or not in that form
+     */
+    public static Tag parseTag(String text) {
+        if (text == null || text.isBlank()) return null;
+        String[] parts = text.trim().split("=");
+        if (parts.length != 2 || parts[0].isBlank() || parts[1].isBlank()) return null;
+        return new Tag(parts[0].trim(), parts[1].trim());
+    }
+
+    /**
+     * Returns the first tag.
+     *
+     * @return the first tag, or null
+     */
+    public Tag getTag1() {
+        return tag1;
+    }
+
+    /**
+     * Returns the second tag.
+     *
+     * @return the second tag, or null
+     */
+    public Tag getTag2() {
+        return tag2;
+    }
+
+    /**
+     * Returns how the tags are combined.
+     *
+     * @return the operator
+     */
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * Returns the first day of the date range.
+     *
+     * @return the start date, or null
+     */
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    /**
+     * Returns the last day of the date range.
+     *
+     * @return the end date, or null
+     */
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    /**
+     * Returns the text captions must contain.
+     *
+     * @return the lower-case caption text, or null if captions are not tested
+     */
+    public String getCaptionText() {
+        return captionText;
+    }
+
+    /**
+     * Returns the tags the query's result depends on: the first tag with
+     * {@code NONE}, otherwise both tags that are set. A photo whose tags
+     * change can only enter or leave the result if one of these was added or
+     * removed.
+     *
+     * @return the tags, possibly empty
+     */
+    public List<Tag> getTags() {
+        List<Tag> tags = new ArrayList<>(2);
+        if (tag1 != null) tags.add(tag1);
+        if (tag2 != null && operator != Operator.NONE) tags.add(tag2);
+        return tags;
+    }
+
+    /**
+     * Checks whether only photos carrying one of {@link #getTags()} can match.
+     * When false, the tag part of the query accepts photos with none of them.
+     *
+     * @return true if matching requires one of the query's tags
+     */
+    public boolean requiresTag() {
+        return switch (operator) {
+            case NONE, OR -> tag1 != null;
+            case AND -> tag1 != null || tag2 != null;
+        };
+    }
+
+    /**
+     * Checks whether a photo satisfies the tag part of the query.
+     *
+     * @param photo the photo to test
+     * @return true if the tags match
+     */
+    public boolean matchesTags(Photo photo) {
+        Set<Tag> tags = photo.getTags();
+        boolean first = tag1 == null || tags.contains(tag1);
+        if (tag2 == null || operator == Operator.NONE) return first;
+        boolean second = tags.contains(tag2);
+        return operator == Operator.AND ? first && second : first || second;
+    }
+
+    /**
+     * Checks whether a photo falls in the query's date range.
+     *
+     * @param photo the photo to test
+     * @return true if the date matches
+     */
+    public boolean matchesDate(Photo photo) {
+        if (startDate == null && endDate == null) return true;
+        long taken = photo.getDateTaken().getTimeInMillis();
+        return taken >= fromMillis && taken < toMillis;
+    }
+
+    /**
+     * Checks whether a photo's caption contains the query's caption text.
+     *
+     * @param photo the photo to test
+     * @return true if the caption matches or is not tested
+     */
+    public boolean matchesCaption(Photo photo) {
+        if (captionText == null) return true;
+        String caption = photo.getCaption();
+        return caption != null && caption.toLowerCase(Locale.ROOT).contains(captionText);
+    }
+
+    /**
+     * Checks whether a photo satisfies the whole query.
+     *
+     * @param photo the photo to test
+     * @return true if the photo matches
+     */
+    public boolean matches(Photo photo) {
+        return matchesTags(photo) && matchesDate(photo) && matchesCaption(photo);
+    }
+
+    /**
+     * Returns the photos that match the query, in their original order.
+     * The time taken is recorded as the {@code search} latency metric and
+     * as a {@link SearchEvent}.
+     *
+     * @param photos the candidate photos
+     * @return the matching photos
+     */
+    public List<Photo> filter(Collection<Photo> photos) {
+        long start = System.nanoTime();
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        List<Photo> results = new ArrayList<>();
+        for (Photo p : photos) {
+            if (matches(p)) {
+                results.add(p);
+            }
+        }
+        Metrics.latency("search").recordSince(start);
+        Metrics.count("search.photosScanned", photos.size());
+        event.end();
+        if (event.shouldCommit()) {
+            event.query = toString();
+            event.candidates = photos.size();
+            event.results = results.size();
+            event.commit();
+        }
+        return results;
+    }
+
+    /**
+     * Returns the query in a readable form, such as
+     * {@code person=ana AND location=paris 2020-01-01..2020-12-31 caption~"beach"}.
+     *
+     * @return the query text
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (tag1 != null) {
+            sb.append(tag1.getName()).append('=').append(tag1.getValue());
+        }
+        if (tag2 != null && operator != Operator.NONE) {
+            sb.append(' ').append(operator).append(' ').append(tag2.getName()).append('=').append(tag2.getValue());
+        }
+        if (startDate != null || endDate != null) {
+            if (!sb.isEmpty()) sb.append(' ');
+            sb.append(startDate != null ? startDate : "").append("..").append(endDate != null ? endDate : "");
+        }
+        if (captionText != null) {
+            if (!sb.isEmpty()) sb.append(' ');
+            sb.append("caption~\"").append(captionText).append('"');
+        }
+        return sb.isEmpty() ? "(all photos)" : sb.toString();
+    }
+}
@@ -0,0 +1,159 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores the library as one Java serialization file, rewritten in full on
+ * every save.
+ * <p>
+ * The file starts with a format marker followed by one serialized user at a
+ * time and a trailing null, so writing it never holds more than one user's
+ * lock. Older files holding a single serialized map of all users are still
+ * read. Saves go to a temporary file that is then moved over the old one.
+ * </p>
+ */
+public final class SerializedStore implements LibraryStore {
+
+    /** Marker written at the start of the per-user data file format. */
+    private static final String FORMAT_PER_USER = "photos.users.v2";
+
+    /** The data file. */
+    private final Path file;
+
+    /**
+     * Creates a store backed by the given file.
+     *
+     * @param file the data file, which need not exist yet
+     */
+    public SerializedStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Checks whether the data file exists.
+     *
+     * @return true if there is something to load
+     */
+    @Override
+    public boolean exists() {
+        return Files.exists(file);
+    }
+
+    /**
+     * Reads every user. Reads both the per-user format written by
+     * {@link #save(PhotoManager, Collection)} and the older single-map format.
+     *
+     * @return the users by username
+     * @throws IOException if the file is missing, damaged or not a library
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, User> loadAll() throws IOException {
+        Map<String, User> loaded = new HashMap<>();
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            Object first = in.readObject();
+            if (first instanceof Map) {
+                loaded.putAll((Map<String, User>) first);
+            } else if (FORMAT_PER_USER.equals(first)) {
+                Object next;
+                while ((next = in.readObject()) != null) {
+                    User user = (User) next;
+                    loaded.put(user.getUsername(), user);
+                }
+            } else {
+                throw new IOException("Not a library file: " + file);
+            }
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Damaged library file: " + file, e);
+        }
+        return loaded;
+    }
+
+    /**
+     * Reads one user. The file has no index, so this reads the whole file.
+     *
+     * @param username the username
+     * @return the user, or null if there is none
+     * @throws IOException if the file cannot be read
+     */
+    @Override
+    public User load(String username) throws IOException {
+        return loadAll().get(username);
+    }
+
+    /**
+     * Writes every user to a temporary file, each under its read lock, and
+     * moves it over the data file.
+     *
+     * @param manager the manager whose locks guard the users
+     * @param users every user in the library
+     * @return the number of users written
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public int save(PhotoManager manager, Collection<User> users) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int written = 0;
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeObject(FORMAT_PER_USER);
+            for (User user : users) {
+                written++;
+                manager.read(user.getUsername(), () -> {
+                    try {
+                        out.writeObject(user);
+                        out.reset(); // drop back-references so memory stays per user
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return null;
+                });
+            }
+            out.writeObject(null);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return written;
+    }
+
+    /**
+     * Returns the data file.
+     *
+     * @return the data file's path
+     */
+    @Override
+    public String location() {
+        return file.toString();
+    }
+
+    /**
+     * Returns the size of the data file.
+     *
+     * @return the size, or -1 if it cannot be read
+     */
+    @Override
+    public long sizeOnDisk() {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
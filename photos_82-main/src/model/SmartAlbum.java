@@ -0,0 +1,179 @@
+package model;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An album whose photos are the owner's photos matching a saved
+ * {@link PhotoSearch}, kept up to date as the library changes.
+ * <p>
+ * Membership is computed once, when the album is added to a user, and then
+ * maintained by the owning {@link User} one photo at a time: a photo is
+ * checked when it first enters one of the user's ordinary albums, when it
+ * leaves the last of them, and when its tags or caption change. The user only
+ * checks the smart albums whose query could be affected, so edits do not get
+ * slower with the number of smart albums. The members are stored with the
+ * album, so opening one is as fast as opening an ordinary album.
+ * </p>
+ * <p>
+ * The public methods for adding and removing photos throw
+ * {@link UnsupportedOperationException}. Smart albums do not count towards
+ * the owner's photos; every member is also in an ordinary album.
+ * </p>
+ */
+public class SmartAlbum extends Album {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The query deciding membership. */
+    private final PhotoSearch query;
+
+    /** Whether the members have been computed, so a restored album is not recomputed. */
+    private boolean populated;
+
+    /**
+     * Constructs a smart album. Its photos are computed when it is added to a user.
+     *
+     * @param name the name of the album
+     * @param query the query photos must match
+     * @throws IllegalArgumentException if the query is null
+     */
+    public SmartAlbum(String name, PhotoSearch query) {
+        super(name);
+        if (query == null) {
+            throw new IllegalArgumentException("Smart album query cannot be null");
+        }
+        this.query = query;
+    }
+
+    /**
+     * Restores a smart album with members that were saved with it.
+     *
+     * @param name the name of the album
+     * @param query the query photos must match
+     * @param members the saved members, in order
+     */
+    SmartAlbum(String name, PhotoSearch query, Collection<Photo> members) {
+        this(name, query);
+        super.addPhotos(members);
+        populated = true;
+    }
+
+    /**
+     * Returns the query deciding membership.
+     *
+     * @return the query
+     */
+    public PhotoSearch getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns true: this album is maintained from its query.
+     *
+     * @return true
+     */
+    @Override
+    public boolean isSmart() {
+        return true;
+    }
+
+    /**
+     * Always throws; photos enter a smart album by matching its query.
+     *
+     * @param photo ignored
+     * @return never
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean addPhoto(Photo photo) {
+        throw new UnsupportedOperationException("Smart album \"" + getName() + "\" is kept up to date by its query");
+    }
+
+    /**
+     * Always throws; photos enter a smart album by matching its query.
+     *
+     * @param toAdd ignored
+     * @return never
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public int addPhotos(Collection<Photo> toAdd) {
+        throw new UnsupportedOperationException("Smart album \"" + getName() + "\" is kept up to date by its query");
+    }
+
+    /**
+     * Always throws; photos leave a smart album by no longer matching its query.
+     *
+     * @param photo ignored
+     * @return never
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean removePhoto(Photo photo) {
+        throw new UnsupportedOperationException("Smart album \"" + getName() + "\" is kept up to date by its query");
+    }
+
+    /**
+     * Always throws; photos leave a smart album by no longer matching its query.
+     *
+     * @param toRemove ignored
+     * @return never
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public int removePhotos(Collection<Photo> toRemove) {
+        throw new UnsupportedOperationException("Smart album \"" + getName() + "\" is kept up to date by its query");
+    }
+
+    /**
+     * Checks whether the members have been computed.
+     *
+     * @return true once the album was populated or restored
+     */
+    boolean isPopulated() {
+        return populated;
+    }
+
+    /**
+     * Computes the members from a user's photos, once.
+     *
+     * @param candidates the user's distinct photos, in album order
+     */
+    void populate(List<Photo> candidates) {
+        super.addPhotos(query.filter(candidates));
+        populated = true;
+    }
+
+    /**
+     * Adds or removes one photo depending on whether it matches the query now.
+     *
+     * @param photo a photo of the owner, or one that just left the owner
+     */
+    void refresh(Photo photo) {
+        if (query.matches(photo)) {
+            super.addPhoto(photo);
+        } else if (containsPhoto(photo)) {
+            super.removePhoto(photo);
+        }
+    }
+
+    /**
+     * Removes a photo that left the owner's ordinary albums.
+     *
+     * @param photo the photo
+     */
+    void evict(Photo photo) {
+        super.removePhoto(photo);
+    }
+
+    /**
+     * Returns the album name, its query and its summary.
+     *
+     * @return the string representation
+     */
+    @Override
+    public String toString() {
+        return getName() + " [" + query + "] (" + getSummary() + ")";
+    }
+}
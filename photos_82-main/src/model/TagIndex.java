@@ -0,0 +1,232 @@
+package model;
+
+import java.util.*;
+
+import metrics.Metrics;
+
+/**
+ * Tag postings for one {@link UserSnapshot}: for each tag, the positions of
+ * the photos carrying it, used to count how many photos of a search result
+ * carry each tag value.
+ * <p>
+ * Photos are numbered in the order of {@link UserSnapshot#allPhotos()}, and
+ * each tag keeps a sorted array of the numbers of its photos. Counting facets
+ * for a result marks the result's photos in a bit set and then walks every
+ * posting, so the cost grows with the number of tag assignments and not with
+ * the number of distinct values times the result size. An index is built once
+ * per snapshot and is immutable, so it can be shared by any number of
+ * threads; a tag edit produces a new snapshot and so a new index.
+ * </p>
+ */
+public final class TagIndex {
+
+    /** Number of values shown per tag type unless the caller asks otherwise. */
+    public static final int DEFAULT_TOP = 5;
+
+    /**
+     * One tag value and the number of photos of a result carrying it.
+     *
+     * @param tag the tag
+     * @param count the number of photos
+     */
+    public record Facet(Tag tag, int count) {
+
+        /**
+         * Returns the facet as shown in lists, such as {@code person=ana (12)}.
+         *
+         * @return the facet text
+         */
+        @Override
+        public String toString() {
+            return tag.getName() + "=" + tag.getValue() + " (" + count + ")";
+        }
+    }
+
+    /** The version of the snapshot the index was built from. */
+    private final long version;
+
+    /** The indexed photos; a photo's position is its index here. */
+    private final Photo[] photos;
+
+    /** The position of each photo by identity, built the first time a result is not in snapshot order. */
+    private volatile Map<Photo, Integer> positions;
+
+    /** Tag names in sorted order, each with the postings of its values. */
+    private final SortedMap<String, Map<Tag, int[]>> postings;
+
+    /**
+     * Builds the index for a snapshot. The time taken is recorded as the
+     * {@code search.index} latency metric.
+     *
+     * @param snapshot the user snapshot
+     */
+    public TagIndex(UserSnapshot snapshot) {
+        long start = System.nanoTime();
+        Photo[] photos = snapshot.allPhotos().toArray(new Photo[0]);
+        Map<Tag, Posting> building = new HashMap<>();
+        for (int i = 0; i < photos.length; i++) {
+            for (Tag tag : photos[i].getTags()) {
+                building.computeIfAbsent(tag, t -> new Posting()).add(i);
+            }
+        }
+        SortedMap<String, Map<Tag, int[]>> postings = new TreeMap<>();
+        for (Map.Entry<Tag, Posting> e : building.entrySet()) {
+            postings.computeIfAbsent(e.getKey().getName(), n -> new HashMap<>())
+                    .put(e.getKey(), e.getValue().toArray());
+        }
+        this.version = snapshot.version();
+        this.photos = photos;
+        this.postings = postings;
+        Metrics.latency("search.index").recordSince(start);
+    }
+
+    /**
+     * Returns the version of the snapshot the index was built from, so callers
+     * can tell whether a newer snapshot needs a new index.
+     *
+     * @return the snapshot version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Counts, for each tag type, the values carried by the most photos of a
+     * result. A result holding every indexed photo is counted from the
+     * posting lengths alone. A result in snapshot order, as
+     * {@link PhotoSearch#filter(Collection)} returns it, is matched to
+     * positions by walking it alongside the indexed photos; any other order
+     * goes through a map by identity. The time taken is recorded as the
+     * {@code search.facets} latency metric.
+     *
+     * @param results distinct photos of the indexed snapshot, such as a
+     *                search over its {@link UserSnapshot#allPhotos()}
+     * @param top the number of values to keep per tag type
+     * @return the facets by tag type in name order, each list by descending
+     *         count and then by value; types no result photo carries are left out
+     */
+    public Map<String, List<Facet>> facets(Collection<Photo> results, int top) {
+        long start = System.nanoTime();
+        boolean everything = results.size() == photos.length;
+        long[] selected = everything ? null : select(results);
+
+        Map<String, List<Facet>> facets = new LinkedHashMap<>();
+        Comparator<Facet> order = Comparator.comparingInt(Facet::count).reversed()
+                .thenComparing(f -> f.tag().getValue());
+        for (Map.Entry<String, Map<Tag, int[]>> type : postings.entrySet()) {
+            PriorityQueue<Facet> best = new PriorityQueue<>(top + 1, order.reversed());
+            for (Map.Entry<Tag, int[]> value : type.getValue().entrySet()) {
+                int count = everything ? value.getValue().length : count(value.getValue(), selected);
+                if (count == 0) continue;
+                best.add(new Facet(value.getKey(), count));
+                if (best.size() > top) {
+                    best.poll();
+                }
+            }
+            if (!best.isEmpty()) {
+                List<Facet> list = new ArrayList<>(best);
+                list.sort(order);
+                facets.put(type.getKey(), list);
+            }
+        }
+        Metrics.latency("search.facets").recordSince(start);
+        return facets;
+    }
+
+    /**
+     * Marks the positions of a result's photos in a bit set.
+     *
+     * @param results the photos
+     * @return the bit set, one bit per indexed photo
+     */
+    private long[] select(Collection<Photo> results) {
+        long[] selected = new long[(photos.length + 63) >>> 6];
+        int next = 0;
+        for (Photo photo : results) {
+            int position = next;
+            while (position < photos.length && photos[position] != photo) {
+                position++;
+            }
+            if (position == photos.length) {
+                return selectByIdentity(results);
+            }
+            selected[position >>> 6] |= 1L << position;
+            next = position + 1;
+        }
+        return selected;
+    }
+
+    /**
+     * Marks the positions of a result's photos in a bit set, in any order.
+     * Photos that were not indexed are ignored.
+     *
+     * @param results the photos
+     * @return the bit set, one bit per indexed photo
+     */
+    private long[] selectByIdentity(Collection<Photo> results) {
+        Map<Photo, Integer> byPhoto = positions;
+        if (byPhoto == null) {
+            byPhoto = new IdentityHashMap<>(photos.length * 2);
+            for (int i = 0; i < photos.length; i++) {
+                byPhoto.put(photos[i], i);
+            }
+            positions = byPhoto;
+        }
+        long[] selected = new long[(photos.length + 63) >>> 6];
+        for (Photo photo : results) {
+            Integer position = byPhoto.get(photo);
+            if (position != null) {
+                selected[position >>> 6] |= 1L << position;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Counts the positions of a posting that are set in a bit set.
+     *
+     * @param posting the sorted positions
+     * @param selected the bit set
+     * @return the number of positions set
+     */
+    private static int count(int[] posting, long[] selected) {
+        int count = 0;
+        for (int position : posting) {
+            count += (int) (selected[position >>> 6] >>> position) & 1;
+        }
+        return count;
+    }
+
+    /**
+     * A growable array of photo positions, used while building.
+     */
+    private static final class Posting {
+
+        /** The positions so far. */
+        private int[] positions = new int[4];
+
+        /** The number of positions used. */
+        private int size;
+
+        /**
+         * Appends a position.
+         *
+         * @param position the position
+         */
+        void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        /**
+         * Returns the positions, trimmed.
+         *
+         * @return a new array of the positions
+         */
+        int[] toArray() {
+            return Arrays.copyOf(positions, size);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package model;
+
+/**
+ * Storage used by one user or by the whole library.
+ * <p>
+ * Users keep their usage up to date as albums, photos and tags change, and
+ * {@link PhotoManager} sums every user's usage, so reading either never walks
+ * a user's albums or touches a file. Photos are counted once per user even
+ * when several of the user's albums hold them, and their size is the file
+ * size recorded when the photo was created.
+ * </p>
+ *
+ * @param albums the number of albums
+ * @param photos the number of distinct photos
+ * @param bytes the total size of the distinct photos' files
+ * @param tags the number of tags on the distinct photos
+ */
+public record Usage(long albums, long photos, long bytes, long tags) {
+
+    /** No usage at all. */
+    public static final Usage NONE = new Usage(0, 0, 0, 0);
+
+    /**
+     * Returns this usage minus another, field by field.
+     *
+     * @param other the usage to subtract
+     * @return the difference, which may have negative fields
+     */
+    public Usage minus(Usage other) {
+        return new Usage(albums - other.albums, photos - other.photos, bytes - other.bytes, tags - other.tags);
+    }
+}
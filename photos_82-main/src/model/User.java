@@ -1,13 +1,33 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Represents a user in the Photo App.
  * <p>
  * A user has a username, password, and a list of photo albums.
  * Users can add, remove, retrieve, and rename albums.
+ * Albums are indexed by their case-folded name, so lookups, renames and
+ * deletes do not depend on how many albums or photos the user has.
+ * </p>
+ * <p>
+ * The user also keeps its {@link Usage} up to date as albums, photos and tags
+ * change, counting each photo once however many albums hold it.
+ * {@link #recountUsage()} recomputes it from scratch to check the running
+ * figures.
+ * </p>
+ * <p>
+ * The user maintains its {@link SmartAlbum}s. Each one is indexed under the
+ * tags its query depends on, or kept aside when its query can match untagged
+ * photos or tests captions. A photo entering or leaving the user, or changing
+ * its tags or caption, is checked only against the smart albums found this
+ * way, or those already holding it.
  * </p>
  */
 public class User implements Serializable {
@@ -20,8 +40,54 @@ public class User implements Serializable {
     /** The user's password (can be null for some accounts). */
     private String password;
 
-    /** The list of albums owned by the user. */
-    private List<Album> albums = new ArrayList<>();
+    /**
+     * The albums owned by the user, in creation order.
+     * Only populated while the user is being written to disk; at runtime the
+     * albums live in {@link #albumsByName}.
+     */
+    private List<Album> albums;
+
+    /** Case-folded album name to album, in creation order. */
+    private transient Map<String, Album> albumsByName = new LinkedHashMap<>();
+
+    /** Counts changes to the user's albums; stamped on each snapshot. */
+    private transient volatile long version;
+
+    /** Counts every change to the user's data, captions included, so stores can skip unchanged users. */
+    private transient volatile long changes;
+
+    /** The last published snapshot, or null if an album changed since. */
+    private transient volatile UserSnapshot published;
+
+    /** Listeners told about changes to the user's albums. */
+    private transient List<ModelListener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Number of the user's albums holding each photo, by identity. */
+    private transient Map<Photo, Integer> photoRefs = new IdentityHashMap<>();
+
+    /** Total file size of the photos in {@link #photoRefs}. */
+    private transient long photoBytes;
+
+    /** Total number of tags on the photos in {@link #photoRefs}. */
+    private transient long tagCount;
+
+    /** Smart albums by each tag their query depends on. */
+    private transient Map<Tag, List<SmartAlbum>> smartByTag = new HashMap<>();
+
+    /** Smart albums whose query can match a photo without any of its tags. */
+    private transient List<SmartAlbum> smartUntagged = new ArrayList<>();
+
+    /** Smart albums whose query tests captions. */
+    private transient List<SmartAlbum> smartByCaption = new ArrayList<>();
+
+    /** True while saved albums are being restored, whose smart albums already hold their members. */
+    private transient boolean restoring;
+
+    /** The last published usage. */
+    private transient volatile Usage usage = Usage.NONE;
+
+    /** Told how the usage changed after each change; null when the user is not in a library. */
+    private transient Consumer<Usage> usageSink;
 
     /**
      * Constructs a new User with the given username and password.
@@ -32,7 +98,6 @@ public class User implements Serializable {
     public User(String username, String password) {
         this.username = username;
         this.password = password;
-        this.albums = new ArrayList<>();
     }
 
     /**
@@ -54,12 +119,22 @@ public class User implements Serializable {
     }
 
     /**
-     * Returns the list of albums.
+     * Returns the user's albums in creation order.
+     * The returned list is a copy; changing it does not affect the user.
      *
      * @return the user's albums
      */
     public List<Album> getAlbums() {
-        return albums;
+        return new ArrayList<>(albumsByName.values());
+    }
+
+    /**
+     * Returns the number of albums the user owns.
+     *
+     * @return the album count
+     */
+    public int getAlbumCount() {
+        return albumsByName.size();
     }
 
     /**
@@ -69,8 +144,29 @@ public class User implements Serializable {
      * @return true if added, false if already exists or null
      */
     public boolean addAlbum(Album album) {
-        if (album == null || albums.stream().anyMatch(a -> a.getName().equalsIgnoreCase(album.getName()))) return false;
-        return albums.add(album);
+        if (album == null || album.getName() == null) return false;
+        if (albumsByName.containsKey(key(album.getName()))) return false;
+        if (album instanceof SmartAlbum smart) {
+            if (!smart.isPopulated()) {
+                smart.populate(distinctPhotos());
+            }
+            registerSmart(smart, true);
+        }
+        albumsByName.put(key(album.getName()), album);
+        album.setOwner(this);
+        if (!album.isSmart()) {
+            for (Photo p : album.getPhotos()) {
+                photoAdded(p);
+            }
+        }
+        version++;
+        changes++;
+        published = null;
+        publishUsage();
+        for (ModelListener l : listeners) {
+            l.albumAdded(this, album);
+        }
+        return true;
     }
 
     /**
@@ -80,7 +176,24 @@ public class User implements Serializable {
      * @return true if the album was removed, false otherwise
      */
     public boolean removeAlbum(String name) {
-        return albums.removeIf(a -> a.getName().equalsIgnoreCase(name));
+        Album removed = name == null ? null : albumsByName.remove(key(name));
+        if (removed == null) return false;
+        removed.setOwner(null);
+        if (removed instanceof SmartAlbum smart) {
+            registerSmart(smart, false);
+        } else {
+            for (Photo p : removed.getPhotos()) {
+                photoRemoved(p);
+            }
+        }
+        version++;
+        changes++;
+        published = null;
+        publishUsage();
+        for (ModelListener l : listeners) {
+            l.albumRemoved(this, removed);
+        }
+        return true;
     }
 
     /**
@@ -90,32 +203,414 @@ public class User implements Serializable {
      * @return the Album if found, null otherwise
      */
     public Album getAlbum(String name) {
-        for (Album a : albums) {
-            if (a.getName().equalsIgnoreCase(name)) {
-                return a;
+        return name == null ? null : albumsByName.get(key(name));
+    }
+
+    /**
+     * Returns the distinct photos in any of the user's albums that refer to the given file.
+     * Each album is checked through its path index, so the cost grows with the
+     * number of albums, not photos.
+     *
+     * @param filePath the file path to look up
+     * @return the matching photos, possibly empty
+     */
+    public List<Photo> findPhotosByPath(String filePath) {
+        List<Photo> found = new ArrayList<>(1);
+        if (filePath == null) return found;
+        String normalized = Photo.normalizePath(filePath);
+        for (Album a : albumsByName.values()) {
+            Photo p = a.getPhotoByNormalizedPath(normalized);
+            if (p != null && !found.contains(p)) {
+                found.add(p);
             }
         }
-        return null;
+        return found;
     }
 
     /**
      * Renames an existing album to a new name.
+     * The album object is renamed in place, so its photos are not copied.
+     * A rename that only changes letter case is allowed.
      *
      * @param oldName the current name of the album
      * @param newName the new name for the album
      * @return true if renamed successfully, false otherwise
      */
     public boolean renameAlbum(String oldName, String newName) {
-        Album oldAlbum = getAlbum(oldName);
-        if (oldAlbum == null || getAlbum(newName) != null) return false;
+        Album album = getAlbum(oldName);
+        if (album == null || newName == null || newName.isBlank()) return false;
+
+        Album existing = getAlbum(newName);
+        if (existing != null && existing != album) return false;
+
+        albumsByName.remove(key(oldName));
+        albumsByName.put(key(newName), album);
+        album.setName(newName);
+        return true;
+    }
+
+    /**
+     * Returns an immutable snapshot of the user's albums.
+     * The same snapshot is returned until an album changes. A new snapshot
+     * reuses the snapshots of albums that did not change. Building one reads
+     * live data, so callers on other threads should go through
+     * {@link PhotoManager#snapshot(User)}.
+     *
+     * @return the user snapshot
+     */
+    public UserSnapshot snapshot() {
+        UserSnapshot s = published;
+        if (s == null) {
+            long v = version;
+            List<AlbumSnapshot> albumSnapshots = new ArrayList<>(albumsByName.size());
+            for (Album a : albumsByName.values()) {
+                albumSnapshots.add(a.snapshot());
+            }
+            s = new UserSnapshot(username, v, List.copyOf(albumSnapshots));
+            published = s;
+        }
+        return s;
+    }
+
+    /**
+     * Registers a listener for albums added, removed, renamed or changed.
+     *
+     * @param listener the listener
+     */
+    public void addListener(ModelListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(ModelListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Records that one of the user's albums changed, dropping the published
+     * snapshot and telling listeners.
+     *
+     * @param album the album that changed
+     */
+    void albumChanged(Album album) {
+        version++;
+        changes++;
+        published = null;
+        publishUsage();
+        for (ModelListener l : listeners) {
+            l.albumUpdated(this, album);
+        }
+    }
+
+    /**
+     * Records that a photo's caption or file changed. Snapshots stay valid,
+     * since they share the photo, but the user's stored data is now stale.
+     */
+    void photoChanged() {
+        changes++;
+    }
+
+    /**
+     * Returns a counter that grows with every change to the user's data.
+     * Stores compare it with the value they last wrote to skip unchanged users.
+     *
+     * @return the change count
+     */
+    long getChangeCount() {
+        return changes;
+    }
+
+    /**
+     * Returns the user's storage usage. Safe to call from any thread; does
+     * not read the albums.
+     *
+     * @return the usage after the last change
+     */
+    public Usage getUsage() {
+        return usage;
+    }
 
-        Album renamedAlbum = new Album(newName);
-        for (Photo p : oldAlbum.getPhotos()) {
-            renamedAlbum.addPhoto(p);
+    /**
+     * Recomputes the usage by walking every album, without changing the
+     * running figures. Reads live data, so call it under the user's read lock.
+     *
+     * @return the recomputed usage
+     */
+    public Usage recountUsage() {
+        Set<Photo> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        long bytes = 0;
+        long tags = 0;
+        for (Album a : albumsByName.values()) {
+            for (Photo p : a.getPhotos()) {
+                if (distinct.add(p)) {
+                    bytes += p.getFileSize();
+                    tags += p.getTags().size();
+                }
+            }
         }
+        return new Usage(albumsByName.size(), distinct.size(), bytes, tags);
+    }
 
-        removeAlbum(oldName);
-        return addAlbum(renamedAlbum);
+    /**
+     * Throws away the running usage and counts it again from the albums.
+     * Call it under the user's write lock.
+     */
+    void rebuildUsage() {
+        photoRefs = new IdentityHashMap<>();
+        photoBytes = 0;
+        tagCount = 0;
+        for (Album a : albumsByName.values()) {
+            if (a.isSmart()) continue;
+            for (Photo p : a.getPhotos()) {
+                photoAdded(p);
+            }
+        }
+        publishUsage();
+    }
+
+    /**
+     * Sets where usage changes are reported, moving the user's current usage
+     * from the old sink to the new one. Call it under the user's write lock.
+     *
+     * @param sink receives the difference after each change, or null
+     */
+    void setUsageSink(Consumer<Usage> sink) {
+        if (usageSink != null) {
+            usageSink.accept(Usage.NONE.minus(usage));
+        }
+        usageSink = sink;
+        if (sink != null) {
+            sink.accept(usage);
+        }
+    }
+
+    /**
+     * Counts a photo added to one of the user's ordinary albums, and offers a
+     * photo new to the user to the smart albums that could match it. The
+     * usage is published when the album reports the change.
+     *
+     * @param photo the photo
+     */
+    void photoAdded(Photo photo) {
+        if (photoRefs.merge(photo, 1, Integer::sum) == 1) {
+            photoBytes += photo.getFileSize();
+            tagCount += photo.getTags().size();
+            if (!restoring) {
+                for (Tag tag : photo.getTags()) {
+                    refreshSmart(smartByTag.get(tag), photo);
+                }
+                refreshSmart(smartUntagged, photo);
+            }
+        }
+    }
+
+    /**
+     * Uncounts a photo removed from one of the user's ordinary albums, and
+     * takes a photo that left the last of them out of the smart albums. The
+     * usage is published when the album reports the change. A photo that was
+     * never counted is ignored.
+     *
+     * @param photo the photo
+     */
+    void photoRemoved(Photo photo) {
+        if (!photoRefs.containsKey(photo)) return;
+        Integer left = photoRefs.computeIfPresent(photo, (p, n) -> n > 1 ? n - 1 : null);
+        if (left == null) {
+            photoBytes -= photo.getFileSize();
+            tagCount -= photo.getTags().size();
+            for (Album a : photo.holders()) {
+                if (a instanceof SmartAlbum smart && a.getOwner() == this) {
+                    smart.evict(photo);
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-checks one of the user's photos against the smart albums its change
+     * could affect: those depending on a tag that was added or removed, or,
+     * when no tag changed, those testing captions.
+     *
+     * @param photo the photo
+     * @param removedTags tags the change removed
+     * @param addedTags tags the change added
+     */
+    void photoEdited(Photo photo, List<Tag> removedTags, List<Tag> addedTags) {
+        if (!photoRefs.containsKey(photo)) return;
+        if (removedTags.isEmpty() && addedTags.isEmpty()) {
+            refreshSmart(smartByCaption, photo);
+            return;
+        }
+        for (Tag tag : removedTags) {
+            refreshSmart(smartByTag.get(tag), photo);
+        }
+        for (Tag tag : addedTags) {
+            refreshSmart(smartByTag.get(tag), photo);
+        }
+    }
+
+    /**
+     * Re-checks a photo against some smart albums.
+     *
+     * @param albums the smart albums, or null
+     * @param photo the photo
+     */
+    private static void refreshSmart(List<SmartAlbum> albums, Photo photo) {
+        if (albums == null) return;
+        for (SmartAlbum smart : albums) {
+            smart.refresh(photo);
+        }
+    }
+
+    /**
+     * Adds a smart album to, or removes it from, the indexes that route
+     * photo changes to it.
+     *
+     * @param smart the smart album
+     * @param add true to add, false to remove
+     */
+    private void registerSmart(SmartAlbum smart, boolean add) {
+        PhotoSearch query = smart.getQuery();
+        List<List<SmartAlbum>> lists = new ArrayList<>();
+        for (Tag tag : query.getTags()) {
+            lists.add(add ? smartByTag.computeIfAbsent(tag, t -> new ArrayList<>(1)) : smartByTag.get(tag));
+        }
+        if (!query.requiresTag()) {
+            lists.add(smartUntagged);
+        }
+        if (query.getCaptionText() != null) {
+            lists.add(smartByCaption);
+        }
+        for (List<SmartAlbum> list : lists) {
+            if (list == null) continue;
+            if (add) {
+                list.add(smart);
+            } else {
+                list.remove(smart);
+            }
+        }
+        if (!add) {
+            smartByTag.values().removeIf(List::isEmpty);
+        }
+    }
+
+    /**
+     * Adds an album read back from storage. Saved smart albums keep the
+     * members saved with them, so photos of the album are not offered to them.
+     *
+     * @param album the album
+     * @return true if added, false if an album with the same name exists
+     */
+    boolean restoreAlbum(Album album) {
+        restoring = true;
+        try {
+            return addAlbum(album);
+        } finally {
+            restoring = false;
+        }
+    }
+
+    /**
+     * Returns the photos in the user's ordinary albums, each once, in album order.
+     *
+     * @return the photos
+     */
+    private List<Photo> distinctPhotos() {
+        Set<Photo> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Photo> photos = new ArrayList<>(photoRefs.size());
+        for (Album a : albumsByName.values()) {
+            if (a.isSmart()) continue;
+            for (Photo p : a.getPhotos()) {
+                if (seen.add(p)) {
+                    photos.add(p);
+                }
+            }
+        }
+        return photos;
+    }
+
+    /**
+     * Adjusts the tag count after tags were added to or removed from one of
+     * the user's photos.
+     *
+     * @param photo the photo
+     * @param delta the change in the photo's tag count
+     */
+    void photoTagsChanged(Photo photo, int delta) {
+        if (photoRefs.containsKey(photo)) {
+            tagCount += delta;
+            publishUsage();
+        }
+    }
+
+    /**
+     * Publishes the running usage and reports the difference to the sink if
+     * it changed.
+     */
+    private void publishUsage() {
+        Usage next = new Usage(albumsByName.size(), photoRefs.size(), photoBytes, tagCount);
+        Usage previous = usage;
+        if (next.equals(previous)) return;
+        usage = next;
+        if (usageSink != null) {
+            usageSink.accept(next.minus(previous));
+        }
+    }
+
+    /**
+     * Returns the lookup key for an album name.
+     *
+     * @param name the album name
+     * @return the case-folded name
+     */
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Writes the user, storing the albums as an ordered list.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        albums = new ArrayList<>(albumsByName.values());
+        try {
+            out.defaultWriteObject();
+        } finally {
+            albums = null;
+        }
+    }
+
+    /**
+     * Reads the user and rebuilds the album name index and the routing of
+     * photo changes to smart albums.
+     *
+     * @param in the stream to read from
+     * @throws IOException if reading fails
+     * @throws ClassNotFoundException if a class of a serialized object cannot be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        albumsByName = new LinkedHashMap<>();
+        listeners = new CopyOnWriteArrayList<>();
+        photoRefs = new IdentityHashMap<>();
+        smartByTag = new HashMap<>();
+        smartUntagged = new ArrayList<>();
+        smartByCaption = new ArrayList<>();
+        usage = Usage.NONE;
+        if (albums != null) {
+            for (Album a : albums) {
+                restoreAlbum(a);
+            }
+        }
+        version = 0;
+        changes = 0;
+        albums = null;
     }
 
     /**
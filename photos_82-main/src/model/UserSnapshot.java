@@ -0,0 +1,51 @@
+package model;
+
+import java.util.*;
+
+/**
+ * An immutable, versioned view of a user's albums.
+ * <p>
+ * Taking a snapshot through {@link PhotoManager#snapshot(User)} is constant
+ * time while the user is unchanged. After a change only the albums that were
+ * touched get new {@link AlbumSnapshot}s; the others are shared with the
+ * previous version. Readers such as search, slideshows and exports iterate a
+ * snapshot without holding any lock, so they never block edits on the
+ * JavaFX thread. Tags are read through {@link Photo#getTags()}, which is
+ * itself an immutable per-photo snapshot.
+ * </p>
+ *
+ * @param username the owner of the albums
+ * @param version the user's change counter when the snapshot was taken
+ * @param albums the user's albums, in creation order
+ */
+public record UserSnapshot(String username, long version, List<AlbumSnapshot> albums) {
+
+    /**
+     * Returns the snapshot of the album with the given name (case-insensitive).
+     *
+     * @param name the album name
+     * @return the album snapshot, or null if there is none
+     */
+    public AlbumSnapshot getAlbum(String name) {
+        for (AlbumSnapshot a : albums) {
+            if (a.name().equalsIgnoreCase(name)) {
+                return a;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns every photo in the user's albums, without duplicates,
+     * in album order.
+     *
+     * @return the distinct photos
+     */
+    public List<Photo> allPhotos() {
+        Set<Photo> seen = new LinkedHashSet<>();
+        for (AlbumSnapshot a : albums) {
+            seen.addAll(a.photos());
+        }
+        return new ArrayList<>(seen);
+    }
+}
@@ -0,0 +1,497 @@
+package service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import metrics.BulkOperationEvent;
+import metrics.Metrics;
+import model.AlbumSnapshot;
+import model.Photo;
+import model.Tag;
+
+/**
+ * Copies an album's photo files out of the library, into a directory or a ZIP
+ * file, together with a {@code manifest.json} of captions, dates and tags.
+ * <p>
+ * Works from an {@link AlbumSnapshot}, so no lock is held while copying.
+ * Files are streamed one at a time and memory use does not grow with file
+ * sizes. Directory exports copy with {@link FileChannel#transferTo}, which
+ * lets the operating system move the bytes without passing them through the
+ * Java heap. ZIP exports store already-compressed formats such as JPEG
+ * without recompressing them and deflate the rest. The ZIP is written to a
+ * temporary file next to the target and moved into place when complete.
+ * </p>
+ * <p>
+ * A directory export never replaces a file that is already there: that file
+ * may be one of the photos being exported, such as when the user picks the
+ * folder the originals live in. Names already taken in the directory get a
+ * number added, the same way two photos with the same name do. Each file is
+ * written under a temporary name and renamed into place once complete.
+ * </p>
+ * <p>
+ * Given a {@link MediaScheduler}, each file is copied as a
+ * {@link MediaScheduler.Priority#EXPORT} job, so an export yields to what the
+ * user is looking at but is not held to the disk budget; headless tools pass
+ * none and copy on the calling thread.
+ * </p>
+ * <p>
+ * Exports check for interruption between files, so cancelling the task that
+ * runs one stops it. Each export is timed as the {@code export.album} latency
+ * metric, counts its bytes in {@code export.bytes} and is recorded as a
+ * {@link BulkOperationEvent}.
+ * </p>
+ */
+public final class AlbumExporter {
+
+    /** Name of the manifest written with the photos. */
+    public static final String MANIFEST = "manifest.json";
+
+    /** File extensions of formats that are already compressed and are stored as-is in a ZIP. */
+    private static final Set<String> COMPRESSED = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif", "avif", "mp4", "mov", "zip");
+
+    /** Largest region mapped at once when computing a stored entry's checksum. */
+    private static final long CRC_CHUNK = 64L << 20;
+
+    /**
+     * The outcome of an export.
+     *
+     * @param files the number of photo files copied
+     * @param missing the number of photos whose files no longer exist
+     * @param bytes the number of photo bytes copied
+     */
+    public record Result(int files, int missing, long bytes) {
+    }
+
+    private AlbumExporter() {
+    }
+
+    /**
+     * Writes a file's content.
+     */
+    @FunctionalInterface
+    interface Content {
+
+        /**
+         * Writes the content to a file that already exists and is empty.
+         *
+         * @param file the file to write
+         * @return the number of bytes written
+         * @throws IOException if writing fails
+         */
+        long writeTo(Path file) throws IOException;
+    }
+
+    /**
+     * One step of an export that reads a file, run directly or through the
+     * scheduler.
+     */
+    @FunctionalInterface
+    private interface Step {
+
+        /**
+         * Runs the step.
+         *
+         * @return the number of bytes written
+         * @throws IOException if reading or writing fails
+         */
+        long run() throws IOException;
+    }
+
+    /**
+     * Copies an album's files into a directory on the calling thread.
+     *
+     * @param album the album to export
+     * @param dir the target directory
+     * @return what was copied
+     * @throws IOException if a file cannot be read or written
+     * @see #toDirectory(AlbumSnapshot, Path, MediaScheduler)
+     */
+    public static Result toDirectory(AlbumSnapshot album, Path dir) throws IOException {
+        return toDirectory(album, dir, null);
+    }
+
+    /**
+     * Copies an album's files into a directory, creating it if needed.
+     * Files already in the directory are kept; exported files whose names
+     * are taken get a number added, and so does the manifest.
+     *
+     * @param album the album to export
+     * @param dir the target directory
+     * @param scheduler runs each copy as a maintenance job; null to copy on the calling thread
+     * @return what was copied
+     * @throws IOException if a file cannot be read or written
+     */
+    public static Result toDirectory(AlbumSnapshot album, Path dir, MediaScheduler scheduler) throws IOException {
+        long start = System.nanoTime();
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        boolean ok = false;
+        Result result = null;
+        try {
+            Files.createDirectories(dir);
+            List<Photo> photos = album.photos();
+            String[] names = entryNames(photos, null, dir);
+            int files = 0;
+            int missing = 0;
+            long bytes = 0;
+            for (int i = 0; i < photos.size(); i++) {
+                checkInterrupted();
+                Path source = Path.of(photos.get(i).getFilePath());
+                Path target = dir.resolve(names[i]);
+                try {
+                    bytes += run(scheduler, photos.get(i),
+                            () -> createNew(target, source, part -> transfer(source, part)));
+                    files++;
+                } catch (NoSuchFileException e) {
+                    names[i] = null;
+                    missing++;
+                }
+            }
+            String manifest = freeName(MANIFEST, new HashSet<>(), dir);
+            createNew(dir.resolve(manifest), null, part -> {
+                try (OutputStream out = Files.newOutputStream(part)) {
+                    writeManifest(album, names, out);
+                }
+                return Files.size(part);
+            });
+            result = new Result(files, missing, bytes);
+            ok = true;
+            return result;
+        } finally {
+            finish(start, event, "exportDirectory", album, result, ok);
+        }
+    }
+
+    /**
+     * Writes an album's files into a new ZIP file on the calling thread.
+     *
+     * @param album the album to export
+     * @param zipFile the ZIP file to create
+     * @return what was copied
+     * @throws IOException if a file cannot be read or written
+     * @see #toZip(AlbumSnapshot, Path, MediaScheduler)
+     */
+    public static Result toZip(AlbumSnapshot album, Path zipFile) throws IOException {
+        return toZip(album, zipFile, null);
+    }
+
+    /**
+     * Writes an album's files into a new ZIP file, replacing any existing one.
+     *
+     * @param album the album to export
+     * @param zipFile the ZIP file to create
+     * @param scheduler runs each entry as a maintenance job; null to write on the calling thread
+     * @return what was copied
+     * @throws IOException if a file cannot be read or written
+     */
+    public static Result toZip(AlbumSnapshot album, Path zipFile, MediaScheduler scheduler) throws IOException {
+        long start = System.nanoTime();
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        boolean ok = false;
+        Result result = null;
+        Path parent = zipFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path partial = Files.createTempFile(parent, zipFile.getFileName().toString(), ".part");
+        try {
+            List<Photo> photos = album.photos();
+            String[] names = entryNames(photos, null, null);
+            int files = 0;
+            int missing = 0;
+            long bytes = 0;
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(partial))) {
+                for (int i = 0; i < photos.size(); i++) {
+                    checkInterrupted();
+                    Path source = Path.of(photos.get(i).getFilePath());
+                    if (!Files.isRegularFile(source)) {
+                        names[i] = null;
+                        missing++;
+                        continue;
+                    }
+                    String name = names[i];
+                    bytes += run(scheduler, photos.get(i), () -> addEntry(zip, source, name));
+                    files++;
+                }
+                zip.putNextEntry(new ZipEntry(MANIFEST));
+                writeManifest(album, names, zip);
+                zip.closeEntry();
+            }
+            Files.move(partial, zipFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            result = new Result(files, missing, bytes);
+            ok = true;
+            return result;
+        } finally {
+            Files.deleteIfExists(partial);
+            finish(start, event, "exportZip", album, result, ok);
+        }
+    }
+
+    /**
+     * Creates a file that must not exist yet: writes its content to a
+     * temporary file next to it and renames that into place, failing rather
+     * than replacing a file that appeared meanwhile.
+     *
+     * @param target the file to create
+     * @param source the file the content is read from, or null; refused if it
+     *               is the target itself
+     * @param content writes the content
+     * @return the number of bytes written
+     * @throws FileAlreadyExistsException if the target exists
+     * @throws IOException if the content cannot be written
+     */
+    static long createNew(Path target, Path source, Content content) throws IOException {
+        if (Files.exists(target)) {
+            if (source != null && Files.exists(source) && Files.isSameFile(source, target)) {
+                throw new FileAlreadyExistsException(target.toString(), null, "is the photo being exported");
+            }
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        Path part = Files.createTempFile(target.toAbsolutePath().getParent(), ".export-", ".part");
+        try {
+            long bytes = content.writeTo(part);
+            Files.move(part, target);
+            return bytes;
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * Runs one step of an export, through the scheduler when there is one,
+     * charging it with the size of the photo's file.
+     *
+     * @param scheduler the scheduler, or null to run on the calling thread
+     * @param photo the photo the step reads
+     * @param step the step
+     * @return the number of bytes written
+     * @throws IOException if the step fails or is cancelled
+     */
+    private static long run(MediaScheduler scheduler, Photo photo, Step step) throws IOException {
+        if (scheduler == null) {
+            return step.run();
+        }
+        return scheduler.call(MediaScheduler.Priority.EXPORT, "export file", photo.getFileSize(), step::run);
+    }
+
+    /**
+     * Copies one file with {@link FileChannel#transferTo}, looping until every
+     * byte is written.
+     *
+     * @param source the file to copy
+     * @param target the empty file to write
+     * @return the number of bytes copied
+     * @throws IOException if reading or writing fails
+     */
+    private static long transfer(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Adds one file to a ZIP. Already-compressed formats are stored, which
+     * needs their size and checksum up front; the checksum is computed from a
+     * memory-mapped view so the file is not copied onto the heap.
+     *
+     * @param zip the ZIP being written
+     * @param source the file to add
+     * @param name the entry name
+     * @return the number of bytes added
+     * @throws IOException if reading or writing fails
+     */
+    private static long addEntry(ZipOutputStream zip, Path source, String name) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(Files.getLastModifiedTime(source).toMillis());
+        if (COMPRESSED.contains(extension(name))) {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                long size = in.size();
+                CRC32 crc = new CRC32();
+                for (long position = 0; position < size; position += CRC_CHUNK) {
+                    MappedByteBuffer region = in.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(CRC_CHUNK, size - position));
+                    crc.update(region);
+                }
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(size);
+                entry.setCompressedSize(size);
+                entry.setCrc(crc.getValue());
+            }
+        }
+        zip.putNextEntry(entry);
+        long copied = Files.copy(source, zip);
+        zip.closeEntry();
+        return copied;
+    }
+
+    /**
+     * Writes the manifest as a JSON array with one object per exported photo,
+     * streaming it rather than building it in memory.
+     *
+     * @param album the exported album
+     * @param names the exported file name of each photo, or null where the file was missing
+     * @param out the stream to write to; left open
+     * @throws IOException if writing fails
+     */
+    private static void writeManifest(AlbumSnapshot album, String[] names, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write("{\"album\":" + Json.quote(album.name()) + ",\"photos\":[");
+        List<Photo> photos = album.photos();
+        boolean first = true;
+        StringBuilder sb = new StringBuilder(256);
+        for (int i = 0; i < photos.size(); i++) {
+            if (names[i] == null) continue;
+            Photo p = photos.get(i);
+            sb.setLength(0);
+            sb.append(first ? "\n" : ",\n").append("{\"file\":");
+            Json.appendQuoted(sb, names[i]);
+            sb.append(",\"source\":");
+            Json.appendQuoted(sb, p.getFilePath());
+            sb.append(",\"caption\":");
+            Json.appendQuoted(sb, p.getCaption());
+            sb.append(",\"taken\":");
+            Json.appendQuoted(sb, p.getDateTaken().toInstant().toString());
+            sb.append(",\"tags\":[");
+            boolean firstTag = true;
+            for (Tag tag : p.getTags()) {
+                if (!firstTag) sb.append(',');
+                sb.append("{\"name\":");
+                Json.appendQuoted(sb, tag.getName());
+                sb.append(",\"value\":");
+                Json.appendQuoted(sb, tag.getValue());
+                sb.append('}');
+                firstTag = false;
+            }
+            sb.append("]}");
+            writer.append(sb);
+            first = false;
+        }
+        writer.write("\n]}\n");
+        writer.flush();
+    }
+
+    /**
+     * Picks a file name for each photo: the source file's name, with a number
+     * added when two photos have the same name or the name is already taken
+     * in the target directory.
+     *
+     * @param photos the photos
+     * @param extension an extension replacing the source's, or null to keep it
+     * @param dir the directory the files will be created in, whose existing
+     *            files are avoided, or null when writing into an archive
+     * @return the names, in photo order
+     */
+    static String[] entryNames(List<Photo> photos, String extension, Path dir) {
+        String[] names = new String[photos.size()];
+        Set<String> used = new HashSet<>();
+        used.add(MANIFEST);
+        for (int i = 0; i < photos.size(); i++) {
+            String name = Path.of(photos.get(i).getFilePath()).getFileName().toString();
+            if (extension != null) {
+                int dot = name.lastIndexOf('.');
+                name = (dot > 0 ? name.substring(0, dot) : name) + "." + extension;
+            }
+            if (name.equalsIgnoreCase(MANIFEST)) name = "_" + name;
+            names[i] = freeName(name, used, dir);
+        }
+        return names;
+    }
+
+    /**
+     * Returns a name, with a number added if needed, that is neither in a set
+     * of names already picked nor taken in a directory, and adds it to the set.
+     *
+     * @param name the preferred name
+     * @param used lower-case names already picked; updated
+     * @param dir the directory whose existing files are avoided, or null
+     * @return the name to use
+     */
+    private static String freeName(String name, Set<String> used, Path dir) {
+        String candidate = name;
+        int dot = name.lastIndexOf('.');
+        for (int n = 2; !used.add(candidate.toLowerCase(Locale.ROOT))
+                || dir != null && Files.exists(dir.resolve(candidate), LinkOption.NOFOLLOW_LINKS); n++) {
+            candidate = dot > 0
+                    ? name.substring(0, dot) + " (" + n + ")" + name.substring(dot)
+                    : name + " (" + n + ")";
+        }
+        return candidate;
+    }
+
+    /**
+     * Returns the lower-case extension of a file name.
+     *
+     * @param name the file name
+     * @return the extension without the dot, or an empty string
+     */
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Stops the export if the thread running it was interrupted.
+     *
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Export cancelled");
+        }
+    }
+
+    /**
+     * Records the metrics and flight recorder event for an export.
+     *
+     * @param start when the export started, from {@link System#nanoTime()}
+     * @param event the event, begun when the export started
+     * @param operation the operation name
+     * @param album the exported album
+     * @param result what was copied, or null if the export failed
+     * @param ok whether the export completed
+     */
+    private static void finish(long start, BulkOperationEvent event, String operation, AlbumSnapshot album,
+                               Result result, boolean ok) {
+        if (ok) {
+            Metrics.latency("export.album").recordSince(start);
+            Metrics.count("export.bytes", result.bytes());
+        } else {
+            Metrics.latency("export.album").fail();
+        }
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.operation = operation;
+        event.target = album.name();
+        event.requested = album.getPhotoCount();
+        event.changed = result != null ? result.files() : 0;
+        event.commit();
+    }
+}
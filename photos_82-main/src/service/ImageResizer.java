@@ -0,0 +1,184 @@
+package service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import metrics.ImageDecodeEvent;
+
+/**
+ * Decodes, downscales and re-encodes images with {@code javax.imageio}.
+ * <p>
+ * Works without a JavaFX toolkit, so it can be used by headless tools as well
+ * as the UI. Large sources are subsampled while decoding when the target is
+ * much smaller, which avoids materializing the full-resolution pixels.
+ * </p>
+ */
+public final class ImageResizer {
+
+    private ImageResizer() {
+    }
+
+    /**
+     * Reads an image file, scaled so its longer edge is at most {@code longEdge} pixels.
+     * Images already smaller are returned at their own size.
+     *
+     * @param file the image file
+     * @param longEdge the maximum length of the longer edge
+     * @return the decoded, scaled image
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static BufferedImage read(File file, int longEdge) throws IOException {
+        ImageDecodeEvent event = new ImageDecodeEvent();
+        event.begin();
+        BufferedImage image = null;
+        try {
+            image = decode(file, longEdge);
+            return image;
+        } finally {
+            event.finish("resize", file.getPath(), image != null ? image.getWidth() : 0,
+                    image != null ? image.getHeight() : 0, image == null);
+        }
+    }
+
+    /**
+     * Decodes an image file with subsampling and scales it.
+     *
+     * @param file the image file
+     * @param longEdge the maximum length of the longer edge
+     * @return the decoded, scaled image
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    private static BufferedImage decode(File file, int longEdge) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) throw new IOException("Cannot open " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) throw new IOException("Unsupported image: " + file);
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int srcLong = Math.max(width, height);
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = srcLong / Math.max(1, longEdge * 2);
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                BufferedImage decoded = reader.read(0, param);
+                return scale(decoded, longEdge);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scales an image so its longer edge is at most {@code longEdge} pixels,
+     * halving repeatedly first for better quality on large reductions.
+     *
+     * @param src the source image
+     * @param longEdge the maximum length of the longer edge
+     * @return the scaled image, or the source if it is already small enough
+     */
+    public static BufferedImage scale(BufferedImage src, int longEdge) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        if (Math.max(w, h) <= longEdge) return toRgb(src);
+
+        double ratio = (double) longEdge / Math.max(w, h);
+        int targetW = Math.max(1, (int) Math.round(w * ratio));
+        int targetH = Math.max(1, (int) Math.round(h * ratio));
+
+        BufferedImage current = src;
+        while (current.getWidth() / 2 >= targetW && current.getHeight() / 2 >= targetH) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2);
+        }
+        return draw(current, targetW, targetH);
+    }
+
+    /**
+     * Encodes an image as JPEG.
+     *
+     * @param image the image to encode
+     * @param quality JPEG quality between 0 and 1
+     * @param out the stream to write to; not closed
+     * @throws IOException if encoding fails
+     */
+    public static void writeJpeg(BufferedImage image, float quality, OutputStream out) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.max(0f, Math.min(1f, quality)));
+            writer.write(null, new IIOImage(toRgb(image), null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Reads an image file and returns it as a downscaled JPEG.
+     *
+     * @param file the image file
+     * @param longEdge the maximum length of the longer edge
+     * @param quality JPEG quality between 0 and 1
+     * @return the JPEG bytes
+     * @throws IOException if the file cannot be read or encoded
+     */
+    public static byte[] jpegThumbnail(File file, int longEdge, float quality) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        writeJpeg(read(file, longEdge), quality, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Draws an image into a new RGB image of the given size.
+     *
+     * @param src the source image
+     * @param w the target width
+     * @param h the target height
+     * @return the new image
+     */
+    private static BufferedImage draw(BufferedImage src, int w, int h) {
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(src, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    /**
+     * Returns the image as TYPE_INT_RGB, which the JPEG encoder requires
+     * (no alpha channel).
+     *
+     * @param src the image
+     * @return the image itself if already RGB, otherwise a converted copy
+     */
+    private static BufferedImage toRgb(BufferedImage src) {
+        if (src.getType() == BufferedImage.TYPE_INT_RGB) return src;
+        return draw(src, src.getWidth(), src.getHeight());
+    }
+}
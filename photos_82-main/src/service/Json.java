@@ -0,0 +1,217 @@
+package service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Small helpers for writing and reading JSON text without a library.
+ */
+public final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Returns a string as a quoted, escaped JSON string literal.
+     *
+     * @param s the string, may be null
+     * @return the JSON literal, or the text {@code null}, JSON's null
+     *         literal, if the string is null
+     */
+    public static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        appendQuoted(sb, s);
+        return sb.toString();
+    }
+
+    /**
+     * Appends a string as a quoted, escaped JSON string literal.
+     *
+     * @param sb the builder to append to
+     * @param s the string; null appends the text {@code null}
+     */
+    public static void appendQuoted(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                case '\b' -> sb.append("\\b");
+                case '\f' -> sb.append("\\f");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Parses a flat JSON object, one whose values are all strings, numbers,
+     * booleans or null, such as a line of a JSON-lines file. Numbers and
+     * booleans are returned as their text.
+     *
+     * @param text the object's JSON text
+     * @return the members by name; a JSON null becomes a null value
+     * @throws IllegalArgumentException if the text is not a flat JSON object
+     */
+    public static Map<String, String> parseObject(String text) {
+        Map<String, String> members = new HashMap<>();
+        int[] pos = {skipSpace(text, 0)};
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String name = readString(text, pos);
+                expect(text, pos, ':');
+                members.put(name, readValue(text, pos));
+                char c = peek(text, pos);
+                pos[0]++;
+                if (c == '}') break;
+                if (c != ',') throw error(text, pos[0] - 1, "expected ',' or '}'");
+            }
+        }
+        if (skipSpace(text, pos[0]) != text.length()) {
+            throw error(text, pos[0], "unexpected text after object");
+        }
+        return members;
+    }
+
+    /**
+     * Reads a string, number, boolean or null value.
+     *
+     * @param text the JSON text
+     * @param pos the read position, advanced past the value
+     * @return the value, or null for a JSON null
+     */
+    private static String readValue(String text, int[] pos) {
+        char c = peek(text, pos);
+        if (c == '"') return readString(text, pos);
+        if (c == '{' || c == '[') throw error(text, pos[0], "nested values are not supported");
+        int start = pos[0];
+        int end = start;
+        while (end < text.length() && ",}] \t\r\n".indexOf(text.charAt(end)) < 0) {
+            end++;
+        }
+        if (end == start) throw error(text, start, "expected a value");
+        pos[0] = end;
+        String literal = text.substring(start, end);
+        return literal.equals("null") ? null : literal;
+    }
+
+    /**
+     * Reads a quoted string and resolves its escapes.
+     *
+     * @param text the JSON text
+     * @param pos the read position, advanced past the closing quote
+     * @return the string
+     */
+    private static String readString(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder sb = null;
+        int i = pos[0];
+        int runStart = i;
+        while (true) {
+            if (i >= text.length()) throw error(text, i, "unterminated string");
+            char c = text.charAt(i);
+            if (c == '"') break;
+            if (c != '\\') {
+                i++;
+                continue;
+            }
+            if (sb == null) sb = new StringBuilder();
+            sb.append(text, runStart, i);
+            if (i + 1 >= text.length()) throw error(text, i, "unterminated string");
+            char e = text.charAt(i + 1);
+            switch (e) {
+                case '"', '\\', '/' -> sb.append(e);
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'u' -> {
+                    if (i + 6 > text.length()) throw error(text, i, "bad unicode escape");
+                    try {
+                        sb.append((char) Integer.parseInt(text.substring(i + 2, i + 6), 16));
+                    } catch (NumberFormatException ex) {
+                        throw error(text, i, "bad unicode escape");
+                    }
+                    i += 4;
+                }
+                default -> throw error(text, i, "bad escape");
+            }
+            i += 2;
+            runStart = i;
+        }
+        pos[0] = i + 1;
+        if (sb == null) return text.substring(runStart, i);
+        return sb.append(text, runStart, i).toString();
+    }
+
+    /**
+     * Skips whitespace and consumes the expected character.
+     *
+     * @param text the JSON text
+     * @param pos the read position
+     * @param c the character expected next
+     */
+    private static void expect(String text, int[] pos, char c) {
+        if (peek(text, pos) != c) throw error(text, pos[0], "expected '" + c + "'");
+        pos[0]++;
+    }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it.
+     *
+     * @param text the JSON text
+     * @param pos the read position, advanced past any whitespace
+     * @return the next character
+     */
+    private static char peek(String text, int[] pos) {
+        pos[0] = skipSpace(text, pos[0]);
+        if (pos[0] >= text.length()) throw error(text, pos[0], "unexpected end of text");
+        return text.charAt(pos[0]);
+    }
+
+    /**
+     * Returns the position of the first non-whitespace character at or after
+     * the given one.
+     *
+     * @param text the JSON text
+     * @param i the position to start at
+     * @return the position, or the text length
+     */
+    private static int skipSpace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Builds a parse error.
+     *
+     * @param text the JSON text
+     * @param i the position of the problem
+     * @param message what was wrong
+     * @return the exception to throw
+     */
+    private static IllegalArgumentException error(String text, int i, String message) {
+        return new IllegalArgumentException(message + " at column " + (i + 1));
+    }
+}
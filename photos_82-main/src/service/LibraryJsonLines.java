@@ -0,0 +1,587 @@
+package service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import metrics.BulkOperationEvent;
+import metrics.Metrics;
+import model.Album;
+import model.AlbumSnapshot;
+import model.Photo;
+import model.PhotoManager;
+import model.PhotoSearch;
+import model.SmartAlbum;
+import model.Tag;
+import model.User;
+import model.UserSnapshot;
+
+/**
+ * Exports and imports a whole library as JSON lines, a portable alternative
+ * to {@code users.dat} that does not depend on the model's class layout.
+ * <p>
+ * Every line is one JSON object whose first member is {@code type}:
+ * </p>
+ * <pre>
+ * {"type":"library","format":"photos.jsonl.v2"}
+ * {"type":"user","user":"alice","password":"..."}
+ * {"type":"album","user":"alice","album":"Trip"}
+ * {"type":"album","user":"alice","album":"Bob in 2024","smart":true,"tag1":"person=bob","tag2":null,"operator":"NONE","from":"2024-01-01","to":"2024-12-31","caption":null}
+ * {"type":"photo","user":"alice","album":"Trip","photo":1,"file":"/p/1.jpg","taken":"2024-05-01T10:00:00Z","size":812345,"caption":null}
+ * {"type":"tag","user":"alice","photo":1,"name":"person","value":"bob"}
+ * </pre>
+ * <p>
+ * The optional {@code library} header names the format. A user's records
+ * follow its {@code user} record and end at the next one. A {@code photo}
+ * record puts a photo in an album, in album order. Within a user, photos are
+ * identified by the number in {@code photo}, given out in the order photos
+ * first appear, so a photo in several albums has one {@code photo} record per
+ * album with the same number, and two photos with the same file are told
+ * apart. A photo's details are taken from its first record, and its
+ * {@code tag} records follow that record. Files in the earlier
+ * {@code photos.jsonl.v1} format have no numbers and identify photos by
+ * {@code file} instead; they are still imported. A smart album
+ * record carries the album's query instead of photo records; its photos are
+ * worked out again from the user's other albums on import. A user may
+ * appear only once per import; importing a user that already exists replaces
+ * it.
+ * </p>
+ * <p>
+ * Both directions stream. Export walks the users in directory order, takes
+ * one {@link UserSnapshot} at a time and writes it without holding any lock,
+ * so its output is stable and can be diffed. Import reads lines on the calling
+ * thread and hands each user's lines to a pool of workers that parse them and
+ * build the user; only a few users' lines are held at once, however large the
+ * file. Because every user's block is self-contained, a file can be split at
+ * {@code user} records and the pieces imported together. Nothing is added to
+ * the library unless every file imports cleanly, and then all users are added
+ * with one save.
+ * </p>
+ */
+public final class LibraryJsonLines {
+
+    /** Format name written in the header record. */
+    public static final String FORMAT = "photos.jsonl.v2";
+
+    /** Earlier format name, without photo numbers, still accepted on import. */
+    private static final String FORMAT_V1 = "photos.jsonl.v1";
+
+    /** Users fetched from the directory per page during export. */
+    private static final int EXPORT_PAGE = 256;
+
+    /** Matches a line holding a {@code user} record, without parsing it. */
+    private static final Pattern USER_RECORD = Pattern.compile("^\\s*\\{\\s*\"type\"\\s*:\\s*\"user\"");
+
+    /** Orders a photo's tags so exports are stable. */
+    private static final Comparator<Tag> TAG_ORDER =
+            Comparator.comparing(Tag::getName).thenComparing(Tag::getValue);
+
+    /**
+     * What was exported or imported.
+     *
+     * @param users the number of users
+     * @param albums the number of albums
+     * @param photos the number of distinct photos, counted once per user
+     * @param tags the number of tags on those photos
+     */
+    public record Result(int users, long albums, long photos, long tags) {
+    }
+
+    /** One user's lines, read but not yet parsed, and the line number of the first. */
+    private record Block(String source, int firstLine, List<String> lines) {
+    }
+
+    private LibraryJsonLines() {
+    }
+
+    /**
+     * Exports the library to a file, writing a temporary file next to it
+     * first and moving it into place when complete.
+     *
+     * @param photoManager the library
+     * @param file the file to create or replace
+     * @return what was exported
+     * @throws IOException if the file cannot be written
+     */
+    public static Result export(PhotoManager photoManager, Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path partial = Files.createTempFile(parent, file.getFileName().toString(), ".part");
+        try {
+            Result result;
+            try (Writer out = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+                result = export(photoManager, out);
+            }
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return result;
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    /**
+     * Exports the library to a writer, one user at a time.
+     *
+     * @param photoManager the library
+     * @param out where to write the lines; flushed but left open
+     * @return what was exported
+     * @throws IOException if writing fails
+     */
+    public static Result export(PhotoManager photoManager, Writer out) throws IOException {
+        long start = System.nanoTime();
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        Writer writer = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+        StringBuilder sb = new StringBuilder(512);
+        int users = 0;
+        long albums = 0;
+        long photos = 0;
+        long tags = 0;
+        boolean ok = false;
+        try {
+            writer.write("{\"type\":\"library\",\"format\":" + Json.quote(FORMAT) + "}\n");
+            User after = null;
+            List<User> page;
+            while (!(page = photoManager.findUsers("", after, EXPORT_PAGE)).isEmpty()) {
+                for (User user : page) {
+                    checkInterrupted();
+                    UserSnapshot snapshot = photoManager.snapshot(user);
+                    String name = user.getUsername();
+                    sb.setLength(0);
+                    sb.append("{\"type\":\"user\",\"user\":");
+                    Json.appendQuoted(sb, name);
+                    sb.append(",\"password\":");
+                    Json.appendQuoted(sb, user.getPassword());
+                    sb.append("}\n");
+                    writer.append(sb);
+                    users++;
+
+                    Map<Photo, Integer> numbers = new IdentityHashMap<>();
+                    for (AlbumSnapshot album : snapshot.albums()) {
+                        sb.setLength(0);
+                        appendHead(sb, "album", name);
+                        sb.append(",\"album\":");
+                        Json.appendQuoted(sb, album.name());
+                        if (album.album() instanceof SmartAlbum smart) {
+                            appendQuery(sb, smart.getQuery());
+                        }
+                        sb.append("}\n");
+                        writer.append(sb);
+                        albums++;
+                        if (album.album().isSmart()) continue;
+
+                        for (Photo photo : album.photos()) {
+                            sb.setLength(0);
+                            appendHead(sb, "photo", name);
+                            sb.append(",\"album\":");
+                            Json.appendQuoted(sb, album.name());
+                            Integer number = numbers.get(photo);
+                            boolean first = number == null;
+                            if (first) {
+                                number = numbers.size() + 1;
+                                numbers.put(photo, number);
+                            }
+                            sb.append(",\"photo\":").append(number).append(",\"file\":");
+                            Json.appendQuoted(sb, photo.getFilePath());
+                            sb.append(",\"taken\":\"")
+                                    .append(photo.getDateTaken().toInstant())
+                                    .append("\",\"size\":").append(photo.getFileSize())
+                                    .append(",\"caption\":");
+                            Json.appendQuoted(sb, photo.getCaption());
+                            sb.append("}\n");
+                            if (first) {
+                                photos++;
+                                List<Tag> sorted = new ArrayList<>(photo.getTags());
+                                sorted.sort(TAG_ORDER);
+                                for (Tag tag : sorted) {
+                                    appendHead(sb, "tag", name);
+                                    sb.append(",\"photo\":").append(number).append(",\"name\":");
+                                    Json.appendQuoted(sb, tag.getName());
+                                    sb.append(",\"value\":");
+                                    Json.appendQuoted(sb, tag.getValue());
+                                    sb.append("}\n");
+                                }
+                                tags += sorted.size();
+                            }
+                            writer.append(sb);
+                        }
+                    }
+                }
+                after = page.get(page.size() - 1);
+            }
+            writer.flush();
+            ok = true;
+            return new Result(users, albums, photos, tags);
+        } finally {
+            finish(start, event, "exportLibrary", "library.export", users, ok);
+        }
+    }
+
+    /**
+     * Imports users from one or more JSON-lines files and adds them to the
+     * library with a single save. Files are read one after another while
+     * their users are parsed in parallel.
+     *
+     * @param photoManager the library to add the users to
+     * @param files the files to read
+     * @param threads the number of users parsed at once
+     * @return what was imported
+     * @throws IOException if a file cannot be read or holds an invalid record;
+     *         the message names the file and line, and no user is added
+     */
+    public static Result importFiles(PhotoManager photoManager, List<Path> files, int threads) throws IOException {
+        long start = System.nanoTime();
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        ConcurrentLinkedQueue<User> imported = new ConcurrentLinkedQueue<>();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        AtomicLong albums = new AtomicLong();
+        AtomicLong photos = new AtomicLong();
+        AtomicLong tags = new AtomicLong();
+        int workers = Math.max(1, threads);
+        Semaphore inFlight = new Semaphore(workers * 2);
+        boolean ok = false;
+        try {
+            try (ExecutorService pool = Executors.newFixedThreadPool(workers)) {
+                for (Path file : files) {
+                    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                        String source = file.toString();
+                        List<String> lines = null;
+                        int firstLine = 0;
+                        int lineNo = 0;
+                        String line;
+                        while (failure.get() == null && (line = in.readLine()) != null) {
+                            lineNo++;
+                            if (line.isBlank() && lines == null) continue;
+                            if (USER_RECORD.matcher(line).find()) {
+                                if (lines != null) {
+                                    submit(pool, inFlight, new Block(source, firstLine, lines),
+                                            imported, failure, albums, photos, tags);
+                                }
+                                lines = new ArrayList<>();
+                                firstLine = lineNo;
+                            } else if (lines == null) {
+                                checkHeader(source, lineNo, line);
+                                continue;
+                            }
+                            lines.add(line);
+                        }
+                        if (lines != null && failure.get() == null) {
+                            submit(pool, inFlight, new Block(source, firstLine, lines),
+                                    imported, failure, albums, photos, tags);
+                        }
+                    }
+                }
+            }
+            if (failure.get() != null) throw failure.get();
+
+            Map<String, User> unique = new LinkedHashMap<>();
+            for (User user : imported) {
+                if (unique.putIfAbsent(user.getUsername(), user) != null) {
+                    throw new IOException("user \"" + user.getUsername() + "\" appears more than once");
+                }
+            }
+            photoManager.addUsers(unique.values());
+            ok = true;
+            return new Result(unique.size(), albums.get(), photos.get(), tags.get());
+        } finally {
+            finish(start, event, "importLibrary", "library.import", imported.size(), ok);
+        }
+    }
+
+    /**
+     * Hands one user's lines to the pool, waiting while too many are pending.
+     *
+     * @param pool the parsing pool
+     * @param inFlight permits bounding the blocks held in memory
+     * @param block the lines to parse
+     * @param imported where built users are collected
+     * @param failure holds the first error
+     * @param albums running count of albums
+     * @param photos running count of photos
+     * @param tags running count of tags
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    private static void submit(ExecutorService pool, Semaphore inFlight, Block block,
+                               ConcurrentLinkedQueue<User> imported, AtomicReference<IOException> failure,
+                               AtomicLong albums, AtomicLong photos, AtomicLong tags) throws InterruptedIOException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import cancelled");
+        }
+        pool.execute(() -> {
+            try {
+                if (failure.get() != null) return;
+                User user = parseUser(block, albums, photos, tags);
+                imported.add(user);
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Builds one user from its lines.
+     *
+     * @param block the user's lines, starting with its {@code user} record
+     * @param albums running count of albums
+     * @param photos running count of photos
+     * @param tags running count of tags
+     * @return the user
+     * @throws IOException if a record is invalid
+     */
+    private static User parseUser(Block block, AtomicLong albums, AtomicLong photos, AtomicLong tags)
+            throws IOException {
+        User user = null;
+        Map<String, Photo> byKey = new HashMap<>();
+        Map<Album, List<Photo>> members = new LinkedHashMap<>();
+        List<String> lines = block.lines();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isBlank()) continue;
+            try {
+                Map<String, String> record = Json.parseObject(line);
+                String type = required(record, "type");
+                if (user == null) {
+                    user = new User(required(record, "user"), record.get("password"));
+                    continue;
+                }
+                if (!user.getUsername().equals(required(record, "user"))) {
+                    throw new IllegalArgumentException("record belongs to user \"" + record.get("user")
+                            + "\" inside the records of \"" + user.getUsername() + "\"");
+                }
+                switch (type) {
+                    case "album" -> {
+                        Album album = "true".equals(record.get("smart"))
+                                ? new SmartAlbum(required(record, "album"), parseQuery(record))
+                                : new Album(required(record, "album"));
+                        if (!user.addAlbum(album)) {
+                            throw new IllegalArgumentException("duplicate album \"" + album.getName() + "\"");
+                        }
+                        if (!album.isSmart()) {
+                            members.put(album, new ArrayList<>());
+                        }
+                    }
+                    case "photo" -> {
+                        Album album = user.getAlbum(required(record, "album"));
+                        if (album == null) {
+                            throw new IllegalArgumentException("photo in unknown album \"" + record.get("album") + "\"");
+                        }
+                        if (album.isSmart()) {
+                            throw new IllegalArgumentException("photo in smart album \"" + album.getName() + "\"");
+                        }
+                        String file = required(record, "file");
+                        String key = photoKey(record);
+                        Photo photo = byKey.get(key);
+                        if (photo == null) {
+                            Calendar taken = Calendar.getInstance();
+                            taken.setTimeInMillis(Instant.parse(required(record, "taken")).toEpochMilli());
+                            String size = record.get("size");
+                            photo = new Photo(file, taken, size == null ? 0 : Long.parseLong(size));
+                            photo.setCaption(record.get("caption"));
+                            byKey.put(key, photo);
+                        }
+                        members.get(album).add(photo);
+                    }
+                    case "tag" -> {
+                        Photo photo = byKey.get(photoKey(record));
+                        if (photo == null) {
+                            throw new IllegalArgumentException("tag before any photo record for "
+                                    + (record.get("photo") != null ? "photo " + record.get("photo")
+                                                                   : "\"" + record.get("file") + "\""));
+                        }
+                        photo.addTag(required(record, "name"), required(record, "value"));
+                    }
+                    default -> throw new IllegalArgumentException("unknown record type \"" + type + "\"");
+                }
+            } catch (RuntimeException e) {
+                throw new IOException(block.source() + ":" + (block.firstLine() + i) + ": " + e.getMessage(), e);
+            }
+        }
+        for (Map.Entry<Album, List<Photo>> entry : members.entrySet()) {
+            entry.getKey().addPhotos(entry.getValue());
+        }
+        long tagCount = 0;
+        for (Photo photo : byKey.values()) {
+            tagCount += photo.getTags().size();
+        }
+        albums.addAndGet(user == null ? 0 : user.getAlbumCount());
+        photos.addAndGet(byKey.size());
+        tags.addAndGet(tagCount);
+        return user;
+    }
+
+    /**
+     * Checks a line before the first user record, which may only be the header.
+     *
+     * @param source the file name, for errors
+     * @param lineNo the line number, for errors
+     * @param line the line
+     * @throws IOException if the line is not a header for this format
+     */
+    private static void checkHeader(String source, int lineNo, String line) throws IOException {
+        try {
+            Map<String, String> record = Json.parseObject(line);
+            if (!"library".equals(record.get("type"))) {
+                throw new IllegalArgumentException("expected a library or user record");
+            }
+            if (!FORMAT.equals(record.get("format")) && !FORMAT_V1.equals(record.get("format"))) {
+                throw new IllegalArgumentException("unsupported format \"" + record.get("format") + "\"");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException(source + ":" + lineNo + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns what identifies a photo or tag record's photo within its user:
+     * the photo number, or in files without numbers the file path.
+     *
+     * @param record the parsed record
+     * @return the key
+     * @throws IllegalArgumentException if the record has neither
+     */
+    private static String photoKey(Map<String, String> record) {
+        String number = record.get("photo");
+        return number != null ? "#" + Long.parseLong(number) : "file:" + required(record, "file");
+    }
+
+    /**
+     * Returns a member that must be present.
+     *
+     * @param record the parsed record
+     * @param name the member name
+     * @return the value
+     * @throws IllegalArgumentException if the member is missing or null
+     */
+    private static String required(Map<String, String> record, String name) {
+        String value = record.get(name);
+        if (value == null) throw new IllegalArgumentException("missing \"" + name + "\"");
+        return value;
+    }
+
+    /**
+     * Reads a smart album's query from its album record. Tags are written as
+     * {@code type=value}.
+     *
+     * @param record the parsed album record
+     * @return the query
+     * @throws IllegalArgumentException if a tag, operator or date is malformed
+     */
+    private static PhotoSearch parseQuery(Map<String, String> record) {
+        Tag[] tags = new Tag[2];
+        for (int i = 0; i < tags.length; i++) {
+            String text = record.get("tag" + (i + 1));
+            tags[i] = PhotoSearch.parseTag(text);
+            if (text != null && tags[i] == null) {
+                throw new IllegalArgumentException("malformed tag \"" + text + "\"");
+            }
+        }
+        String operator = record.get("operator");
+        String from = record.get("from");
+        String to = record.get("to");
+        return new PhotoSearch(tags[0], tags[1],
+                operator == null ? null : PhotoSearch.Operator.valueOf(operator),
+                from == null ? null : LocalDate.parse(from),
+                to == null ? null : LocalDate.parse(to), record.get("caption"));
+    }
+
+    /**
+     * Appends the members describing a smart album's query.
+     *
+     * @param sb the builder
+     * @param query the query
+     */
+    private static void appendQuery(StringBuilder sb, PhotoSearch query) {
+        sb.append(",\"smart\":true");
+        Tag[] tags = {query.getTag1(), query.getTag2()};
+        for (int i = 0; i < tags.length; i++) {
+            sb.append(",\"tag").append(i + 1).append("\":");
+            Json.appendQuoted(sb, tags[i] == null ? null : tags[i].getName() + "=" + tags[i].getValue());
+        }
+        sb.append(",\"operator\":");
+        Json.appendQuoted(sb, query.getOperator().name());
+        sb.append(",\"from\":");
+        Json.appendQuoted(sb, query.getStartDate() == null ? null : query.getStartDate().toString());
+        sb.append(",\"to\":");
+        Json.appendQuoted(sb, query.getEndDate() == null ? null : query.getEndDate().toString());
+        sb.append(",\"caption\":");
+        Json.appendQuoted(sb, query.getCaptionText());
+    }
+
+    /**
+     * Appends the opening of a record: its type and user.
+     *
+     * @param sb the builder
+     * @param type the record type
+     * @param user the username
+     */
+    private static void appendHead(StringBuilder sb, String type, String user) {
+        sb.append("{\"type\":\"").append(type).append("\",\"user\":");
+        Json.appendQuoted(sb, user);
+    }
+
+    /**
+     * Stops an export if the thread running it was interrupted.
+     *
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Export cancelled");
+        }
+    }
+
+    /**
+     * Records the metrics and flight recorder event for an export or import.
+     *
+     * @param start when the operation started, from {@link System#nanoTime()}
+     * @param event the event, begun when the operation started
+     * @param operation the event's operation name
+     * @param latency the latency metric
+     * @param users the number of users handled
+     * @param ok whether the operation completed
+     */
+    private static void finish(long start, BulkOperationEvent event, String operation, String latency,
+                               int users, boolean ok) {
+        if (ok) {
+            Metrics.latency(latency).recordSince(start);
+        } else {
+            Metrics.latency(latency).fail();
+        }
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.operation = operation;
+        event.target = "library";
+        event.requested = users;
+        event.changed = ok ? users : 0;
+        event.commit();
+    }
+}
@@ -0,0 +1,453 @@
+package service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Schedules background media work (thumbnails, decodes, imports, exports)
+ * so that what the user is looking at always goes first.
+ * <p>
+ * Every job belongs to a {@link Priority} class. The dispatcher starts the
+ * queued job with the best effective priority, where a job's priority improves
+ * the longer it waits (aging), so maintenance work is delayed but never starved.
+ * Each class has its own concurrency limit, and one slot is always kept free for
+ * {@link Priority#VISIBLE} work. Background classes other than
+ * {@link Priority#EXPORT} also draw from a shared disk token bucket sized in
+ * bytes per second, which keeps bulk jobs from saturating the disk the
+ * visible cells read from. Jobs pass the size of the files they read, so the
+ * bucket throttles by real bytes.
+ * </p>
+ * <p>
+ * Bulk loops that process one file at a time, such as exports, run each file
+ * through {@link #call(Priority, String, long, Callable)}, which waits for the
+ * job and rethrows its failure.
+ * </p>
+ */
+public class MediaScheduler {
+
+    /**
+     * Priority classes, best first.
+     */
+    public enum Priority {
+        /** Cells currently on screen and the photo being shown. */
+        VISIBLE(Integer.MAX_VALUE, false),
+        /** Images likely to be shown next, such as the next slide. */
+        PREFETCH(2, true),
+        /** Work for photos being imported. */
+        IMPORT(2, true),
+        /**
+         * Exports the user started and is waiting for. They still yield to
+         * the classes above and never take the slot kept for visible work,
+         * but skip the disk budget so they run at the speed of the disk.
+         */
+        EXPORT(Integer.MAX_VALUE, false),
+        /**
+         * Bulk jobs nobody is waiting for, limited by the free background
+         * slots and the disk budget rather than by a count of their own.
+         */
+        MAINTENANCE(Integer.MAX_VALUE, true);
+
+        /** Default number of jobs of this class that may run at once. */
+        private final int defaultLimit;
+
+        /** Whether jobs of this class draw from the disk token bucket. */
+        private final boolean throttled;
+
+        Priority(int defaultLimit, boolean throttled) {
+            this.defaultLimit = defaultLimit;
+            this.throttled = throttled;
+        }
+    }
+
+    /** How long a job must wait to move up by one priority class. */
+    private static final long AGING_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /** The service whose timing listeners are told about finished jobs. */
+    private final TaskService taskService;
+
+    /** Maximum number of jobs running at once across all classes. */
+    private final int maxRunning;
+
+    /** Guards the queues and counters below. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled when a job is queued or finishes. */
+    private final Condition changed = lock.newCondition();
+
+    /** Queued jobs per class, oldest first. */
+    private final Map<Priority, ArrayDeque<Job<?>>> queues = new EnumMap<>(Priority.class);
+
+    /** Running job count per class. */
+    private final Map<Priority, Integer> running = new EnumMap<>(Priority.class);
+
+    /** Concurrency limit per class. */
+    private final Map<Priority, Integer> limits = new EnumMap<>(Priority.class);
+
+    /** Shared disk budget for throttled classes. */
+    private final TokenBucket diskBucket;
+
+    /** Total number of running jobs. */
+    private int runningTotal;
+
+    /** Set once {@link #shutdown()} is called. */
+    private volatile boolean stopped;
+
+    /**
+     * A queued unit of work.
+     *
+     * @param <T> the result type
+     */
+    private static final class Job<T> {
+        final Priority priority;
+        final String name;
+        final Callable<T> work;
+        final long ioBytes;
+        final long queuedAt = System.nanoTime();
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Job(Priority priority, String name, Callable<T> work, long ioBytes) {
+            this.priority = priority;
+            this.name = name;
+            this.work = work;
+            this.ioBytes = ioBytes;
+        }
+
+        /** Lower is better: the class rank, improved by one step per aging interval waited. */
+        long score(long now) {
+            return priority.ordinal() * AGING_STEP_NANOS - (now - queuedAt);
+        }
+    }
+
+    /**
+     * Creates a scheduler with one running slot per core and a disk budget
+     * of 64 MB/s for background classes.
+     *
+     * @param taskService the service whose timing listeners receive job durations
+     */
+    public MediaScheduler(TaskService taskService) {
+        this(taskService, Runtime.getRuntime().availableProcessors(), 64L << 20);
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param taskService the service whose timing listeners receive job durations
+     * @param maxRunning the maximum number of jobs running at once
+     * @param diskBytesPerSecond the disk budget shared by background classes
+     */
+    public MediaScheduler(TaskService taskService, int maxRunning, long diskBytesPerSecond) {
+        this.taskService = taskService;
+        this.maxRunning = Math.max(2, maxRunning);
+        this.diskBucket = new TokenBucket(diskBytesPerSecond, diskBytesPerSecond);
+        for (Priority p : Priority.values()) {
+            queues.put(p, new ArrayDeque<>());
+            running.put(p, 0);
+            limits.put(p, Math.min(p.defaultLimit, this.maxRunning));
+        }
+
+        Thread dispatcher = new Thread(this::dispatchLoop, "photos-media-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Changes how many jobs of a class may run at once.
+     *
+     * @param priority the class
+     * @param limit the new limit, at least one
+     */
+    public void setLimit(Priority priority, int limit) {
+        lock.lock();
+        try {
+            limits.put(priority, Math.max(1, limit));
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a job.
+     *
+     * @param priority the job's class
+     * @param name a short name used for timing
+     * @param ioBytes roughly how many bytes the job reads from disk, or 0 if unknown
+     * @param work the work to run
+     * @param <T> the result type
+     * @return a future for the result; cancelling it removes a queued job or
+     *         interrupts a running one
+     */
+    public <T> CompletableFuture<T> submit(Priority priority, String name, long ioBytes, Callable<T> work) {
+        Job<T> job = new Job<>(priority, name, work, Math.max(0, ioBytes));
+        if (stopped) {
+            job.result.cancel(false);
+            return job.result;
+        }
+        lock.lock();
+        try {
+            queues.get(priority).addLast(job);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return job.result;
+    }
+
+    /**
+     * Runs a job through the scheduler and waits for it. Interrupting the
+     * waiting thread cancels the job.
+     *
+     * @param priority the job's class
+     * @param name a short name used for timing
+     * @param ioBytes roughly how many bytes the job reads from disk, or 0 if unknown
+     * @param work the work to run
+     * @param <T> the result type
+     * @return the job's result
+     * @throws InterruptedIOException if the waiting thread was interrupted or the job was cancelled
+     * @throws IOException if the job threw one; other checked exceptions are wrapped in one
+     */
+    public <T> T call(Priority priority, String name, long ioBytes, Callable<T> work) throws IOException {
+        CompletableFuture<T> future = submit(priority, name, ioBytes, work);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(name + " cancelled");
+        } catch (CancellationException e) {
+            throw new InterruptedIOException(name + " cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error error) throw error;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Draws bytes from the disk budget on behalf of a running job, waiting
+     * until they are available. For jobs whose size is only known once they
+     * run, such as a file just picked by the user, which is submitted with 0
+     * bytes so the size is not read on the thread submitting it. Does nothing
+     * for classes that are not throttled.
+     *
+     * @param priority the job's class
+     * @param ioBytes the bytes the job reads from disk
+     * @throws InterruptedException if interrupted while waiting, such as when the job is cancelled
+     */
+    public void charge(Priority priority, long ioBytes) throws InterruptedException {
+        if (!priority.throttled || ioBytes <= 0) return;
+        lock.lock();
+        try {
+            long wait;
+            while ((wait = diskBucket.nanosUntilAvailable(ioBytes)) > 0) {
+                changed.awaitNanos(wait);
+            }
+            diskBucket.take(ioBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of jobs waiting in a class.
+     *
+     * @param priority the class
+     * @return the queued job count
+     */
+    public int queued(Priority priority) {
+        lock.lock();
+        try {
+            return queues.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops dispatching. Queued jobs are cancelled; running jobs finish.
+     */
+    public void shutdown() {
+        stopped = true;
+        lock.lock();
+        try {
+            for (ArrayDeque<Job<?>> q : queues.values()) {
+                for (Job<?> job : q) {
+                    job.result.cancel(false);
+                }
+                q.clear();
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Picks and starts jobs until stopped.
+     */
+    private void dispatchLoop() {
+        lock.lock();
+        try {
+            while (!stopped) {
+                long waitNanos = startEligibleJobs();
+                if (waitNanos > 0) {
+                    changed.awaitNanos(waitNanos);
+                } else {
+                    changed.await();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts as many queued jobs as limits allow. Called with the lock held.
+     *
+     * @return how long to wait for disk tokens before retrying, or 0 to wait for a signal
+     */
+    private long startEligibleJobs() {
+        while (true) {
+            long now = System.nanoTime();
+            Job<?> best = null;
+            long tokenWait = 0;
+
+            for (Priority p : Priority.values()) {
+                ArrayDeque<Job<?>> q = queues.get(p);
+                while (!q.isEmpty() && q.peekFirst().result.isDone()) {
+                    q.pollFirst(); // cancelled while queued
+                }
+                Job<?> head = q.peekFirst();
+                if (head == null || !hasSlot(p)) continue;
+
+                if (p.throttled) {
+                    long wait = diskBucket.nanosUntilAvailable(head.ioBytes);
+                    if (wait > 0) {
+                        tokenWait = tokenWait == 0 ? wait : Math.min(tokenWait, wait);
+                        continue;
+                    }
+                }
+                if (best == null || head.score(now) < best.score(now)) {
+                    best = head;
+                }
+            }
+
+            if (best == null) return tokenWait;
+
+            queues.get(best.priority).pollFirst();
+            if (best.priority.throttled) {
+                diskBucket.take(best.ioBytes);
+            }
+            running.merge(best.priority, 1, Integer::sum);
+            runningTotal++;
+            start(best);
+        }
+    }
+
+    /**
+     * Checks if a class may start another job. Called with the lock held.
+     * Background classes may not take the last free slot.
+     *
+     * @param p the class
+     * @return true if a job of that class may start
+     */
+    private boolean hasSlot(Priority p) {
+        if (running.get(p) >= limits.get(p)) return false;
+        int cap = p == Priority.VISIBLE ? maxRunning : maxRunning - 1;
+        return runningTotal < cap;
+    }
+
+    /**
+     * Runs a job on its own virtual thread.
+     *
+     * @param job the job to run
+     * @param <T> the result type
+     */
+    private <T> void start(Job<T> job) {
+        Thread worker = Thread.ofVirtual().name("photos-media-" + job.priority.name().toLowerCase()).unstarted(() -> {
+            long begin = System.nanoTime();
+            boolean failed = false;
+            try {
+                if (!job.result.isDone()) {
+                    job.result.complete(job.work.call());
+                }
+            } catch (Throwable t) {
+                failed = true;
+                job.result.completeExceptionally(t);
+            } finally {
+                taskService.reportTiming(job.priority.name().toLowerCase() + ": " + job.name,
+                        System.nanoTime() - begin, failed || job.result.isCancelled());
+                finished(job.priority);
+            }
+        });
+        job.result.whenComplete((r, e) -> {
+            if (job.result.isCancelled()) worker.interrupt();
+        });
+        worker.start();
+    }
+
+    /**
+     * Releases a running slot and wakes the dispatcher.
+     *
+     * @param p the class of the finished job
+     */
+    private void finished(Priority p) {
+        lock.lock();
+        try {
+            running.merge(p, -1, Integer::sum);
+            runningTotal--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A token bucket measured in bytes, refilled continuously.
+     * Not thread-safe; used under the scheduler lock.
+     */
+    private static final class TokenBucket {
+        private final double bytesPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(long bytesPerSecond, long capacity) {
+            this.bytesPerNano = bytesPerSecond / 1e9;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerNano);
+            lastRefill = now;
+        }
+
+        /** Returns 0 if the bytes can be taken now, otherwise the nanoseconds until they can. */
+        long nanosUntilAvailable(long bytes) {
+            refill();
+            double need = Math.min(bytes, capacity); // a job larger than the bucket waits for a full bucket
+            if (tokens >= need) return 0;
+            return Math.max(1, (long) ((need - tokens) / bytesPerNano));
+        }
+
+        void take(long bytes) {
+            tokens -= Math.min(bytes, capacity);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package service;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import metrics.BulkOperationEvent;
+import metrics.Metrics;
+import model.Photo;
+
+/**
+ * Exports downscaled JPEG copies of photos for sharing, using every core.
+ * <p>
+ * Each photo is decoded with {@link ImageResizer} (subsampled while reading
+ * when the target is much smaller), scaled to a long edge and re-encoded at
+ * the given quality. Photos are handed out through a bounded window: the
+ * calling thread blocks once twice as many photos as there are workers are
+ * pending, so memory use does not depend on how many photos are exported.
+ * Photos that cannot be read, or whose job the scheduler cancels before it
+ * starts, are skipped and counted.
+ * </p>
+ * <p>
+ * Given a {@link MediaScheduler}, each photo runs as a
+ * {@link MediaScheduler.Priority#EXPORT} job, so exports yield to visible
+ * work without being held to the disk budget; without one, a fixed pool of
+ * workers is created for the export.
+ * </p>
+ * <p>
+ * Like {@link AlbumExporter}, an export never replaces a file already in the
+ * target directory, which may be an original being read by another worker:
+ * names are picked up front to avoid existing files, and each JPEG is written
+ * under a temporary name and renamed into place.
+ * </p>
+ * <p>
+ * Progress is reported after every photo from the worker that finished it.
+ * Interrupting the calling thread stops the export. Each photo is timed as
+ * the {@code export.resized} latency metric, the output size is counted in
+ * {@code export.bytes}, and the run is recorded as a {@link BulkOperationEvent}.
+ * </p>
+ */
+public final class ResizedExporter {
+
+    /**
+     * How far an export has got.
+     *
+     * @param done the number of photos finished, including failures
+     * @param failed the number of photos that could not be exported
+     * @param total the number of photos being exported
+     * @param imagesPerSecond the photos finished per second so far
+     */
+    public record Progress(int done, int failed, int total, double imagesPerSecond) {
+    }
+
+    /**
+     * The outcome of an export.
+     *
+     * @param files the number of JPEG files written
+     * @param failed the number of photos that could not be read or written, or were never run
+     * @param bytes the number of bytes written
+     * @param imagesPerSecond the overall throughput
+     */
+    public record Result(int files, int failed, long bytes, double imagesPerSecond) {
+    }
+
+    private ResizedExporter() {
+    }
+
+    /**
+     * Writes a downscaled JPEG of every photo into a directory, using a pool
+     * of its own.
+     *
+     * @param photos the photos to export
+     * @param dir the target directory
+     * @param longEdge the maximum length of each image's longer edge, in pixels
+     * @param quality JPEG quality between 0 and 1
+     * @param threads the number of photos processed at once
+     * @param progress told after every photo, on a worker thread; may be null
+     * @return what was written
+     * @throws IOException if the directory cannot be created
+     * @throws InterruptedIOException if the calling thread was interrupted
+     * @see #export(List, Path, int, float, int, MediaScheduler, Consumer)
+     */
+    public static Result export(List<Photo> photos, Path dir, int longEdge, float quality, int threads,
+                                Consumer<Progress> progress) throws IOException {
+        return export(photos, dir, longEdge, quality, threads, null, progress);
+    }
+
+    /**
+     * Writes a downscaled JPEG of every photo into a directory, creating it if
+     * needed. Files are named after the photos' files with a {@code .jpg}
+     * extension, with a number added when the name is taken; existing files
+     * are kept.
+     *
+     * @param photos the photos to export
+     * @param dir the target directory
+     * @param longEdge the maximum length of each image's longer edge, in pixels
+     * @param quality JPEG quality between 0 and 1
+     * @param threads the number of photos processed at once
+     * @param scheduler runs each photo as an export job; null to use a pool of the export's own
+     * @param progress told after every photo, on a worker thread; may be null
+     * @return what was written
+     * @throws IOException if the directory cannot be created
+     * @throws InterruptedIOException if the calling thread was interrupted
+     */
+    public static Result export(List<Photo> photos, Path dir, int longEdge, float quality, int threads,
+                                MediaScheduler scheduler, Consumer<Progress> progress) throws IOException {
+        long start = System.nanoTime();
+        BulkOperationEvent event = new BulkOperationEvent();
+        event.begin();
+        Files.createDirectories(dir);
+        String[] names = AlbumExporter.entryNames(photos, "jpg", dir);
+        int workers = Math.max(1, threads);
+        Semaphore window = new Semaphore(workers * 2);
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        int total = photos.size();
+        boolean ok = false;
+        ExecutorService pool = scheduler == null ? Executors.newFixedThreadPool(workers) : null;
+        Set<CompletableFuture<?>> running = ConcurrentHashMap.newKeySet();
+        try {
+            for (int i = 0; i < total; i++) {
+                Photo photo = photos.get(i);
+                Path target = dir.resolve(names[i]);
+                try {
+                    window.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Export cancelled");
+                }
+                Runnable finish = () -> {
+                    int finished = done.incrementAndGet();
+                    if (progress != null) {
+                        progress.accept(new Progress(finished, failed.get(), total, rate(finished, start)));
+                    }
+                    window.release();
+                };
+                Runnable job = () -> {
+                    try {
+                        bytes.addAndGet(resize(photo, target, longEdge, quality));
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        Metrics.latency("export.resized").fail();
+                    } finally {
+                        finish.run();
+                    }
+                };
+                if (pool != null) {
+                    pool.execute(job);
+                } else {
+                    // A job the scheduler cancels before it starts never runs, so whichever of
+                    // the job and the cancellation claims the photo first counts it and frees its slot.
+                    AtomicBoolean claimed = new AtomicBoolean();
+                    CompletableFuture<Void> future = scheduler.submit(MediaScheduler.Priority.EXPORT,
+                            "export resized", photo.getFileSize(), () -> {
+                                if (claimed.compareAndSet(false, true)) {
+                                    job.run();
+                                }
+                                return null;
+                            });
+                    running.add(future);
+                    future.whenComplete((v, e) -> {
+                        running.remove(future);
+                        if (future.isCancelled() && claimed.compareAndSet(false, true)) {
+                            failed.incrementAndGet();
+                            finish.run();
+                        }
+                    });
+                }
+            }
+            if (pool != null) {
+                pool.shutdown();
+            }
+            try {
+                window.acquire(workers * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Export cancelled");
+            }
+            ok = true;
+            Metrics.count("export.bytes", bytes.get());
+            return new Result(total - failed.get(), failed.get(), bytes.get(), rate(total, start));
+        } finally {
+            if (!ok) {
+                if (pool != null) {
+                    pool.shutdownNow();
+                }
+                running.forEach(future -> future.cancel(true));
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = "exportResized";
+                event.target = dir.toString();
+                event.requested = total;
+                event.changed = done.get() - failed.get();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Decodes, scales and writes one photo.
+     *
+     * @param photo the photo
+     * @param target the JPEG file to create; must not exist
+     * @param longEdge the maximum length of the longer edge
+     * @param quality JPEG quality between 0 and 1
+     * @return the size of the written file
+     * @throws IOException if the photo cannot be read or the file written
+     */
+    private static long resize(Photo photo, Path target, int longEdge, float quality) throws IOException {
+        long start = System.nanoTime();
+        Path source = Path.of(photo.getFilePath());
+        BufferedImage image = ImageResizer.read(source.toFile(), longEdge);
+        long size = AlbumExporter.createNew(target, source, part -> {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(part), 64 * 1024)) {
+                ImageResizer.writeJpeg(image, quality, out);
+            }
+            return Files.size(part);
+        });
+        Metrics.latency("export.resized").recordSince(start);
+        return size;
+    }
+
+    /**
+     * Returns a throughput in photos per second.
+     *
+     * @param count the number of photos finished
+     * @param start when the export started, from {@link System#nanoTime()}
+     * @return the photos per second
+     */
+    private static double rate(int count, long start) {
+        long elapsed = System.nanoTime() - start;
+        return elapsed <= 0 ? 0 : count * 1e9 / elapsed;
+    }
+}
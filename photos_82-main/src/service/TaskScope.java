@@ -0,0 +1,93 @@
+package service;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A group of background tasks started by one screen.
+ * <p>
+ * Each controller owns a scope and cancels it when the user navigates away,
+ * so work for a screen that is no longer shown stops instead of finishing
+ * and touching stale UI.
+ * </p>
+ */
+public class TaskScope {
+
+    /** The service that runs the tasks. */
+    private final TaskService service;
+
+    /** The owner's name, prefixed to task names. */
+    private final String owner;
+
+    /** Tasks started through this scope that have not finished yet. */
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a scope for the given owner.
+     *
+     * @param service the service that runs the tasks
+     * @param owner the owner's name
+     */
+    TaskScope(TaskService service, String owner) {
+        this.service = service;
+        this.owner = owner;
+    }
+
+    /**
+     * Runs I/O-bound work on a virtual thread and tracks it in this scope.
+     *
+     * @param name a short task name
+     * @param work the work to run
+     * @param <T> the result type
+     * @return the task's future
+     */
+    public <T> CompletableFuture<T> io(String name, Callable<T> work) {
+        return track(service.io(owner + ": " + name, work));
+    }
+
+    /**
+     * Runs CPU-bound work on the bounded pool and tracks it in this scope.
+     *
+     * @param name a short task name
+     * @param work the work to run
+     * @param <T> the result type
+     * @return the task's future
+     */
+    public <T> CompletableFuture<T> cpu(String name, Callable<T> work) {
+        return track(service.cpu(owner + ": " + name, work));
+    }
+
+    /**
+     * Starts tracking a future so {@link #cancelAll()} can cancel it.
+     *
+     * @param future the future to track
+     * @param <T> the result type
+     * @return the same future
+     */
+    public <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        pending.add(future);
+        future.whenComplete((r, e) -> pending.remove(future));
+        return future;
+    }
+
+    /**
+     * Returns the service behind this scope.
+     *
+     * @return the task service
+     */
+    public TaskService service() {
+        return service;
+    }
+
+    /**
+     * Cancels every task of this scope that has not finished.
+     */
+    public void cancelAll() {
+        for (CompletableFuture<?> f : pending) {
+            f.cancel(true);
+        }
+        pending.clear();
+    }
+}
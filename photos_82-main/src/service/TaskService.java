@@ -0,0 +1,266 @@
+package service;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+import metrics.Metrics;
+
+/**
+ * Central place for running blocking work off the JavaFX Application Thread.
+ * <p>
+ * I/O-bound work (file access, persistence) runs on virtual threads, one per
+ * task. CPU-bound work (image decoding, hashing) runs on a bounded pool of
+ * platform threads sized to the number of cores, so a burst of decodes cannot
+ * oversubscribe the machine. Every task is timed and reported to the
+ * registered {@link TimingListener}s and to the {@code task.<name>} latency metric.
+ * </p>
+ * <p>
+ * Controllers should not use the service directly but ask for a
+ * {@link TaskScope} tied to their screen, and cancel it when the user leaves.
+ * Results are handed back to the UI with {@link #onFx(CompletableFuture, Consumer, Consumer)}.
+ * </p>
+ */
+public class TaskService {
+
+    /**
+     * Receives the duration of every finished task.
+     */
+    @FunctionalInterface
+    public interface TimingListener {
+
+        /**
+         * Called when a task finishes, on the thread that ran it.
+         *
+         * @param name the task name
+         * @param nanos how long the task ran, in nanoseconds
+         * @param failed true if the task threw or was cancelled
+         */
+        void taskFinished(String name, long nanos, boolean failed);
+    }
+
+    /** Logger for tasks that run longer than {@link #SLOW_TASK_NANOS}. */
+    private static final System.Logger LOG = System.getLogger("photos");
+
+    /** Tasks slower than this are logged as warnings and counted as {@code task.slow}. */
+    private static final long SLOW_TASK_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    /** Executor for I/O-bound work; one virtual thread per task. */
+    private final ExecutorService ioExecutor;
+
+    /** Bounded executor for CPU-bound work. */
+    private final ThreadPoolExecutor cpuExecutor;
+
+    /** Listeners told about every finished task. */
+    private final List<TimingListener> timingListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a task service with a CPU pool sized to the available processors.
+     */
+    public TaskService() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a task service with the given number of CPU worker threads.
+     *
+     * @param cpuThreads the number of platform threads for CPU-bound work
+     */
+    public TaskService(int cpuThreads) {
+        this.ioExecutor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("photos-io-", 0).factory());
+
+        AtomicInteger count = new AtomicInteger();
+        this.cpuExecutor = new ThreadPoolExecutor(cpuThreads, cpuThreads,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "photos-cpu-" + count.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.cpuExecutor.allowCoreThreadTimeOut(true);
+
+        timingListeners.add((name, nanos, failed) -> {
+            if (nanos > SLOW_TASK_NANOS) {
+                LOG.log(System.Logger.Level.WARNING, "Slow task ''{0}'': {1} ms{2}",
+                        name, TimeUnit.NANOSECONDS.toMillis(nanos), failed ? " (failed)" : "");
+                Metrics.count("task.slow");
+            }
+        });
+        timingListeners.add((name, nanos, failed) -> {
+            if (failed) {
+                Metrics.latency("task." + name).fail();
+            } else {
+                Metrics.latency("task." + name).record(nanos);
+            }
+        });
+    }
+
+    /**
+     * Returns the executor used for I/O-bound work.
+     * Work submitted here directly is not timed or tracked by any scope.
+     *
+     * @return the I/O executor
+     */
+    public Executor ioExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * Returns the executor used for CPU-bound work.
+     * Work submitted here directly is not timed or tracked by any scope.
+     *
+     * @return the CPU executor
+     */
+    public Executor cpuExecutor() {
+        return cpuExecutor;
+    }
+
+    /**
+     * Runs I/O-bound work on a virtual thread.
+     *
+     * @param name a short name used for timing
+     * @param work the work to run
+     * @param <T> the result type
+     * @return a future completed with the result; cancelling it interrupts the work
+     */
+    public <T> CompletableFuture<T> io(String name, Callable<T> work) {
+        return submit(ioExecutor, name, work);
+    }
+
+    /**
+     * Runs CPU-bound work on the bounded platform pool.
+     *
+     * @param name a short name used for timing
+     * @param work the work to run
+     * @param <T> the result type
+     * @return a future completed with the result; cancelling it interrupts the work
+     */
+    public <T> CompletableFuture<T> cpu(String name, Callable<T> work) {
+        return submit(cpuExecutor, name, work);
+    }
+
+    /**
+     * Creates a scope whose tasks can be cancelled together, typically
+     * when the screen that started them is closed.
+     *
+     * @param owner a name for the owner, used in task names
+     * @return a new task scope
+     */
+    public TaskScope scope(String owner) {
+        return new TaskScope(this, owner);
+    }
+
+    /**
+     * Registers a listener that is told the duration of every task.
+     *
+     * @param listener the listener to add
+     */
+    public void addTimingListener(TimingListener listener) {
+        timingListeners.add(listener);
+    }
+
+    /**
+     * Tells the timing listeners that a task finished.
+     *
+     * @param name the task name
+     * @param nanos how long the task ran
+     * @param failed true if the task threw or was cancelled
+     */
+    void reportTiming(String name, long nanos, boolean failed) {
+        for (TimingListener l : timingListeners) {
+            l.taskFinished(name, nanos, failed);
+        }
+    }
+
+    /**
+     * Delivers the outcome of a task on the JavaFX Application Thread.
+     * Nothing is delivered if the task was cancelled.
+     *
+     * @param future the task's future
+     * @param onSuccess called with the result on success
+     * @param onError called with the failure cause on failure; may be null
+     * @param <T> the result type
+     */
+    public static <T> void onFx(CompletableFuture<T> future, Consumer<? super T> onSuccess,
+                                Consumer<Throwable> onError) {
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) return;
+            Platform.runLater(() -> {
+                if (error == null) {
+                    onSuccess.accept(result);
+                } else if (onError != null) {
+                    onError.accept(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                } else {
+                    Metrics.error("task", error);
+                }
+            });
+        });
+    }
+
+    /**
+     * Runs an action on the JavaFX Application Thread: immediately if called
+     * on it, otherwise later. Used to apply model events raised by background
+     * tasks to the UI.
+     *
+     * @param action the action
+     */
+    public static void onFx(Runnable action) {
+        if (Platform.isFxApplicationThread()) {
+            action.run();
+        } else {
+            Platform.runLater(action);
+        }
+    }
+
+    /**
+     * Stops accepting work and interrupts running tasks.
+     */
+    public void shutdown() {
+        ioExecutor.shutdownNow();
+        cpuExecutor.shutdownNow();
+    }
+
+    /**
+     * Submits timed work to an executor, linking cancellation of the returned
+     * future to interruption of the running task.
+     *
+     * @param executor the executor to run on
+     * @param name the task name
+     * @param work the work to run
+     * @param <T> the result type
+     * @return the task's future
+     */
+    private <T> CompletableFuture<T> submit(ExecutorService executor, String name, Callable<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> running;
+        try {
+            running = executor.submit(() -> {
+                if (result.isDone()) return;
+                long start = System.nanoTime();
+                boolean failed = false;
+                try {
+                    result.complete(work.call());
+                } catch (Throwable t) {
+                    failed = true;
+                    result.completeExceptionally(t);
+                } finally {
+                    reportTiming(name, System.nanoTime() - start, failed || result.isCancelled());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                running.cancel(true);
+            }
+        });
+        return result;
+    }
+}
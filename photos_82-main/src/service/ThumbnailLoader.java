@@ -0,0 +1,261 @@
+package service;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import metrics.ImageDecodeEvent;
+import metrics.Metrics;
+import model.Photo;
+import service.MediaScheduler.Priority;
+
+/**
+ * Decodes and caches photo thumbnails for the photo grid.
+ * <p>
+ * Thumbnails are decoded at their display size through the
+ * {@link MediaScheduler}, so a screen full of cells does not decode
+ * full-resolution images. Recently used thumbnails are kept in a bounded LRU
+ * cache shared by every screen. Requests for the same photo share one decode;
+ * each caller gets its own future, and the shared decode is cancelled only
+ * when the last caller waiting for it cancels. Decoding runs synchronously on
+ * the scheduler's thread, so the scheduler's priorities and limits govern it
+ * and cancelling a queued load stops its decode. Prefetches are limited in
+ * number, and the oldest is cancelled when the limit is reached, so fast
+ * scrolling does not leave a backlog.
+ * </p>
+ * <p>
+ * All methods must be called on the JavaFX Application Thread.
+ * </p>
+ */
+public class ThumbnailLoader {
+
+    /** Thumbnails kept in memory. */
+    private static final int CACHE_ENTRIES = 1500;
+
+    /** The scheduler decodes run on. */
+    private final MediaScheduler scheduler;
+
+    /** Longest edge of a thumbnail, in pixels. */
+    private final double size;
+
+    /** Decoded thumbnails by file path, least recently used first. */
+    private final Map<String, Image> cache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > CACHE_ENTRIES;
+        }
+    };
+
+    /** Decodes that have not finished, by file path. */
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    /** Paths of pending prefetches, oldest first. */
+    private final ArrayDeque<String> prefetches = new ArrayDeque<>();
+
+    /**
+     * A decode in progress, the class it was queued in and the number of
+     * callers of {@link #load(Photo)} still waiting for it.
+     */
+    private static final class Pending {
+
+        /** The image file. */
+        private final String path;
+
+        /** The shared decode. */
+        private final CompletableFuture<Image> future;
+
+        /** The scheduling class. */
+        private final Priority priority;
+
+        /** Callers whose own futures are not cancelled yet. */
+        private int waiters;
+
+        /**
+         * Records a queued decode.
+         *
+         * @param path the image file
+         * @param future the shared decode
+         * @param priority the scheduling class
+         */
+        Pending(String path, CompletableFuture<Image> future, Priority priority) {
+            this.path = path;
+            this.future = future;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Creates a loader.
+     *
+     * @param scheduler the scheduler decodes run on
+     * @param size the longest edge of a thumbnail, in pixels
+     */
+    public ThumbnailLoader(MediaScheduler scheduler, double size) {
+        this.scheduler = scheduler;
+        this.size = size;
+    }
+
+    /**
+     * Returns the longest edge of the thumbnails, in pixels.
+     *
+     * @return the thumbnail size
+     */
+    public double getSize() {
+        return size;
+    }
+
+    /**
+     * Returns a thumbnail if it is already decoded.
+     *
+     * @param photo the photo
+     * @return the thumbnail, or null if it is not cached
+     */
+    public Image cached(Photo photo) {
+        return cache.get(photo.getFilePath());
+    }
+
+    /**
+     * Requests a thumbnail for a cell on screen. A pending prefetch for the
+     * same photo is promoted to the visible class.
+     *
+     * @param photo the photo
+     * @return a future of this caller's own, completed with the thumbnail, or
+     *         with null if the file is missing; cancel it when the cell no
+     *         longer shows the photo
+     */
+    public CompletableFuture<Image> load(Photo photo) {
+        String path = photo.getFilePath();
+        Image image = cache.get(path);
+        if (image != null) return CompletableFuture.completedFuture(image);
+
+        Pending p = live(path);
+        if (p == null || p.priority != Priority.VISIBLE) {
+            if (p != null) {
+                p.future.cancel(true);
+                prefetches.remove(path);
+            }
+            p = submit(path, photo.getFileSize(), Priority.VISIBLE);
+        }
+        Pending shared = p;
+        shared.waiters++;
+        CompletableFuture<Image> mine = shared.future.thenApply(thumbnail -> thumbnail);
+        mine.whenComplete((thumbnail, error) -> {
+            if (mine.isCancelled()) release(shared);
+        });
+        return mine;
+    }
+
+    /**
+     * Records that a caller stopped waiting for a decode, and cancels the
+     * decode if nobody else is waiting. Runs on the thread that cancelled the
+     * caller's future, which is the JavaFX Application Thread.
+     *
+     * @param p the pending decode
+     */
+    private void release(Pending p) {
+        if (--p.waiters > 0 || p.future.isDone()) return;
+        if (pending.get(p.path) == p) {
+            pending.remove(p.path);
+        }
+        p.future.cancel(true);
+    }
+
+    /**
+     * Decodes a thumbnail in the background so it is cached before it scrolls
+     * into view. Does nothing if it is cached or already pending.
+     *
+     * @param photo the photo
+     * @param limit the number of prefetches allowed at once; the oldest is
+     *              cancelled to make room
+     */
+    public void prefetch(Photo photo, int limit) {
+        String path = photo.getFilePath();
+        if (cache.containsKey(path) || live(path) != null) return;
+
+        while (prefetches.size() >= Math.max(1, limit)) {
+            Pending oldest = pending.get(prefetches.pollFirst());
+            if (oldest != null) oldest.future.cancel(true);
+        }
+        prefetches.addLast(path);
+        submit(path, photo.getFileSize(), Priority.PREFETCH);
+    }
+
+    /**
+     * Cancels every pending decode.
+     */
+    public void cancelAll() {
+        for (Iterator<Pending> it = pending.values().iterator(); it.hasNext(); ) {
+            Pending p = it.next();
+            it.remove();
+            p.future.cancel(true);
+        }
+        prefetches.clear();
+    }
+
+    /**
+     * Returns the pending decode for a path, ignoring one that was cancelled
+     * but has not been cleaned up yet.
+     *
+     * @param path the image file
+     * @return the pending decode, or null
+     */
+    private Pending live(String path) {
+        Pending p = pending.get(path);
+        return p == null || p.future.isDone() ? null : p;
+    }
+
+    /**
+     * Queues a decode and records it as pending until it finishes.
+     *
+     * @param path the image file
+     * @param bytes the size of the file, charged to the disk budget
+     * @param priority the scheduling class
+     * @return the pending decode
+     */
+    private Pending submit(String path, long bytes, Priority priority) {
+        CompletableFuture<Image> future = scheduler.submit(priority, "thumbnail", bytes, () -> decode(path));
+        Pending entry = new Pending(path, future, priority);
+        pending.put(path, entry);
+        future.whenComplete((image, error) -> Platform.runLater(() -> {
+            if (pending.get(path) == entry) {
+                pending.remove(path);
+                prefetches.remove(path);
+            }
+            if (image != null) {
+                cache.put(path, image);
+            }
+        }));
+        return entry;
+    }
+
+    /**
+     * Decodes one thumbnail at display size. Runs on a scheduler thread and
+     * decodes there, not on JavaFX's background loader.
+     *
+     * @param path the image file
+     * @return the thumbnail, or null if the file does not exist
+     * @throws Exception if the image cannot be decoded
+     */
+    private Image decode(String path) throws Exception {
+        File file = new File(path);
+        if (!file.exists()) return null;
+
+        long start = System.nanoTime();
+        ImageDecodeEvent event = new ImageDecodeEvent();
+        event.begin();
+        Image image = new Image(file.toURI().toString(), size, size, true, true, false);
+        event.finish("thumbnail", path, (int) image.getWidth(), (int) image.getHeight(), image.isError());
+        if (image.isError()) {
+            Metrics.latency("image.thumbnail").fail();
+            throw image.getException();
+        }
+        Metrics.latency("image.thumbnail").recordSince(start);
+        return image;
+    }
+}
@@ -0,0 +1,19 @@
+#!/bin/sh
+# Compiles the model sources and the tests, then runs every *Test class.
+#
+#   ./run.sh                     # all tests
+#   ./run.sh IndexedStoreTest    # one class (simple name)
+#
+# The tests are plain programs with a main method; each prints ok or FAIL per
+# test and exits with status 1 if any failed.
+set -e
+cd "$(dirname "$0")"
+OUT=target/classes
+rm -rf target && mkdir -p "$OUT"
+javac -d "$OUT" $(find ../src/model ../src/metrics -name '*.java') $(find src -name '*.java')
+status=0
+for class in $(cd src && find . -name "${1:-*Test}.java" | sed 's|^\./||; s|\.java$||; s|/|.|g'); do
+    echo "== $class"
+    java -cp "$OUT" "$class" || status=1
+done
+exit $status
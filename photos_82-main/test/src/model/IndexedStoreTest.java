@@ -0,0 +1,466 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Tests for {@link IndexedStore}: round trips, incremental saves, recovery
+ * from a torn tail and compaction.
+ * <p>
+ * Each test opens a store in a fresh temporary directory, saves a small
+ * library through a {@link PhotoManager} used only for its locks, and
+ * reopens the store to check what was kept. Libraries are compared through
+ * {@link #describe(Map)}, which lists every field the store keeps and which
+ * albums share a photo object.
+ * </p>
+ */
+public final class IndexedStoreTest {
+
+    /** Manager whose per-user locks guard the users being saved; its own data file is never written. */
+    private final PhotoManager locks;
+
+    /** The directory each test works in. */
+    private final Path dir;
+
+    /**
+     * Creates a test working in a temporary directory.
+     *
+     * @param dir the directory
+     */
+    private IndexedStoreTest(Path dir) {
+        this.dir = dir;
+        this.locks = new PhotoManager(dir.resolve("locks.dat").toString(), false);
+    }
+
+    /**
+     * Runs every test and exits with status 1 if any fails.
+     *
+     * @param args ignored
+     * @throws IOException if a temporary directory cannot be created
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, Test> tests = new TreeMap<>();
+        tests.put("roundTrip", IndexedStoreTest::roundTrip);
+        tests.put("samePathStaysTwoPhotos", IndexedStoreTest::samePathStaysTwoPhotos);
+        tests.put("unchangedRecordsAreNotRewritten", IndexedStoreTest::unchangedRecordsAreNotRewritten);
+        tests.put("tornTailIsDropped", IndexedStoreTest::tornTailIsDropped);
+        tests.put("damagedRecordIsDropped", IndexedStoreTest::damagedRecordIsDropped);
+        tests.put("compactionKeepsLiveRecords", IndexedStoreTest::compactionKeepsLiveRecords);
+        tests.put("indexesFollowEdits", IndexedStoreTest::indexesFollowEdits);
+        int failed = 0;
+        for (Map.Entry<String, Test> test : tests.entrySet()) {
+            Path dir = Files.createTempDirectory("store-test");
+            try {
+                test.getValue().run(new IndexedStoreTest(dir));
+                System.out.println("ok   " + test.getKey());
+            } catch (Exception | AssertionError e) {
+                failed++;
+                System.out.println("FAIL " + test.getKey() + ": " + e);
+            } finally {
+                deleteTree(dir);
+            }
+        }
+        System.out.println((tests.size() - failed) + " of " + tests.size() + " tests passed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * One test.
+     */
+    @FunctionalInterface
+    private interface Test {
+
+        /**
+         * Runs the test.
+         *
+         * @param t the test context
+         * @throws Exception if the test fails unexpectedly
+         */
+        void run(IndexedStoreTest t) throws Exception;
+    }
+
+    /**
+     * Saves a library with shared photos, captions, tags and smart albums,
+     * and reads the same library back from a reopened store.
+     *
+     * @throws IOException if the store fails
+     */
+    private void roundTrip() throws IOException {
+        List<User> users = List.of(sampleUser("ann"), sampleUser("bob"));
+        try (IndexedStore store = open()) {
+            store.save(locks, users);
+        }
+        try (IndexedStore store = open()) {
+            check(describe(byName(users)).equals(describe(store.loadAll())), "library differs after reopening");
+            User ann = store.load("ann");
+            check(ann != null && ann.getAlbums().size() == 3, "single user load");
+            Album trip = store.loadAlbum("ann", "TRIP");
+            check(trip != null && trip.getPhotos().size() == 2, "single album load ignores letter case");
+            check(store.load("nobody") == null && store.loadAlbum("ann", "none") == null, "missing keys");
+        }
+    }
+
+    /**
+     * Two photo objects of one user with the same file path, each with its
+     * own caption and tags, stay two photos.
+     *
+     * @throws IOException if the store fails
+     */
+    private void samePathStaysTwoPhotos() throws IOException {
+        User user = new User("ann", "pw");
+        Photo first = photo("/photos/same.jpg", 1);
+        Photo second = photo("/photos/same.jpg", 2);
+        first.setCaption("in x");
+        second.setCaption("in y");
+        second.addTag("person", "bob");
+        user.addAlbum(album("x", first));
+        user.addAlbum(album("y", second));
+        try (IndexedStore store = open()) {
+            store.save(locks, List.of(user));
+        }
+        try (IndexedStore store = open()) {
+            User loaded = store.load("ann");
+            Photo x = loaded.getAlbum("x").getPhotos().get(0);
+            Photo y = loaded.getAlbum("y").getPhotos().get(0);
+            check(x != y, "photos were merged");
+            check("in x".equals(x.getCaption()) && x.getTags().isEmpty(), "first photo: " + x.getCaption());
+            check("in y".equals(y.getCaption()) && y.getTags().size() == 1, "second photo: " + y.getCaption());
+            check(store.findByTag("person", "bob").size() == 1, "tag index holds one photo");
+        }
+    }
+
+    /**
+     * A save after editing one photo appends only that photo's record, and
+     * a save with no edits, or with edits that were undone, appends nothing,
+     * also after reopening the store.
+     *
+     * @throws IOException if the store fails
+     */
+    private void unchangedRecordsAreNotRewritten() throws IOException {
+        try (IndexedStore store = open()) {
+            store.save(locks, List.of(sampleUser("ann")));
+        }
+        try (IndexedStore store = open()) {
+            Map<String, User> users = store.loadAll();
+            long size = store.sizeOnDisk();
+            check(store.save(locks, users.values()) == 0 && store.sizeOnDisk() == size, "unchanged user was written");
+
+            User ann = users.get("ann");
+            ann.getAlbum("trip").getPhotos().get(0).setCaption("edited");
+            store.save(locks, users.values());
+            long grown = store.sizeOnDisk() - size;
+            check(grown > 0 && grown < 200, "editing one caption appended " + grown + " bytes");
+
+            // An edit undone before the next save moves the change count but matches the stored records.
+            size = store.sizeOnDisk();
+            Photo photo = ann.getAlbum("trip").getPhotos().get(0);
+            photo.setCaption("undone");
+            photo.setCaption("edited");
+            check(store.save(locks, users.values()) == 1 && store.sizeOnDisk() == size, "undone edit was written");
+        }
+        try (IndexedStore store = open()) {
+            check("edited".equals(store.load("ann").getAlbum("trip").getPhotos().get(0).getCaption()),
+                    "edit lost");
+        }
+    }
+
+    /**
+     * A save cut short before its commit marker is dropped when the store
+     * is reopened, and the previous save is loaded intact.
+     *
+     * @throws IOException if the store fails
+     */
+    private void tornTailIsDropped() throws IOException {
+        List<User> users = List.of(sampleUser("ann"));
+        long committed;
+        try (IndexedStore store = open()) {
+            store.save(locks, users);
+            committed = store.sizeOnDisk();
+        }
+        String before = describe(byName(users));
+
+        User changed = sampleUser("ann");
+        changed.getAlbum("trip").getPhotos().get(0).setCaption("never committed");
+        try (IndexedStore store = open()) {
+            store.save(locks, List.of(changed));
+        }
+        // Cut the second save off in the middle of its first record.
+        try (FileChannel log = FileChannel.open(logFile(), StandardOpenOption.WRITE)) {
+            log.truncate(committed + 7);
+        }
+        try (IndexedStore store = open()) {
+            check(store.sizeOnDisk() == committed, "tail not cut off: " + store.sizeOnDisk());
+            check(before.equals(describe(store.loadAll())), "previous save not intact");
+        }
+
+        // Records written completely but without a commit marker are dropped too.
+        try (IndexedStore store = open()) {
+            store.save(locks, List.of(changed));
+        }
+        try (FileChannel log = FileChannel.open(logFile(), StandardOpenOption.WRITE)) {
+            log.truncate(log.size() - 1);
+        }
+        try (IndexedStore store = open()) {
+            check(store.sizeOnDisk() == committed, "uncommitted records kept");
+            check(before.equals(describe(store.loadAll())), "previous save not intact");
+        }
+    }
+
+    /**
+     * A record whose checksum does not match ends the replay there, and the
+     * saves before it are kept.
+     *
+     * @throws IOException if the store fails
+     */
+    private void damagedRecordIsDropped() throws IOException {
+        List<User> users = List.of(sampleUser("ann"));
+        long committed;
+        try (IndexedStore store = open()) {
+            store.save(locks, users);
+            committed = store.sizeOnDisk();
+            store.save(locks, List.of(sampleUser("ann"), sampleUser("bob")));
+        }
+        try (FileChannel log = FileChannel.open(logFile(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            log.read(b, committed + 12);
+            b.put(0, (byte) (b.get(0) ^ 0x55));
+            log.write(b.rewind(), committed + 12);
+        }
+        try (IndexedStore store = open()) {
+            check(store.sizeOnDisk() == committed, "damaged save kept");
+            check(describe(byName(users)).equals(describe(store.loadAll())), "previous save not intact");
+        }
+    }
+
+    /**
+     * Many saves that replace every photo record make the log compact
+     * itself, and the compacted log holds the latest library.
+     *
+     * @throws IOException if the store fails
+     */
+    private void compactionKeepsLiveRecords() throws IOException {
+        User user = new User("ann", "pw");
+        List<Photo> photos = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            photos.add(photo("/photos/p" + i + ".jpg", i));
+        }
+        Album album = new Album("all");
+        album.addPhotos(photos);
+        user.addAlbum(album);
+        user.addAlbum(new SmartAlbum("sevens", new PhotoSearch(new Tag("round", "7"), null,
+                PhotoSearch.Operator.NONE, null, null)));
+        long largest = 0;
+        try (IndexedStore store = open()) {
+            for (int round = 0; round < 40; round++) {
+                for (Photo photo : photos) {
+                    photo.setCaption("round " + round + " of a caption long enough to grow the log quickly");
+                }
+                photos.get(round).addTag("round", String.valueOf(round));
+                store.save(locks, List.of(user));
+                largest = Math.max(largest, store.sizeOnDisk());
+            }
+            check(store.sizeOnDisk() < largest, "log never compacted: " + largest);
+            check(!Files.exists(dir.resolve("store").resolve("library.log.compact")), "compaction file left behind");
+            check(store.findByTag("round", "7").size() == 1, "tag index after compaction");
+            check("round 39 of a caption long enough to grow the log quickly"
+                    .equals(store.loadAlbum("ann", "all").getPhotos().get(1999).getCaption()), "read after compaction");
+        }
+        try (IndexedStore store = open()) {
+            check(describe(byName(List.of(user))).equals(describe(store.loadAll())), "library differs after compaction");
+        }
+    }
+
+    /**
+     * The tag and date indexes follow edits and deletions, across reopening.
+     *
+     * @throws IOException if the store fails
+     */
+    private void indexesFollowEdits() throws IOException {
+        User user = sampleUser("ann");
+        try (IndexedStore store = open()) {
+            store.save(locks, List.of(user));
+            check(store.findByTag("PERSON", "Maya").size() == 2, "tag lookup ignores letter case");
+            check(store.findTakenBetween(day(2), day(3)).size() == 2, "date range");
+            Photo photo = user.getAlbum("trip").getPhotos().get(0);
+            photo.removeTag("person", "maya");
+            store.save(locks, List.of(user));
+            check(store.findByTag("person", "maya").size() == 1, "removed tag still indexed");
+            List<IndexedStore.PhotoRef> refs = store.findByTag("person", "maya");
+            Photo loaded = store.loadPhoto("ann", refs.get(0).id());
+            check(loaded != null && loaded.getTags().contains(new Tag("person", "maya")), "load by id");
+        }
+        try (IndexedStore store = open()) {
+            check(store.findByTag("person", "maya").size() == 1, "tag index after reopening");
+            store.save(locks, List.of());
+            check(store.findByTag("person", "maya").isEmpty() && store.findTakenBetween(day(0), day(9)).isEmpty(),
+                    "deleted user still indexed");
+            check(!store.exists(), "deleted user still stored");
+        }
+    }
+
+    /**
+     * Opens the store in the test directory.
+     *
+     * @return the store
+     */
+    private IndexedStore open() {
+        return new IndexedStore(dir.resolve("store"), new SerializedStore(dir.resolve("legacy.dat")));
+    }
+
+    /**
+     * Returns the store's log file.
+     *
+     * @return the log file
+     */
+    private Path logFile() {
+        return dir.resolve("store").resolve("library.log");
+    }
+
+    /**
+     * Builds a user with three albums: two sharing a photo, and a smart one.
+     *
+     * @param name the username
+     * @return the user
+     */
+    private static User sampleUser(String name) {
+        Photo beach = photo("/photos/beach.jpg", 1);
+        Photo city = photo("/photos/city.jpg", 2);
+        Photo forest = photo("/photos/forest.jpg", 3);
+        beach.setCaption("first swim");
+        beach.addTag("person", "maya");
+        beach.addTag("location", "beach");
+        city.addTag("person", "maya");
+        forest.addTag("person", "omar");
+        User user = new User(name, "secret");
+        user.addAlbum(album("trip", beach, city));
+        user.addAlbum(album("best", forest, beach));
+        user.addAlbum(new SmartAlbum("maya", new PhotoSearch(new Tag("person", "maya"), null,
+                PhotoSearch.Operator.NONE, null, null)));
+        return user;
+    }
+
+    /**
+     * Builds an album holding some photos.
+     *
+     * @param name the album name
+     * @param photos the photos
+     * @return the album
+     */
+    private static Album album(String name, Photo... photos) {
+        Album album = new Album(name);
+        album.addPhotos(List.of(photos));
+        return album;
+    }
+
+    /**
+     * Builds a photo without a file, taken at noon on a day of January 2024.
+     *
+     * @param path the file path
+     * @param day the day of the month
+     * @return the photo
+     */
+    private static Photo photo(String path, int day) {
+        return new Photo(path, calendar(day), 1000 + day);
+    }
+
+    /**
+     * Returns noon on a day of January 2024, in the default time zone.
+     *
+     * @param day the day of the month
+     * @return the time
+     */
+    private static Calendar calendar(int day) {
+        Calendar c = Calendar.getInstance();
+        c.clear();
+        c.set(2024, Calendar.JANUARY, day, 12, 0);
+        return c;
+    }
+
+    /**
+     * Returns a day of January 2024.
+     *
+     * @param day the day of the month
+     * @return the date
+     */
+    private static LocalDate day(int day) {
+        return LocalDate.of(2024, 1, Math.max(1, day));
+    }
+
+    /**
+     * Lists users by name.
+     *
+     * @param users the users
+     * @return the users by username
+     */
+    private static Map<String, User> byName(List<User> users) {
+        Map<String, User> map = new TreeMap<>();
+        users.forEach(u -> map.put(u.getUsername(), u));
+        return map;
+    }
+
+    /**
+     * Describes a library: every user, album and photo field the store keeps,
+     * with each photo numbered by identity so shared photos show up.
+     *
+     * @param users the users by username
+     * @return the description
+     */
+    private static String describe(Map<String, User> users) {
+        StringBuilder text = new StringBuilder();
+        for (User user : new TreeMap<>(users).values()) {
+            Map<Photo, Integer> numbers = new IdentityHashMap<>();
+            text.append(user.getUsername()).append(' ').append(user.getPassword()).append('\n');
+            for (Album album : user.getAlbums()) {
+                text.append("  ").append(album).append('\n');
+                for (Photo photo : album.getPhotos()) {
+                    List<Tag> tags = new ArrayList<>(photo.getTags());
+                    tags.sort(Comparator.comparing(Tag::toString));
+                    text.append("    #").append(numbers.computeIfAbsent(photo, p -> numbers.size()))
+                            .append(' ').append(photo.getFilePath())
+                            .append(' ').append(photo.getDateTaken().getTimeInMillis())
+                            .append(' ').append(photo.getFileSize())
+                            .append(' ').append(photo.getCaption())
+                            .append(' ').append(tags).append('\n');
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Fails the running test unless a condition holds.
+     *
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     *
+     * @param dir the directory
+     * @throws IOException if a file cannot be deleted
+     */
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package model;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tests for the running {@link Usage} a {@link User} keeps as albums, photos
+ * and tags change.
+ * <p>
+ * Each test edits a small user through the public model and compares
+ * {@link User#getUsage()} with {@link User#recountUsage()}, which counts the
+ * same figures from scratch.
+ * </p>
+ */
+public final class UsageTest {
+
+    private UsageTest() {
+    }
+
+    /**
+     * Runs every test and exits with status 1 if any fails.
+     *
+     * @param args ignored
+     */
+    public static void main(String[] args) {
+        Map<String, Runnable> tests = new TreeMap<>();
+        tests.put("sharedPhotoCountsOnce", UsageTest::sharedPhotoCountsOnce);
+        tests.put("removalsUncount", UsageTest::removalsUncount);
+        tests.put("tagEditsAreCounted", UsageTest::tagEditsAreCounted);
+        tests.put("uncountedPhotoIsIgnored", UsageTest::uncountedPhotoIsIgnored);
+        int failed = 0;
+        for (Map.Entry<String, Runnable> test : tests.entrySet()) {
+            try {
+                test.getValue().run();
+                System.out.println("ok   " + test.getKey());
+            } catch (RuntimeException | AssertionError e) {
+                failed++;
+                System.out.println("FAIL " + test.getKey() + ": " + e);
+            }
+        }
+        System.out.println((tests.size() - failed) + " of " + tests.size() + " tests passed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * A photo in two albums is counted once, and stays counted until it
+     * leaves both.
+     */
+    private static void sharedPhotoCountsOnce() {
+        Photo beach = photo("/photos/beach.jpg", 1);
+        User user = new User("ana", "secret");
+        user.addAlbum(album("trip", beach));
+        user.addAlbum(album("best", beach));
+        checkUsage(user, new Usage(2, 1, 1001, 1));
+
+        user.getAlbum("trip").removePhoto(beach);
+        checkUsage(user, new Usage(2, 1, 1001, 1));
+        user.getAlbum("best").removePhoto(beach);
+        checkUsage(user, new Usage(2, 0, 0, 0));
+    }
+
+    /**
+     * Removing photos and albums takes their photos out of the figures.
+     */
+    private static void removalsUncount() {
+        Photo beach = photo("/photos/beach.jpg", 1);
+        Photo city = photo("/photos/city.jpg", 2);
+        Photo forest = photo("/photos/forest.jpg", 3);
+        User user = new User("ana", "secret");
+        user.addAlbum(album("trip", beach, city));
+        user.addAlbum(album("best", forest));
+        checkUsage(user, new Usage(2, 3, 3006, 3));
+
+        user.getAlbum("trip").removePhotos(List.of(beach, city));
+        checkUsage(user, new Usage(2, 1, 1003, 1));
+        user.removeAlbum("best");
+        checkUsage(user, new Usage(1, 0, 0, 0));
+    }
+
+    /**
+     * Adding and removing tags on a counted photo changes the tag count.
+     */
+    private static void tagEditsAreCounted() {
+        Photo beach = photo("/photos/beach.jpg", 1);
+        User user = new User("ana", "secret");
+        user.addAlbum(album("trip", beach));
+        beach.addTag("person", "omar");
+        beach.removeTag("location", "beach");
+        user.getAlbum("trip").addPhoto(photo("/photos/city.jpg", 2));
+        checkUsage(user, new Usage(1, 2, 2003, 2));
+    }
+
+    /**
+     * Uncounting a photo the user never counted leaves the figures alone
+     * rather than taking its bytes and tags away.
+     */
+    private static void uncountedPhotoIsIgnored() {
+        Photo beach = photo("/photos/beach.jpg", 1);
+        User user = new User("ana", "secret");
+        user.addAlbum(album("trip", beach));
+
+        user.photoRemoved(photo("/photos/elsewhere.jpg", 9));
+        user.addAlbum(new Album("empty"));
+        checkUsage(user, new Usage(2, 1, 1001, 1));
+    }
+
+    /**
+     * Fails the running test unless the running usage matches both the
+     * expected figures and a recount.
+     *
+     * @param user the user
+     * @param expected the expected usage
+     */
+    private static void checkUsage(User user, Usage expected) {
+        check(user.getUsage().equals(expected), "usage " + user.getUsage() + ", expected " + expected);
+        check(user.recountUsage().equals(expected), "recount " + user.recountUsage() + ", expected " + expected);
+    }
+
+    /**
+     * Builds an album holding some photos.
+     *
+     * @param name the album name
+     * @param photos the photos
+     * @return the album
+     */
+    private static Album album(String name, Photo... photos) {
+        Album album = new Album(name);
+        album.addPhotos(List.of(photos));
+        return album;
+    }
+
+    /**
+     * Builds a photo without a file, taken on a day of January 2024 and
+     * tagged with one location.
+     *
+     * @param path the file path
+     * @param day the day of the month
+     * @return the photo
+     */
+    private static Photo photo(String path, int day) {
+        Calendar c = Calendar.getInstance();
+        c.clear();
+        c.set(2024, Calendar.JANUARY, day, 12, 0);
+        Photo photo = new Photo(path, c, 1000 + day);
+        photo.addTag("location", "beach");
+        return photo;
+    }
+
+    /**
+     * Fails the running test unless a condition holds.
+     *
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}